@@ -21,5 +21,29 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    @Bean(name = "analysisTaskExecutor")
+    public Executor analysisTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(50);
+        executor.setThreadNamePrefix("analysis-");
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(name = "routingTaskExecutor")
+    public Executor routingTaskExecutor() {
+        // CPU-bound graph searches: one thread per core, excess work waits in the queue
+        int processors = Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(processors);
+        executor.setMaxPoolSize(processors);
+        executor.setQueueCapacity(10000);
+        executor.setThreadNamePrefix("routing-");
+        executor.initialize();
+        return executor;
+    }
 }
 
@@ -0,0 +1,27 @@
+package com.example.gis.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+@Configuration
+public class HttpClientConfig {
+    @Value("${isochrone.http.connect-timeout-ms:2000}")
+    private long connectTimeoutMs;
+
+    /**
+     * Shared non-blocking client for routing providers; it keeps a connection pool per host,
+     * so all isochrone calls reuse the same keep-alive connections
+     */
+    @Bean
+    public HttpClient routingHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+}
@@ -11,7 +11,7 @@ public class WebSocketSecurityConfig extends AbstractSecurityWebSocketMessageBro
     protected void configureInbound(MessageSecurityMetadataSourceRegistry messages) {
         messages
                 // Allow subscription to device topics (can be made authenticated if needed)
-                .simpDestMatchers("/topic/devices/**", "/topic/geofences/**").permitAll()
+                .simpDestMatchers("/topic/devices/**", "/topic/geofences/**", "/topic/density").permitAll()
                 // Require authentication for sending messages
                 .simpDestMatchers("/app/**").authenticated()
                 // Allow connection (can be made authenticated if needed)
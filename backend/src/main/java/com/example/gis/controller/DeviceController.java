@@ -1,13 +1,19 @@
 package com.example.gis.controller;
 
+import com.example.gis.dto.LiveDensityFrame;
+import com.example.gis.dto.MatchedTrace;
 import com.example.gis.entity.Device;
 import com.example.gis.service.DeviceService;
+import com.example.gis.service.LiveDensityService;
+import com.example.gis.service.MapMatchingService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -18,6 +24,8 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class DeviceController {
     private final DeviceService deviceService;
+    private final LiveDensityService liveDensityService;
+    private final MapMatchingService mapMatchingService;
 
     @GetMapping
     @Operation(summary = "List devices", description = "Get all devices")
@@ -25,12 +33,39 @@ public class DeviceController {
         return ResponseEntity.ok(deviceService.findAll());
     }
 
+    @GetMapping("/density")
+    @Operation(summary = "Live device density",
+               description = "Current rolling density grid; updates are streamed as diffs on /topic/density")
+    public ResponseEntity<LiveDensityFrame> density() {
+        return ResponseEntity.ok(liveDensityService.snapshot());
+    }
+
     @GetMapping("/{id}")
     @Operation(summary = "Get device by ID")
     public ResponseEntity<Device> findById(@PathVariable UUID id) {
         return ResponseEntity.ok(deviceService.findById(id));
     }
 
+    @GetMapping("/{id}/matched")
+    @Operation(summary = "Live matched trace",
+               description = "Recent positions of a device snapped to the road network (bounded live window)")
+    public ResponseEntity<MatchedTrace> liveMatched(@PathVariable UUID id) {
+        deviceService.findById(id);
+        return ResponseEntity.ok(mapMatchingService.liveTrace(id));
+    }
+
+    @GetMapping("/{id}/matched-trace")
+    @Operation(summary = "Match stored trace",
+               description = "Snap the positions a device recorded in [from, to) to the road network")
+    public ResponseEntity<MatchedTrace> matchedTrace(
+            @PathVariable UUID id,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+            @RequestParam(required = false) UUID networkLayerId) {
+        deviceService.findById(id);
+        return ResponseEntity.ok(mapMatchingService.matchStored(id, from, to, networkLayerId));
+    }
+
     @PostMapping("/position")
     @Operation(summary = "Update device position", description = "Update device position and broadcast via WebSocket (for tracking)")
     public ResponseEntity<Device> updatePosition(@RequestBody Map<String, Object> request) {
@@ -11,12 +11,14 @@ import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/features")
@@ -75,7 +77,7 @@ public class FeatureController {
     }
 
     @GetMapping("/cluster")
-    @Operation(summary = "Get clustered features", description = "Get features clustered by zoom level and bounding box")
+    @Operation(summary = "Get clustered features", description = "Get features clustered by zoom level and bounding box (grid), from incrementally maintained per-zoom cells (cells) or the density pyramid (density), density (dbscan) or k-means, in the JVM or pushed down to PostGIS")
     public ResponseEntity<List<ClusterPoint>> getClusteredFeatures(
             @RequestParam UUID layerId,
             @RequestParam(required = false) Integer zoom,
@@ -83,7 +85,12 @@ public class FeatureController {
             @RequestParam(required = false) Double minLat,
             @RequestParam(required = false) Double maxLng,
             @RequestParam(required = false) Double maxLat,
-            @RequestParam(required = false) Integer clusterRadius) {
+            @RequestParam(required = false) Integer clusterRadius,
+            @RequestParam(required = false, defaultValue = "grid") String mode,
+            @RequestParam(required = false, defaultValue = "auto") String execution,
+            @RequestParam(required = false) Double epsMeters,
+            @RequestParam(required = false) Integer minPts,
+            @RequestParam(required = false) Integer k) {
         
         ClusterRequest request = new ClusterRequest();
         request.setLayerId(layerId);
@@ -93,8 +100,25 @@ public class FeatureController {
         request.setMaxLng(maxLng);
         request.setMaxLat(maxLat);
         request.setClusterRadius(clusterRadius);
+        request.setMode(mode);
+        request.setExecution(execution);
+        request.setEpsMeters(epsMeters);
+        request.setMinPts(minPts);
+        request.setK(k);
         
         return ResponseEntity.ok(clusteringService.clusterFeatures(request));
     }
+
+    @GetMapping(value = "/clusters/{z}/{x}/{y}.mvt", produces = "application/vnd.mapbox-vector-tile")
+    @Operation(summary = "Get cluster vector tile", description = "Clusters of one tile as a Mapbox Vector Tile (layer \"clusters\" with point_count, point_count_abbreviated and cluster properties)")
+    public ResponseEntity<byte[]> getClusterTile(
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam UUID layerId) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(60, TimeUnit.SECONDS))
+                .body(clusteringService.getClusterTile(layerId, z, x, y));
+    }
 }
 
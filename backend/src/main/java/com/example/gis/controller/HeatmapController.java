@@ -1,17 +1,24 @@
 package com.example.gis.controller;
 
+import com.example.gis.dto.HeatmapFrames;
 import com.example.gis.dto.HeatmapPoint;
 import com.example.gis.dto.HeatmapRequest;
+import com.example.gis.dto.KdeGrid;
+import com.example.gis.dto.KdeRequest;
 import com.example.gis.service.HeatmapService;
+import com.example.gis.service.KernelDensityService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/heatmap")
@@ -19,6 +26,7 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class HeatmapController {
     private final HeatmapService heatmapService;
+    private final KernelDensityService kernelDensityService;
 
     @PostMapping
     @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
@@ -27,6 +35,22 @@ public class HeatmapController {
         return ResponseEntity.ok(heatmapService.generateHeatmap(request));
     }
 
+    @PostMapping("/frames")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Generate heatmap animation frames",
+               description = "Time-sliced heatmap grids (Float32) binned by a time property in one pass")
+    public ResponseEntity<HeatmapFrames> generateFrames(@RequestBody HeatmapRequest request) {
+        return ResponseEntity.ok(heatmapService.generateFrames(request));
+    }
+
+    @PostMapping("/kde")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Kernel density estimate",
+               description = "Adaptive-bandwidth (k-nearest-neighbour) KDE grid in points per km²")
+    public ResponseEntity<KdeGrid> estimateDensity(@RequestBody KdeRequest request) {
+        return ResponseEntity.ok(kernelDensityService.estimate(request));
+    }
+
     @GetMapping
     @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
     @Operation(summary = "Generate heatmap (GET)", description = "Generate heatmap data using query parameters")
@@ -39,7 +63,10 @@ public class HeatmapController {
             @RequestParam(required = false) Double maxLat,
             @RequestParam(required = false, defaultValue = "256") Integer gridSize,
             @RequestParam(required = false, defaultValue = "20.0") Double radius,
-            @RequestParam(required = false, defaultValue = "1.0") Double intensity) {
+            @RequestParam(required = false, defaultValue = "1.0") Double intensity,
+            @RequestParam(required = false) String weightProperty,
+            @RequestParam(required = false, defaultValue = "max") String normalization,
+            @RequestParam(required = false, defaultValue = "99.0") Double percentile) {
         
         HeatmapRequest request = new HeatmapRequest();
         request.setLayerId(layerId);
@@ -51,8 +78,44 @@ public class HeatmapController {
         request.setGridSize(gridSize);
         request.setRadius(radius);
         request.setIntensity(intensity);
+        request.setWeightProperty(weightProperty);
+        request.setNormalization(normalization);
+        request.setPercentile(percentile);
         
         return ResponseEntity.ok(heatmapService.generateHeatmap(request));
     }
-}
 
+    @GetMapping(value = "/{layerId}/{z}/{x}/{y}.png", produces = MediaType.IMAGE_PNG_VALUE)
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Heatmap tile (PNG)", description = "Render the point density of one web-mercator tile with a server-side colour ramp (heat, viridis, magma, grayscale); maxIntensity is the density mapped to the top of the ramp; radius is in pixels, at most 128")
+    public ResponseEntity<byte[]> getHeatmapTile(
+            @PathVariable UUID layerId,
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam(required = false, defaultValue = "20.0") Double radius,
+            @RequestParam(required = false, defaultValue = "1.0") Double intensity,
+            @RequestParam(required = false) String weightProperty,
+            @RequestParam(required = false, defaultValue = "10.0") Double maxIntensity,
+            @RequestParam(required = false, defaultValue = "heat") String ramp) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(60, TimeUnit.SECONDS))
+                .body(heatmapService.renderTilePng(layerId, z, x, y, radius, intensity, weightProperty, maxIntensity, ramp));
+    }
+
+    @GetMapping(value = "/{layerId}/{z}/{x}/{y}.bin", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Heatmap tile (Float32)", description = "Raw density of one web-mercator tile as 256x256 little-endian Float32 values, row-major from the north-west corner")
+    public ResponseEntity<byte[]> getHeatmapTileRaw(
+            @PathVariable UUID layerId,
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam(required = false, defaultValue = "20.0") Double radius,
+            @RequestParam(required = false, defaultValue = "1.0") Double intensity,
+            @RequestParam(required = false) String weightProperty) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(60, TimeUnit.SECONDS))
+                .body(heatmapService.renderTileFloat32(layerId, z, x, y, radius, intensity, weightProperty));
+    }
+}
@@ -1,15 +1,27 @@
 package com.example.gis.controller;
 
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.dto.BatchIsochroneRequest;
+import com.example.gis.dto.CoverageRequest;
 import com.example.gis.dto.IsochroneRequest;
+import com.example.gis.dto.LocationAllocationRequest;
 import com.example.gis.dto.IsochroneResponse;
+import com.example.gis.service.BatchIsochroneService;
+import com.example.gis.service.CoverageService;
 import com.example.gis.service.IsochroneService;
+import com.example.gis.service.LocationAllocationService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/isochrone")
@@ -17,10 +29,13 @@ import org.springframework.web.bind.annotation.*;
 @RequiredArgsConstructor
 public class IsochroneController {
     private final IsochroneService isochroneService;
+    private final BatchIsochroneService batchIsochroneService;
+    private final CoverageService coverageService;
+    private final LocationAllocationService locationAllocationService;
 
     @PostMapping
     @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
-    @Operation(summary = "Calculate isochrone", description = "Calculate isochrone from a point (stub implementation)")
+    @Operation(summary = "Calculate isochrone", description = "Calculate isochrone from a point, routed on a road network layer when one is given")
     public ResponseEntity<IsochroneResponse> calculateIsochrone(@Valid @RequestBody IsochroneRequest request) {
         return ResponseEntity.ok(isochroneService.calculateIsochrone(request));
     }
@@ -34,7 +49,8 @@ public class IsochroneController {
             @RequestParam(required = false) String contours, // Comma-separated values
             @RequestParam(required = false, defaultValue = "driving") String profile,
             @RequestParam(required = false, defaultValue = "true") Boolean denoise,
-            @RequestParam(required = false, defaultValue = "0.0") Double generalize) {
+            @RequestParam(required = false, defaultValue = "0.0") Double generalize,
+            @RequestParam(required = false) UUID networkLayerId) {
         
         IsochroneRequest request = new IsochroneRequest();
         request.setLongitude(longitude);
@@ -42,6 +58,7 @@ public class IsochroneController {
         request.setProfile(profile);
         request.setDenoise(denoise);
         request.setGeneralize(generalize);
+        request.setNetworkLayerId(networkLayerId);
         
         if (contours != null && !contours.isEmpty()) {
             request.setContours(java.util.Arrays.stream(contours.split(","))
@@ -51,5 +68,29 @@ public class IsochroneController {
         
         return ResponseEntity.ok(isochroneService.calculateIsochrone(request));
     }
-}
 
+    @PostMapping("/batch")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Batch isochrones", description = "Network isochrones for many origins, streamed as NDJSON as each origin completes, optionally followed by the union per contour value")
+    public ResponseEntity<StreamingResponseBody> calculateBatch(@RequestBody BatchIsochroneRequest request) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(batchIsochroneService.calculateBatch(request));
+    }
+
+    @PostMapping("/coverage")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Service-area coverage",
+               description = "Label demand points with their nearest facility and travel time and report coverage per threshold; poll /api/jobs/{id}")
+    public ResponseEntity<AnalysisJob> coverage(@RequestBody CoverageRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(coverageService.analyze(request));
+    }
+
+    @PostMapping("/location-allocation")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Location-allocation",
+               description = "Choose the best p candidate sites (p-median or max-coverage) and write them to a new layer; poll /api/jobs/{id}")
+    public ResponseEntity<AnalysisJob> locationAllocation(@RequestBody LocationAllocationRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(locationAllocationService.solve(request));
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.gis.controller;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.service.AnalysisJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/jobs")
+@Tag(name = "Jobs", description = "Background analysis job APIs")
+@RequiredArgsConstructor
+public class JobController {
+    private final AnalysisJobService analysisJobService;
+
+    @GetMapping
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "List jobs", description = "Background jobs of the last hour, newest first")
+    public ResponseEntity<List<AnalysisJob>> findAll() {
+        return ResponseEntity.ok(analysisJobService.findAll());
+    }
+
+    @GetMapping("/{id}")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Get job", description = "Status and progress of a background job")
+    public ResponseEntity<AnalysisJob> getJob(@PathVariable UUID id) {
+        return ResponseEntity.ok(analysisJobService.getJob(id));
+    }
+
+    @PostMapping("/{id}/cancel")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Cancel job", description = "Cancel a pending job, or stop a running one at its next progress report")
+    public ResponseEntity<AnalysisJob> cancel(@PathVariable UUID id) {
+        return ResponseEntity.ok(analysisJobService.cancel(id));
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.gis.controller;
 
 import com.example.gis.dto.LayerDto;
+import com.example.gis.service.ClusterCellService;
+import com.example.gis.service.DensityPyramidService;
 import com.example.gis.service.LayerService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -20,6 +22,8 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class LayerController {
     private final LayerService layerService;
+    private final ClusterCellService clusterCellService;
+    private final DensityPyramidService densityPyramidService;
 
     @GetMapping
     @Operation(summary = "List layers", description = "Get paginated list of all layers")
@@ -62,6 +66,24 @@ public class LayerController {
         return ResponseEntity.ok(layerService.update(id, dto));
     }
 
+    @PostMapping("/{id}/cluster-cells/rebuild")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Rebuild cluster cells", description = "Rebuild the per-zoom cluster cell aggregates of a layer in the background (ADMIN/EDITOR only)")
+    public ResponseEntity<Void> rebuildClusterCells(@PathVariable UUID id) {
+        layerService.findById(id);
+        clusterCellService.buildInBackground(id);
+        return ResponseEntity.accepted().build();
+    }
+
+    @PostMapping("/{id}/density-pyramid/rebuild")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Rebuild density pyramid", description = "Rebuild the per-zoom point count pyramid of a layer in the background (ADMIN/EDITOR only)")
+    public ResponseEntity<Void> rebuildDensityPyramid(@PathVariable UUID id) {
+        layerService.findById(id);
+        densityPyramidService.buildInBackground(id);
+        return ResponseEntity.accepted().build();
+    }
+
     @DeleteMapping("/{id}")
     @PreAuthorize("hasRole('ADMIN')")
     @Operation(summary = "Delete layer", description = "Soft delete a layer (ADMIN only)")
@@ -1,26 +1,41 @@
 package com.example.gis.controller;
 
+import com.example.gis.dto.AnalysisJob;
 import com.example.gis.dto.RasterAnalysisRequest;
 import com.example.gis.dto.RasterAnalysisResponse;
+import com.example.gis.dto.ZonalStatisticsRequest;
+import com.example.gis.service.RasterAlgebraService;
 import com.example.gis.service.RasterAnalysisService;
+import com.example.gis.service.RasterSourceService;
+import com.example.gis.service.ZonalStatisticsService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 @RestController
 @RequestMapping("/api/raster")
-@Tag(name = "Raster Analysis", description = "Raster analysis APIs (stub implementation)")
+@Tag(name = "Raster Analysis", description = "Raster analysis APIs")
 @RequiredArgsConstructor
 public class RasterAnalysisController {
     private final RasterAnalysisService rasterAnalysisService;
+    private final RasterSourceService rasterSourceService;
+    private final ZonalStatisticsService zonalStatisticsService;
+    private final RasterAlgebraService rasterAlgebraService;
 
     @PostMapping("/analyze")
     @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
-    @Operation(summary = "Analyze raster", description = "Perform raster analysis (elevation, slope, aspect, hillshade) - stub implementation")
+    @Operation(summary = "Analyze raster", description = "Perform raster analysis (elevation, slope, aspect, hillshade) of a DEM stored in MinIO")
     public ResponseEntity<RasterAnalysisResponse> analyzeRaster(@Valid @RequestBody RasterAnalysisRequest request) {
         return ResponseEntity.ok(rasterAnalysisService.analyzeRaster(request));
     }
@@ -35,7 +50,9 @@ public class RasterAnalysisController {
             @RequestParam(required = false) Double minLat,
             @RequestParam(required = false) Double maxLng,
             @RequestParam(required = false) Double maxLat,
-            @RequestParam(required = false, defaultValue = "256") Integer resolution) {
+            @RequestParam(required = false, defaultValue = "256") Integer resolution,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) String colorRamp) {
         
         RasterAnalysisRequest request = new RasterAnalysisRequest();
         request.setRasterSource(rasterSource);
@@ -45,8 +62,102 @@ public class RasterAnalysisController {
         request.setMaxLng(maxLng);
         request.setMaxLat(maxLat);
         request.setResolution(resolution);
+        request.setFormat(format);
+        request.setColorRamp(colorRamp);
         
         return ResponseEntity.ok(rasterAnalysisService.analyzeRaster(request));
     }
-}
 
+    @GetMapping(value = "/algebra/{z}/{x}/{y}.png", produces = MediaType.IMAGE_PNG_VALUE)
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Map algebra tile (PNG)",
+               description = "One web-mercator tile of a map-algebra expression (steps separated by ';') over rasterSource (named elevation) and rasters given as name=source; programs over the MapAlgebra length, nesting or halo limits are rejected")
+    public ResponseEntity<byte[]> getAlgebraTile(
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam String expression,
+            @RequestParam(required = false) String rasterSource,
+            @RequestParam(required = false) List<String> rasters,
+            @RequestParam(required = false) String colorRamp,
+            @RequestParam(required = false) Double min,
+            @RequestParam(required = false) Double max,
+            @RequestParam(required = false, defaultValue = "1.0") Double zFactor) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(60, TimeUnit.SECONDS))
+                .body(rasterAlgebraService.renderTile(expression, rasterSource, rasters, z, x, y, colorRamp,
+                        min, max, zFactor));
+    }
+
+    @PostMapping("/algebra")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Store map algebra raster",
+               description = "Start a job evaluating the operations of the request at full resolution and storing the result as a new raster source; poll /api/jobs/{id}")
+    public ResponseEntity<AnalysisJob> storeAlgebra(@RequestBody RasterAnalysisRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(rasterAlgebraService.store(request));
+    }
+
+    @GetMapping(value = "/{source}/{analysisType}/{z}/{x}/{y}.png", produces = MediaType.IMAGE_PNG_VALUE)
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Raster analysis tile (PNG)", description = "Elevation, slope, aspect or hillshade of one web-mercator tile; min and max fix the colour scale across tiles. Answers 409 for a raster not yet converted with POST /api/raster/tile")
+    public ResponseEntity<byte[]> getTile(
+            @PathVariable String source,
+            @PathVariable String analysisType,
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam(required = false) String colorRamp,
+            @RequestParam(required = false) Double min,
+            @RequestParam(required = false) Double max,
+            @RequestParam(required = false, defaultValue = "1.0") Double zFactor,
+            @RequestParam(required = false, defaultValue = "315.0") Double azimuth,
+            @RequestParam(required = false, defaultValue = "45.0") Double altitude) {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(60, TimeUnit.SECONDS))
+                .body(rasterAnalysisService.renderTile(source, analysisType, z, x, y, colorRamp, min, max,
+                        zFactor, azimuth, altitude));
+    }
+
+    @GetMapping(value = "/{prefix}/{name}/{analysisType}/{z}/{x}/{y}.png", produces = MediaType.IMAGE_PNG_VALUE)
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Raster analysis tile (PNG) of an uploaded raster",
+               description = "Same as the single-segment form, for object keys of uploads (<prefix>/<name>)")
+    public ResponseEntity<byte[]> getUploadTile(
+            @PathVariable String prefix,
+            @PathVariable String name,
+            @PathVariable String analysisType,
+            @PathVariable int z,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam(required = false) String colorRamp,
+            @RequestParam(required = false) Double min,
+            @RequestParam(required = false) Double max,
+            @RequestParam(required = false, defaultValue = "1.0") Double zFactor,
+            @RequestParam(required = false, defaultValue = "315.0") Double azimuth,
+            @RequestParam(required = false, defaultValue = "45.0") Double altitude) {
+        return getTile(prefix + "/" + name, analysisType, z, x, y, colorRamp, min, max, zFactor, azimuth, altitude);
+    }
+
+    @PostMapping("/tile")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Tile raster",
+               description = "Convert an uploaded DEM into the tiled store with overviews ahead of analysis; poll /api/jobs/{id}")
+    public ResponseEntity<AnalysisJob> tile(@RequestParam String rasterSource) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(rasterSourceService.tile(rasterSource));
+    }
+
+    @PostMapping("/zonal-statistics")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Zonal statistics",
+               description = "Write count, sum, min, max, mean and histogram of raster values under each feature of a layer into its properties; poll /api/jobs/{id}")
+    public ResponseEntity<AnalysisJob> zonalStatistics(@RequestBody ZonalStatisticsRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(zonalStatisticsService.analyze(request));
+    }
+
+    @GetMapping("/cache")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Raster tile cache statistics")
+    public ResponseEntity<Map<String, Object>> cacheStatistics() {
+        return ResponseEntity.ok(rasterSourceService.getCacheStatistics());
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.gis.controller;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.dto.RouteOptimizationRequest;
+import com.example.gis.dto.RouteResponse;
+import com.example.gis.dto.TravelTimeMatrixRequest;
+import com.example.gis.dto.TravelTimeMatrixResponse;
+import com.example.gis.service.RouteOptimizationService;
+import com.example.gis.service.RoutingService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/routing")
+@Tag(name = "Routing", description = "Road network routing APIs")
+@RequiredArgsConstructor
+public class RoutingController {
+    private final RoutingService routingService;
+    private final RouteOptimizationService routeOptimizationService;
+
+    @PostMapping("/matrix")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Travel-time matrix", description = "Many-to-many travel times on a road network layer")
+    public ResponseEntity<TravelTimeMatrixResponse> matrix(@RequestBody TravelTimeMatrixRequest request) {
+        return ResponseEntity.ok(routingService.matrix(request));
+    }
+
+    @GetMapping("/route")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR') or hasRole('VIEWER')")
+    @Operation(summary = "Travel time", description = "Travel time between two locations on a road network layer")
+    public ResponseEntity<RouteResponse> route(
+            @RequestParam UUID networkLayerId,
+            @RequestParam double fromLng,
+            @RequestParam double fromLat,
+            @RequestParam double toLng,
+            @RequestParam double toLat,
+            @RequestParam(required = false, defaultValue = "driving") String profile) {
+        return ResponseEntity.ok(routingService.route(networkLayerId, profile, fromLng, fromLat, toLng, toLat));
+    }
+
+    @PostMapping("/{networkLayerId}/preprocess")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Build contraction hierarchy",
+               description = "Start background preprocessing for fast routes and matrices; poll /api/jobs/{id}")
+    public ResponseEntity<AnalysisJob> preprocess(
+            @PathVariable UUID networkLayerId,
+            @RequestParam(required = false, defaultValue = "driving") String profile) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(routingService.preprocess(networkLayerId, profile));
+    }
+
+    @PostMapping("/optimize")
+    @PreAuthorize("hasRole('ADMIN') or hasRole('EDITOR')")
+    @Operation(summary = "Optimize vehicle routes",
+               description = "Order stops into routes for a fleet with capacities and time windows; poll /api/jobs/{id}, cancel with /api/jobs/{id}/cancel")
+    public ResponseEntity<AnalysisJob> optimize(@RequestBody RouteOptimizationRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(routeOptimizationService.optimize(request));
+    }
+}
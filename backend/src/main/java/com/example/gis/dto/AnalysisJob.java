@@ -0,0 +1,31 @@
+package com.example.gis.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnalysisJob {
+    private UUID id;
+    private String type; // e.g. contraction-hierarchy
+    private String description;
+    private JobStatus status;
+    private Double progress; // 0.0 to 1.0
+    private String message; // Failure reason, or a pending cancellation
+    private Map<String, Object> result; // Summary of the finished job
+    private OffsetDateTime createdAt;
+    private OffsetDateTime startedAt;
+    private OffsetDateTime finishedAt;
+
+    public enum JobStatus {
+        PENDING, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+}
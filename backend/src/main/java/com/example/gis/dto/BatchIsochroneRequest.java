@@ -0,0 +1,24 @@
+package com.example.gis.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+public class BatchIsochroneRequest {
+    private UUID networkLayerId; // LINE layer to route on; defaults to isochrone.network-layer-id
+    private String profile = "driving"; // Profile: driving, walking, cycling
+    private List<Integer> contours; // Contour values in seconds, used by origins without their own
+    private List<Origin> origins;
+    private Double generalize = 0.0; // Generalization tolerance in meters
+    private Boolean union = false; // Also return the dissolved union of all origins per contour value
+
+    @Data
+    public static class Origin {
+        private String id; // Caller's identifier, echoed back with the result
+        private Double longitude;
+        private Double latitude;
+        private List<Integer> contours; // Overrides the request contours for this origin
+    }
+}
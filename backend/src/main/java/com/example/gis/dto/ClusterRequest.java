@@ -13,5 +13,9 @@ public class ClusterRequest {
     private Double maxLng;
     private Double maxLat;
     private Integer clusterRadius; // Optional: pixels, default based on zoom
+    private String mode = "grid"; // Clustering mode: grid, cells, density, dbscan, kmeans
+    private String execution = "auto"; // Where clustering runs: auto, jvm, database
+    private Double epsMeters; // DBSCAN neighbourhood radius in meters
+    private Integer minPts; // DBSCAN minimum points for a core point
+    private Integer k; // K-means cluster count (database execution only)
 }
-
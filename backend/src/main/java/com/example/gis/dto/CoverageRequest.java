@@ -0,0 +1,18 @@
+package com.example.gis.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+public class CoverageRequest {
+    private UUID networkLayerId; // LINE layer to route on; defaults to isochrone.network-layer-id
+    private UUID facilityLayerId; // POINT layer of facilities (e.g. clinics)
+    private UUID demandLayerId; // POINT layer of demand (e.g. population points)
+    private String profile = "driving"; // Profile: driving, walking, cycling
+    private List<Integer> thresholds; // Travel-time thresholds in seconds (default 600)
+    private String weightProperty; // Numeric demand property to sum (e.g. population); counts when empty
+    private Boolean createLayer = true; // Write the labelled demand points to a new layer
+    private String layerName; // Name of the output layer
+}
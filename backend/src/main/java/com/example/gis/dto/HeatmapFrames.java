@@ -0,0 +1,24 @@
+package com.example.gis.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HeatmapFrames {
+    private Double minLng; // Grid extent
+    private Double minLat;
+    private Double maxLng;
+    private Double maxLat;
+    private Integer gridSize; // Frames are gridSize x gridSize
+    private Integer frameCount;
+    private Long bucketSeconds; // Time span of one frame
+    private Long cycleSeconds; // Cycle length for periodic frames (e.g. 86400 for hour of day), null for a timeline
+    private Long startTime; // Epoch seconds of the first frame (timeline only)
+    private Double maxIntensity; // Maximum over all frames, for a common colour scale
+    private byte[] data; // Little-endian Float32 frames stacked frame by frame, rows from minLat (gridY) upwards
+}
@@ -15,5 +15,12 @@ public class HeatmapRequest {
     private Integer gridSize = 256; // Grid resolution (default 256x256)
     private Double radius = 20.0; // Heat radius in pixels
     private Double intensity = 1.0; // Intensity multiplier
+    private String weightProperty; // Optional numeric feature property weighting each point
+    private String normalization = "max"; // Intensity normalization: max, percentile
+    private Double percentile = 99.0; // Percentile (0-100) mapped to full intensity when normalization is percentile
+    private String timeProperty; // Frames: property with epoch seconds or an ISO-8601 timestamp
+    private Long bucketSeconds; // Frames: time span of one frame
+    private Long cycleSeconds; // Frames: optional cycle length, e.g. 86400 for hour-of-day frames
+    private String timeZone = "UTC"; // Frames: zone in which cycles start
 }
 
@@ -3,6 +3,7 @@ package com.example.gis.dto;
 import lombok.Data;
 
 import java.util.List;
+import java.util.UUID;
 
 @Data
 public class IsochroneRequest {
@@ -12,5 +13,6 @@ public class IsochroneRequest {
     private String profile = "driving"; // Profile: driving, walking, cycling
     private Boolean denoise = true; // Denoise isochrone polygons
     private Double generalize = 0.0; // Generalization tolerance
+    private UUID networkLayerId; // LINE layer to route on (internal provider); defaults to isochrone.network-layer-id
 }
 
@@ -0,0 +1,25 @@
+package com.example.gis.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class KdeGrid {
+    private Double minLng; // Grid extent
+    private Double minLat;
+    private Double maxLng;
+    private Double maxLat;
+    private Integer width; // Cells
+    private Integer height;
+    private Double cellSizeMeters;
+    private Integer pointCount;
+    private Double minBandwidthMeters; // Range of the adaptive bandwidths actually used
+    private Double maxBandwidthMeters;
+    private Double maxDensity; // Points (or summed weight) per km²
+    private byte[] data; // Little-endian Float32 densities per km², rows from minLat upwards
+}
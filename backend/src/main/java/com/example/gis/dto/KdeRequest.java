@@ -0,0 +1,20 @@
+package com.example.gis.dto;
+
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+public class KdeRequest {
+    private UUID layerId;
+    private Double minLng; // Bounding box (optional, defaults to the extent of the layer)
+    private Double minLat;
+    private Double maxLng;
+    private Double maxLat;
+    private Integer gridSize = 512; // Cells along the longer side of the extent
+    private Integer neighbours = 15; // k: each point's bandwidth is the distance to its k-th nearest neighbour
+    private Double minBandwidth; // Meters; defaults to one grid cell
+    private Double maxBandwidth = 5000.0; // Meters
+    private String kernel = "quartic"; // quartic, gaussian
+    private String weightProperty; // Optional numeric feature property weighting each point
+}
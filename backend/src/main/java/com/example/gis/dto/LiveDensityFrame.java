@@ -0,0 +1,23 @@
+package com.example.gis.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.OffsetDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LiveDensityFrame {
+    private Long sequence; // Increments with every published frame; a gap means a missed diff
+    private Boolean keyframe; // True: the full grid, replacing client state; false: changed cells only
+    private Integer zoom; // Cells are the web-mercator tiles of this zoom
+    private Double halfLifeSeconds;
+    private OffsetDateTime timestamp;
+    private int[] x; // Cell (tile) columns
+    private int[] y; // Cell (tile) rows
+    private float[] values; // Decayed position count per cell; 0 removes the cell in a diff
+}
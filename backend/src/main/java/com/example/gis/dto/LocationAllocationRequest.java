@@ -0,0 +1,20 @@
+package com.example.gis.dto;
+
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+public class LocationAllocationRequest {
+    private UUID candidateLayerId; // POINT layer of candidate sites
+    private UUID demandLayerId; // POINT layer of demand points
+    private Integer facilities; // Number of sites to choose (p)
+    private String objective = "p-median"; // p-median (minimize weighted cost) or max-coverage
+    private String costType = "travel-time"; // travel-time (road network) or geodesic
+    private Double cutoff; // Seconds or meters; required for max-coverage, caps unreachable costs for p-median
+    private UUID networkLayerId; // LINE layer for travel-time costs; defaults to isochrone.network-layer-id
+    private String profile = "driving"; // Profile: driving, walking, cycling
+    private String weightProperty; // Numeric demand property (e.g. population); every point counts 1 when empty
+    private Integer maxIterations = 200; // Vertex substitution rounds
+    private String layerName; // Name of the output layer with the chosen sites
+}
@@ -0,0 +1,35 @@
+package com.example.gis.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MatchedTrace {
+    private UUID deviceId;
+    private UUID networkLayerId;
+    private String profile;
+    private Integer observations; // Raw positions considered
+    private List<MatchedPosition> positions; // Positions snapped to the road, oldest first
+    private String geometry; // GeoJSON LineString along the matched roads; null with fewer than two positions
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class MatchedPosition {
+        private Integer observation; // Index of the raw position the match belongs to
+        private Double longitude;
+        private Double latitude;
+        private Double offsetMeters; // Distance from the raw position
+        private OffsetDateTime recordedAt; // Null for live matches
+    }
+}
@@ -1,8 +1,10 @@
 package com.example.gis.dto;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
 import java.util.List;
+import java.util.Map;
 
 @Data
 public class RasterAnalysisRequest {
@@ -12,7 +14,14 @@ public class RasterAnalysisRequest {
     private Double minLat;
     private Double maxLng;
     private Double maxLat;
-    private Integer resolution = 256; // Output resolution
-    private List<String> operations; // Additional operations (e.g., ["normalize", "smooth"])
+    private Integer resolution = 256; // Output width and height in cells
+    private String format; // PNG (default), FLOAT32 (raw little-endian values) or STATISTICS (metadata only)
+    private String colorRamp; // heat, viridis, magma, grayscale; defaults per analysis type
+    @JsonProperty("zFactor") // Lombok's getZFactor would otherwise bind as "zfactor"
+    private Double zFactor; // Vertical exaggeration, elevation units per horizontal meter (default 1)
+    private Double azimuth; // Hillshade light direction, degrees clockwise from north (default 315)
+    private Double altitude; // Hillshade light angle above the horizon, degrees (default 45)
+    private List<String> operations; // Map-algebra program replacing analysisType: "name = expression" steps, then the output (e.g., ["ndvi = (nir - red) / (nir + red)", "where(ndvi > 0.3, ndvi, nodata)"])
+    private Map<String, String> rasters; // Further rasters of the operations by name (the raster source is "elevation")
 }
 
@@ -0,0 +1,44 @@
+package com.example.gis.dto;
+
+import lombok.Data;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+public class RouteOptimizationRequest {
+    private String costType = "travel-time"; // travel-time (road network) or geodesic
+    private UUID networkLayerId; // LINE layer for travel times; defaults to isochrone.network-layer-id
+    private String profile = "driving"; // Profile: driving, walking, cycling
+    private OffsetDateTime startTime; // Plan start; when set, stops also get ETAs
+    private Integer timeBudgetMillis; // Improvement time budget; defaults to gis.route-optimization.time-budget-ms
+    private Boolean geometry = true; // Return route geometries
+    private List<Vehicle> vehicles;
+    private List<Stop> stops;
+
+    @Data
+    public static class Vehicle {
+        private String id; // Caller's identifier; defaults to the device ID or the list index
+        private UUID deviceId; // Tracked device; its last position is the default start
+        private Double longitude; // Start location
+        private Double latitude;
+        private Double endLongitude; // End location; defaults to the start unless returnToStart is false
+        private Double endLatitude;
+        private Boolean returnToStart = true; // Without an end location: return to the start or end at the last stop
+        private Double capacity; // Unlimited when empty
+        private Integer shiftStart = 0; // Seconds from the plan start
+        private Integer shiftEnd; // Seconds from the plan start; unlimited when empty
+    }
+
+    @Data
+    public static class Stop {
+        private String id; // Caller's identifier; defaults to the list index
+        private Double longitude;
+        private Double latitude;
+        private Double demand = 0.0; // Load against vehicle capacity
+        private Integer serviceSeconds = 0;
+        private Integer earliest; // Window for the service start, seconds from the plan start
+        private Integer latest;
+    }
+}
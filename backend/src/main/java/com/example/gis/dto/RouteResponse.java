@@ -0,0 +1,18 @@
+package com.example.gis.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RouteResponse {
+    private Double durationSeconds; // Null when unreachable
+    private Double originSnapMeters;
+    private Double destinationSnapMeters;
+    private String profile;
+    private String method; // ch or dijkstra
+}
@@ -0,0 +1,14 @@
+package com.example.gis.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+public class TravelTimeMatrixRequest {
+    private UUID networkLayerId; // LINE layer to route on
+    private String profile = "driving"; // Profile: driving, walking, cycling
+    private List<List<Double>> sources; // [lng, lat] pairs
+    private List<List<Double>> destinations; // [lng, lat] pairs; defaults to the sources
+}
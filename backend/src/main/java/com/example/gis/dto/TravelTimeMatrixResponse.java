@@ -0,0 +1,20 @@
+package com.example.gis.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TravelTimeMatrixResponse {
+    private Double[][] durations; // Seconds, [source][destination]; null when unreachable or not snapped
+    private List<Double> sourceSnapMeters; // Distance of each source to its network node, null beyond the snap limit
+    private List<Double> destinationSnapMeters;
+    private String profile;
+    private String method; // ch (contraction hierarchy) or dijkstra while the hierarchy is being built
+}
@@ -0,0 +1,16 @@
+package com.example.gis.dto;
+
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+public class ZonalStatisticsRequest {
+    private String rasterSource; // DEM object key, as for raster analysis
+    private UUID layerId; // Features to summarize; polygons cover their cells, lines the cells they cross
+    private String analysisType = "ELEVATION"; // ELEVATION, SLOPE, ASPECT or HILLSHADE values
+    private Integer bins = 10; // Histogram bins; 0 for none
+    private Double histogramMin; // Histogram range; defaults to the raster's overall range (elevation)
+    private Double histogramMax; // or the product's natural range (0-90, 0-360, 0-255)
+    private String propertyPrefix = "zonal_"; // Written as <prefix>count, sum, min, max, mean, histogram
+}
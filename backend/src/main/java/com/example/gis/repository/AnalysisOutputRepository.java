@@ -0,0 +1,50 @@
+package com.example.gis.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Writes analysis results as features of an output layer by copying source features
+ * server-side: geometries never leave the database, only IDs and the added properties do
+ */
+@Repository
+@RequiredArgsConstructor
+public class AnalysisOutputRepository {
+    private static final int CHUNK_SIZE = 20000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Copy features sourceIds[0..count) into the target layer, merging properties[i] (a JSON object)
+     * over each source feature's properties; returns the number of features written
+     */
+    @Transactional
+    public int copyFeatures(UUID targetLayerId, UUID[] sourceIds, String[] properties, int count) {
+        String sql = "INSERT INTO features (layer_id, properties, geom) " +
+                "SELECT ?, COALESCE(f.properties, '{}'::jsonb) || l.props::jsonb, f.geom " +
+                "FROM unnest(?::uuid[], ?::text[]) AS l(id, props) JOIN features f ON f.id = l.id";
+        int written = 0;
+        for (int from = 0; from < count; from += CHUNK_SIZE) {
+            int to = Math.min(from + CHUNK_SIZE, count);
+            Object[] ids = Arrays.copyOfRange(sourceIds, from, to);
+            Object[] props = Arrays.copyOfRange(properties, from, to);
+            written += jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql);
+                Array idArray = con.createArrayOf("uuid", ids);
+                Array propsArray = con.createArrayOf("text", props);
+                ps.setObject(1, targetLayerId);
+                ps.setArray(2, idArray);
+                ps.setArray(3, propsArray);
+                return ps;
+            });
+        }
+        return written;
+    }
+}
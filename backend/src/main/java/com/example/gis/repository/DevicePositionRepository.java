@@ -0,0 +1,86 @@
+package com.example.gis.repository;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Position history of devices, appended on every position update
+ */
+@Repository
+@RequiredArgsConstructor
+public class DevicePositionRepository {
+    private static final int FETCH_SIZE = 10000;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void record(UUID deviceId, double lng, double lat) {
+        jdbcTemplate.update(
+                "INSERT INTO device_positions (device_id, position) VALUES (?, ST_SetSRID(ST_MakePoint(?, ?), 4326))",
+                deviceId, lng, lat);
+    }
+
+    /**
+     * Delete at most limit positions recorded before cutoff; returns how many were deleted
+     */
+    public int deleteRecordedBefore(OffsetDateTime cutoff, int limit) {
+        return jdbcTemplate.update(
+                "DELETE FROM device_positions WHERE id IN " +
+                "(SELECT id FROM device_positions WHERE recorded_at < ? LIMIT ?)",
+                cutoff, limit);
+    }
+
+    /**
+     * Positions of a device recorded in [from, to), oldest first, at most limit of them
+     */
+    @Transactional(readOnly = true)
+    public Trace findTrace(UUID deviceId, OffsetDateTime from, OffsetDateTime to, int limit) {
+        Trace trace = new Trace();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT ST_X(position), ST_Y(position), EXTRACT(EPOCH FROM recorded_at) FROM device_positions " +
+                    "WHERE device_id = ? AND recorded_at >= ? AND recorded_at < ? ORDER BY recorded_at LIMIT ?");
+            ps.setObject(1, deviceId);
+            ps.setObject(2, from);
+            ps.setObject(3, to);
+            ps.setInt(4, limit);
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            trace.add(rs.getDouble(1), rs.getDouble(2), rs.getDouble(3));
+        });
+        return trace;
+    }
+
+    /**
+     * Trace coordinates and times (epoch seconds) as parallel arrays; valid up to size()
+     */
+    @Getter
+    public static final class Trace {
+        private double[] lng = new double[INITIAL_CAPACITY];
+        private double[] lat = new double[INITIAL_CAPACITY];
+        private double[] time = new double[INITIAL_CAPACITY];
+        private int size;
+
+        void add(double x, double y, double t) {
+            if (size == lng.length) {
+                int capacity = size * 2;
+                lng = Arrays.copyOf(lng, capacity);
+                lat = Arrays.copyOf(lat, capacity);
+                time = Arrays.copyOf(time, capacity);
+            }
+            lng[size] = x;
+            lat[size] = y;
+            time[size] = t;
+            size++;
+        }
+    }
+}
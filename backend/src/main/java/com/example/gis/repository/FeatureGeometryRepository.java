@@ -0,0 +1,100 @@
+package com.example.gis.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Chunked access to the geometries of a layer for per-feature analyses, and batched merging of
+ * the results into feature properties. Layers are walked by ID in spatial order, one chunk of
+ * geometries at a time, so no transaction stays open for the whole layer.
+ */
+@Repository
+@RequiredArgsConstructor
+public class FeatureGeometryRepository {
+    private static final int FETCH_SIZE = 10000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * IDs of the live features of a layer, ordered along a geohash of their envelope centre so
+     * that consecutive chunks cover nearby areas
+     */
+    @Transactional(readOnly = true)
+    public List<UUID> findIds(UUID layerId) {
+        List<UUID> ids = new ArrayList<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT f.id FROM features f WHERE f.layer_id = ? AND f.deleted_at IS NULL " +
+                    "ORDER BY ST_GeoHash(ST_Centroid(ST_Envelope(f.geom)), 12)");
+            ps.setObject(1, layerId);
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            ids.add(rs.getObject(1, UUID.class));
+        });
+        return ids;
+    }
+
+    /**
+     * 2D geometries of the given features, aligned with ids (null where a feature is gone or unreadable)
+     */
+    @Transactional(readOnly = true)
+    public Geometry[] findGeometries(List<UUID> ids) {
+        Geometry[] geometries = new Geometry[ids.size()];
+        WKBReader reader = new WKBReader();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT l.ord, ST_AsBinary(ST_Force2D(f.geom)) " +
+                    "FROM unnest(?::uuid[]) WITH ORDINALITY AS l(id, ord) " +
+                    "JOIN features f ON f.id = l.id AND f.deleted_at IS NULL");
+            ps.setArray(1, con.createArrayOf("uuid", ids.toArray()));
+            return ps;
+        }, rs -> {
+            try {
+                geometries[rs.getInt(1) - 1] = reader.read(rs.getBytes(2));
+            } catch (ParseException e) {
+                // Left null; the caller skips it
+            }
+        });
+        return geometries;
+    }
+
+    /**
+     * Merge a JSON object into the properties of each feature; properties[i] applies to ids[i]
+     */
+    @Transactional
+    public int mergeProperties(List<UUID> ids, List<String> properties) {
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE features SET properties = COALESCE(properties, '{}'::jsonb) || ?::jsonb, " +
+                "updated_at = CURRENT_TIMESTAMP WHERE id = ?",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setString(1, properties.get(i));
+                        ps.setObject(2, ids.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return ids.size();
+                    }
+                });
+        int total = 0;
+        for (int count : updated) {
+            total += Math.max(count, 0);
+        }
+        return total;
+    }
+}
@@ -98,5 +98,68 @@ public interface FeatureRepository extends JpaRepository<Feature, UUID> {
     List<Object[]> findFeaturesWithinDistancePlanar(@Param("layerId") UUID layerId,
                                                       @Param("point") Point point,
                                                       @Param("distance") double distance);
-}
 
+    // Count point features in a bounding box (used to pick JVM vs database clustering)
+    @Query(value = "SELECT count(*) FROM features f " +
+            "WHERE f.layer_id = :layerId AND f.deleted_at IS NULL " +
+            "AND GeometryType(f.geom) = 'POINT' " +
+            "AND f.geom && ST_MakeEnvelope(:minLng, :minLat, :maxLng, :maxLat, 4326)", nativeQuery = true)
+    long countPointsInBbox(@Param("layerId") UUID layerId,
+                           @Param("minLng") double minLng,
+                           @Param("minLat") double minLat,
+                           @Param("maxLng") double maxLng,
+                           @Param("maxLat") double maxLat);
+
+    // Clustering pushdown: each row is one cluster as
+    // [point_count, centroid_lng, centroid_lat, min_lng, min_lat, max_lng, max_lat, feature_id (single points only)]
+    // Cells are floor(coordinate / cellSize), the same cells as the JVM grid path
+    @Query(value = "SELECT count(*), avg(ST_X(f.geom)), avg(ST_Y(f.geom)), " +
+            "min(ST_X(f.geom)), min(ST_Y(f.geom)), max(ST_X(f.geom)), max(ST_Y(f.geom)), " +
+            "CASE WHEN count(*) = 1 THEN min(f.id::text) END " +
+            "FROM features f " +
+            "WHERE f.layer_id = :layerId AND f.deleted_at IS NULL " +
+            "AND GeometryType(f.geom) = 'POINT' " +
+            "AND f.geom && ST_MakeEnvelope(:minLng, :minLat, :maxLng, :maxLat, 4326) " +
+            "GROUP BY floor(ST_X(f.geom) / :cellSize), floor(ST_Y(f.geom) / :cellSize)", nativeQuery = true)
+    List<Object[]> clusterPointsByGrid(@Param("layerId") UUID layerId,
+                                       @Param("minLng") double minLng,
+                                       @Param("minLat") double minLat,
+                                       @Param("maxLng") double maxLng,
+                                       @Param("maxLat") double maxLat,
+                                       @Param("cellSize") double cellSize);
+
+    // Noise points (cid IS NULL) are grouped by their own id so they come back as single points
+    @Query(value = "SELECT count(*), avg(ST_X(c.geom)), avg(ST_Y(c.geom)), " +
+            "min(ST_X(c.geom)), min(ST_Y(c.geom)), max(ST_X(c.geom)), max(ST_Y(c.geom)), " +
+            "CASE WHEN count(*) = 1 THEN min(c.id::text) END " +
+            "FROM (SELECT f.id, f.geom, " +
+            "ST_ClusterDBSCAN(ST_Transform(f.geom, 3857), :epsMercator, :minPts) OVER () AS cid " +
+            "FROM features f " +
+            "WHERE f.layer_id = :layerId AND f.deleted_at IS NULL " +
+            "AND GeometryType(f.geom) = 'POINT' " +
+            "AND f.geom && ST_MakeEnvelope(:minLng, :minLat, :maxLng, :maxLat, 4326)) c " +
+            "GROUP BY c.cid, CASE WHEN c.cid IS NULL THEN c.id END", nativeQuery = true)
+    List<Object[]> clusterPointsByDbscan(@Param("layerId") UUID layerId,
+                                         @Param("minLng") double minLng,
+                                         @Param("minLat") double minLat,
+                                         @Param("maxLng") double maxLng,
+                                         @Param("maxLat") double maxLat,
+                                         @Param("epsMercator") double epsMercator,
+                                         @Param("minPts") int minPts);
+
+    @Query(value = "SELECT count(*), avg(ST_X(c.geom)), avg(ST_Y(c.geom)), " +
+            "min(ST_X(c.geom)), min(ST_Y(c.geom)), max(ST_X(c.geom)), max(ST_Y(c.geom)), " +
+            "CASE WHEN count(*) = 1 THEN min(c.id::text) END " +
+            "FROM (SELECT f.id, f.geom, ST_ClusterKMeans(f.geom, :k) OVER () AS cid " +
+            "FROM features f " +
+            "WHERE f.layer_id = :layerId AND f.deleted_at IS NULL " +
+            "AND GeometryType(f.geom) = 'POINT' " +
+            "AND f.geom && ST_MakeEnvelope(:minLng, :minLat, :maxLng, :maxLat, 4326)) c " +
+            "GROUP BY c.cid", nativeQuery = true)
+    List<Object[]> clusterPointsByKMeans(@Param("layerId") UUID layerId,
+                                         @Param("minLng") double minLng,
+                                         @Param("minLat") double minLat,
+                                         @Param("maxLng") double maxLng,
+                                         @Param("maxLat") double maxLat,
+                                         @Param("k") int k);
+}
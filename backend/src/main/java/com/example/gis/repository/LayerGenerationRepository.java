@@ -0,0 +1,31 @@
+package com.example.gis.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Edit generations of layers. A bump takes part in the caller's transaction, so the new
+ * generation becomes visible together with the edit and is rolled back with it.
+ */
+@Repository
+@RequiredArgsConstructor
+public class LayerGenerationRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public long find(UUID layerId) {
+        List<Long> generation = jdbcTemplate.queryForList(
+                "SELECT generation FROM layer_generations WHERE layer_id = ?", Long.class, layerId);
+        return generation.isEmpty() ? 0 : generation.get(0);
+    }
+
+    public void bump(UUID layerId) {
+        jdbcTemplate.update(
+                "INSERT INTO layer_generations (layer_id, generation) VALUES (?, 1) " +
+                "ON CONFLICT (layer_id) DO UPDATE SET generation = layer_generations.generation + 1",
+                layerId);
+    }
+}
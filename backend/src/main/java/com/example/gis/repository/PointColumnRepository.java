@@ -0,0 +1,187 @@
+package com.example.gis.repository;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Columnar access to point features: streams ST_X, ST_Y and an optional numeric property
+ * straight into primitive arrays, without materializing Feature entities or JSON text.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PointColumnRepository {
+    private static final int FETCH_SIZE = 10000;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Points of a layer, optionally inside a bounding box (null for the whole layer).
+     * With a weight property, only points whose property is a JSON number are returned.
+     */
+    @Transactional(readOnly = true)
+    public PointColumns findPoints(UUID layerId, double[] bbox, String weightProperty) {
+        return findPoints(layerId, bbox, weightProperty, null);
+    }
+
+    /**
+     * Points with an additional time column (epoch seconds) read from a property holding
+     * either epoch seconds or an ISO-8601 timestamp; points without a valid time are skipped
+     */
+    @Transactional(readOnly = true)
+    public PointColumns findPoints(UUID layerId, double[] bbox, String weightProperty, String timeProperty) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT ST_X(f.geom), ST_Y(f.geom)");
+        if (weightProperty != null) {
+            sql.append(", (f.properties->>?)::float8");
+            params.add(weightProperty);
+        }
+        if (timeProperty != null) {
+            sql.append(", CASE WHEN jsonb_typeof(f.properties->?) = 'number' THEN (f.properties->>?)::float8 " +
+                    "ELSE property_epoch(f.properties->>?) END");
+            params.add(timeProperty);
+            params.add(timeProperty);
+            params.add(timeProperty);
+        }
+        sql.append(" FROM features f WHERE f.layer_id = ? AND f.deleted_at IS NULL AND GeometryType(f.geom) = 'POINT'");
+        params.add(layerId);
+        if (bbox != null) {
+            sql.append(" AND f.geom && ST_MakeEnvelope(?, ?, ?, ?, 4326)");
+            for (double value : bbox) {
+                params.add(value);
+            }
+        }
+        if (weightProperty != null) {
+            sql.append(" AND jsonb_typeof(f.properties->?) = 'number'");
+            params.add(weightProperty);
+        }
+        if (timeProperty != null) {
+            sql.append(" AND jsonb_typeof(f.properties->?) IN ('number', 'string')");
+            params.add(timeProperty);
+        }
+
+        PointColumns columns = new PointColumns(weightProperty != null, timeProperty != null);
+        int timeColumn = weightProperty != null ? 4 : 3;
+        // A forward-only cursor with a fetch size keeps memory flat inside the read-only transaction
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql.toString());
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            double time = columns.isTimed() ? rs.getDouble(timeColumn) : 0;
+            // Strings that are not timestamps read as NULL and are skipped
+            if (columns.isTimed() && rs.wasNull()) {
+                return;
+            }
+            columns.add(rs.getDouble(1), rs.getDouble(2),
+                    columns.isWeighted() ? (float) rs.getDouble(3) : 1f, time);
+        });
+        return columns;
+    }
+
+    /**
+     * Every point of a layer with its feature ID, for analyses that label features. The weight
+     * property is optional; points without a numeric value for it get weight 0 instead of being skipped.
+     */
+    @Transactional(readOnly = true)
+    public PointColumns findIdentifiedPoints(UUID layerId, String weightProperty) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT f.id, ST_X(f.geom), ST_Y(f.geom)");
+        if (weightProperty != null) {
+            sql.append(", CASE WHEN jsonb_typeof(f.properties->?) = 'number' THEN (f.properties->>?)::float8 ELSE 0 END");
+            params.add(weightProperty);
+            params.add(weightProperty);
+        }
+        sql.append(" FROM features f WHERE f.layer_id = ? AND f.deleted_at IS NULL AND GeometryType(f.geom) = 'POINT'");
+        params.add(layerId);
+
+        PointColumns columns = new PointColumns(weightProperty != null, false);
+        columns.id = new UUID[INITIAL_CAPACITY];
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql.toString());
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            columns.add(rs.getObject(1, UUID.class), rs.getDouble(2), rs.getDouble(3),
+                    columns.isWeighted() ? (float) rs.getDouble(4) : 1f, 0);
+        });
+        return columns;
+    }
+
+    /**
+     * Point coordinates (weights, times, feature IDs) as parallel arrays; valid up to size()
+     */
+    @Getter
+    public static final class PointColumns {
+        private double[] x = new double[INITIAL_CAPACITY];
+        private double[] y = new double[INITIAL_CAPACITY];
+        private float[] weight;
+        private double[] time;
+        private UUID[] id;
+        private int size;
+        private final boolean weighted;
+        private final boolean timed;
+
+        PointColumns(boolean weighted, boolean timed) {
+            this.weighted = weighted;
+            this.timed = timed;
+            this.weight = weighted ? new float[INITIAL_CAPACITY] : null;
+            this.time = timed ? new double[INITIAL_CAPACITY] : null;
+        }
+
+        /**
+         * Weight of point i; 1 for unweighted columns
+         */
+        public float weightAt(int i) {
+            return weight != null ? weight[i] : 1f;
+        }
+
+        void add(double px, double py, float w, double t) {
+            add(null, px, py, w, t);
+        }
+
+        void add(UUID featureId, double px, double py, float w, double t) {
+            if (size == x.length) {
+                int capacity = size * 2;
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                if (weight != null) {
+                    weight = Arrays.copyOf(weight, capacity);
+                }
+                if (time != null) {
+                    time = Arrays.copyOf(time, capacity);
+                }
+                if (id != null) {
+                    id = Arrays.copyOf(id, capacity);
+                }
+            }
+            x[size] = px;
+            y[size] = py;
+            if (weight != null) {
+                weight[size] = w;
+            }
+            if (time != null) {
+                time[size] = t;
+            }
+            if (id != null) {
+                id[size] = featureId;
+            }
+            size++;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.gis.repository;
+
+import com.example.gis.util.RoadGraph;
+import lombok.RequiredArgsConstructor;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Streams the lines of a layer (WKB plus speed / one-way / length properties) into a road graph builder
+ */
+@Repository
+@RequiredArgsConstructor
+public class RoadNetworkRepository {
+    private static final int FETCH_SIZE = 5000;
+    private static final double KMH_PER_MPH = 1.609344;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Add every line of the layer to the builder; returns the number of lines read
+     */
+    @Transactional(readOnly = true)
+    public int loadLines(UUID layerId, String speedProperty, String onewayProperty, String lengthProperty,
+                         RoadGraph.Builder builder) {
+        String sql = "SELECT ST_AsBinary(ST_Force2D(f.geom)), f.properties->>?, f.properties->>?, f.properties->>? " +
+                "FROM features f WHERE f.layer_id = ? AND f.deleted_at IS NULL " +
+                "AND GeometryType(f.geom) IN ('LINESTRING', 'MULTILINESTRING')";
+        WKBReader reader = new WKBReader();
+        int[] lines = {0};
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setString(1, speedProperty);
+            ps.setString(2, onewayProperty);
+            ps.setString(3, lengthProperty);
+            ps.setObject(4, layerId);
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            Geometry geometry;
+            try {
+                geometry = reader.read(rs.getBytes(1));
+            } catch (ParseException e) {
+                return;
+            }
+            double speed = parseSpeed(rs.getString(2));
+            String oneway = rs.getString(3) != null ? rs.getString(3).trim().toLowerCase(Locale.ROOT) : "";
+            double length = parseNumber(rs.getString(4));
+            boolean forward = oneway.equals("yes") || oneway.equals("true") || oneway.equals("1");
+            boolean reverse = oneway.equals("-1") || oneway.equals("reverse");
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                LineString line = (LineString) geometry.getGeometryN(i);
+                Coordinate[] coordinates = line.getCoordinates();
+                int n = coordinates.length;
+                double[] lngs = new double[n];
+                double[] lats = new double[n];
+                for (int j = 0; j < n; j++) {
+                    // One-way against the digitizing direction is stored reversed
+                    Coordinate c = coordinates[reverse ? n - 1 - j : j];
+                    lngs[j] = c.x;
+                    lats[j] = c.y;
+                }
+                // A declared length covers the whole feature, so it only applies to single lines
+                builder.addLine(lngs, lats, n, speed, forward || reverse,
+                        geometry.getNumGeometries() == 1 ? length : 0);
+            }
+            lines[0]++;
+        });
+        return lines[0];
+    }
+
+    /**
+     * Speed in km/h from values like "50", "50 km/h" or "30 mph"; 0 when missing or unparsable
+     */
+    static double parseSpeed(String value) {
+        double speed = parseNumber(value);
+        if (speed > 0 && value.toLowerCase(Locale.ROOT).contains("mph")) {
+            speed *= KMH_PER_MPH;
+        }
+        return speed;
+    }
+
+    private static double parseNumber(String value) {
+        if (value == null) {
+            return 0;
+        }
+        String trimmed = value.trim();
+        int end = 0;
+        while (end < trimmed.length() && (Character.isDigit(trimmed.charAt(end)) || trimmed.charAt(end) == '.')) {
+            end++;
+        }
+        if (end == 0) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(trimmed.substring(0, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.AnalysisJob;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Background analysis jobs with progress, run on the analysis executor.
+ * Jobs are kept in memory; finished jobs are dropped after an hour.
+ * Cancellation is cooperative: a cancelled job stops at its next progress report.
+ */
+@Service
+@Slf4j
+public class AnalysisJobService {
+    private static final long RETENTION_SECONDS = 3600;
+
+    private final Executor executor;
+    private final Map<UUID, AnalysisJob> jobs = new ConcurrentHashMap<>();
+    private final Set<UUID> cancelRequested = ConcurrentHashMap.newKeySet();
+
+    public AnalysisJobService(@Qualifier("analysisTaskExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Work of a job; reports progress (0..1) and returns a result summary
+     */
+    @FunctionalInterface
+    public interface JobTask {
+        Map<String, Object> run(DoubleConsumer progress) throws Exception;
+    }
+
+    /**
+     * Queue a job and return its initial state; a job the executor cannot take fails at once
+     */
+    public AnalysisJob submit(String type, String description, JobTask task) {
+        purgeFinished();
+        AnalysisJob job = AnalysisJob.builder()
+                .id(UUID.randomUUID())
+                .type(type)
+                .description(description)
+                .status(AnalysisJob.JobStatus.PENDING)
+                .progress(0.0)
+                .createdAt(OffsetDateTime.now())
+                .build();
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> execute(job, task));
+        } catch (RejectedExecutionException e) {
+            synchronized (job) {
+                job.setStatus(AnalysisJob.JobStatus.FAILED);
+                job.setMessage("Job queue is full");
+                job.setFinishedAt(OffsetDateTime.now());
+            }
+            log.warn("Job {} ({}) rejected: {}", job.getId(), job.getType(), e.getMessage());
+        }
+        return snapshot(job);
+    }
+
+    public AnalysisJob getJob(UUID id) {
+        AnalysisJob job = jobs.get(id);
+        if (job == null) {
+            throw new RuntimeException("Job not found");
+        }
+        return snapshot(job);
+    }
+
+    public List<AnalysisJob> findAll() {
+        List<AnalysisJob> result = new ArrayList<>();
+        for (AnalysisJob job : jobs.values()) {
+            result.add(snapshot(job));
+        }
+        result.sort(Comparator.comparing(AnalysisJob::getCreatedAt).reversed());
+        return result;
+    }
+
+    /**
+     * Request cancellation; a pending job is cancelled at once, a running one at its next progress report
+     */
+    public AnalysisJob cancel(UUID id) {
+        AnalysisJob job = jobs.get(id);
+        if (job == null) {
+            throw new RuntimeException("Job not found");
+        }
+        synchronized (job) {
+            if (job.getStatus() == AnalysisJob.JobStatus.PENDING) {
+                job.setStatus(AnalysisJob.JobStatus.CANCELLED);
+                job.setFinishedAt(OffsetDateTime.now());
+            } else if (job.getStatus() == AnalysisJob.JobStatus.RUNNING) {
+                cancelRequested.add(id);
+                job.setMessage("Cancellation requested");
+            }
+        }
+        return snapshot(job);
+    }
+
+    /**
+     * Whether the job is still pending or running
+     */
+    public boolean isActive(UUID id) {
+        AnalysisJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        synchronized (job) {
+            return job.getStatus() == AnalysisJob.JobStatus.PENDING || job.getStatus() == AnalysisJob.JobStatus.RUNNING;
+        }
+    }
+
+    private void execute(AnalysisJob job, JobTask task) {
+        synchronized (job) {
+            if (job.getStatus() == AnalysisJob.JobStatus.CANCELLED) {
+                return;
+            }
+            job.setStatus(AnalysisJob.JobStatus.RUNNING);
+            job.setStartedAt(OffsetDateTime.now());
+        }
+        try {
+            Map<String, Object> result = task.run(fraction -> {
+                if (cancelRequested.contains(job.getId())) {
+                    throw new CancellationException();
+                }
+                synchronized (job) {
+                    job.setProgress(Math.max(0.0, Math.min(1.0, fraction)));
+                }
+            });
+            synchronized (job) {
+                job.setStatus(AnalysisJob.JobStatus.COMPLETED);
+                job.setProgress(1.0);
+                job.setResult(result);
+                job.setFinishedAt(OffsetDateTime.now());
+            }
+            log.info("Job {} ({}) completed", job.getId(), job.getType());
+        } catch (CancellationException e) {
+            synchronized (job) {
+                job.setStatus(AnalysisJob.JobStatus.CANCELLED);
+                job.setMessage(null);
+                job.setFinishedAt(OffsetDateTime.now());
+            }
+            log.info("Job {} ({}) cancelled", job.getId(), job.getType());
+        } catch (Exception e) {
+            synchronized (job) {
+                job.setStatus(AnalysisJob.JobStatus.FAILED);
+                job.setMessage(e.getMessage());
+                job.setFinishedAt(OffsetDateTime.now());
+            }
+            log.error("Job {} ({}) failed: {}", job.getId(), job.getType(), e.getMessage(), e);
+        } finally {
+            cancelRequested.remove(job.getId());
+        }
+    }
+
+    private AnalysisJob snapshot(AnalysisJob job) {
+        synchronized (job) {
+            return job.toBuilder().build();
+        }
+    }
+
+    private void purgeFinished() {
+        OffsetDateTime cutoff = OffsetDateTime.now().minusSeconds(RETENTION_SECONDS);
+        jobs.values().removeIf(job -> {
+            synchronized (job) {
+                return job.getFinishedAt() != null && job.getFinishedAt().isBefore(cutoff);
+            }
+        });
+    }
+}
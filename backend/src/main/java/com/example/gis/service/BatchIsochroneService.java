@@ -0,0 +1,214 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.BatchIsochroneRequest;
+import com.example.gis.dto.IsochroneResponse;
+import com.example.gis.util.Dijkstra;
+import com.example.gis.util.GeoJsonConverter;
+import com.example.gis.util.RoadGraph;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Network isochrones for many origins at once.
+ *
+ * Each origin is one bounded search (up to its largest contour) on the routing worker pool;
+ * results are written as newline-delimited JSON in completion order, so callers see the first
+ * origins while the rest are still running. With union requested, the dissolved polygon of all
+ * origins per contour value follows once every origin is done.
+ */
+@Service
+@Slf4j
+public class BatchIsochroneService {
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final IsochroneService isochroneService;
+    private final RoadNetworkService roadNetworkService;
+    private final GeoJsonConverter geoJsonConverter;
+    private final ObjectMapper objectMapper;
+    private final Executor routingExecutor;
+
+    @Value("${isochrone.max-batch-origins:1000}")
+    private int maxBatchOrigins;
+
+    public BatchIsochroneService(IsochroneService isochroneService,
+                                 RoadNetworkService roadNetworkService,
+                                 GeoJsonConverter geoJsonConverter,
+                                 ObjectMapper objectMapper,
+                                 @Qualifier("routingTaskExecutor") Executor routingExecutor) {
+        this.isochroneService = isochroneService;
+        this.roadNetworkService = roadNetworkService;
+        this.geoJsonConverter = geoJsonConverter;
+        this.objectMapper = objectMapper;
+        this.routingExecutor = routingExecutor;
+    }
+
+    /**
+     * Validate the request and load the graph, then return the body that computes and streams the results
+     */
+    public StreamingResponseBody calculateBatch(BatchIsochroneRequest request) {
+        List<BatchIsochroneRequest.Origin> origins = request.getOrigins();
+        if (origins == null || origins.isEmpty()) {
+            throw new IllegalArgumentException("At least one origin is required");
+        }
+        if (origins.size() > maxBatchOrigins) {
+            throw new IllegalArgumentException("At most " + maxBatchOrigins + " origins are allowed");
+        }
+        UUID networkLayerId = request.getNetworkLayerId() != null
+                ? request.getNetworkLayerId()
+                : isochroneService.defaultNetworkLayerId();
+        if (networkLayerId == null) {
+            throw new IllegalArgumentException("Network layer ID is required");
+        }
+        List<Integer> defaultContours = request.getContours() != null && !request.getContours().isEmpty()
+                ? request.getContours()
+                : List.of(300, 600, 900);
+        List<List<Integer>> contours = new ArrayList<>(origins.size());
+        for (BatchIsochroneRequest.Origin origin : origins) {
+            if (origin == null || origin.getLongitude() == null || origin.getLatitude() == null) {
+                throw new IllegalArgumentException("Every origin needs a longitude and latitude");
+            }
+            List<Integer> values = origin.getContours() != null && !origin.getContours().isEmpty()
+                    ? origin.getContours()
+                    : defaultContours;
+            for (Integer value : values) {
+                if (value == null || value <= 0) {
+                    throw new IllegalArgumentException("Contour values must be positive");
+                }
+            }
+            contours.add(values);
+        }
+        RoadGraph.Profile profile = RoadGraph.Profile.of(request.getProfile());
+        RoadGraph graph = roadNetworkService.getGraph(networkLayerId);
+
+        return out -> stream(request, networkLayerId, graph, profile, contours, out);
+    }
+
+    private void stream(BatchIsochroneRequest request, UUID networkLayerId, RoadGraph graph,
+                        RoadGraph.Profile profile, List<List<Integer>> contours, OutputStream out) throws IOException {
+        List<BatchIsochroneRequest.Origin> origins = request.getOrigins();
+        boolean union = Boolean.TRUE.equals(request.getUnion());
+        long started = System.currentTimeMillis();
+
+        // Search state is sized to the graph, so workers borrow instances instead of allocating per origin
+        ConcurrentLinkedQueue<Dijkstra> searches = new ConcurrentLinkedQueue<>();
+        CompletionService<OriginResult> completion = new ExecutorCompletionService<>(routingExecutor);
+        List<Future<OriginResult>> futures = new ArrayList<>(origins.size());
+        Map<Integer, List<Geometry>> polygonsByValue = new TreeMap<>();
+        int failed = 0;
+        try {
+            for (int i = 0; i < origins.size(); i++) {
+                int index = i;
+                BatchIsochroneRequest.Origin origin = origins.get(i);
+                futures.add(completion.submit(() -> {
+                    Dijkstra dijkstra = searches.poll();
+                    if (dijkstra == null) {
+                        dijkstra = new Dijkstra(graph);
+                    }
+                    try {
+                        return new OriginResult(index, isochroneService.computeNetworkIsochrone(graph, dijkstra,
+                                origin.getLongitude(), origin.getLatitude(), contours.get(index), profile,
+                                request.getGeneralize()), null);
+                    } catch (IllegalArgumentException e) {
+                        return new OriginResult(index, null, e.getMessage());
+                    } finally {
+                        searches.offer(dijkstra);
+                    }
+                }));
+            }
+
+            for (int done = 0; done < origins.size(); done++) {
+                OriginResult result = take(completion);
+                BatchIsochroneRequest.Origin origin = origins.get(result.index);
+
+                ObjectNode line = objectMapper.createObjectNode();
+                line.put("type", "origin");
+                line.put("index", result.index);
+                line.put("id", origin.getId());
+                if (result.isochrone == null) {
+                    line.put("error", result.error);
+                    failed++;
+                } else {
+                    IsochroneResponse response = isochroneService.toNetworkResponse(origin.getLongitude(),
+                            origin.getLatitude(), contours.get(result.index), request.getProfile(),
+                            networkLayerId, result.isochrone);
+                    line.set("isochrone", objectMapper.valueToTree(response));
+                    if (union) {
+                        List<Integer> values = contours.get(result.index);
+                        for (int c = 0; c < values.size(); c++) {
+                            polygonsByValue.computeIfAbsent(values.get(c), v -> new ArrayList<>())
+                                    .add(result.isochrone.getPolygons().get(c));
+                        }
+                    }
+                }
+                writeLine(out, line);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Client went away, a worker failed or the executor rejected an origin: queued origins
+            // are not worth computing
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+
+        for (Map.Entry<Integer, List<Geometry>> entry : polygonsByValue.entrySet()) {
+            Geometry dissolved = UnaryUnionOp.union(entry.getValue());
+            ObjectNode line = objectMapper.createObjectNode();
+            line.put("type", "union");
+            line.put("value", entry.getKey());
+            line.put("origins", entry.getValue().size());
+            line.set("geometry", geoJsonConverter.geometryToGeoJson(dissolved));
+            writeLine(out, line);
+        }
+        log.info("Batch isochrones for {} origins ({} failed) on layer {} in {} ms",
+                origins.size(), failed, networkLayerId, System.currentTimeMillis() - started);
+    }
+
+    private static OriginResult take(CompletionService<OriginResult> completion) {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Batch isochrone interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Batch isochrone failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void writeLine(OutputStream out, ObjectNode line) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(line));
+        out.write(NEWLINE);
+        out.flush();
+    }
+
+    private static final class OriginResult {
+        private final int index;
+        private final IsochroneService.NetworkIsochrone isochrone;
+        private final String error;
+
+        OriginResult(int index, IsochroneService.NetworkIsochrone isochrone, String error) {
+            this.index = index;
+            this.isochrone = isochrone;
+            this.error = error;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.gis.service;
 
+import com.example.gis.repository.LayerGenerationRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -10,6 +11,7 @@ import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -19,6 +21,7 @@ import java.util.concurrent.TimeUnit;
 public class CacheService {
     private final RedisTemplate<String, Object> redisTemplate;
     private final ObjectMapper objectMapper;
+    private final LayerGenerationRepository layerGenerationRepository;
 
     private static final String SPATIAL_QUERY_PREFIX = "spatial:query:";
     private static final String TILE_PREFIX = "tile:";
@@ -158,6 +161,24 @@ public class CacheService {
         return null;
     }
 
+    /**
+     * Current edit generation of a layer. Derived results of the layer (clusters, heatmap tiles,
+     * road graph files) include it in their key, so bumping it with an edit makes them
+     * unreachable once the edit commits; a result computed from the old data can only ever be
+     * cached under the old generation. Generations are kept in Postgres (see
+     * LayerGenerationRepository), so a Redis flush or outage never brings an old one back.
+     */
+    public String getLayerGeneration(UUID layerId) {
+        return Long.toString(layerGenerationRepository.find(layerId));
+    }
+
+    /**
+     * Bump the generation of a layer; call it inside the transaction of the edit
+     */
+    public void bumpLayerGeneration(UUID layerId) {
+        layerGenerationRepository.bump(layerId);
+    }
+
     /**
      * Cache heatmap result
      */
@@ -208,6 +229,44 @@ public class CacheService {
         return String.format("%s:%d:%d:%d", layerId, z, x, y);
     }
 
+    /**
+     * Generate cache key for the maintained cluster cells of one tile of a tile version
+     */
+    public String generateClusterCellKey(UUID layerId, long version, int z, int x, int y) {
+        return String.format("%s:cells:v%d:%d:%d:%d", layerId, version, z, x, y);
+    }
+
+    /**
+     * Generate cache key for a cluster vector tile; version is "c" plus the cell tile version,
+     * or "g" plus the layer generation for tiles clustered from the features
+     */
+    public String generateClusterTileKey(UUID layerId, String version, int z, int x, int y) {
+        return generateTileKey(z, x, y, "clusters:" + layerId + ":" + version);
+    }
+
+    /**
+     * Generate cache key for a heatmap raster tile of a layer; params distinguish render options
+     */
+    public String generateHeatmapTileKey(UUID layerId, int z, int x, int y, Object... params) {
+        StringBuilder layerKey = new StringBuilder("heatmap:").append(layerId)
+                .append(":g").append(getLayerGeneration(layerId));
+        for (Object param : params) {
+            layerKey.append(":").append(param != null ? param.toString() : "null");
+        }
+        return generateTileKey(z, x, y, layerKey.toString());
+    }
+
+    /**
+     * Generate cache key for a raster analysis tile of one version of a raster source
+     */
+    public String generateRasterTileKey(String source, String version, int z, int x, int y, Object... params) {
+        StringBuilder rasterKey = new StringBuilder("raster:").append(source).append(":v").append(version);
+        for (Object param : params) {
+            rasterKey.append(":").append(param != null ? param.toString() : "null");
+        }
+        return generateTileKey(z, x, y, rasterKey.toString());
+    }
+
     /**
      * Clear cache by pattern
      */
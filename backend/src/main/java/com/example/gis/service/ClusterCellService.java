@@ -0,0 +1,397 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.ClusterPoint;
+import com.example.gis.repository.LayerGenerationRepository;
+import com.example.gis.util.TileMath;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Point;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Maintains per-zoom cluster cell aggregates (count, coordinate sums, extent) for point layers.
+ *
+ * Cells are 64px in Web Mercator, i.e. CELLS_PER_TILE x CELLS_PER_TILE per tile, so the cells
+ * at zoom z partition tile z/x/y exactly. The aggregates are built once per layer and then
+ * adjusted in place whenever point features are created, moved or deleted. Cached cells and
+ * cluster tiles are keyed by a per-tile version (see getTileVersion), so an edit only retires
+ * the tiles of the cells it changes.
+ */
+@Service
+@Slf4j
+public class ClusterCellService {
+    public static final int CELLS_PER_TILE = 4;
+    public static final int MAX_TILE_ZOOM = 22;
+    private static final String AGGREGATE = "cluster_cells";
+    private static final int MAX_CACHED_TILES_PER_REQUEST = 64;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CacheService cacheService;
+    private final LayerGenerationRepository layerGenerationRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final Executor executor;
+    private final Set<UUID> pendingBuilds = ConcurrentHashMap.newKeySet();
+
+    @Value("${gis.clustering.cell-max-zoom:16}")
+    private int maxZoom;
+
+    public ClusterCellService(JdbcTemplate jdbcTemplate, CacheService cacheService,
+                              LayerGenerationRepository layerGenerationRepository,
+                              PlatformTransactionManager transactionManager,
+                              @Qualifier("analysisTaskExecutor") Executor executor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cacheService = cacheService;
+        this.layerGenerationRepository = layerGenerationRepository;
+        this.transactionManager = transactionManager;
+        this.executor = executor;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public boolean isReady(UUID layerId) {
+        List<String> status = jdbcTemplate.queryForList(
+                "SELECT status FROM layer_aggregate_state WHERE layer_id = ? AND aggregate = ?",
+                String.class, layerId, AGGREGATE);
+        return !status.isEmpty() && "READY".equals(status.get(0));
+    }
+
+    /**
+     * Build the cells of a layer in the background on first use, unless the last build failed
+     * and the layer has not changed since; such a layer is built again after its next edit or
+     * an explicit rebuild
+     */
+    public void buildOnDemand(UUID layerId) {
+        List<Long> failed = jdbcTemplate.queryForList(
+                "SELECT failed_generation FROM layer_aggregate_state WHERE layer_id = ? AND aggregate = ? " +
+                "AND failed_generation IS NOT NULL", Long.class, layerId, AGGREGATE);
+        if (failed.isEmpty() || failed.get(0) != layerGenerationRepository.find(layerId)) {
+            buildInBackground(layerId);
+        }
+    }
+
+    /**
+     * Rebuild all cells of a layer in the background unless a build is already queued or
+     * running. A build the executor rejects is released so that a later request retries it;
+     * a build that fails is recorded against the layer generation (see buildOnDemand).
+     */
+    public void buildInBackground(UUID layerId) {
+        if (!pendingBuilds.add(layerId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                long generation = layerGenerationRepository.find(layerId);
+                try {
+                    new TransactionTemplate(transactionManager).executeWithoutResult(status -> rebuild(layerId));
+                } catch (RuntimeException e) {
+                    log.error("Failed to build cluster cells for layer {}", layerId, e);
+                    new TransactionTemplate(transactionManager).executeWithoutResult(
+                            status -> setFailed(layerId, generation));
+                } finally {
+                    pendingBuilds.remove(layerId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingBuilds.remove(layerId);
+            log.warn("Cluster cell build for layer {} rejected: {}", layerId, e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuild all cells of a layer from its point features with a single scan
+     */
+    @Transactional
+    public void rebuild(UUID layerId) {
+        // Committed on its own so that readers fall back to other clustering during the build
+        TransactionTemplate building = new TransactionTemplate(transactionManager);
+        building.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        building.executeWithoutResult(status -> setStatus(layerId, "BUILDING"));
+        lock(layerId);
+        long start = System.currentTimeMillis();
+        jdbcTemplate.update("DELETE FROM cluster_cells WHERE layer_id = ?", layerId);
+        int cells = jdbcTemplate.update(
+                "INSERT INTO cluster_cells (layer_id, zoom, cell_x, cell_y, point_count, " +
+                "sum_lng, sum_lat, min_lng, min_lat, max_lng, max_lat) " +
+                "SELECT ?, z.zoom, cluster_cell_x(p.lng, z.zoom), cluster_cell_y(p.lat, z.zoom), count(*), " +
+                "sum(p.lng), sum(p.lat), min(p.lng), min(p.lat), max(p.lng), max(p.lat) " +
+                "FROM (SELECT ST_X(f.geom) AS lng, ST_Y(f.geom) AS lat FROM features f " +
+                "      WHERE f.layer_id = ? AND f.deleted_at IS NULL AND GeometryType(f.geom) = 'POINT') p " +
+                "CROSS JOIN generate_series(0, ?) AS z(zoom) " +
+                "GROUP BY z.zoom, 3, 4",
+                layerId, layerId, maxZoom);
+        // A fresh version for every tile of the layer retires everything cached from the old cells
+        jdbcTemplate.update("DELETE FROM cluster_tile_versions WHERE layer_id = ?", layerId);
+        setStatus(layerId, "READY");
+        jdbcTemplate.update("UPDATE layer_aggregate_state SET version = nextval('cluster_tile_version_seq') " +
+                "WHERE layer_id = ? AND aggregate = ?", layerId, AGGREGATE);
+        log.info("Built {} cluster cells for layer {} in {} ms",
+                cells, layerId, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Apply point additions and removals to the cell aggregates of a layer.
+     * Must run after the feature changes have been flushed, inside the same transaction.
+     */
+    @Transactional
+    public void applyChanges(UUID layerId, List<Point> added, List<Point> removed) {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        // Serialize with rebuilds; a layer that is not built yet picks the change up on build
+        lock(layerId);
+        if (!isReady(layerId)) {
+            return;
+        }
+
+        if (!removed.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "UPDATE cluster_cells c SET point_count = c.point_count - 1, " +
+                    "sum_lng = c.sum_lng - ?, sum_lat = c.sum_lat - ? " +
+                    "FROM generate_series(0, ?) AS z(zoom) " +
+                    "WHERE c.layer_id = ? AND c.zoom = z.zoom " +
+                    "AND c.cell_x = cluster_cell_x(?, z.zoom) AND c.cell_y = cluster_cell_y(?, z.zoom)",
+                    removed, removed.size(), (ps, p) -> {
+                        ps.setDouble(1, p.getX());
+                        ps.setDouble(2, p.getY());
+                        ps.setInt(3, maxZoom);
+                        ps.setObject(4, layerId);
+                        ps.setDouble(5, p.getX());
+                        ps.setDouble(6, p.getY());
+                    });
+            jdbcTemplate.batchUpdate(
+                    "DELETE FROM cluster_cells c USING generate_series(0, ?) AS z(zoom) " +
+                    "WHERE c.layer_id = ? AND c.zoom = z.zoom AND c.point_count <= 0 " +
+                    "AND c.cell_x = cluster_cell_x(?, z.zoom) AND c.cell_y = cluster_cell_y(?, z.zoom)",
+                    removed, removed.size(), (ps, p) -> {
+                        ps.setInt(1, maxZoom);
+                        ps.setObject(2, layerId);
+                        ps.setDouble(3, p.getX());
+                        ps.setDouble(4, p.getY());
+                    });
+            // Extents only shrink when the removed point was on the boundary; recompute those
+            // cells from the remaining features inside the old extent
+            jdbcTemplate.batchUpdate(
+                    "UPDATE cluster_cells c SET (min_lng, min_lat, max_lng, max_lat) = " +
+                    "(SELECT min(ST_X(f.geom)), min(ST_Y(f.geom)), max(ST_X(f.geom)), max(ST_Y(f.geom)) " +
+                    " FROM features f WHERE f.layer_id = c.layer_id AND f.deleted_at IS NULL " +
+                    " AND GeometryType(f.geom) = 'POINT' " +
+                    " AND f.geom && ST_MakeEnvelope(c.min_lng, c.min_lat, c.max_lng, c.max_lat, 4326) " +
+                    " AND cluster_cell_x(ST_X(f.geom), c.zoom) = c.cell_x " +
+                    " AND cluster_cell_y(ST_Y(f.geom), c.zoom) = c.cell_y) " +
+                    "FROM generate_series(0, ?) AS z(zoom) " +
+                    "WHERE c.layer_id = ? AND c.zoom = z.zoom " +
+                    "AND c.cell_x = cluster_cell_x(?, z.zoom) AND c.cell_y = cluster_cell_y(?, z.zoom) " +
+                    "AND (c.min_lng = ? OR c.max_lng = ? OR c.min_lat = ? OR c.max_lat = ?)",
+                    removed, removed.size(), (ps, p) -> {
+                        ps.setInt(1, maxZoom);
+                        ps.setObject(2, layerId);
+                        ps.setDouble(3, p.getX());
+                        ps.setDouble(4, p.getY());
+                        ps.setDouble(5, p.getX());
+                        ps.setDouble(6, p.getX());
+                        ps.setDouble(7, p.getY());
+                        ps.setDouble(8, p.getY());
+                    });
+        }
+
+        if (!added.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO cluster_cells (layer_id, zoom, cell_x, cell_y, point_count, " +
+                    "sum_lng, sum_lat, min_lng, min_lat, max_lng, max_lat) " +
+                    "SELECT ?, z.zoom, cluster_cell_x(?, z.zoom), cluster_cell_y(?, z.zoom), 1, ?, ?, ?, ?, ?, ? " +
+                    "FROM generate_series(0, ?) AS z(zoom) " +
+                    "ON CONFLICT (layer_id, zoom, cell_x, cell_y) DO UPDATE SET " +
+                    "point_count = cluster_cells.point_count + 1, " +
+                    "sum_lng = cluster_cells.sum_lng + EXCLUDED.sum_lng, " +
+                    "sum_lat = cluster_cells.sum_lat + EXCLUDED.sum_lat, " +
+                    "min_lng = LEAST(cluster_cells.min_lng, EXCLUDED.min_lng), " +
+                    "min_lat = LEAST(cluster_cells.min_lat, EXCLUDED.min_lat), " +
+                    "max_lng = GREATEST(cluster_cells.max_lng, EXCLUDED.max_lng), " +
+                    "max_lat = GREATEST(cluster_cells.max_lat, EXCLUDED.max_lat)",
+                    added, added.size(), (ps, p) -> {
+                        ps.setObject(1, layerId);
+                        ps.setDouble(2, p.getX());
+                        ps.setDouble(3, p.getY());
+                        ps.setDouble(4, p.getX());
+                        ps.setDouble(5, p.getY());
+                        ps.setDouble(6, p.getX());
+                        ps.setDouble(7, p.getY());
+                        ps.setDouble(8, p.getX());
+                        ps.setDouble(9, p.getY());
+                        ps.setInt(10, maxZoom);
+                    });
+        }
+
+        // Retire the cached cells and cluster tiles of the touched tiles at every zoom
+        List<Point> touched = new ArrayList<>(added);
+        touched.addAll(removed);
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO cluster_tile_versions (layer_id, zoom, tile_x, tile_y, version) " +
+                "SELECT ?, z.zoom, cluster_cell_x(?, z.zoom) / ?, cluster_cell_y(?, z.zoom) / ?, " +
+                "nextval('cluster_tile_version_seq') FROM generate_series(0, ?) AS z(zoom) " +
+                "ON CONFLICT (layer_id, zoom, tile_x, tile_y) DO UPDATE SET version = EXCLUDED.version",
+                touched, touched.size(), (ps, p) -> {
+                    ps.setObject(1, layerId);
+                    ps.setDouble(2, p.getX());
+                    ps.setInt(3, CELLS_PER_TILE);
+                    ps.setDouble(4, p.getY());
+                    ps.setInt(5, CELLS_PER_TILE);
+                    ps.setInt(6, maxZoom);
+                });
+    }
+
+    /**
+     * Version of the cells of one tile, or null while the layer's cells are not built. It changes
+     * whenever the cells of the tile do, so results derived from them can be cached under it.
+     */
+    public Long getTileVersion(UUID layerId, int z, int tx, int ty) {
+        Map<Long, Long> versions = tileVersions(layerId, z, tx, tx, ty, ty);
+        return versions != null ? versions.get(tileKey(tx, ty)) : null;
+    }
+
+    /**
+     * Clusters for a bounding box at a zoom level, served from the maintained cells.
+     * Results are cached per tile so that edits only invalidate the tiles they touch.
+     */
+    public List<ClusterPoint> findClusters(UUID layerId, int zoom,
+                                           double minLng, double minLat, double maxLng, double maxLat) {
+        int z = Math.max(0, Math.min(zoom, maxZoom));
+        int minTileX = TileMath.tileX(minLng, z);
+        int maxTileX = TileMath.tileX(maxLng, z);
+        int minTileY = TileMath.tileY(maxLat, z);
+        int maxTileY = TileMath.tileY(minLat, z);
+        long tileCount = (long) (maxTileX - minTileX + 1) * (maxTileY - minTileY + 1);
+
+        if (tileCount > MAX_CACHED_TILES_PER_REQUEST) {
+            // Large areas are read in one range query without per-tile caching
+            return queryCells(layerId, z,
+                    minTileX * CELLS_PER_TILE, (maxTileX + 1) * CELLS_PER_TILE - 1,
+                    minTileY * CELLS_PER_TILE, (maxTileY + 1) * CELLS_PER_TILE - 1);
+        }
+
+        Map<Long, Long> versions = tileVersions(layerId, z, minTileX, maxTileX, minTileY, maxTileY);
+        List<ClusterPoint> result = new ArrayList<>();
+        for (int tx = minTileX; tx <= maxTileX; tx++) {
+            for (int ty = minTileY; ty <= maxTileY; ty++) {
+                result.addAll(versions != null
+                        ? findTileClusters(layerId, z, tx, ty, versions.get(tileKey(tx, ty)))
+                        : queryCells(layerId, z, tx * CELLS_PER_TILE, (tx + 1) * CELLS_PER_TILE - 1,
+                                ty * CELLS_PER_TILE, (ty + 1) * CELLS_PER_TILE - 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clusters of exactly one tile of the given version (see getTileVersion), from cache or the cell table
+     */
+    public List<ClusterPoint> findTileClusters(UUID layerId, int z, int tx, int ty, long version) {
+        String key = cacheService.generateClusterCellKey(layerId, version, z, tx, ty);
+        List<ClusterPoint> cached = cacheService.getCachedCluster(key, ClusterPoint.class);
+        if (cached != null) {
+            return cached;
+        }
+        List<ClusterPoint> clusters = queryCells(layerId, z,
+                tx * CELLS_PER_TILE, (tx + 1) * CELLS_PER_TILE - 1,
+                ty * CELLS_PER_TILE, (ty + 1) * CELLS_PER_TILE - 1);
+        cacheService.cacheCluster(key, clusters, null);
+        return clusters;
+    }
+
+    /**
+     * Versions of the tiles of a range keyed by tileKey, or null while the cells are not built.
+     * Tiles no edit touched since the build carry the version of the build. Versions are read
+     * before the cells, so cells read afterwards are never older than their version.
+     */
+    private Map<Long, Long> tileVersions(UUID layerId, int z, int minTx, int maxTx, int minTy, int maxTy) {
+        List<Long> build = jdbcTemplate.queryForList(
+                "SELECT version FROM layer_aggregate_state " +
+                "WHERE layer_id = ? AND aggregate = ? AND status = 'READY' AND version IS NOT NULL",
+                Long.class, layerId, AGGREGATE);
+        if (build.isEmpty()) {
+            return null;
+        }
+        Map<Long, Long> versions = new HashMap<>();
+        for (int tx = minTx; tx <= maxTx; tx++) {
+            for (int ty = minTy; ty <= maxTy; ty++) {
+                versions.put(tileKey(tx, ty), build.get(0));
+            }
+        }
+        jdbcTemplate.query(
+                "SELECT tile_x, tile_y, version FROM cluster_tile_versions " +
+                "WHERE layer_id = ? AND zoom = ? AND tile_x BETWEEN ? AND ? AND tile_y BETWEEN ? AND ?",
+                rs -> {
+                    versions.put(tileKey(rs.getInt(1), rs.getInt(2)), rs.getLong(3));
+                },
+                layerId, z, minTx, maxTx, minTy, maxTy);
+        return versions;
+    }
+
+    private static long tileKey(int tx, int ty) {
+        return (long) tx << 32 | ty;
+    }
+
+    private List<ClusterPoint> queryCells(UUID layerId, int z, int minX, int maxX, int minY, int maxY) {
+        return jdbcTemplate.query(
+                "SELECT point_count, sum_lng, sum_lat, min_lng, min_lat, max_lng, max_lat " +
+                "FROM cluster_cells WHERE layer_id = ? AND zoom = ? " +
+                "AND cell_x BETWEEN ? AND ? AND cell_y BETWEEN ? AND ?",
+                (rs, rowNum) -> {
+                    long count = rs.getLong(1);
+                    return ClusterPoint.builder()
+                            .longitude(rs.getDouble(2) / count)
+                            .latitude(rs.getDouble(3) / count)
+                            .pointCount((int) count)
+                            .isCluster(count > 1)
+                            .bounds(ClusterPoint.ClusterBounds.builder()
+                                    .minLng(rs.getDouble(4))
+                                    .minLat(rs.getDouble(5))
+                                    .maxLng(rs.getDouble(6))
+                                    .maxLat(rs.getDouble(7))
+                                    .build())
+                            .build();
+                },
+                layerId, z, minX, maxX, minY, maxY);
+    }
+
+    private void lock(UUID layerId) {
+        jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(hashtext(?))::text",
+                String.class, AGGREGATE + ":" + layerId);
+    }
+
+    private void setStatus(UUID layerId, String status) {
+        jdbcTemplate.update(
+                "INSERT INTO layer_aggregate_state (layer_id, aggregate, status, built_at) " +
+                "VALUES (?, ?, ?, CASE WHEN ? = 'READY' THEN CURRENT_TIMESTAMP END) " +
+                "ON CONFLICT (layer_id, aggregate) DO UPDATE SET status = EXCLUDED.status, " +
+                "built_at = COALESCE(EXCLUDED.built_at, layer_aggregate_state.built_at), " +
+                "failed_generation = NULL",
+                layerId, AGGREGATE, status, status);
+    }
+
+    /**
+     * Record a failed build; the BUILDING status it left behind becomes FAILED, since edits
+     * made during the build were not applied to the cells
+     */
+    private void setFailed(UUID layerId, long generation) {
+        jdbcTemplate.update(
+                "INSERT INTO layer_aggregate_state (layer_id, aggregate, status, failed_generation) " +
+                "VALUES (?, ?, 'FAILED', ?) " +
+                "ON CONFLICT (layer_id, aggregate) DO UPDATE SET failed_generation = EXCLUDED.failed_generation, " +
+                "status = CASE WHEN layer_aggregate_state.status = 'READY' THEN 'READY' ELSE 'FAILED' END",
+                layerId, AGGREGATE, generation);
+    }
+}
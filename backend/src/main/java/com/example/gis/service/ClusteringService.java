@@ -5,11 +5,15 @@ import com.example.gis.dto.ClusterRequest;
 import com.example.gis.entity.Feature;
 import com.example.gis.repository.FeatureRepository;
 import com.example.gis.service.CacheService;
+import com.example.gis.util.DbscanClusterer;
+import com.example.gis.util.MvtEncoder;
+import com.example.gis.util.TileMath;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Point;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
@@ -21,6 +25,17 @@ import java.util.stream.Collectors;
 public class ClusteringService {
     private final FeatureRepository featureRepository;
     private final CacheService cacheService;
+    private final ClusterCellService clusterCellService;
+    private final DensityPyramidService densityPyramidService;
+
+    private static final double DEFAULT_EPS_METERS = 100.0;
+    private static final int DEFAULT_MIN_PTS = 5;
+    private static final int DEFAULT_K = 10;
+    private static final int MAX_CLUSTER_FEATURE_IDS = 100;
+
+    // Above this many points in the request area, clustering is pushed down to PostGIS
+    @Value("${gis.clustering.pushdown-threshold:50000}")
+    private long pushdownThreshold;
 
     /**
      * Cluster features based on zoom level and bounding box
@@ -30,6 +45,78 @@ public class ClusteringService {
             throw new IllegalArgumentException("Layer ID is required");
         }
 
+        String mode = request.getMode() != null ? request.getMode().toLowerCase() : "grid";
+        if (!mode.equals("grid") && !mode.equals("cells") && !mode.equals("density")
+                && !mode.equals("dbscan") && !mode.equals("kmeans")) {
+            throw new IllegalArgumentException("Unsupported clustering mode: " + request.getMode());
+        }
+        String execution = request.getExecution() != null ? request.getExecution().toLowerCase() : "auto";
+        if (!execution.equals("auto") && !execution.equals("jvm") && !execution.equals("database")) {
+            throw new IllegalArgumentException("Unsupported clustering execution: " + request.getExecution());
+        }
+        if (mode.equals("kmeans") && execution.equals("jvm")) {
+            throw new IllegalArgumentException("K-means clustering is only available with database execution");
+        }
+
+        int zoom = request.getZoom() != null ? request.getZoom() : 12;
+        int clusterRadius = request.getClusterRadius() != null ? 
+                request.getClusterRadius() : calculateClusterRadius(zoom);
+        double epsMeters = request.getEpsMeters() != null ? request.getEpsMeters() : DEFAULT_EPS_METERS;
+        int minPts = request.getMinPts() != null ? request.getMinPts() : DEFAULT_MIN_PTS;
+        int k = request.getK() != null ? request.getK() : DEFAULT_K;
+        if (epsMeters <= 0 || minPts < 1 || k < 1) {
+            throw new IllegalArgumentException("epsMeters must be positive, minPts and k at least 1");
+        }
+
+        if (mode.equals("cells")) {
+            double[] bbox = resolveBbox(request);
+            if (clusterCellService.isReady(request.getLayerId())) {
+                return clusterCellService.findClusters(
+                        request.getLayerId(), zoom, bbox[0], bbox[1], bbox[2], bbox[3]);
+            }
+            // Cells are built on first use; serve grid clusters until they are ready
+            clusterCellService.buildOnDemand(request.getLayerId());
+            mode = "grid";
+        }
+        if (mode.equals("density")) {
+            double[] bbox = resolveBbox(request);
+            if (densityPyramidService.isReady(request.getLayerId())) {
+                return densityPyramidService.findClusters(
+                        request.getLayerId(), zoom, bbox[0], bbox[1], bbox[2], bbox[3]);
+            }
+            // The pyramid is built on first use; serve grid clusters until it is ready
+            densityPyramidService.buildOnDemand(request.getLayerId());
+            mode = "grid";
+        }
+
+        // Generate cache key; the generation changes whenever the layer's points are edited
+        String cacheKey = cacheService.generateSpatialQueryKey(
+                request.getLayerId(),
+                "cluster",
+                cacheService.getLayerGeneration(request.getLayerId()),
+                mode,
+                execution,
+                zoom,
+                request.getMinLng(), request.getMinLat(),
+                request.getMaxLng(), request.getMaxLat(),
+                clusterRadius,
+                epsMeters,
+                minPts,
+                k
+        );
+
+        // Try cache first
+        List<ClusterPoint> cached = cacheService.getCachedCluster(cacheKey, ClusterPoint.class);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (shouldPushDown(request, mode, execution)) {
+            List<ClusterPoint> result = clusterInDatabase(request, mode, clusterRadius, epsMeters, minPts, k);
+            cacheService.cacheCluster(cacheKey, result, null);
+            return result;
+        }
+
         // Get features in bounding box
         List<Feature> features;
         if (request.getMinLng() != null && request.getMinLat() != null &&
@@ -49,10 +136,6 @@ public class ClusteringService {
             ).getContent();
         }
 
-        if (features.isEmpty()) {
-            return Collections.emptyList();
-        }
-
         // Filter to only Point geometries for clustering
         List<Feature> pointFeatures = features.stream()
                 .filter(f -> f.getGeom() instanceof Point)
@@ -62,47 +145,189 @@ public class ClusteringService {
             return Collections.emptyList();
         }
 
-        int zoom = request.getZoom() != null ? request.getZoom() : 12;
-        int clusterRadius = request.getClusterRadius() != null ? 
-                request.getClusterRadius() : calculateClusterRadius(zoom);
+        List<ClusterPoint> result = mode.equals("dbscan")
+                ? performDbscanClustering(pointFeatures, epsMeters, minPts)
+                : performClustering(pointFeatures, clusterRadius, request);
 
-        // Generate cache key
-        String cacheKey = cacheService.generateSpatialQueryKey(
-                request.getLayerId(),
-                "cluster",
-                zoom,
-                request.getMinLng(), request.getMinLat(),
-                request.getMaxLng(), request.getMaxLat(),
-                clusterRadius
-        );
+        // Cache result
+        cacheService.cacheCluster(cacheKey, result, null);
 
-        // Try cache first
-        List<ClusterPoint> cached = cacheService.getCachedCluster(cacheKey, ClusterPoint.class);
+        return result;
+    }
+
+    /**
+     * Clusters of one z/x/y tile encoded as a Mapbox Vector Tile with a "clusters" point layer.
+     * Tiles are shared across users in the tile cache: tiles served from the cluster cells under
+     * the version of their cells, so an edit only retires the tiles it touches, and tiles beyond
+     * the cell zooms under the layer generation.
+     */
+    public byte[] getClusterTile(UUID layerId, int z, int x, int y) {
+        TileMath.validateTile(z, x, y);
+        if (z > ClusterCellService.MAX_TILE_ZOOM) {
+            throw new IllegalArgumentException("Cluster tiles are available up to zoom " + ClusterCellService.MAX_TILE_ZOOM);
+        }
+        boolean cells = z <= clusterCellService.getMaxZoom();
+        Long cellVersion = cells ? clusterCellService.getTileVersion(layerId, z, x, y) : null;
+        if (cells && cellVersion == null) {
+            // Cells are still being built; cluster the tile's points directly without caching
+            return encodeClusterTile(clusterFeatures(tileRequest(layerId, z, x, y, "cells")), z, x, y);
+        }
+
+        String tileKey = cacheService.generateClusterTileKey(layerId,
+                cells ? "c" + cellVersion : "g" + cacheService.getLayerGeneration(layerId), z, x, y);
+        byte[] cached = cacheService.getCachedTile(tileKey);
         if (cached != null) {
             return cached;
         }
 
-        List<ClusterPoint> result = performClustering(pointFeatures, clusterRadius, request);
+        List<ClusterPoint> clusters = cells
+                ? clusterCellService.findTileClusters(layerId, z, x, y, cellVersion)
+                : clusterFeatures(tileRequest(layerId, z, x, y, "grid"));
+        byte[] tile = encodeClusterTile(clusters, z, x, y);
+        cacheService.cacheTile(tileKey, tile, null);
+        return tile;
+    }
 
-        // Cache result
-        cacheService.cacheCluster(cacheKey, result, null);
+    private static ClusterRequest tileRequest(UUID layerId, int z, int x, int y, String mode) {
+        double[] bounds = TileMath.tileBounds(z, x, y);
+        ClusterRequest request = new ClusterRequest();
+        request.setLayerId(layerId);
+        request.setZoom(z);
+        request.setMinLng(bounds[0]);
+        request.setMinLat(bounds[1]);
+        request.setMaxLng(bounds[2]);
+        request.setMaxLat(bounds[3]);
+        request.setMode(mode);
+        return request;
+    }
 
-        return result;
+    private byte[] encodeClusterTile(List<ClusterPoint> clusters, int z, int x, int y) {
+        MvtEncoder.Layer layer = new MvtEncoder.Layer("clusters", MvtEncoder.DEFAULT_EXTENT);
+        double n = Math.pow(2, z);
+        long id = 1;
+        for (ClusterPoint cluster : clusters) {
+            int px = (int) Math.round((TileMath.mercatorX(cluster.getLongitude()) * n - x) * layer.getExtent());
+            int py = (int) Math.round((TileMath.mercatorY(cluster.getLatitude()) * n - y) * layer.getExtent());
+            Map<String, Object> properties = new LinkedHashMap<>();
+            properties.put("cluster", Boolean.TRUE.equals(cluster.getIsCluster()));
+            properties.put("point_count", cluster.getPointCount());
+            properties.put("point_count_abbreviated", abbreviateCount(cluster.getPointCount()));
+            if (!Boolean.TRUE.equals(cluster.getIsCluster()) && cluster.getFeatureIds() != null
+                    && !cluster.getFeatureIds().isEmpty()) {
+                properties.put("feature_id", cluster.getFeatureIds().get(0).toString());
+            }
+            layer.addPoint(id++, px, py, properties);
+        }
+        return MvtEncoder.encode(layer);
+    }
+
+    /**
+     * Short label for a point count, e.g. 950, 1.2k, 15k
+     */
+    private static String abbreviateCount(int count) {
+        if (count >= 10000) {
+            return Math.round(count / 1000.0) + "k";
+        }
+        if (count >= 1000) {
+            return (Math.round(count / 100.0) / 10.0) + "k";
+        }
+        return String.valueOf(count);
+    }
+
+    /**
+     * Decide whether clustering runs in PostGIS: always for k-means or explicit database
+     * execution, and in auto mode when the request area holds more points than the JVM
+     * path should load.
+     */
+    private boolean shouldPushDown(ClusterRequest request, String mode, String execution) {
+        if (mode.equals("kmeans") || execution.equals("database")) {
+            return true;
+        }
+        if (execution.equals("jvm")) {
+            return false;
+        }
+        double[] bbox = resolveBbox(request);
+        // The density pyramid answers the count without scanning features when it is built
+        long pointCount = densityPyramidService.isReady(request.getLayerId())
+                ? densityPyramidService.countPoints(request.getLayerId(), bbox[0], bbox[1], bbox[2], bbox[3])
+                : featureRepository.countPointsInBbox(request.getLayerId(), bbox[0], bbox[1], bbox[2], bbox[3]);
+        log.debug("Layer {} has {} points in cluster area (pushdown threshold {})",
+                request.getLayerId(), pointCount, pushdownThreshold);
+        return pointCount > pushdownThreshold;
+    }
+
+    /**
+     * Cluster inside PostGIS so that only per-cluster aggregates cross the wire
+     */
+    private List<ClusterPoint> clusterInDatabase(ClusterRequest request, String mode,
+                                                 int clusterRadius, double epsMeters, int minPts, int k) {
+        double[] bbox = resolveBbox(request);
+        List<Object[]> rows;
+        switch (mode) {
+            case "dbscan":
+                // Web Mercator has no poles: keep to its latitudes, as the tiles do, so that points
+                // of the default whole-world extent can be projected
+                double minLat = Math.max(bbox[1], -TileMath.MAX_LATITUDE);
+                double maxLat = Math.min(bbox[3], TileMath.MAX_LATITUDE);
+                // Web Mercator stretches distances by 1/cos(lat); scale eps at the area's centre
+                double centerLat = Math.toRadians((minLat + maxLat) / 2.0);
+                double epsMercator = epsMeters / Math.max(Math.cos(centerLat), 0.01);
+                rows = featureRepository.clusterPointsByDbscan(
+                        request.getLayerId(), bbox[0], minLat, bbox[2], maxLat, epsMercator, minPts);
+                break;
+            case "kmeans":
+                rows = featureRepository.clusterPointsByKMeans(
+                        request.getLayerId(), bbox[0], bbox[1], bbox[2], bbox[3], k);
+                break;
+            case "grid":
+            default:
+                // Same cell size as the JVM grid clustering
+                double cellSize = clusterRadius / 1000000.0;
+                rows = featureRepository.clusterPointsByGrid(
+                        request.getLayerId(), bbox[0], bbox[1], bbox[2], bbox[3], cellSize);
+                break;
+        }
+
+        List<ClusterPoint> clusters = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            int count = ((Number) row[0]).intValue();
+            clusters.add(ClusterPoint.builder()
+                    .longitude(((Number) row[1]).doubleValue())
+                    .latitude(((Number) row[2]).doubleValue())
+                    .pointCount(count)
+                    .isCluster(count > 1)
+                    .featureIds(row[7] != null ? Collections.singletonList(UUID.fromString(row[7].toString())) : null)
+                    .bounds(ClusterPoint.ClusterBounds.builder()
+                            .minLng(((Number) row[3]).doubleValue())
+                            .minLat(((Number) row[4]).doubleValue())
+                            .maxLng(((Number) row[5]).doubleValue())
+                            .maxLat(((Number) row[6]).doubleValue())
+                            .build())
+                    .build());
+        }
+        return clusters;
+    }
+
+    /**
+     * Request bounding box as [minLng, minLat, maxLng, maxLat], the whole world when absent
+     */
+    private double[] resolveBbox(ClusterRequest request) {
+        if (request.getMinLng() != null && request.getMinLat() != null &&
+            request.getMaxLng() != null && request.getMaxLat() != null) {
+            return new double[]{request.getMinLng(), request.getMinLat(), request.getMaxLng(), request.getMaxLat()};
+        }
+        return new double[]{-180.0, -90.0, 180.0, 90.0};
     }
 
     /**
-     * Calculate cluster radius in degrees based on zoom level
+     * Calculate cluster radius in micro-degrees based on zoom level
      * Higher zoom = smaller radius (more clusters)
      * Lower zoom = larger radius (fewer clusters)
      */
     private int calculateClusterRadius(int zoom) {
-        // Base radius in degrees (approximate)
-        // At zoom 0: ~180 degrees (entire world)
-        // At zoom 18: ~0.001 degrees (~100 meters)
-        double baseRadius = 180.0 / Math.pow(2, zoom);
-        // Convert to a reasonable pixel-based radius
-        // Assuming ~256 pixels per tile, and we want ~50-100 pixel clusters
-        return (int) (baseRadius * 0.1); // Adjust multiplier as needed
+        // 64 pixel cells, the same width as the maintained cluster cells
+        double cellDegrees = 360.0 / (ClusterCellService.CELLS_PER_TILE * Math.pow(2, zoom));
+        return (int) Math.max(1, Math.round(cellDegrees * 1000000.0));
     }
 
     /**
@@ -134,182 +359,123 @@ public class ClusteringService {
         
         // Convert grid clusters to ClusterPoints
         List<ClusterPoint> clusters = new ArrayList<>();
+        for (List<Feature> clusterFeatures : gridClusters.values()) {
+            clusters.add(toClusterPoint(clusterFeatures));
+        }
         
-        for (Map.Entry<String, List<Feature>> entry : gridClusters.entrySet()) {
-            List<Feature> clusterFeatures = entry.getValue();
-            
-            if (clusterFeatures.size() == 1) {
-                // Single point (not a cluster)
-                Feature feature = clusterFeatures.get(0);
-                Point point = (Point) feature.getGeom();
-                
-                clusters.add(ClusterPoint.builder()
-                        .longitude(point.getX())
-                        .latitude(point.getY())
-                        .pointCount(1)
-                        .isCluster(false)
-                        .featureIds(Collections.singletonList(feature.getId()))
-                        .bounds(ClusterPoint.ClusterBounds.builder()
-                                .minLng(point.getX())
-                                .minLat(point.getY())
-                                .maxLng(point.getX())
-                                .maxLat(point.getY())
-                                .build())
-                        .build());
+        return clusters;
+    }
+
+    /**
+     * Density-based clustering (DBSCAN) using a grid neighbourhood index.
+     * Noise points are returned as single, unclustered points.
+     */
+    private List<ClusterPoint> performDbscanClustering(List<Feature> features, double epsMeters, int minPts) {
+        int size = features.size();
+        double[] lng = new double[size];
+        double[] lat = new double[size];
+        for (int i = 0; i < size; i++) {
+            Point point = (Point) features.get(i).getGeom();
+            lng[i] = point.getX();
+            lat[i] = point.getY();
+        }
+
+        int[] labels = DbscanClusterer.cluster(lng, lat, size, epsMeters, minPts);
+
+        Map<Integer, List<Feature>> groups = new LinkedHashMap<>();
+        List<ClusterPoint> clusters = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (labels[i] == DbscanClusterer.NOISE) {
+                clusters.add(toClusterPoint(Collections.singletonList(features.get(i))));
             } else {
-                // Cluster of multiple points
-                double sumLng = 0;
-                double sumLat = 0;
-                double minLng = Double.MAX_VALUE;
-                double minLat = Double.MAX_VALUE;
-                double maxLng = Double.MIN_VALUE;
-                double maxLat = Double.MIN_VALUE;
-                List<UUID> featureIds = new ArrayList<>();
-                
-                for (Feature feature : clusterFeatures) {
-                    Point point = (Point) feature.getGeom();
-                    double lng = point.getX();
-                    double lat = point.getY();
-                    
-                    sumLng += lng;
-                    sumLat += lat;
-                    minLng = Math.min(minLng, lng);
-                    minLat = Math.min(minLat, lat);
-                    maxLng = Math.max(maxLng, lng);
-                    maxLat = Math.max(maxLat, lat);
-                    
-                    featureIds.add(feature.getId());
-                }
-                
-                // Calculate centroid
-                double centroidLng = sumLng / clusterFeatures.size();
-                double centroidLat = sumLat / clusterFeatures.size();
-                
-                clusters.add(ClusterPoint.builder()
-                        .longitude(centroidLng)
-                        .latitude(centroidLat)
-                        .pointCount(clusterFeatures.size())
-                        .isCluster(true)
-                        .featureIds(featureIds.size() <= 100 ? featureIds : null) // Limit IDs for performance
-                        .bounds(ClusterPoint.ClusterBounds.builder()
-                                .minLng(minLng)
-                                .minLat(minLat)
-                                .maxLng(maxLng)
-                                .maxLat(maxLat)
-                                .build())
-                        .build());
+                groups.computeIfAbsent(labels[i], k -> new ArrayList<>()).add(features.get(i));
             }
         }
-        
+        for (List<Feature> group : groups.values()) {
+            clusters.add(toClusterPoint(group));
+        }
         return clusters;
     }
 
     /**
-     * Alternative: Distance-based clustering using K-means-like approach
-     * This is more accurate but slower for large datasets
+     * Distance-based clustering: features closer than maxDistance meters (directly or
+     * through a chain of neighbours) end up in the same cluster. Backed by the grid
+     * DBSCAN engine with minPts = 1, so the result is independent of feature order.
      */
     public List<ClusterPoint> clusterFeaturesByDistance(
             List<Feature> features, 
             double maxDistance) {
-        
-        List<ClusterPoint> clusters = new ArrayList<>();
-        Set<Feature> processed = new HashSet<>();
-        
-        for (Feature feature : features) {
-            if (processed.contains(feature)) {
-                continue;
-            }
-            
-            Point point = (Point) feature.getGeom();
-            List<Feature> clusterFeatures = new ArrayList<>();
-            clusterFeatures.add(feature);
-            processed.add(feature);
-            
-            // Find nearby features
-            for (Feature other : features) {
-                if (processed.contains(other)) {
-                    continue;
-                }
-                
-                Point otherPoint = (Point) other.getGeom();
-                double distance = calculateDistance(
-                        point.getX(), point.getY(),
-                        otherPoint.getX(), otherPoint.getY()
-                );
-                
-                if (distance <= maxDistance) {
-                    clusterFeatures.add(other);
-                    processed.add(other);
-                }
-            }
-            
-            // Create cluster point
-            if (clusterFeatures.size() == 1) {
-                Point p = (Point) clusterFeatures.get(0).getGeom();
-                clusters.add(ClusterPoint.builder()
-                        .longitude(p.getX())
-                        .latitude(p.getY())
-                        .pointCount(1)
-                        .isCluster(false)
-                        .featureIds(Collections.singletonList(clusterFeatures.get(0).getId()))
-                        .build());
-            } else {
-                // Calculate centroid
-                double sumLng = 0;
-                double sumLat = 0;
-                double minLng = Double.MAX_VALUE;
-                double minLat = Double.MAX_VALUE;
-                double maxLng = Double.MIN_VALUE;
-                double maxLat = Double.MIN_VALUE;
-                List<UUID> featureIds = new ArrayList<>();
-                
-                for (Feature f : clusterFeatures) {
-                    Point p = (Point) f.getGeom();
-                    sumLng += p.getX();
-                    sumLat += p.getY();
-                    minLng = Math.min(minLng, p.getX());
-                    minLat = Math.min(minLat, p.getY());
-                    maxLng = Math.max(maxLng, p.getX());
-                    maxLat = Math.max(maxLat, p.getY());
-                    featureIds.add(f.getId());
-                }
-                
-                clusters.add(ClusterPoint.builder()
-                        .longitude(sumLng / clusterFeatures.size())
-                        .latitude(sumLat / clusterFeatures.size())
-                        .pointCount(clusterFeatures.size())
-                        .isCluster(true)
-                        .featureIds(featureIds.size() <= 100 ? featureIds : null)
-                        .bounds(ClusterPoint.ClusterBounds.builder()
-                                .minLng(minLng)
-                                .minLat(minLat)
-                                .maxLng(maxLng)
-                                .maxLat(maxLat)
-                                .build())
-                        .build());
-            }
+        List<Feature> pointFeatures = features.stream()
+                .filter(f -> f.getGeom() instanceof Point)
+                .collect(Collectors.toList());
+        if (pointFeatures.isEmpty()) {
+            return Collections.emptyList();
         }
-        
-        return clusters;
+        return performDbscanClustering(pointFeatures, maxDistance, 1);
     }
 
     /**
-     * Calculate distance between two points in meters (Haversine formula)
+     * Build a cluster point (or a single point) from a group of point features
      */
-    private double calculateDistance(double lng1, double lat1, double lng2, double lat2) {
-        final int R = 6371000; // Earth radius in meters
-        
-        double lat1Rad = Math.toRadians(lat1);
-        double lat2Rad = Math.toRadians(lat2);
-        double deltaLat = Math.toRadians(lat2 - lat1);
-        double deltaLng = Math.toRadians(lng2 - lng1);
+    private ClusterPoint toClusterPoint(List<Feature> clusterFeatures) {
+        if (clusterFeatures.size() == 1) {
+            // Single point (not a cluster)
+            Feature feature = clusterFeatures.get(0);
+            Point point = (Point) feature.getGeom();
+            
+            return ClusterPoint.builder()
+                    .longitude(point.getX())
+                    .latitude(point.getY())
+                    .pointCount(1)
+                    .isCluster(false)
+                    .featureIds(Collections.singletonList(feature.getId()))
+                    .bounds(ClusterPoint.ClusterBounds.builder()
+                            .minLng(point.getX())
+                            .minLat(point.getY())
+                            .maxLng(point.getX())
+                            .maxLat(point.getY())
+                            .build())
+                    .build();
+        }
+
+        // Cluster of multiple points
+        double sumLng = 0;
+        double sumLat = 0;
+        double minLng = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        List<UUID> featureIds = new ArrayList<>();
         
-        double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2) +
-                Math.cos(lat1Rad) * Math.cos(lat2Rad) *
-                Math.sin(deltaLng / 2) * Math.sin(deltaLng / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        for (Feature feature : clusterFeatures) {
+            Point point = (Point) feature.getGeom();
+            double lng = point.getX();
+            double lat = point.getY();
+            
+            sumLng += lng;
+            sumLat += lat;
+            minLng = Math.min(minLng, lng);
+            minLat = Math.min(minLat, lat);
+            maxLng = Math.max(maxLng, lng);
+            maxLat = Math.max(maxLat, lat);
+            
+            if (clusterFeatures.size() <= MAX_CLUSTER_FEATURE_IDS) {
+                featureIds.add(feature.getId());
+            }
+        }
         
-        return R * c;
+        return ClusterPoint.builder()
+                .longitude(sumLng / clusterFeatures.size())
+                .latitude(sumLat / clusterFeatures.size())
+                .pointCount(clusterFeatures.size())
+                .isCluster(true)
+                .featureIds(clusterFeatures.size() <= MAX_CLUSTER_FEATURE_IDS ? featureIds : null) // Limit IDs for performance
+                .bounds(ClusterPoint.ClusterBounds.builder()
+                        .minLng(minLng)
+                        .minLat(minLat)
+                        .maxLng(maxLng)
+                        .maxLat(maxLat)
+                        .build())
+                .build();
     }
 }
-
@@ -0,0 +1,264 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.dto.CoverageRequest;
+import com.example.gis.dto.LayerDto;
+import com.example.gis.entity.Layer;
+import com.example.gis.entity.User;
+import com.example.gis.repository.AnalysisOutputRepository;
+import com.example.gis.repository.LayerRepository;
+import com.example.gis.repository.PointColumnRepository;
+import com.example.gis.util.Dijkstra;
+import com.example.gis.util.RoadGraph;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Service-area coverage: which demand points are within given travel times of any facility.
+ *
+ * All facilities seed one multi-source Dijkstra on the reversed road graph, so a single search
+ * (bounded by the largest threshold) gives every node its nearest facility and the travel time
+ * from that node to it. Demand points are then labelled by snapping to their node, in parallel.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CoverageService {
+    public static final String JOB_TYPE = "coverage";
+
+    private final RoadNetworkService roadNetworkService;
+    private final IsochroneService isochroneService;
+    private final AnalysisJobService analysisJobService;
+    private final PointColumnRepository pointColumnRepository;
+    private final AnalysisOutputRepository analysisOutputRepository;
+    private final LayerRepository layerRepository;
+    private final LayerService layerService;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${gis.routing.max-snap-meters:1000}")
+    private double maxSnapMeters;
+
+    /**
+     * Validate the request and start the coverage job
+     */
+    public AnalysisJob analyze(CoverageRequest request) {
+        UUID networkLayerId = request.getNetworkLayerId() != null
+                ? request.getNetworkLayerId()
+                : isochroneService.defaultNetworkLayerId();
+        if (networkLayerId == null) {
+            throw new IllegalArgumentException("Network layer ID is required");
+        }
+        Layer facilityLayer = pointLayer(request.getFacilityLayerId(), "Facility");
+        Layer demandLayer = pointLayer(request.getDemandLayerId(), "Demand");
+        int[] thresholds = (request.getThresholds() != null && !request.getThresholds().isEmpty()
+                ? request.getThresholds() : List.of(600)).stream()
+                .mapToInt(value -> {
+                    if (value == null || value <= 0) {
+                        throw new IllegalArgumentException("Thresholds must be positive");
+                    }
+                    return value;
+                })
+                .sorted()
+                .distinct()
+                .toArray();
+        RoadGraph.Profile profile = RoadGraph.Profile.of(request.getProfile());
+        String weightProperty = request.getWeightProperty() != null && !request.getWeightProperty().isBlank()
+                ? request.getWeightProperty() : null;
+        // The job runs on an executor thread without the request's security context
+        User user = layerService.getCurrentUser();
+
+        return analysisJobService.submit(JOB_TYPE,
+                "Coverage of " + demandLayer.getName() + " by " + facilityLayer.getName(),
+                progress -> run(networkLayerId, facilityLayer, demandLayer, thresholds, profile, weightProperty,
+                        !Boolean.FALSE.equals(request.getCreateLayer()), request.getLayerName(), user, progress));
+    }
+
+    private Map<String, Object> run(UUID networkLayerId, Layer facilityLayer, Layer demandLayer, int[] thresholds,
+                                    RoadGraph.Profile profile, String weightProperty, boolean createLayer,
+                                    String layerName, User user, DoubleConsumer progress) {
+        long started = System.currentTimeMillis();
+        RoadGraph graph = roadNetworkService.getGraph(networkLayerId);
+        // Searching the reversed graph from the facilities gives travel times towards them
+        RoadGraph reverse = graph.reverse();
+        float limit = thresholds[thresholds.length - 1];
+
+        PointColumnRepository.PointColumns facilities = pointColumnRepository.findIdentifiedPoints(
+                facilityLayer.getId(), null);
+        int facilityCount = facilities.getSize();
+        int[] sourceNodes = new int[facilityCount];
+        float[] sourceCosts = new float[facilityCount];
+        IntStream.range(0, facilityCount).parallel().forEach(i -> {
+            RoadGraph.Snap snap = graph.snap(facilities.getX()[i], facilities.getY()[i]);
+            boolean snapped = snap != null && snap.getDistanceMeters() <= maxSnapMeters;
+            sourceNodes[i] = snapped ? snap.getNode() : -1;
+            sourceCosts[i] = snapped ? accessSeconds(snap, profile) : Float.POSITIVE_INFINITY;
+        });
+        progress.accept(0.1);
+
+        Dijkstra dijkstra = new Dijkstra(reverse);
+        float[] dist = dijkstra.search(sourceNodes, sourceCosts, limit, reverse.costs(profile));
+        progress.accept(0.3);
+
+        PointColumnRepository.PointColumns demand = pointColumnRepository.findIdentifiedPoints(
+                demandLayer.getId(), weightProperty);
+        int demandCount = demand.getSize();
+        progress.accept(0.5);
+
+        // Nearest facility (-1 when none within the largest threshold) and travel time per demand point
+        int[] nearest = new int[demandCount];
+        float[] seconds = new float[demandCount];
+        boolean[] offNetwork = new boolean[demandCount];
+        IntStream.range(0, demandCount).parallel().forEach(i -> {
+            nearest[i] = -1;
+            seconds[i] = Float.POSITIVE_INFINITY;
+            RoadGraph.Snap snap = graph.snap(demand.getX()[i], demand.getY()[i]);
+            if (snap == null || snap.getDistanceMeters() > maxSnapMeters) {
+                offNetwork[i] = true;
+                return;
+            }
+            float travel = dist[snap.getNode()] + accessSeconds(snap, profile);
+            if (travel <= limit) {
+                nearest[i] = dijkstra.sourceOf(snap.getNode());
+                seconds[i] = travel;
+            }
+        });
+        progress.accept(0.7);
+
+        long[] coveredCounts = new long[thresholds.length];
+        double[] coveredWeights = new double[thresholds.length];
+        long[] facilityCounts = new long[facilityCount];
+        double[] facilityWeights = new double[facilityCount];
+        double totalWeight = 0;
+        long offNetworkCount = 0;
+        for (int i = 0; i < demandCount; i++) {
+            float weight = demand.weightAt(i);
+            totalWeight += weight;
+            if (offNetwork[i]) {
+                offNetworkCount++;
+            }
+            if (nearest[i] < 0) {
+                continue;
+            }
+            facilityCounts[nearest[i]]++;
+            facilityWeights[nearest[i]] += weight;
+            for (int t = thresholds.length - 1; t >= 0 && seconds[i] <= thresholds[t]; t--) {
+                coveredCounts[t]++;
+                coveredWeights[t] += weight;
+            }
+        }
+
+        List<Map<String, Object>> thresholdStats = new ArrayList<>();
+        for (int t = 0; t < thresholds.length; t++) {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("seconds", thresholds[t]);
+            stats.put("coveredCount", coveredCounts[t]);
+            stats.put("coveredWeight", coveredWeights[t]);
+            stats.put("coveredShare", totalWeight > 0 ? coveredWeights[t] / totalWeight : 0.0);
+            thresholdStats.add(stats);
+        }
+        List<Map<String, Object>> facilityStats = new ArrayList<>(facilityCount);
+        for (int f = 0; f < facilityCount; f++) {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("facilityId", facilities.getId()[f]);
+            stats.put("onNetwork", sourceNodes[f] >= 0);
+            stats.put("demandCount", facilityCounts[f]);
+            stats.put("demandWeight", facilityWeights[f]);
+            facilityStats.add(stats);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("networkLayerId", networkLayerId);
+        result.put("facilityLayerId", facilityLayer.getId());
+        result.put("demandLayerId", demandLayer.getId());
+        result.put("profile", profile.name().toLowerCase(Locale.ROOT));
+        result.put("facilityCount", facilityCount);
+        result.put("facilitiesOffNetwork", Arrays.stream(sourceNodes).filter(node -> node < 0).count());
+        result.put("demandCount", demandCount);
+        result.put("demandOffNetwork", offNetworkCount);
+        result.put("totalWeight", totalWeight);
+        result.put("thresholds", thresholdStats);
+        result.put("facilities", facilityStats);
+
+        if (createLayer && demandCount > 0) {
+            String[] properties = new String[demandCount];
+            IntStream.range(0, demandCount).parallel().forEach(i ->
+                    properties[i] = labelProperties(nearest[i] >= 0 ? facilities.getId()[nearest[i]] : null,
+                            seconds[i], thresholds));
+            // One transaction, so a failed copy leaves no empty output layer behind
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                LayerDto layer = layerService.create(LayerDto.builder()
+                        .code("coverage_" + UUID.randomUUID().toString().substring(0, 8))
+                        .name(layerName != null && !layerName.isBlank() ? layerName
+                                : "Coverage of " + demandLayer.getName() + " by " + facilityLayer.getName())
+                        .geomType(Layer.GeometryType.POINT)
+                        .style(Map.of())
+                        .metadata(Map.of("analysis", JOB_TYPE,
+                                "facilityLayerId", facilityLayer.getId().toString(),
+                                "demandLayerId", demandLayer.getId().toString(),
+                                "networkLayerId", networkLayerId.toString(),
+                                "profile", profile.name().toLowerCase(Locale.ROOT)))
+                        .build(), user);
+                int written = analysisOutputRepository.copyFeatures(layer.getId(), demand.getId(), properties,
+                        demandCount);
+                result.put("outputLayerId", layer.getId());
+                result.put("outputFeatures", written);
+            });
+        }
+
+        log.info("Coverage of {} demand points by {} facilities on layer {} in {} ms",
+                demandCount, facilityCount, networkLayerId, System.currentTimeMillis() - started);
+        return result;
+    }
+
+    /**
+     * JSON properties added to a labelled demand point: nearest facility, travel time and the
+     * smallest threshold it falls within (nulls when not covered)
+     */
+    private static String labelProperties(UUID facilityId, float seconds, int[] thresholds) {
+        if (facilityId == null) {
+            return "{\"coverage_facility_id\":null,\"coverage_seconds\":null,\"coverage_threshold\":null}";
+        }
+        int threshold = thresholds[thresholds.length - 1];
+        for (int value : thresholds) {
+            if (seconds <= value) {
+                threshold = value;
+                break;
+            }
+        }
+        return "{\"coverage_facility_id\":\"" + facilityId + "\",\"coverage_seconds\":"
+                + Math.round(seconds * 10) / 10.0 + ",\"coverage_threshold\":" + threshold + "}";
+    }
+
+    private Layer pointLayer(UUID layerId, String role) {
+        if (layerId == null) {
+            throw new IllegalArgumentException(role + " layer ID is required");
+        }
+        Layer layer = layerRepository.findById(layerId)
+                .orElseThrow(() -> new RuntimeException("Layer not found"));
+        if (layer.getGeomType() != Layer.GeometryType.POINT) {
+            throw new IllegalArgumentException(role + " layer must be a POINT layer");
+        }
+        return layer;
+    }
+
+    /**
+     * Time for the straight leg between a location and its snapped node, at the profile's default speed
+     */
+    private static float accessSeconds(RoadGraph.Snap snap, RoadGraph.Profile profile) {
+        return (float) (snap.getDistanceMeters() / (profile.getDefaultSpeedKmh() / 3.6));
+    }
+}
@@ -0,0 +1,487 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.ClusterPoint;
+import com.example.gis.repository.LayerGenerationRepository;
+import com.example.gis.util.TileMath;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Point;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Quadtree count pyramid per point layer: a 64x64 grid of point counts for every
+ * web-mercator tile at zoom 0..max-zoom, stored as integer arrays in density_tiles.
+ *
+ * The pyramid is built with one scan of the layer (finest level first, coarser levels
+ * aggregated from it) and then kept current by adding or subtracting the points of each
+ * edit, one write per touched tile. Heatmaps and density clusters read counts from it
+ * without touching features.
+ */
+@Service
+@Slf4j
+public class DensityPyramidService {
+    public static final int CELLS_PER_TILE = 64;
+    private static final String AGGREGATE = "density_pyramid";
+    private static final int INSERT_BATCH_SIZE = 200;
+    private static final int MAX_TILES_FOR_COUNT = 16;
+    private static final long MAX_CLUSTER_CELLS = 4L * 1024 * 1024;
+    // 64px clusters are 16 x 16 cells of 4px
+    private static final int CLUSTER_BLOCK = 16;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LayerGenerationRepository layerGenerationRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor executor;
+    private final Set<UUID> pendingBuilds = ConcurrentHashMap.newKeySet();
+
+    @Value("${gis.density.max-zoom:14}")
+    private int maxZoom;
+
+    public DensityPyramidService(JdbcTemplate jdbcTemplate, LayerGenerationRepository layerGenerationRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 @Qualifier("analysisTaskExecutor") Executor executor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.layerGenerationRepository = layerGenerationRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executor = executor;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public boolean isReady(UUID layerId) {
+        List<String> status = jdbcTemplate.queryForList(
+                "SELECT status FROM layer_aggregate_state WHERE layer_id = ? AND aggregate = ?",
+                String.class, layerId, AGGREGATE);
+        return !status.isEmpty() && "READY".equals(status.get(0));
+    }
+
+    /**
+     * Build the pyramid of a layer in the background on first use, unless the last build failed
+     * and the layer has not changed since; such a layer is built again after its next edit or
+     * an explicit rebuild
+     */
+    public void buildOnDemand(UUID layerId) {
+        List<Long> failed = jdbcTemplate.queryForList(
+                "SELECT failed_generation FROM layer_aggregate_state WHERE layer_id = ? AND aggregate = ? " +
+                "AND failed_generation IS NOT NULL", Long.class, layerId, AGGREGATE);
+        if (failed.isEmpty() || failed.get(0) != layerGenerationRepository.find(layerId)) {
+            buildInBackground(layerId);
+        }
+    }
+
+    /**
+     * Rebuild the pyramid of a layer in the background unless a build is already queued or
+     * running. A build the executor rejects is released so that a later request retries it;
+     * a build that fails is recorded against the layer generation (see buildOnDemand).
+     */
+    public void buildInBackground(UUID layerId) {
+        if (!pendingBuilds.add(layerId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                long generation = layerGenerationRepository.find(layerId);
+                try {
+                    transactionTemplate.executeWithoutResult(status -> rebuild(layerId));
+                } catch (RuntimeException e) {
+                    log.error("Failed to build density pyramid for layer {}", layerId, e);
+                    transactionTemplate.executeWithoutResult(status -> setFailed(layerId, generation));
+                } finally {
+                    pendingBuilds.remove(layerId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingBuilds.remove(layerId);
+            log.warn("Density pyramid build for layer {} rejected: {}", layerId, e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuild the pyramid of a layer: one grouped scan at the finest level into a temporary
+     * table, then every level aggregated from it and assembled into tile arrays
+     */
+    @Transactional
+    public void rebuild(UUID layerId) {
+        if (maxZoom < 0 || maxZoom > 18) {
+            throw new IllegalArgumentException("gis.density.max-zoom must be between 0 and 18");
+        }
+        lock(layerId);
+        long start = System.currentTimeMillis();
+        setStatus(layerId, "BUILDING");
+        jdbcTemplate.update("DELETE FROM density_tiles WHERE layer_id = ?", layerId);
+
+        int finestCells = CELLS_PER_TILE << maxZoom;
+        jdbcTemplate.update("DROP TABLE IF EXISTS density_build");
+        jdbcTemplate.update(
+                "CREATE TEMP TABLE density_build ON COMMIT DROP AS " +
+                "SELECT mercator_cell_x(ST_X(f.geom), ?) AS cx, mercator_cell_y(ST_Y(f.geom), ?) AS cy, " +
+                "count(*) AS n FROM features f " +
+                "WHERE f.layer_id = ? AND f.deleted_at IS NULL AND GeometryType(f.geom) = 'POINT' " +
+                "GROUP BY 1, 2",
+                finestCells, finestCells, layerId);
+
+        long tiles = 0;
+        for (int z = maxZoom; z >= 0; z--) {
+            tiles += buildLevel(layerId, z, maxZoom - z);
+        }
+        setStatus(layerId, "READY");
+        log.info("Built density pyramid for layer {} ({} tiles, zoom 0-{}) in {} ms",
+                layerId, tiles, maxZoom, System.currentTimeMillis() - start);
+    }
+
+    private long buildLevel(UUID layerId, int zoom, int shift) {
+        List<int[]> keys = new ArrayList<>();
+        List<int[]> grids = new ArrayList<>();
+        long[] written = {0};
+        int[] current = {Integer.MIN_VALUE, Integer.MIN_VALUE};
+        int[][] counts = {null};
+
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT x, y, n FROM (SELECT cx >> ? AS x, cy >> ? AS y, sum(n) AS n " +
+                    "FROM density_build GROUP BY 1, 2) s ORDER BY x / 64, y / 64");
+            ps.setInt(1, shift);
+            ps.setInt(2, shift);
+            ps.setFetchSize(10000);
+            return ps;
+        }, rs -> {
+            int x = rs.getInt(1);
+            int y = rs.getInt(2);
+            int tx = x / CELLS_PER_TILE;
+            int ty = y / CELLS_PER_TILE;
+            if (tx != current[0] || ty != current[1]) {
+                if (counts[0] != null) {
+                    keys.add(new int[]{current[0], current[1]});
+                    grids.add(counts[0]);
+                    if (keys.size() >= INSERT_BATCH_SIZE) {
+                        written[0] += insertTiles(layerId, zoom, keys, grids);
+                    }
+                }
+                current[0] = tx;
+                current[1] = ty;
+                counts[0] = new int[CELLS_PER_TILE * CELLS_PER_TILE];
+            }
+            counts[0][(y % CELLS_PER_TILE) * CELLS_PER_TILE + x % CELLS_PER_TILE] = (int) rs.getLong(3);
+        });
+        if (counts[0] != null) {
+            keys.add(new int[]{current[0], current[1]});
+            grids.add(counts[0]);
+        }
+        written[0] += insertTiles(layerId, zoom, keys, grids);
+        return written[0];
+    }
+
+    private int insertTiles(UUID layerId, int zoom, List<int[]> keys, List<int[]> grids) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        int size = keys.size();
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO density_tiles (layer_id, zoom, tile_x, tile_y, counts, total) VALUES (?, ?, ?, ?, ?, ?)",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        int[] grid = grids.get(i);
+                        Integer[] boxed = new Integer[grid.length];
+                        long total = 0;
+                        for (int c = 0; c < grid.length; c++) {
+                            boxed[c] = grid[c];
+                            total += grid[c];
+                        }
+                        ps.setObject(1, layerId);
+                        ps.setInt(2, zoom);
+                        ps.setInt(3, keys.get(i)[0]);
+                        ps.setInt(4, keys.get(i)[1]);
+                        ps.setArray(5, ps.getConnection().createArrayOf("integer", boxed));
+                        ps.setLong(6, total);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return size;
+                    }
+                });
+        keys.clear();
+        grids.clear();
+        return size;
+    }
+
+    /**
+     * Add and remove points in the pyramid. Must run in the transaction that changed the features.
+     */
+    @Transactional
+    public void applyChanges(UUID layerId, List<Point> added, List<Point> removed) {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        // Serialize with rebuilds; a layer that is not built yet picks the change up on build
+        lock(layerId);
+        if (!isReady(layerId)) {
+            return;
+        }
+        if (!removed.isEmpty()) {
+            apply(layerId, removed, -1);
+        }
+        if (!added.isEmpty()) {
+            apply(layerId, added, 1);
+        }
+    }
+
+    private void apply(UUID layerId, List<Point> points, int delta) {
+        // Deltas summed per tile and cell, so that each touched tile is written once per batch
+        Map<Long, Map<Integer, Integer>> tiles = new LinkedHashMap<>();
+        for (Point point : points) {
+            double x = TileMath.mercatorX(point.getX());
+            double y = TileMath.mercatorY(point.getY());
+            for (int z = 0; z <= maxZoom; z++) {
+                long n = (long) CELLS_PER_TILE << z;
+                int cx = TileMath.cellIndex(x, n);
+                int cy = TileMath.cellIndex(y, n);
+                long tile = ((long) z << 48) | ((long) (cx / CELLS_PER_TILE) << 24) | (cy / CELLS_PER_TILE);
+                tiles.computeIfAbsent(tile, k -> new HashMap<>())
+                        .merge((cy % CELLS_PER_TILE) * CELLS_PER_TILE + cx % CELLS_PER_TILE + 1, delta, Integer::sum);
+            }
+        }
+        List<Long> keys = new ArrayList<>(tiles.keySet());
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO density_tiles AS t (layer_id, zoom, tile_x, tile_y, counts, total) " +
+                "VALUES (?, ?, ?, ?, density_add(array_fill(0, ARRAY[4096]), ?, ?), ?) " +
+                "ON CONFLICT (layer_id, zoom, tile_x, tile_y) DO UPDATE SET " +
+                "counts = density_add(t.counts, ?, ?), total = t.total + EXCLUDED.total",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        long tile = keys.get(i);
+                        Map<Integer, Integer> cells = tiles.get(tile);
+                        Integer[] indexes = cells.keySet().toArray(new Integer[0]);
+                        Integer[] deltas = new Integer[indexes.length];
+                        long total = 0;
+                        for (int c = 0; c < indexes.length; c++) {
+                            deltas[c] = cells.get(indexes[c]);
+                            total += deltas[c];
+                        }
+                        Array cellArray = ps.getConnection().createArrayOf("integer", indexes);
+                        Array deltaArray = ps.getConnection().createArrayOf("integer", deltas);
+                        setTile(ps, layerId, tile);
+                        ps.setArray(5, cellArray);
+                        ps.setArray(6, deltaArray);
+                        ps.setLong(7, total);
+                        ps.setArray(8, cellArray);
+                        ps.setArray(9, deltaArray);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return keys.size();
+                    }
+                });
+        if (delta < 0) {
+            jdbcTemplate.batchUpdate(
+                    "DELETE FROM density_tiles WHERE layer_id = ? AND zoom = ? AND tile_x = ? AND tile_y = ? " +
+                    "AND total <= 0",
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            setTile(ps, layerId, keys.get(i));
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return keys.size();
+                        }
+                    });
+        }
+    }
+
+    private static void setTile(PreparedStatement ps, UUID layerId, long tile) throws SQLException {
+        ps.setObject(1, layerId);
+        ps.setInt(2, (int) (tile >>> 48));
+        ps.setInt(3, (int) ((tile >>> 24) & 0xFFFFFF));
+        ps.setInt(4, (int) (tile & 0xFFFFFF));
+    }
+
+    /**
+     * Counts of a rectangular range of cells at a zoom (cells per axis: 64 << zoom),
+     * row-major from the north-west cell. Cells outside the world are zero.
+     */
+    public float[] readCells(UUID layerId, int zoom, long minCellX, long minCellY, int width, int height) {
+        float[] cells = new float[width * height];
+        long tilesPerAxis = 1L << zoom;
+        long minTileX = Math.max(0, Math.floorDiv(minCellX, CELLS_PER_TILE));
+        long minTileY = Math.max(0, Math.floorDiv(minCellY, CELLS_PER_TILE));
+        long maxTileX = Math.min(tilesPerAxis - 1, Math.floorDiv(minCellX + width - 1, CELLS_PER_TILE));
+        long maxTileY = Math.min(tilesPerAxis - 1, Math.floorDiv(minCellY + height - 1, CELLS_PER_TILE));
+        if (minTileX > maxTileX || minTileY > maxTileY) {
+            return cells;
+        }
+
+        jdbcTemplate.query(
+                "SELECT tile_x, tile_y, counts FROM density_tiles " +
+                "WHERE layer_id = ? AND zoom = ? AND tile_x BETWEEN ? AND ? AND tile_y BETWEEN ? AND ?",
+                rs -> {
+                    long tileX0 = (long) rs.getInt(1) * CELLS_PER_TILE;
+                    long tileY0 = (long) rs.getInt(2) * CELLS_PER_TILE;
+                    Array array = rs.getArray(3);
+                    Integer[] counts = (Integer[]) array.getArray();
+                    array.free();
+                    for (int row = 0; row < CELLS_PER_TILE; row++) {
+                        long gy = tileY0 + row - minCellY;
+                        if (gy < 0 || gy >= height) {
+                            continue;
+                        }
+                        for (int col = 0; col < CELLS_PER_TILE; col++) {
+                            long gx = tileX0 + col - minCellX;
+                            if (gx < 0 || gx >= width) {
+                                continue;
+                            }
+                            Integer count = counts[row * CELLS_PER_TILE + col];
+                            if (count != null && count != 0) {
+                                cells[(int) (gy * width + gx)] = count;
+                            }
+                        }
+                    }
+                },
+                layerId, zoom, minTileX, maxTileX, minTileY, maxTileY);
+        return cells;
+    }
+
+    /**
+     * Number of points in a bounding box, to cell precision, read from the coarsest level
+     * at which the box still spans only a few tiles
+     */
+    public long countPoints(UUID layerId, double minLng, double minLat, double maxLng, double maxLat) {
+        int zoom = maxZoom;
+        while (zoom > 0 && tileSpan(zoom, minLng, minLat, maxLng, maxLat) > MAX_TILES_FOR_COUNT) {
+            zoom--;
+        }
+        long n = (long) CELLS_PER_TILE << zoom;
+        int minX = TileMath.cellIndex(TileMath.mercatorX(minLng), n);
+        int maxX = TileMath.cellIndex(TileMath.mercatorX(maxLng), n);
+        int minY = TileMath.cellIndex(TileMath.mercatorY(maxLat), n);
+        int maxY = TileMath.cellIndex(TileMath.mercatorY(minLat), n);
+        float[] cells = readCells(layerId, zoom, minX, minY, maxX - minX + 1, maxY - minY + 1);
+        double total = 0;
+        for (float count : cells) {
+            total += count;
+        }
+        return Math.round(total);
+    }
+
+    private static long tileSpan(int zoom, double minLng, double minLat, double maxLng, double maxLat) {
+        return (long) (TileMath.tileX(maxLng, zoom) - TileMath.tileX(minLng, zoom) + 1)
+                * (TileMath.tileY(minLat, zoom) - TileMath.tileY(maxLat, zoom) + 1);
+    }
+
+    /**
+     * 64px clusters for a bounding box from the pyramid: each cluster sums 16 x 16 cells of
+     * the zoom level, positioned at the count-weighted centre of its cells. Large areas at
+     * deep zooms are read from a coarser level.
+     */
+    public List<ClusterPoint> findClusters(UUID layerId, int zoom,
+                                           double minLng, double minLat, double maxLng, double maxLat) {
+        int level = Math.max(0, Math.min(zoom, maxZoom));
+        long n;
+        long minX, minY, maxX, maxY;
+        while (true) {
+            n = (long) CELLS_PER_TILE << level;
+            // Align the range to whole cluster blocks
+            minX = TileMath.cellIndex(TileMath.mercatorX(minLng), n) / CLUSTER_BLOCK * CLUSTER_BLOCK;
+            minY = TileMath.cellIndex(TileMath.mercatorY(maxLat), n) / CLUSTER_BLOCK * CLUSTER_BLOCK;
+            maxX = (TileMath.cellIndex(TileMath.mercatorX(maxLng), n) / CLUSTER_BLOCK + 1) * CLUSTER_BLOCK - 1;
+            maxY = (TileMath.cellIndex(TileMath.mercatorY(minLat), n) / CLUSTER_BLOCK + 1) * CLUSTER_BLOCK - 1;
+            if (level == 0 || (maxX - minX + 1) * (maxY - minY + 1) <= MAX_CLUSTER_CELLS) {
+                break;
+            }
+            level--;
+        }
+        int width = (int) (maxX - minX + 1);
+        int height = (int) (maxY - minY + 1);
+        float[] cells = readCells(layerId, level, minX, minY, width, height);
+
+        List<ClusterPoint> clusters = new ArrayList<>();
+        for (int by = 0; by < height; by += CLUSTER_BLOCK) {
+            for (int bx = 0; bx < width; bx += CLUSTER_BLOCK) {
+                double count = 0;
+                double sumX = 0;
+                double sumY = 0;
+                int cellMinX = Integer.MAX_VALUE, cellMinY = Integer.MAX_VALUE;
+                int cellMaxX = Integer.MIN_VALUE, cellMaxY = Integer.MIN_VALUE;
+                for (int y = by; y < by + CLUSTER_BLOCK; y++) {
+                    for (int x = bx; x < bx + CLUSTER_BLOCK; x++) {
+                        float c = cells[y * width + x];
+                        if (c == 0) {
+                            continue;
+                        }
+                        count += c;
+                        sumX += c * (x + 0.5);
+                        sumY += c * (y + 0.5);
+                        cellMinX = Math.min(cellMinX, x);
+                        cellMinY = Math.min(cellMinY, y);
+                        cellMaxX = Math.max(cellMaxX, x);
+                        cellMaxY = Math.max(cellMaxY, y);
+                    }
+                }
+                if (count == 0) {
+                    continue;
+                }
+                clusters.add(ClusterPoint.builder()
+                        .longitude(TileMath.longitude((minX + sumX / count) / n))
+                        .latitude(TileMath.latitude((minY + sumY / count) / n))
+                        .pointCount((int) Math.round(count))
+                        .isCluster(count > 1)
+                        .bounds(ClusterPoint.ClusterBounds.builder()
+                                .minLng(TileMath.longitude((double) (minX + cellMinX) / n))
+                                .minLat(TileMath.latitude((double) (minY + cellMaxY + 1) / n))
+                                .maxLng(TileMath.longitude((double) (minX + cellMaxX + 1) / n))
+                                .maxLat(TileMath.latitude((double) (minY + cellMinY) / n))
+                                .build())
+                        .build());
+            }
+        }
+        return clusters;
+    }
+
+    private void lock(UUID layerId) {
+        jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(hashtext(?))::text",
+                String.class, AGGREGATE + ":" + layerId);
+    }
+
+    private void setStatus(UUID layerId, String status) {
+        jdbcTemplate.update(
+                "INSERT INTO layer_aggregate_state (layer_id, aggregate, status, built_at) " +
+                "VALUES (?, ?, ?, CASE WHEN ? = 'READY' THEN CURRENT_TIMESTAMP END) " +
+                "ON CONFLICT (layer_id, aggregate) DO UPDATE SET status = EXCLUDED.status, " +
+                "built_at = COALESCE(EXCLUDED.built_at, layer_aggregate_state.built_at), " +
+                "failed_generation = NULL",
+                layerId, AGGREGATE, status, status);
+    }
+
+    /**
+     * Record a failed build. Its changes were rolled back, so a pyramid that was READY before
+     * stays READY (edits kept it current); otherwise the layer is marked FAILED.
+     */
+    private void setFailed(UUID layerId, long generation) {
+        jdbcTemplate.update(
+                "INSERT INTO layer_aggregate_state (layer_id, aggregate, status, failed_generation) " +
+                "VALUES (?, ?, 'FAILED', ?) " +
+                "ON CONFLICT (layer_id, aggregate) DO UPDATE SET failed_generation = EXCLUDED.failed_generation, " +
+                "status = CASE WHEN layer_aggregate_state.status = 'READY' THEN 'READY' ELSE 'FAILED' END",
+                layerId, AGGREGATE, generation);
+    }
+}
@@ -1,24 +1,40 @@
 package com.example.gis.service;
 
 import com.example.gis.entity.Device;
+import com.example.gis.repository.DevicePositionRepository;
 import com.example.gis.repository.DeviceRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.PrecisionModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class DeviceService {
+    private static final int PURGE_BATCH_SIZE = 10000;
+
     private final DeviceRepository deviceRepository;
+    private final DevicePositionRepository devicePositionRepository;
     private final WebSocketService webSocketService;
+    private final LiveDensityService liveDensityService;
+    private final MapMatchingService mapMatchingService;
     private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
 
+    @Value("${gis.devices.position-retention-days:30}")
+    private int positionRetentionDays;
+
     public List<Device> findAll() {
         return deviceRepository.findAll();
     }
@@ -43,14 +59,55 @@ public class DeviceService {
         device.setUpdatedAt(java.time.OffsetDateTime.now());
         
         device = deviceRepository.save(device);
+        devicePositionRepository.record(device.getId(), lng, lat);
         
         // Broadcast position update via WebSocket
         webSocketService.broadcastDevicePosition(device);
         
         // Check geofence enter/exit events
         webSocketService.checkAndBroadcastGeofenceEvents(device, previousPosition);
+
+        // Feed the live fleet density grid once the position is committed
+        afterCommit(() -> liveDensityService.record(lng, lat));
+
+        // Advance the device's live map-matching window in the background once the update is committed
+        UUID deviceId = device.getId();
+        afterCommit(() -> mapMatchingService.submitLive(deviceId, lng, lat));
         
         return device;
     }
-}
 
+    /**
+     * Delete stored positions older than the retention period, in batches so that position
+     * updates are never held up for long; a retention of 0 days keeps positions forever
+     */
+    @Scheduled(cron = "${gis.devices.position-cleanup-cron:0 15 * * * *}")
+    public void purgePositions() {
+        if (positionRetentionDays <= 0) {
+            return;
+        }
+        OffsetDateTime cutoff = OffsetDateTime.now().minusDays(positionRetentionDays);
+        long deleted = 0;
+        int batch;
+        do {
+            batch = devicePositionRepository.deleteRecordedBefore(cutoff, PURGE_BATCH_SIZE);
+            deleted += batch;
+        } while (batch == PURGE_BATCH_SIZE);
+        if (deleted > 0) {
+            log.info("Purged {} device positions recorded before {}", deleted, cutoff);
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -20,6 +20,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -33,6 +34,8 @@ public class FeatureService {
     private final UserRepository userRepository;
     private final GeoJsonConverter geoJsonConverter;
     private final CacheService cacheService;
+    private final ClusterCellService clusterCellService;
+    private final DensityPyramidService densityPyramidService;
     private final ObjectMapper objectMapper;
 
     public Page<FeatureDto> findByLayerId(UUID layerId, Pageable pageable) {
@@ -81,7 +84,10 @@ public class FeatureService {
                 .createdBy(getCurrentUser())
                 .build();
         
-        return toDto(featureRepository.save(feature));
+        Feature saved = featureRepository.saveAndFlush(feature);
+        layerChanged(layer.getId());
+        applyPointChanges(layer.getId(), points(geom), Collections.emptyList());
+        return toDto(saved);
     }
 
     @Transactional
@@ -92,21 +98,57 @@ public class FeatureService {
         if (dto.getProperties() != null) {
             feature.setProperties(objectMapper.valueToTree(dto.getProperties()).toString());
         }
+        Geometry oldGeom = feature.getGeom();
         if (dto.getGeometry() != null) {
             Map<String, Object> geoJson = (Map<String, Object>) dto.getGeometry();
             feature.setGeom(geoJsonConverter.geoJsonToGeometry(geoJson));
         }
         feature.setUpdatedBy(getCurrentUser());
         
-        return toDto(featureRepository.save(feature));
+        Feature saved = featureRepository.saveAndFlush(feature);
+        layerChanged(feature.getLayer().getId());
+        if (dto.getGeometry() != null && feature.getDeletedAt() == null) {
+            applyPointChanges(feature.getLayer().getId(), points(saved.getGeom()), points(oldGeom));
+        }
+        return toDto(saved);
     }
 
     @Transactional
     public void delete(UUID id) {
         Feature feature = featureRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Feature not found"));
+        if (feature.getDeletedAt() != null) {
+            return;
+        }
         feature.setDeletedAt(java.time.OffsetDateTime.now());
-        featureRepository.save(feature);
+        featureRepository.saveAndFlush(feature);
+        layerChanged(feature.getLayer().getId());
+        applyPointChanges(feature.getLayer().getId(), Collections.emptyList(), points(feature.getGeom()));
+    }
+
+    /**
+     * Bump the layer generation in the edit's transaction, so it commits (or rolls back) with the
+     * edit. Everything derived from a layer (road graphs and their hierarchy files, isochrones,
+     * coverage and heatmap results, cached tiles) is keyed by it, whatever the geometry type and
+     * also for property-only edits.
+     */
+    private void layerChanged(UUID layerId) {
+        cacheService.bumpLayerGeneration(layerId);
+    }
+
+    /**
+     * Keep the layer's point aggregates (cluster cells, density pyramid) in step with an edit
+     */
+    private void applyPointChanges(UUID layerId, List<Point> added, List<Point> removed) {
+        clusterCellService.applyChanges(layerId, added, removed);
+        densityPyramidService.applyChanges(layerId, added, removed);
+    }
+
+    /**
+     * Point geometries take part in point aggregates; other geometry types do not
+     */
+    private List<Point> points(Geometry geom) {
+        return geom instanceof Point ? Collections.singletonList((Point) geom) : Collections.emptyList();
     }
 
     private FeatureDto toDto(Feature feature) {
@@ -1,22 +1,46 @@
 package com.example.gis.service;
 
+import com.example.gis.dto.HeatmapFrames;
 import com.example.gis.dto.HeatmapPoint;
 import com.example.gis.dto.HeatmapRequest;
-import com.example.gis.entity.Feature;
-import com.example.gis.repository.FeatureRepository;
+import com.example.gis.repository.PointColumnRepository;
+import com.example.gis.util.ColorRamp;
+import com.example.gis.util.SeparableBlur;
+import com.example.gis.util.TileMath;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.locationtech.jts.geom.Point;
 import org.springframework.stereotype.Service;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class HeatmapService {
-    private final FeatureRepository featureRepository;
+    private final PointColumnRepository pointColumnRepository;
+    private final CacheService cacheService;
+    private final DensityPyramidService densityPyramidService;
+
+    // Kernel radius (in cells) above which the box-blur approximation replaces the exact Gaussian
+    private static final int MAX_EXACT_KERNEL_RADIUS = 48;
+    private static final int MAX_GRID_SIZE = 4096;
+    private static final int TILE_SIZE = 256;
+    // Tile kernels pad the tile by 1.5 radius on each side
+    private static final int MAX_TILE_RADIUS = 128;
+    private static final long MAX_PYRAMID_CELLS = 16L * 1024 * 1024;
+    private static final int MAX_FRAMES = 1000;
+    private static final long MAX_FRAME_CELLS = 32L * 1024 * 1024;
 
     /**
      * Generate heatmap data from point features
@@ -25,45 +49,39 @@ public class HeatmapService {
         if (request.getLayerId() == null) {
             throw new IllegalArgumentException("Layer ID is required");
         }
-
-        // Get features in bounding box
-        List<Feature> features;
-        if (request.getMinLng() != null && request.getMinLat() != null &&
-            request.getMaxLng() != null && request.getMaxLat() != null) {
-            features = featureRepository.findFeaturesInBbox(
-                    request.getLayerId(),
-                    request.getMinLng(),
-                    request.getMinLat(),
-                    request.getMaxLng(),
-                    request.getMaxLat()
-            );
-        } else {
-            features = featureRepository.findByLayerIdAndDeletedAtIsNull(
-                    request.getLayerId(),
-                    org.springframework.data.domain.PageRequest.of(0, 10000)
-            ).getContent();
+        int gridSize = request.getGridSize() != null ? request.getGridSize() : 256;
+        double radius = request.getRadius() != null ? request.getRadius() : 20.0;
+        double intensityFactor = request.getIntensity() != null ? request.getIntensity() : 1.0;
+        if (gridSize < 1 || gridSize > MAX_GRID_SIZE) {
+            throw new IllegalArgumentException("Grid size must be between 1 and " + MAX_GRID_SIZE);
         }
-
-        // Filter to only Point geometries
-        List<Point> points = features.stream()
-                .filter(f -> f.getGeom() instanceof Point)
-                .map(f -> (Point) f.getGeom())
-                .collect(Collectors.toList());
-
-        if (points.isEmpty()) {
-            return Collections.emptyList();
+        if (radius <= 0) {
+            throw new IllegalArgumentException("Radius must be positive");
+        }
+        String weightProperty = blankToNull(request.getWeightProperty());
+        String normalization = request.getNormalization() != null ? request.getNormalization().toLowerCase() : "max";
+        double percentile = request.getPercentile() != null ? request.getPercentile() : 99.0;
+        if (!normalization.equals("max") && !normalization.equals("percentile")) {
+            throw new IllegalArgumentException("Unsupported normalization: " + request.getNormalization());
+        }
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be in (0, 100]");
         }
 
-        // Generate cache key
+        // Generate cache key; the layer generation retires entries once the layer is edited
         String cacheKey = cacheService.generateSpatialQueryKey(
                 request.getLayerId(),
                 "heatmap",
+                cacheService.getLayerGeneration(request.getLayerId()),
                 request.getZoom(),
                 request.getMinLng(), request.getMinLat(),
                 request.getMaxLng(), request.getMaxLat(),
-                request.getGridSize(),
-                request.getRadius(),
-                request.getIntensity()
+                gridSize,
+                radius,
+                intensityFactor,
+                weightProperty,
+                normalization,
+                normalization.equals("percentile") ? percentile : null
         );
 
         // Try cache first
@@ -72,78 +90,79 @@ public class HeatmapService {
             return cached;
         }
 
-        // Calculate grid cell size
-        double cellSizeLng = (request.getMaxLng() - request.getMinLng()) / request.getGridSize();
-        double cellSizeLat = (request.getMaxLat() - request.getMinLat()) / request.getGridSize();
-
-        // Calculate heat radius in degrees
-        double radiusDegrees = calculateRadiusInDegrees(
-                request.getRadius(),
-                request.getZoom() != null ? request.getZoom() : 12,
-                request.getMinLng(), request.getMinLat(),
-                request.getMaxLng(), request.getMaxLat()
-        );
-
-        // Create intensity grid
-        double[][] intensityGrid = new double[request.getGridSize()][request.getGridSize()];
-
-        // Calculate intensity for each point
-        for (Point point : points) {
-            double lng = point.getX();
-            double lat = point.getY();
-
-            // Find grid cells affected by this point
-            int centerX = (int) ((lng - request.getMinLng()) / cellSizeLng);
-            int centerY = (int) ((lat - request.getMinLat()) / cellSizeLat);
-
-            // Apply heat to surrounding cells
-            int radiusCells = (int) Math.ceil(radiusDegrees / Math.max(cellSizeLng, cellSizeLat));
+        boolean hasBbox = request.getMinLng() != null && request.getMinLat() != null &&
+                request.getMaxLng() != null && request.getMaxLat() != null;
+        double minLng, minLat, maxLng, maxLat;
+        float[] grid;
+        float weight = (float) intensityFactor;
 
-            for (int dx = -radiusCells; dx <= radiusCells; dx++) {
-                for (int dy = -radiusCells; dy <= radiusCells; dy++) {
-                    int gridX = centerX + dx;
-                    int gridY = centerY + dy;
-
-                    if (gridX >= 0 && gridX < request.getGridSize() &&
-                        gridY >= 0 && gridY < request.getGridSize()) {
+        // The pyramid holds plain counts, so weighted heatmaps always read the points
+        float[] pyramidGrid = hasBbox && weightProperty == null ? binFromPyramid(request.getLayerId(), gridSize,
+                request.getMinLng(), request.getMinLat(), request.getMaxLng(), request.getMaxLat(), weight) : null;
+        if (pyramidGrid != null) {
+            minLng = request.getMinLng();
+            minLat = request.getMinLat();
+            maxLng = request.getMaxLng();
+            maxLat = request.getMaxLat();
+            grid = pyramidGrid;
+        } else {
+            // Stream only coordinates (and the weight) into primitive arrays
+            PointColumnRepository.PointColumns points = pointColumnRepository.findPoints(
+                    request.getLayerId(),
+                    hasBbox ? new double[]{request.getMinLng(), request.getMinLat(),
+                            request.getMaxLng(), request.getMaxLat()} : null,
+                    weightProperty);
+            double[] lngs = points.getX();
+            double[] lats = points.getY();
+            int count = points.getSize();
 
-                        // Calculate distance from point to grid cell center
-                        double cellCenterLng = request.getMinLng() + (gridX + 0.5) * cellSizeLng;
-                        double cellCenterLat = request.getMinLat() + (gridY + 0.5) * cellSizeLat;
+            if (count == 0) {
+                return Collections.emptyList();
+            }
 
-                        double distance = calculateDistance(
-                                lng, lat,
-                                cellCenterLng, cellCenterLat
-                        );
+            double[] extent = resolveExtent(request, points);
+            minLng = extent[0];
+            minLat = extent[1];
+            maxLng = extent[2];
+            maxLat = extent[3];
 
-                        if (distance <= radiusDegrees) {
-                            // Apply Gaussian-like falloff
-                            double intensity = Math.exp(-(distance * distance) / (2 * radiusDegrees * radiusDegrees / 4));
-                            intensityGrid[gridY][gridX] += intensity * request.getIntensity();
-                        }
-                    }
+            // Rasterize: bin weighted point counts into the grid
+            grid = new float[gridSize * gridSize];
+            for (int i = 0; i < count; i++) {
+                int cell = gridCell(lngs[i], lats[i], minLng, minLat, maxLng, maxLat, gridSize);
+                if (cell >= 0) {
+                    grid[cell] += weight * points.weightAt(i);
                 }
             }
         }
 
-        // Normalize intensities (0.0 to 1.0)
-        double maxIntensity = 0;
-        for (double[] row : intensityGrid) {
-            for (double intensity : row) {
-                maxIntensity = Math.max(maxIntensity, intensity);
-            }
-        }
+        // Calculate grid cell size
+        double cellSizeLng = (maxLng - minLng) / gridSize;
+        double cellSizeLat = (maxLat - minLat) / gridSize;
+
+        // Calculate heat radius in degrees
+        double radiusDegrees = calculateRadiusInDegrees(radius, minLng, minLat, maxLng, maxLat);
+
+        // Convolve: Gaussian falloff with sigma = radius / 2 on each axis
+        double sigmaX = radiusDegrees / 2.0 / cellSizeLng;
+        double sigmaY = radiusDegrees / 2.0 / cellSizeLat;
+        SeparableBlur.gaussian(grid, gridSize, gridSize, sigmaX, sigmaY, MAX_EXACT_KERNEL_RADIUS);
+
+        // Normalize intensities (0.0 to 1.0) by the maximum or a percentile of the non-empty cells
+        float maxIntensity = normalization.equals("percentile")
+                ? percentileOfPositive(grid, percentile)
+                : maxOf(grid);
 
         // Convert grid to heatmap points
         List<HeatmapPoint> heatmapPoints = new ArrayList<>();
-        for (int y = 0; y < request.getGridSize(); y++) {
-            for (int x = 0; x < request.getGridSize(); x++) {
-                double intensity = maxIntensity > 0 ? intensityGrid[y][x] / maxIntensity : 0;
+        for (int y = 0; y < gridSize; y++) {
+            for (int x = 0; x < gridSize; x++) {
+                double intensity = maxIntensity > 0 ? Math.min(1.0, grid[y * gridSize + x] / maxIntensity) : 0;
 
                 // Only include cells with significant intensity
                 if (intensity > 0.01) {
-                    double cellLng = request.getMinLng() + (x + 0.5) * cellSizeLng;
-                    double cellLat = request.getMinLat() + (y + 0.5) * cellSizeLat;
+                    double cellLng = minLng + (x + 0.5) * cellSizeLng;
+                    double cellLat = minLat + (y + 0.5) * cellSizeLat;
 
                     heatmapPoints.add(HeatmapPoint.builder()
                             .longitude(cellLng)
@@ -163,9 +182,412 @@ public class HeatmapService {
     }
 
     /**
-     * Calculate radius in degrees based on pixel radius and zoom level
+     * Grid extent as [minLng, minLat, maxLng, maxLat]: the request bbox, or the extent of the points
+     */
+    private static double[] resolveExtent(HeatmapRequest request, PointColumnRepository.PointColumns points) {
+        double minLng, minLat, maxLng, maxLat;
+        if (request.getMinLng() != null && request.getMinLat() != null &&
+            request.getMaxLng() != null && request.getMaxLat() != null) {
+            minLng = request.getMinLng();
+            minLat = request.getMinLat();
+            maxLng = request.getMaxLng();
+            maxLat = request.getMaxLat();
+        } else {
+            minLng = Double.POSITIVE_INFINITY;
+            minLat = Double.POSITIVE_INFINITY;
+            maxLng = Double.NEGATIVE_INFINITY;
+            maxLat = Double.NEGATIVE_INFINITY;
+            double[] lngs = points.getX();
+            double[] lats = points.getY();
+            for (int i = 0; i < points.getSize(); i++) {
+                minLng = Math.min(minLng, lngs[i]);
+                minLat = Math.min(minLat, lats[i]);
+                maxLng = Math.max(maxLng, lngs[i]);
+                maxLat = Math.max(maxLat, lats[i]);
+            }
+        }
+        if (maxLng <= minLng || maxLat <= minLat) {
+            // Degenerate extent (single point or a line of points); pad to one cell of 0.001 degrees
+            minLng -= 0.0005;
+            maxLng += 0.0005;
+            minLat -= 0.0005;
+            maxLat += 0.0005;
+        }
+        return new double[]{minLng, minLat, maxLng, maxLat};
+    }
+
+    private static String blankToNull(String value) {
+        return value != null && !value.isBlank() ? value : null;
+    }
+
+    private static float maxOf(float[] grid) {
+        float max = 0;
+        for (float value : grid) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    /**
+     * Value at a percentile (0-100) of the positive cells, so a few hot spots do not wash out the rest
+     */
+    private static float percentileOfPositive(float[] grid, double percentile) {
+        int count = 0;
+        for (float value : grid) {
+            if (value > 0) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        float[] positive = new float[count];
+        int i = 0;
+        for (float value : grid) {
+            if (value > 0) {
+                positive[i++] = value;
+            }
+        }
+        Arrays.parallelSort(positive);
+        int rank = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return positive[Math.max(0, Math.min(count - 1, rank))];
+    }
+
+    /**
+     * Index of the lng/lat grid cell containing a coordinate, or -1 outside the grid
+     */
+    private static int gridCell(double lng, double lat, double minLng, double minLat,
+                                double maxLng, double maxLat, int gridSize) {
+        int gridX = (int) Math.floor((lng - minLng) / (maxLng - minLng) * gridSize);
+        int gridY = (int) Math.floor((lat - minLat) / (maxLat - minLat) * gridSize);
+        // Points on the max edge belong to the last cell
+        gridX = Math.min(gridX, gridSize - 1);
+        gridY = Math.min(gridY, gridSize - 1);
+        if (gridX < 0 || gridY < 0) {
+            return -1;
+        }
+        return gridY * gridSize + gridX;
+    }
+
+    /**
+     * Whether the layer's density pyramid can be read; the first request for a layer starts its build
+     */
+    private boolean pyramidReady(UUID layerId) {
+        if (densityPyramidService.isReady(layerId)) {
+            return true;
+        }
+        densityPyramidService.buildOnDemand(layerId);
+        return false;
+    }
+
+    /**
+     * Bin counts from the layer's density pyramid into a lng/lat grid, using the first level
+     * whose cells are no larger than a grid cell. Null when the pyramid is not built yet or
+     * has no level fine enough, in which case features are read instead.
+     */
+    private float[] binFromPyramid(UUID layerId, int gridSize, double minLng, double minLat,
+                                   double maxLng, double maxLat, float weight) {
+        if (maxLng <= minLng || maxLat <= minLat) {
+            return null;
+        }
+        if (!pyramidReady(layerId)) {
+            return null;
+        }
+        double cellSizeLng = (maxLng - minLng) / gridSize;
+        int level = (int) Math.max(0, Math.ceil(
+                Math.log(360.0 / (DensityPyramidService.CELLS_PER_TILE * cellSizeLng)) / Math.log(2)));
+        if (level > densityPyramidService.getMaxZoom()) {
+            return null;
+        }
+        long n = (long) DensityPyramidService.CELLS_PER_TILE << level;
+        int minX = TileMath.cellIndex(TileMath.mercatorX(minLng), n);
+        int maxX = TileMath.cellIndex(TileMath.mercatorX(maxLng), n);
+        int minY = TileMath.cellIndex(TileMath.mercatorY(maxLat), n);
+        int maxY = TileMath.cellIndex(TileMath.mercatorY(minLat), n);
+        int width = maxX - minX + 1;
+        int height = maxY - minY + 1;
+        if ((long) width * height > MAX_PYRAMID_CELLS) {
+            return null;
+        }
+
+        float[] cells = densityPyramidService.readCells(layerId, level, minX, minY, width, height);
+        float[] grid = new float[gridSize * gridSize];
+        for (int y = 0; y < height; y++) {
+            double lat = TileMath.latitude((minY + y + 0.5) / n);
+            for (int x = 0; x < width; x++) {
+                float count = cells[y * width + x];
+                if (count == 0) {
+                    continue;
+                }
+                double lng = TileMath.longitude((minX + x + 0.5) / n);
+                if (lng < minLng || lng > maxLng || lat < minLat || lat > maxLat) {
+                    continue;
+                }
+                int cell = gridCell(lng, lat, minLng, minLat, maxLng, maxLat, gridSize);
+                if (cell >= 0) {
+                    grid[cell] += count * weight;
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Time-sliced heatmap: every point is binned into the grid of its time bucket in a single
+     * pass, then all frames are convolved in parallel. Frames either follow a timeline of
+     * bucketSeconds steps or, with cycleSeconds, fold onto a cycle (e.g. 24 hour-of-day frames).
+     * Values are unnormalized; maxIntensity gives one scale for the whole animation.
      */
-    private double calculateRadiusInDegrees(double radiusPixels, int zoom,
+    public HeatmapFrames generateFrames(HeatmapRequest request) {
+        if (request.getLayerId() == null) {
+            throw new IllegalArgumentException("Layer ID is required");
+        }
+        String timeProperty = blankToNull(request.getTimeProperty());
+        if (timeProperty == null) {
+            throw new IllegalArgumentException("Time property is required");
+        }
+        long bucketSeconds = request.getBucketSeconds() != null ? request.getBucketSeconds() : 3600;
+        Long cycleSeconds = request.getCycleSeconds();
+        if (bucketSeconds <= 0 || (cycleSeconds != null && (cycleSeconds <= 0 || cycleSeconds % bucketSeconds != 0))) {
+            throw new IllegalArgumentException("bucketSeconds must be positive and divide cycleSeconds");
+        }
+        int gridSize = request.getGridSize() != null ? request.getGridSize() : 256;
+        double radius = request.getRadius() != null ? request.getRadius() : 20.0;
+        float weight = (float) (request.getIntensity() != null ? request.getIntensity().doubleValue() : 1.0);
+        if (gridSize < 1 || gridSize > MAX_GRID_SIZE || radius <= 0) {
+            throw new IllegalArgumentException("Grid size must be between 1 and " + MAX_GRID_SIZE + " and radius positive");
+        }
+        ZoneId zone;
+        try {
+            zone = ZoneId.of(request.getTimeZone() != null ? request.getTimeZone() : "UTC");
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Invalid time zone: " + request.getTimeZone());
+        }
+        String weightProperty = blankToNull(request.getWeightProperty());
+
+        String cacheKey = cacheService.generateSpatialQueryKey(
+                request.getLayerId(),
+                "heatmap-frames",
+                cacheService.getLayerGeneration(request.getLayerId()),
+                request.getMinLng(), request.getMinLat(),
+                request.getMaxLng(), request.getMaxLat(),
+                gridSize, radius, weight, weightProperty,
+                timeProperty, bucketSeconds, cycleSeconds, zone
+        );
+        HeatmapFrames cached = cacheService.getCachedSpatialQuery(cacheKey, HeatmapFrames.class);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean hasBbox = request.getMinLng() != null && request.getMinLat() != null &&
+                request.getMaxLng() != null && request.getMaxLat() != null;
+        PointColumnRepository.PointColumns points = pointColumnRepository.findPoints(
+                request.getLayerId(),
+                hasBbox ? new double[]{request.getMinLng(), request.getMinLat(),
+                        request.getMaxLng(), request.getMaxLat()} : null,
+                weightProperty,
+                timeProperty);
+        int count = points.getSize();
+        double[] lngs = points.getX();
+        double[] lats = points.getY();
+        double[] times = points.getTime();
+
+        // Frame layout
+        long startTime = 0;
+        int frameCount;
+        if (cycleSeconds != null) {
+            frameCount = (int) (cycleSeconds / bucketSeconds);
+        } else {
+            double minTime = Double.POSITIVE_INFINITY;
+            double maxTime = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                minTime = Math.min(minTime, times[i]);
+                maxTime = Math.max(maxTime, times[i]);
+            }
+            startTime = count > 0 ? (long) Math.floor(minTime / bucketSeconds) * bucketSeconds : 0;
+            frameCount = count > 0 ? (int) Math.min(Integer.MAX_VALUE,
+                    (long) Math.floor((maxTime - startTime) / bucketSeconds) + 1) : 1;
+        }
+        int cells = gridSize * gridSize;
+        if (frameCount > MAX_FRAMES || (long) frameCount * cells > MAX_FRAME_CELLS) {
+            throw new IllegalArgumentException("Too many frames (" + frameCount + "): use a larger bucket or a smaller grid");
+        }
+
+        double[] extent = resolveExtent(request, points);
+        float[][] frames = new float[frameCount][cells];
+
+        // Single pass: each point lands in its frame's grid
+        ZoneRules rules = zone.getRules();
+        for (int i = 0; i < count; i++) {
+            int cell = gridCell(lngs[i], lats[i], extent[0], extent[1], extent[2], extent[3], gridSize);
+            if (cell < 0) {
+                continue;
+            }
+            long seconds = (long) Math.floor(times[i]);
+            int frame;
+            if (cycleSeconds != null) {
+                long local = seconds + rules.getOffset(Instant.ofEpochSecond(seconds)).getTotalSeconds();
+                frame = (int) (Math.floorMod(local, cycleSeconds) / bucketSeconds);
+            } else {
+                frame = (int) ((seconds - startTime) / bucketSeconds);
+            }
+            frames[frame][cell] += weight * points.weightAt(i);
+        }
+
+        // Same convolution per frame, frames in parallel
+        double radiusDegrees = calculateRadiusInDegrees(radius, extent[0], extent[1], extent[2], extent[3]);
+        double sigmaX = radiusDegrees / 2.0 / ((extent[2] - extent[0]) / gridSize);
+        double sigmaY = radiusDegrees / 2.0 / ((extent[3] - extent[1]) / gridSize);
+        IntStream.range(0, frameCount).parallel().forEach(f ->
+                SeparableBlur.gaussian(frames[f], gridSize, gridSize, sigmaX, sigmaY, MAX_EXACT_KERNEL_RADIUS));
+
+        float maxIntensity = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(frameCount * cells * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (float[] frame : frames) {
+            maxIntensity = Math.max(maxIntensity, maxOf(frame));
+            buffer.asFloatBuffer().put(frame);
+            buffer.position(buffer.position() + cells * Float.BYTES);
+        }
+
+        HeatmapFrames result = HeatmapFrames.builder()
+                .minLng(extent[0])
+                .minLat(extent[1])
+                .maxLng(extent[2])
+                .maxLat(extent[3])
+                .gridSize(gridSize)
+                .frameCount(frameCount)
+                .bucketSeconds(bucketSeconds)
+                .cycleSeconds(cycleSeconds)
+                .startTime(cycleSeconds == null ? startTime : null)
+                .maxIntensity((double) maxIntensity)
+                .data(buffer.array())
+                .build();
+        cacheService.cacheSpatialQuery(cacheKey, result, null);
+        return result;
+    }
+
+    /**
+     * Render the density of one web-mercator tile as a PNG through a colour ramp.
+     * maxIntensity is the absolute density mapped to the top of the ramp, so neighbouring
+     * tiles share one scale and no seams appear.
+     */
+    public byte[] renderTilePng(UUID layerId, int z, int x, int y, double radius, double intensity,
+                                String weightProperty, double maxIntensity, String ramp) {
+        if (maxIntensity <= 0) {
+            throw new IllegalArgumentException("maxIntensity must be positive");
+        }
+        ColorRamp colorRamp = ColorRamp.of(ramp);
+        weightProperty = blankToNull(weightProperty);
+        String tileKey = cacheService.generateHeatmapTileKey(layerId, z, x, y,
+                radius, intensity, weightProperty, maxIntensity, ramp != null ? ramp.toLowerCase() : "heat", "png");
+        byte[] cached = cacheService.getCachedTile(tileKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        float[] density = renderTileDensity(layerId, z, x, y, radius, intensity, weightProperty);
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = colorRamp.argb(density[i] / maxIntensity);
+        }
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, TILE_SIZE, TILE_SIZE, pixels, 0, TILE_SIZE);
+        byte[] png;
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "PNG", out);
+            png = out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode heatmap tile", e);
+        }
+
+        cacheService.cacheTile(tileKey, png, null);
+        return png;
+    }
+
+    /**
+     * Render the density of one web-mercator tile as raw little-endian Float32 values,
+     * 256 x 256, row-major from the north-west corner (unnormalized)
+     */
+    public byte[] renderTileFloat32(UUID layerId, int z, int x, int y, double radius, double intensity,
+                                    String weightProperty) {
+        weightProperty = blankToNull(weightProperty);
+        String tileKey = cacheService.generateHeatmapTileKey(layerId, z, x, y, radius, intensity, weightProperty, "f32");
+        byte[] cached = cacheService.getCachedTile(tileKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        float[] density = renderTileDensity(layerId, z, x, y, radius, intensity, weightProperty);
+        ByteBuffer buffer = ByteBuffer.allocate(density.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(density);
+        byte[] raw = buffer.array();
+
+        cacheService.cacheTile(tileKey, raw, null);
+        return raw;
+    }
+
+    /**
+     * Density of one 256px tile in mercator pixel space. The grid is padded by the kernel
+     * reach on every side and points in the margin are included, so the cropped tile matches
+     * its neighbours along the edges.
+     */
+    private float[] renderTileDensity(UUID layerId, int z, int x, int y, double radius, double intensity,
+                                      String weightProperty) {
+        TileMath.validateTile(z, x, y);
+        if (!(radius > 0 && radius <= MAX_TILE_RADIUS)) {
+            throw new IllegalArgumentException("Radius must be between 0 and " + MAX_TILE_RADIUS + " pixels");
+        }
+        double sigma = radius / 2.0;
+        int margin = (int) Math.ceil(3 * sigma);
+        int size = TILE_SIZE + 2 * margin;
+        double worldPixels = TILE_SIZE * Math.pow(2, z);
+        double originX = (double) x * TILE_SIZE - margin;
+        double originY = (double) y * TILE_SIZE - margin;
+
+        double minLng = TileMath.longitude(originX / worldPixels);
+        double maxLng = TileMath.longitude((originX + size) / worldPixels);
+        double maxLat = TileMath.latitude(Math.max(0, originY) / worldPixels);
+        double minLat = TileMath.latitude(Math.min(worldPixels, originY + size) / worldPixels);
+
+        float[] grid;
+        float weight = (float) intensity;
+        int level = z + 2;
+        if (weightProperty == null && level <= densityPyramidService.getMaxZoom() && pyramidReady(layerId)) {
+            // Pyramid cells at zoom z + 2 are exactly one pixel of a zoom z tile
+            grid = densityPyramidService.readCells(layerId, level, (long) originX, (long) originY, size, size);
+            if (weight != 1f) {
+                for (int i = 0; i < grid.length; i++) {
+                    grid[i] *= weight;
+                }
+            }
+        } else {
+            grid = new float[size * size];
+            PointColumnRepository.PointColumns points = pointColumnRepository.findPoints(
+                    layerId, new double[]{minLng, minLat, maxLng, maxLat}, weightProperty);
+            double[] lngs = points.getX();
+            double[] lats = points.getY();
+            for (int i = 0; i < points.getSize(); i++) {
+                int px = (int) Math.floor(TileMath.mercatorX(lngs[i]) * worldPixels - originX);
+                int py = (int) Math.floor(TileMath.mercatorY(lats[i]) * worldPixels - originY);
+                if (px >= 0 && py >= 0 && px < size && py < size) {
+                    grid[py * size + px] += weight * points.weightAt(i);
+                }
+            }
+        }
+
+        SeparableBlur.gaussian(grid, size, size, sigma, sigma, MAX_EXACT_KERNEL_RADIUS);
+
+        float[] tile = new float[TILE_SIZE * TILE_SIZE];
+        for (int row = 0; row < TILE_SIZE; row++) {
+            System.arraycopy(grid, (row + margin) * size + margin, tile, row * TILE_SIZE, TILE_SIZE);
+        }
+        return tile;
+    }
+
+    /**
+     * Calculate radius in degrees based on pixel radius, assuming the bbox spans a 256px tile
+     */
+    private double calculateRadiusInDegrees(double radiusPixels,
                                             double minLng, double minLat,
                                             double maxLng, double maxLat) {
         // Calculate degrees per pixel at this zoom level
@@ -177,14 +599,4 @@ public class HeatmapService {
 
         return radiusPixels * avgDegreesPerPixel;
     }
-
-    /**
-     * Calculate distance between two points in degrees (simplified)
-     */
-    private double calculateDistance(double lng1, double lat1, double lng2, double lat2) {
-        double dx = lng2 - lng1;
-        double dy = lat2 - lat1;
-        return Math.sqrt(dx * dx + dy * dy);
-    }
 }
-
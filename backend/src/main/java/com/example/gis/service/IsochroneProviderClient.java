@@ -0,0 +1,344 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.IsochroneRequest;
+import com.example.gis.dto.IsochroneResponse;
+import com.example.gis.util.CircuitBreaker;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Isochrone clients for external routing engines (OSRM isochrone endpoint, GraphHopper).
+ *
+ * All calls share one non-blocking HTTP client. Each provider has its own request timeout,
+ * a cap on requests in flight, a circuit breaker, and a hedge delay: when the first attempt
+ * has not answered by then (or fails early), a second identical request is sent and the first
+ * successful answer wins. Failures surface as exceptions so the caller can fall back.
+ */
+@Service
+@Slf4j
+public class IsochroneProviderClient {
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final Provider osrm;
+    private final Provider graphhopper;
+
+    public IsochroneProviderClient(HttpClient routingHttpClient,
+                                   ObjectMapper objectMapper,
+                                   @Value("${isochrone.osrm.url:http://router.project-osrm.org}") String osrmUrl,
+                                   @Value("${isochrone.osrm.timeout-ms:5000}") long osrmTimeoutMs,
+                                   @Value("${isochrone.osrm.max-concurrent:32}") int osrmMaxConcurrent,
+                                   @Value("${isochrone.osrm.hedge-after-ms:800}") long osrmHedgeAfterMs,
+                                   @Value("${isochrone.graphhopper.url:http://localhost:8989}") String graphhopperUrl,
+                                   @Value("${isochrone.graphhopper.timeout-ms:5000}") long graphhopperTimeoutMs,
+                                   @Value("${isochrone.graphhopper.max-concurrent:32}") int graphhopperMaxConcurrent,
+                                   @Value("${isochrone.graphhopper.hedge-after-ms:800}") long graphhopperHedgeAfterMs,
+                                   @Value("${isochrone.circuit-breaker.failure-threshold:5}") int failureThreshold,
+                                   @Value("${isochrone.circuit-breaker.open-seconds:30}") long openSeconds) {
+        this.httpClient = routingHttpClient;
+        this.objectMapper = objectMapper;
+        this.osrm = new Provider("osrm", osrmUrl, osrmTimeoutMs, osrmMaxConcurrent, osrmHedgeAfterMs,
+                new CircuitBreaker(failureThreshold, openSeconds * 1000));
+        this.graphhopper = new Provider("graphhopper", graphhopperUrl, graphhopperTimeoutMs,
+                graphhopperMaxConcurrent, graphhopperHedgeAfterMs,
+                new CircuitBreaker(failureThreshold, openSeconds * 1000));
+    }
+
+    /**
+     * Isochrone from an OSRM isochrone endpoint, which answers with a GeoJSON FeatureCollection
+     * whose features carry their contour value (seconds) in properties.contour
+     */
+    public IsochroneResponse osrm(IsochroneRequest request) {
+        String contours = request.getContours().stream().map(String::valueOf).collect(Collectors.joining(","));
+        URI uri = URI.create(String.format(Locale.ROOT, "%s/route/v1/%s/%f,%f?contours=%s&denoise=%s&generalize=%f",
+                osrm.baseUrl,
+                request.getProfile(),
+                request.getLongitude(),
+                request.getLatitude(),
+                contours,
+                request.getDenoise(),
+                request.getGeneralize() != null ? request.getGeneralize() : 0.0));
+
+        JsonNode body = await(osrm, fetch(osrm, uri));
+        JsonNode features = body.path("features");
+        if (!features.isArray()) {
+            throw new IllegalStateException("OSRM response has no features");
+        }
+        List<IsochroneResponse.IsochroneContour> result = new ArrayList<>();
+        for (int i = 0; i < features.size(); i++) {
+            JsonNode feature = features.get(i);
+            JsonNode contour = feature.path("properties").path("contour");
+            // Without a contour property, features follow the order of the requested contours
+            Integer value = contour.isNumber() ? contour.asInt()
+                    : i < request.getContours().size() ? request.getContours().get(i) : null;
+            result.add(contour(value, feature.path("geometry"), "osrm", request.getProfile()));
+        }
+        return response(request, result);
+    }
+
+    /**
+     * Isochrone from GraphHopper's /isochrone. Evenly spaced contours (300, 600, 900) are one call
+     * with buckets; other sets are one call per contour value, sent concurrently.
+     */
+    public IsochroneResponse graphhopper(IsochroneRequest request) {
+        List<Integer> values = request.getContours();
+        int max = values.stream().mapToInt(Integer::intValue).max().orElseThrow();
+        String profile = graphhopperProfile(request.getProfile());
+
+        List<IsochroneResponse.IsochroneContour> result = new ArrayList<>();
+        if (evenlySpaced(values)) {
+            JsonNode body = await(graphhopper, fetch(graphhopper, graphhopperUri(request, profile, max, values.size())));
+            for (JsonNode polygon : body.path("polygons")) {
+                int bucket = polygon.path("properties").path("bucket").asInt();
+                result.add(contour(max * (bucket + 1) / values.size(), polygon.path("geometry"),
+                        "graphhopper", request.getProfile()));
+            }
+        } else {
+            List<CompletableFuture<JsonNode>> calls = new ArrayList<>();
+            for (Integer value : values) {
+                calls.add(fetch(graphhopper, graphhopperUri(request, profile, value, 1)));
+            }
+            for (int i = 0; i < values.size(); i++) {
+                for (JsonNode polygon : await(graphhopper, calls.get(i)).path("polygons")) {
+                    result.add(contour(values.get(i), polygon.path("geometry"), "graphhopper", request.getProfile()));
+                }
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalStateException("GraphHopper response has no polygons");
+        }
+        return response(request, result);
+    }
+
+    private URI graphhopperUri(IsochroneRequest request, String profile, int timeLimit, int buckets) {
+        // GraphHopper takes the point as lat,lng
+        return URI.create(String.format(Locale.ROOT, "%s/isochrone?point=%f,%f&profile=%s&time_limit=%d&buckets=%d",
+                graphhopper.baseUrl, request.getLatitude(), request.getLongitude(), profile, timeLimit, buckets));
+    }
+
+    private static String graphhopperProfile(String profile) {
+        return switch (profile != null ? profile.toLowerCase(Locale.ROOT) : "driving") {
+            case "walking" -> "foot";
+            case "cycling" -> "bike";
+            default -> "car";
+        };
+    }
+
+    private static boolean evenlySpaced(List<Integer> values) {
+        List<Integer> sorted = values.stream().sorted().toList();
+        int step = sorted.get(0);
+        for (int i = 0; i < sorted.size(); i++) {
+            if (sorted.get(i) != step * (i + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One logical call: the first attempt, plus a hedge after the provider's hedge delay (or as soon
+     * as the first attempt fails). Completes with the first successful body.
+     */
+    private CompletableFuture<JsonNode> fetch(Provider provider, URI uri) {
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        if (!provider.breaker.allowRequest()) {
+            result.completeExceptionally(new IllegalStateException(provider.name + " circuit is open"));
+            return result;
+        }
+        if (!provider.permits.tryAcquire()) {
+            provider.breaker.recordIgnored();
+            result.completeExceptionally(new IllegalStateException(provider.name + " has too many requests in flight"));
+            return result;
+        }
+        Call call = new Call(provider, uri, result);
+        call.pending.incrementAndGet();
+        call.send();
+        if (provider.hedgeAfterMs > 0) {
+            CompletableFuture.delayedExecutor(provider.hedgeAfterMs, TimeUnit.MILLISECONDS).execute(call::hedge);
+        }
+        return result;
+    }
+
+    private JsonNode await(Provider provider, CompletableFuture<JsonNode> future) {
+        try {
+            // Room for a hedge sent just before the first attempt times out
+            return future.get(provider.timeoutMs + provider.hedgeAfterMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(provider.name + " call interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(provider.name + " call failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IllegalStateException(provider.name + " call timed out", e);
+        }
+    }
+
+    private IsochroneResponse.IsochroneContour contour(Integer value, JsonNode geometry, String provider,
+                                                       String profile) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("value", value);
+        properties.put("profile", profile);
+        properties.put("provider", provider);
+        return IsochroneResponse.IsochroneContour.builder()
+                .value(value)
+                .geometry(geometry.toString())
+                .properties(properties)
+                .build();
+    }
+
+    private static IsochroneResponse response(IsochroneRequest request,
+                                              List<IsochroneResponse.IsochroneContour> contours) {
+        return IsochroneResponse.builder()
+                .longitude(request.getLongitude())
+                .latitude(request.getLatitude())
+                .contours(contours)
+                .build();
+    }
+
+    /**
+     * Attempts of one logical call. pending counts attempts in flight (plus a hedge being launched),
+     * so the call fails only once the last attempt has failed and no hedge is left to send.
+     */
+    private final class Call {
+        private final Provider provider;
+        private final URI uri;
+        private final CompletableFuture<JsonNode> result;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean hedged = new AtomicBoolean();
+        private final List<CompletableFuture<?>> attempts = new ArrayList<>(2);
+
+        Call(Provider provider, URI uri, CompletableFuture<JsonNode> result) {
+            this.provider = provider;
+            this.uri = uri;
+            this.result = result;
+            // Losing attempts are not worth waiting for once there is an answer (or the caller gave up)
+            result.whenComplete((body, error) -> cancelAttempts());
+        }
+
+        /**
+         * Send an attempt; the caller holds a breaker admission, a permit and a pending count for it
+         */
+        void send() {
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMillis(provider.timeoutMs))
+                    .header("Accept", "application/json")
+                    .GET()
+                    .build();
+            CompletableFuture<HttpResponse<byte[]>> attempt = httpClient.sendAsync(request,
+                    HttpResponse.BodyHandlers.ofByteArray());
+            synchronized (attempts) {
+                attempts.add(attempt);
+            }
+            attempt.whenComplete((response, error) -> {
+                provider.permits.release();
+                complete(response, error);
+            });
+        }
+
+        /**
+         * Launch the second attempt once; false when it already ran or is not possible
+         */
+        boolean hedge() {
+            if (provider.hedgeAfterMs <= 0 || result.isDone()) {
+                return false;
+            }
+            pending.incrementAndGet();
+            if (!hedged.compareAndSet(false, true)) {
+                pending.decrementAndGet();
+                return false;
+            }
+            if (!provider.breaker.allowRequest()) {
+                pending.decrementAndGet();
+                return false;
+            }
+            if (!provider.permits.tryAcquire()) {
+                provider.breaker.recordIgnored();
+                pending.decrementAndGet();
+                return false;
+            }
+            log.debug("Hedging {} request {}", provider.name, uri);
+            send();
+            return true;
+        }
+
+        private void complete(HttpResponse<byte[]> response, Throwable error) {
+            if (error == null && response.statusCode() / 100 == 2) {
+                try {
+                    JsonNode body = objectMapper.readTree(response.body());
+                    provider.breaker.recordSuccess();
+                    result.complete(body);
+                    return;
+                } catch (IOException e) {
+                    provider.breaker.recordFailure();
+                    error = e;
+                }
+            } else if (error == null) {
+                // Client errors say nothing about the provider's health
+                if (response.statusCode() >= 500) {
+                    provider.breaker.recordFailure();
+                } else {
+                    provider.breaker.recordIgnored();
+                }
+                error = new IllegalStateException(provider.name + " answered HTTP " + response.statusCode());
+            } else if (result.isDone()) {
+                // Cancelled after another attempt won
+                provider.breaker.recordIgnored();
+            } else {
+                provider.breaker.recordFailure();
+            }
+
+            boolean retried = (response == null || response.statusCode() >= 500) && hedge();
+            if (pending.decrementAndGet() == 0 && !retried) {
+                result.completeExceptionally(error);
+            }
+        }
+
+        private void cancelAttempts() {
+            synchronized (attempts) {
+                attempts.forEach(attempt -> attempt.cancel(true));
+            }
+        }
+    }
+
+    private static final class Provider {
+        private final String name;
+        private final String baseUrl;
+        private final long timeoutMs;
+        private final Semaphore permits;
+        private final long hedgeAfterMs;
+        private final CircuitBreaker breaker;
+
+        Provider(String name, String baseUrl, long timeoutMs, int maxConcurrent, long hedgeAfterMs,
+                 CircuitBreaker breaker) {
+            this.name = name;
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+            this.timeoutMs = timeoutMs;
+            this.permits = new Semaphore(maxConcurrent);
+            this.hedgeAfterMs = hedgeAfterMs;
+            this.breaker = breaker;
+        }
+    }
+}
@@ -2,35 +2,67 @@ package com.example.gis.service;
 
 import com.example.gis.dto.IsochroneRequest;
 import com.example.gis.dto.IsochroneResponse;
+import com.example.gis.util.Dijkstra;
+import com.example.gis.util.GeoJsonConverter;
+import com.example.gis.util.RoadGraph;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.algorithm.hull.ConcaveHull;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateList;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class IsochroneService {
-    private final RestTemplate restTemplate = new RestTemplate();
+    private static final double METERS_PER_DEGREE = 111_320.0;
+    // Buffer (degrees, ~10 m) giving area to contours that reach too few points for a hull
+    private static final double MIN_CONTOUR_BUFFER = 0.0001;
+
+    private final RoadNetworkService roadNetworkService;
+    private final CacheService cacheService;
+    private final IsochroneProviderClient isochroneProviderClient;
+    private final GeoJsonConverter geoJsonConverter;
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
     
     @Value("${isochrone.provider:internal}")
     private String isochroneProvider; // internal, osrm, graphhopper
-    
-    @Value("${osrm.url:http://router.project-osrm.org}")
-    private String osrmUrl;
-    
-    @Value("${graphhopper.url:http://localhost:8989}")
-    private String graphhopperUrl;
+
+    @Value("${isochrone.network-layer-id:}")
+    private String defaultNetworkLayerId;
+
+    @Value("${isochrone.max-snap-meters:1000}")
+    private double maxSnapMeters;
+
+    @Value("${isochrone.hull-length-ratio:0.3}")
+    private double hullLengthRatio;
+
+    @Value("${isochrone.cache.snap:node}")
+    private String cacheSnap; // node, grid, none
+
+    @Value("${isochrone.cache.grid-meters:100}")
+    private int cacheGridMeters;
+
+    @Value("${isochrone.cache.ttl-seconds:3600}")
+    private int cacheTtlSeconds;
     
     /**
-     * Calculate isochrone from a point
-     * This is a stub implementation that can be extended with OSRM/GraphHopper integration
+     * Calculate isochrone from a point with the configured provider
      */
     public IsochroneResponse calculateIsochrone(IsochroneRequest request) {
         if (request.getLongitude() == null || request.getLatitude() == null) {
@@ -58,12 +90,17 @@ public class IsochroneService {
     }
     
     /**
-     * Internal isochrone calculation (stub - returns simple buffer)
+     * Internal isochrone calculation: routes on the road network layer when one is configured,
+     * otherwise falls back to circular buffers at the profile's average speed
      */
     private IsochroneResponse calculateIsochroneInternal(IsochroneRequest request) {
-        // Stub implementation: return simple circular buffers
-        // In production, this would use a routing engine or spatial analysis
-        
+        UUID networkLayerId = request.getNetworkLayerId() != null
+                ? request.getNetworkLayerId()
+                : defaultNetworkLayerId();
+        if (networkLayerId != null) {
+            return calculateIsochroneNetwork(request, networkLayerId);
+        }
+
         List<IsochroneResponse.IsochroneContour> contours = new ArrayList<>();
         
         for (Integer contourValue : request.getContours()) {
@@ -98,59 +135,274 @@ public class IsochroneService {
     }
     
     /**
-     * Calculate isochrone using OSRM
+     * Network isochrone: one bounded Dijkstra from the snapped origin up to the largest contour,
+     * then a concave hull of the reached nodes and of the points where each contour cuts an edge.
+     *
+     * Unless isochrone.cache.snap is "none", the origin is first moved to its nearest graph node
+     * (or the centre of its grid cell) so nearby requests share results. Contours are cached one
+     * by one under the graph generation, so the search only runs for missing contour values and
+     * a request for a larger set fills the cache for every smaller contour it includes.
+     */
+    private IsochroneResponse calculateIsochroneNetwork(IsochroneRequest request, UUID networkLayerId) {
+        RoadGraph graph = roadNetworkService.getGraph(networkLayerId);
+        RoadGraph.Profile profile = RoadGraph.Profile.of(request.getProfile());
+        String snapMode = cacheSnap.toLowerCase(Locale.ROOT);
+        if (snapMode.equals("none")) {
+            NetworkIsochrone isochrone = computeNetworkIsochrone(graph, new Dijkstra(graph),
+                    request.getLongitude(), request.getLatitude(), request.getContours(), profile,
+                    request.getGeneralize());
+            return toNetworkResponse(request.getLongitude(), request.getLatitude(), request.getContours(),
+                    request.getProfile(), networkLayerId, isochrone);
+        }
+
+        // Resolve the shared origin: a graph node, or the centre of a grid cell routed like any origin
+        RoadGraph.Snap snap = graph.snap(request.getLongitude(), request.getLatitude());
+        if (snap == null || snap.getDistanceMeters() > maxSnapMeters) {
+            throw new IllegalArgumentException("Origin is more than " + maxSnapMeters + " m from the road network");
+        }
+        double originLng;
+        double originLat;
+        String originKey;
+        if (snapMode.equals("grid")) {
+            double cellLat = cacheGridMeters / METERS_PER_DEGREE;
+            long row = (long) Math.floor(request.getLatitude() / cellLat);
+            originLat = (row + 0.5) * cellLat;
+            double cellLng = cellLat / Math.max(Math.cos(Math.toRadians(originLat)), 0.01);
+            long column = (long) Math.floor(request.getLongitude() / cellLng);
+            originLng = (column + 0.5) * cellLng;
+            originKey = "cell" + cacheGridMeters + "/" + column + "/" + row;
+            snap = graph.snap(originLng, originLat);
+            if (snap == null || snap.getDistanceMeters() > maxSnapMeters) {
+                throw new IllegalArgumentException("Origin is more than " + maxSnapMeters + " m from the road network");
+            }
+        } else if (snapMode.equals("node")) {
+            originLng = graph.lng(snap.getNode());
+            originLat = graph.lat(snap.getNode());
+            originKey = "node" + snap.getNode();
+        } else {
+            throw new IllegalArgumentException("Unsupported isochrone.cache.snap: " + cacheSnap);
+        }
+        double generalize = request.getGeneralize() != null ? request.getGeneralize() : 0.0;
+        String generation = roadNetworkService.getGraphVersion(networkLayerId);
+        double snapDistance = RoadGraph.distanceMeters(request.getLongitude(), request.getLatitude(),
+                originLng, originLat);
+
+        Map<Integer, IsochroneResponse.IsochroneContour> byValue = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer value : request.getContours()) {
+            if (byValue.containsKey(value) || missing.contains(value)) {
+                continue;
+            }
+            IsochroneResponse.IsochroneContour cached = cacheService.getCachedSpatialQuery(
+                    contourCacheKey(networkLayerId, generation, profile, originKey, value, generalize),
+                    IsochroneResponse.IsochroneContour.class);
+            if (cached != null) {
+                byValue.put(value, cached);
+            } else {
+                missing.add(value);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            // Grid origins travel to their node like real ones; node origins start on it
+            float access = snapMode.equals("grid")
+                    ? (float) (snap.getDistanceMeters() / (profile.getDefaultSpeedKmh() / 3.6))
+                    : 0f;
+            NetworkIsochrone isochrone = computeNetworkIsochrone(graph, new Dijkstra(graph), snap.getNode(),
+                    access, originLng, originLat, missing, profile, request.getGeneralize());
+            for (int i = 0; i < missing.size(); i++) {
+                Map<String, Object> properties = new HashMap<>();
+                properties.put("value", missing.get(i));
+                properties.put("profile", request.getProfile());
+                properties.put("network_layer_id", networkLayerId.toString());
+                properties.put("origin", List.of(originLng, originLat));
+                IsochroneResponse.IsochroneContour contour = IsochroneResponse.IsochroneContour.builder()
+                        .value(missing.get(i))
+                        .geometry(geoJsonConverter.geometryToGeoJson(isochrone.getPolygons().get(i)).toString())
+                        .properties(properties)
+                        .build();
+                cacheService.cacheSpatialQuery(
+                        contourCacheKey(networkLayerId, generation, profile, originKey, missing.get(i), generalize),
+                        contour, cacheTtlSeconds);
+                byValue.put(missing.get(i), contour);
+            }
+        }
+        log.debug("Isochrone at {} on layer {}: {} cached, {} computed",
+                originKey, networkLayerId, request.getContours().size() - missing.size(), missing.size());
+
+        List<IsochroneResponse.IsochroneContour> contours = new ArrayList<>();
+        for (Integer value : request.getContours()) {
+            IsochroneResponse.IsochroneContour shared = byValue.get(value);
+            // Cached contours are shared between origins; the snap distance is this request's own
+            Map<String, Object> properties = new HashMap<>(shared.getProperties());
+            properties.put("snap_distance_meters", snapDistance);
+            contours.add(IsochroneResponse.IsochroneContour.builder()
+                    .value(shared.getValue())
+                    .geometry(shared.getGeometry())
+                    .properties(properties)
+                    .build());
+        }
+        return IsochroneResponse.builder()
+                .longitude(request.getLongitude())
+                .latitude(request.getLatitude())
+                .contours(contours)
+                .build();
+    }
+
+    private String contourCacheKey(UUID networkLayerId, String generation, RoadGraph.Profile profile,
+                                   String originKey, int value, double generalize) {
+        return cacheService.generateSpatialQueryKey(networkLayerId, "isochrone", "g" + generation,
+                profile.name().toLowerCase(Locale.ROOT), originKey, value, generalize);
+    }
+
+    /**
+     * Contour polygons (in the order of contourValues) from a single search bounded by the
+     * largest contour. The Dijkstra instance is reused, so callers can pool one per worker.
+     */
+    public NetworkIsochrone computeNetworkIsochrone(RoadGraph graph, Dijkstra dijkstra, double lng, double lat,
+                                                    List<Integer> contourValues, RoadGraph.Profile profile,
+                                                    Double generalize) {
+        RoadGraph.Snap snap = graph.snap(lng, lat);
+        if (snap == null || snap.getDistanceMeters() > maxSnapMeters) {
+            throw new IllegalArgumentException("Origin is more than " + maxSnapMeters + " m from the road network");
+        }
+        // The leg from the origin to the snapped node is travelled at the profile's default speed
+        float access = (float) (snap.getDistanceMeters() / (profile.getDefaultSpeedKmh() / 3.6));
+        NetworkIsochrone isochrone = computeNetworkIsochrone(graph, dijkstra, snap.getNode(), access, lng, lat,
+                contourValues, profile, generalize);
+        return new NetworkIsochrone(snap.getDistanceMeters(), isochrone.getPolygons());
+    }
+
+    private NetworkIsochrone computeNetworkIsochrone(RoadGraph graph, Dijkstra dijkstra, int node, float access,
+                                                     double originLng, double originLat, List<Integer> contourValues,
+                                                     RoadGraph.Profile profile, Double generalize) {
+        float[] costs = graph.costs(profile);
+        int maxContour = Collections.max(contourValues);
+
+        float[] dist = dijkstra.search(node, access, maxContour, costs);
+        List<Geometry> polygons = new ArrayList<>(contourValues.size());
+        for (Integer contourValue : contourValues) {
+            polygons.add(contourPolygon(graph, dijkstra, dist, costs, contourValue, originLng, originLat, generalize));
+        }
+        return new NetworkIsochrone(0, polygons);
+    }
+
+    /**
+     * Response for a network isochrone computed by computeNetworkIsochrone
+     */
+    public IsochroneResponse toNetworkResponse(double lng, double lat, List<Integer> contourValues, String profile,
+                                               UUID networkLayerId, NetworkIsochrone isochrone) {
+        List<IsochroneResponse.IsochroneContour> contours = new ArrayList<>();
+        for (int i = 0; i < contourValues.size(); i++) {
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("value", contourValues.get(i));
+            properties.put("profile", profile);
+            properties.put("network_layer_id", networkLayerId);
+            properties.put("snap_distance_meters", isochrone.getSnapDistanceMeters());
+
+            contours.add(IsochroneResponse.IsochroneContour.builder()
+                    .value(contourValues.get(i))
+                    .geometry(geoJsonConverter.geometryToGeoJson(isochrone.getPolygons().get(i)).toString())
+                    .properties(properties)
+                    .build());
+        }
+
+        return IsochroneResponse.builder()
+                .longitude(lng)
+                .latitude(lat)
+                .contours(contours)
+                .build();
+    }
+
+    /**
+     * Default network layer from isochrone.network-layer-id, or null
+     */
+    public UUID defaultNetworkLayerId() {
+        return defaultNetworkLayerId.isBlank() ? null : UUID.fromString(defaultNetworkLayerId);
+    }
+
+    /**
+     * Polygon of everything reachable within limit seconds of the last search
+     */
+    private Geometry contourPolygon(RoadGraph graph, Dijkstra dijkstra, float[] dist, float[] costs,
+                                   double limit, double originLng, double originLat, Double generalize) {
+        CoordinateList points = new CoordinateList();
+        points.add(new Coordinate(originLng, originLat), false);
+        for (int i = 0; i < dijkstra.reachedCount(); i++) {
+            int u = dijkstra.reached(i);
+            float du = dist[u];
+            if (du > limit) {
+                continue;
+            }
+            points.add(new Coordinate(graph.lng(u), graph.lat(u)), false);
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                float cost = costs[e];
+                if (du + cost > limit && cost < Float.POSITIVE_INFINITY) {
+                    // The contour ends part way along this edge
+                    int v = graph.target(e);
+                    double f = (limit - du) / cost;
+                    points.add(new Coordinate(
+                            graph.lng(u) + (graph.lng(v) - graph.lng(u)) * f,
+                            graph.lat(u) + (graph.lat(v) - graph.lat(u)) * f), false);
+                }
+            }
+        }
+
+        Geometry reached = geometryFactory.createMultiPointFromCoords(points.toCoordinateArray());
+        Geometry hull = points.size() >= 3
+                ? ConcaveHull.concaveHullByLengthRatio(reached, hullLengthRatio)
+                : reached;
+        if (!(hull instanceof Polygon)) {
+            // Too few or collinear points
+            hull = hull.buffer(MIN_CONTOUR_BUFFER);
+        }
+        if (generalize != null && generalize > 0) {
+            hull = TopologyPreservingSimplifier.simplify(hull, generalize / METERS_PER_DEGREE);
+        }
+        return hull;
+    }
+
+    /**
+     * Contour polygons of one origin and the distance of the origin to its snapped node
+     */
+    public static final class NetworkIsochrone {
+        private final double snapDistanceMeters;
+        private final List<Geometry> polygons;
+
+        NetworkIsochrone(double snapDistanceMeters, List<Geometry> polygons) {
+            this.snapDistanceMeters = snapDistanceMeters;
+            this.polygons = polygons;
+        }
+
+        public double getSnapDistanceMeters() {
+            return snapDistanceMeters;
+        }
+
+        public List<Geometry> getPolygons() {
+            return polygons;
+        }
+    }
+
+    /**
+     * Calculate isochrone using OSRM, falling back to the internal calculation when it is unavailable
      */
     private IsochroneResponse calculateIsochroneOSRM(IsochroneRequest request) {
         try {
-            // OSRM Isochrone API endpoint
-            String url = String.format("%s/route/v1/%s/%f,%f?contours=%s&denoise=%s&generalize=%f",
-                    osrmUrl,
-                    request.getProfile(),
-                    request.getLongitude(),
-                    request.getLatitude(),
-                    String.join(",", request.getContours().stream().map(String::valueOf).toList()),
-                    request.getDenoise(),
-                    request.getGeneralize());
-            
-            log.debug("Calling OSRM isochrone API: {}", url);
-            
-            // Call OSRM API (stub - would need proper response parsing)
-            // Map<String, Object> response = restTemplate.getForObject(url, Map.class);
-            
-            // For now, fall back to internal calculation
-            log.warn("OSRM integration not fully implemented, using internal calculation");
-            return calculateIsochroneInternal(request);
-            
+            return isochroneProviderClient.osrm(request);
         } catch (Exception e) {
-            log.error("Error calling OSRM isochrone API: {}", e.getMessage(), e);
+            log.warn("OSRM isochrone failed, using internal calculation: {}", e.getMessage());
             return calculateIsochroneInternal(request);
         }
     }
     
     /**
-     * Calculate isochrone using GraphHopper
+     * Calculate isochrone using GraphHopper, falling back to the internal calculation when it is unavailable
      */
     private IsochroneResponse calculateIsochroneGraphHopper(IsochroneRequest request) {
         try {
-            // GraphHopper Isochrone API endpoint
-            String url = String.format("%s/isochrone?point=%f,%f&profile=%s&time_limit=%s",
-                    graphhopperUrl,
-                    request.getLatitude(), // GraphHopper uses lat,lng
-                    request.getLongitude(),
-                    request.getProfile(),
-                    String.join(",", request.getContours().stream().map(String::valueOf).toList()));
-            
-            log.debug("Calling GraphHopper isochrone API: {}", url);
-            
-            // Call GraphHopper API (stub - would need proper response parsing)
-            // Map<String, Object> response = restTemplate.getForObject(url, Map.class);
-            
-            // For now, fall back to internal calculation
-            log.warn("GraphHopper integration not fully implemented, using internal calculation");
-            return calculateIsochroneInternal(request);
-            
+            return isochroneProviderClient.graphhopper(request);
         } catch (Exception e) {
-            log.error("Error calling GraphHopper isochrone API: {}", e.getMessage(), e);
+            log.warn("GraphHopper isochrone failed, using internal calculation: {}", e.getMessage());
             return calculateIsochroneInternal(request);
         }
     }
@@ -0,0 +1,256 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.KdeGrid;
+import com.example.gis.dto.KdeRequest;
+import com.example.gis.repository.PointColumnRepository;
+import com.example.gis.util.KdTree;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Adaptive-bandwidth kernel density estimation over point layers.
+ *
+ * Points are projected to a local equirectangular plane in meters (centred on the extent),
+ * indexed in a KD-tree, and each point gets its own bandwidth: the distance to its k-th
+ * nearest neighbour, clamped to [minBandwidth, maxBandwidth]. Dense areas therefore keep
+ * their detail while isolated points spread over a wider area with the same total mass.
+ * The evaluation grid is split into square tiles evaluated in parallel; each tile only
+ * visits the points whose kernel support reaches it, so the cost is proportional to the
+ * kernel footprint rather than points x cells. Output densities are per km².
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class KernelDensityService {
+    private final PointColumnRepository pointColumnRepository;
+    private final CacheService cacheService;
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+    private static final int MAX_GRID_SIZE = 2048;
+    private static final int MAX_NEIGHBOURS = 256;
+    private static final int TILE_CELLS = 64;
+    private static final double SQUARE_METERS_PER_KM2 = 1_000_000.0;
+    // Gaussian kernels are truncated at this many bandwidths (>98.8% of the mass)
+    private static final double GAUSSIAN_CUTOFF = 3.0;
+
+    /**
+     * Estimate the density grid of a layer
+     */
+    public KdeGrid estimate(KdeRequest request) {
+        if (request.getLayerId() == null) {
+            throw new IllegalArgumentException("Layer ID is required");
+        }
+        int gridSize = request.getGridSize() != null ? request.getGridSize() : 512;
+        int k = request.getNeighbours() != null ? request.getNeighbours() : 15;
+        double maxBandwidth = request.getMaxBandwidth() != null ? request.getMaxBandwidth() : 5000.0;
+        String kernel = request.getKernel() != null ? request.getKernel().toLowerCase(Locale.ROOT) : "quartic";
+        String weightProperty = request.getWeightProperty() != null && !request.getWeightProperty().isBlank()
+                ? request.getWeightProperty() : null;
+        if (gridSize < 1 || gridSize > MAX_GRID_SIZE) {
+            throw new IllegalArgumentException("Grid size must be between 1 and " + MAX_GRID_SIZE);
+        }
+        if (k < 1 || k > MAX_NEIGHBOURS) {
+            throw new IllegalArgumentException("Neighbours must be between 1 and " + MAX_NEIGHBOURS);
+        }
+        if (!(maxBandwidth > 0) || (request.getMinBandwidth() != null && !(request.getMinBandwidth() > 0))) {
+            throw new IllegalArgumentException("Bandwidths must be positive");
+        }
+        if (!kernel.equals("quartic") && !kernel.equals("gaussian")) {
+            throw new IllegalArgumentException("Unsupported kernel: " + request.getKernel());
+        }
+        double cutoff = kernel.equals("gaussian") ? GAUSSIAN_CUTOFF : 1.0;
+
+        String cacheKey = cacheService.generateSpatialQueryKey(
+                request.getLayerId(),
+                "kde",
+                cacheService.getLayerGeneration(request.getLayerId()),
+                request.getMinLng(), request.getMinLat(),
+                request.getMaxLng(), request.getMaxLat(),
+                gridSize, k, request.getMinBandwidth(), maxBandwidth, kernel, weightProperty
+        );
+        KdeGrid cached = cacheService.getCachedSpatialQuery(cacheKey, KdeGrid.class);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean hasBbox = request.getMinLng() != null && request.getMinLat() != null &&
+                request.getMaxLng() != null && request.getMaxLat() != null;
+        double[] fetchBox = null;
+        if (hasBbox) {
+            if (request.getMaxLng() <= request.getMinLng() || request.getMaxLat() <= request.getMinLat()) {
+                throw new IllegalArgumentException("Invalid bounding box");
+            }
+            // Points just outside the box still contribute to cells near its edges
+            double marginLat = maxBandwidth * cutoff / METERS_PER_DEGREE;
+            double centerLat = (request.getMinLat() + request.getMaxLat()) / 2.0;
+            double marginLng = marginLat / Math.max(0.01, Math.cos(Math.toRadians(centerLat)));
+            fetchBox = new double[]{request.getMinLng() - marginLng, request.getMinLat() - marginLat,
+                    request.getMaxLng() + marginLng, request.getMaxLat() + marginLat};
+        }
+        PointColumnRepository.PointColumns points =
+                pointColumnRepository.findPoints(request.getLayerId(), fetchBox, weightProperty);
+        int count = points.getSize();
+        if (count == 0 && !hasBbox) {
+            return KdeGrid.builder().width(0).height(0).pointCount(0).maxDensity(0.0).data(new byte[0]).build();
+        }
+
+        double minLng, minLat, maxLng, maxLat;
+        if (hasBbox) {
+            minLng = request.getMinLng();
+            minLat = request.getMinLat();
+            maxLng = request.getMaxLng();
+            maxLat = request.getMaxLat();
+        } else {
+            minLng = Double.POSITIVE_INFINITY;
+            minLat = Double.POSITIVE_INFINITY;
+            maxLng = Double.NEGATIVE_INFINITY;
+            maxLat = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                minLng = Math.min(minLng, points.getX()[i]);
+                minLat = Math.min(minLat, points.getY()[i]);
+                maxLng = Math.max(maxLng, points.getX()[i]);
+                maxLat = Math.max(maxLat, points.getY()[i]);
+            }
+            if (maxLng <= minLng || maxLat <= minLat) {
+                minLng -= 0.0005;
+                maxLng += 0.0005;
+                minLat -= 0.0005;
+                maxLat += 0.0005;
+            }
+        }
+
+        // Local equirectangular projection around the centre of the extent
+        double originLng = (minLng + maxLng) / 2.0;
+        double originLat = (minLat + maxLat) / 2.0;
+        double metersPerLng = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = (points.getX()[i] - originLng) * metersPerLng;
+            ys[i] = (points.getY()[i] - originLat) * METERS_PER_DEGREE;
+        }
+        double gridMinX = (minLng - originLng) * metersPerLng;
+        double gridMinY = (minLat - originLat) * METERS_PER_DEGREE;
+        double extentX = (maxLng - minLng) * metersPerLng;
+        double extentY = (maxLat - minLat) * METERS_PER_DEGREE;
+        double cellSize = Math.max(extentX, extentY) / gridSize;
+        int width = Math.max(1, (int) Math.ceil(extentX / cellSize - 1e-9));
+        int height = Math.max(1, (int) Math.ceil(extentY / cellSize - 1e-9));
+        double minBandwidth = request.getMinBandwidth() != null ? request.getMinBandwidth() : cellSize;
+        if (minBandwidth > maxBandwidth) {
+            throw new IllegalArgumentException("minBandwidth must not exceed maxBandwidth");
+        }
+
+        // Adaptive bandwidths from the k-th nearest neighbour distance
+        KdTree tree = new KdTree(xs, ys, count);
+        double[] bandwidth = new double[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            double distance = tree.kthNearestDistance(xs[i], ys[i], k, i);
+            bandwidth[i] = Math.min(maxBandwidth, Math.max(minBandwidth, distance));
+        });
+        double usedMin = Double.POSITIVE_INFINITY;
+        double usedMax = 0;
+        for (double h : bandwidth) {
+            usedMin = Math.min(usedMin, h);
+            usedMax = Math.max(usedMax, h);
+        }
+        // Candidates are searched within the widest support actually used, which in dense
+        // layers is far below the configured maximum
+        double reach = usedMax * cutoff;
+
+        float[] grid = new float[width * height];
+        int tilesX = (width + TILE_CELLS - 1) / TILE_CELLS;
+        int tilesY = (height + TILE_CELLS - 1) / TILE_CELLS;
+        boolean gaussian = kernel.equals("gaussian");
+        double[] weights = new double[count];
+        for (int i = 0; i < count; i++) {
+            weights[i] = points.weightAt(i);
+        }
+
+        // Each tile owns its cells, so tiles accumulate without synchronization
+        IntStream.range(0, tilesX * tilesY).parallel().forEach(tile -> {
+            int cellX0 = (tile % tilesX) * TILE_CELLS;
+            int cellY0 = (tile / tilesX) * TILE_CELLS;
+            int cellX1 = Math.min(width, cellX0 + TILE_CELLS);
+            int cellY1 = Math.min(height, cellY0 + TILE_CELLS);
+            double tileMinX = gridMinX + cellX0 * cellSize;
+            double tileMinY = gridMinY + cellY0 * cellSize;
+            double tileMaxX = gridMinX + cellX1 * cellSize;
+            double tileMaxY = gridMinY + cellY1 * cellSize;
+            int[] candidates = tree.range(tileMinX - reach, tileMinY - reach, tileMaxX + reach, tileMaxY + reach);
+
+            for (int p : candidates) {
+                double h = bandwidth[p];
+                double support = h * cutoff;
+                double px = xs[p];
+                double py = ys[p];
+                // Cells whose centres fall inside the support square, clipped to the tile
+                int fromX = Math.max(cellX0, (int) Math.ceil((px - support - gridMinX) / cellSize - 0.5));
+                int toX = Math.min(cellX1 - 1, (int) Math.floor((px + support - gridMinX) / cellSize - 0.5));
+                int fromY = Math.max(cellY0, (int) Math.ceil((py - support - gridMinY) / cellSize - 0.5));
+                int toY = Math.min(cellY1 - 1, (int) Math.floor((py + support - gridMinY) / cellSize - 0.5));
+                if (fromX > toX || fromY > toY) {
+                    continue;
+                }
+                double invH2 = 1.0 / (h * h);
+                // Kernel normalized to unit mass per point, scaled to per-km² density
+                double scale = weights[p] * SQUARE_METERS_PER_KM2 * invH2
+                        * (gaussian ? 1.0 / (2.0 * Math.PI) : 3.0 / Math.PI);
+                double cutoffSq = cutoff * cutoff;
+                for (int cy = fromY; cy <= toY; cy++) {
+                    double dy = gridMinY + (cy + 0.5) * cellSize - py;
+                    int row = cy * width;
+                    for (int cx = fromX; cx <= toX; cx++) {
+                        double dx = gridMinX + (cx + 0.5) * cellSize - px;
+                        double u2 = (dx * dx + dy * dy) * invH2;
+                        if (u2 >= cutoffSq) {
+                            continue;
+                        }
+                        double value;
+                        if (gaussian) {
+                            value = Math.exp(-0.5 * u2);
+                        } else {
+                            double t = 1.0 - u2;
+                            value = t * t;
+                        }
+                        grid[row + cx] += (float) (scale * value);
+                    }
+                }
+            }
+        });
+
+        float maxDensity = 0f;
+        for (float value : grid) {
+            maxDensity = Math.max(maxDensity, value);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(grid.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer floats = buffer.asFloatBuffer();
+        floats.put(grid);
+
+        KdeGrid result = KdeGrid.builder()
+                .minLng(minLng)
+                .minLat(minLat)
+                .maxLng(minLng + width * cellSize / metersPerLng)
+                .maxLat(minLat + height * cellSize / METERS_PER_DEGREE)
+                .width(width)
+                .height(height)
+                .cellSizeMeters(cellSize)
+                .pointCount(count)
+                .minBandwidthMeters(count > 0 ? usedMin : null)
+                .maxBandwidthMeters(count > 0 ? usedMax : null)
+                .maxDensity((double) maxDensity)
+                .data(buffer.array())
+                .build();
+        log.debug("KDE for layer {}: {} points, {}x{} cells of {} m", request.getLayerId(), count, width, height, cellSize);
+        cacheService.cacheSpatialQuery(cacheKey, result, null);
+        return result;
+    }
+}
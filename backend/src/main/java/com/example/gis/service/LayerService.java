@@ -42,6 +42,14 @@ public class LayerService {
 
     @Transactional
     public LayerDto create(LayerDto dto) {
+        return create(dto, getCurrentUser());
+    }
+
+    /**
+     * Create a layer owned by a user captured earlier, for jobs that run without a security context
+     */
+    @Transactional
+    public LayerDto create(LayerDto dto, User createdBy) {
         if (layerRepository.existsByCodeAndDeletedAtIsNull(dto.getCode())) {
             throw new RuntimeException("Layer code already exists");
         }
@@ -53,7 +61,7 @@ public class LayerService {
                 .srid(dto.getSrid() != null ? dto.getSrid() : 4326)
                 .style(objectMapper.valueToTree(dto.getStyle()).toString())
                 .metadata(objectMapper.valueToTree(dto.getMetadata()).toString())
-                .createdBy(getCurrentUser())
+                .createdBy(createdBy)
                 .build();
         
         return toDto(layerRepository.save(layer));
@@ -102,7 +110,10 @@ public class LayerService {
         }
     }
 
-    private User getCurrentUser() {
+    /**
+     * The authenticated user, or null; read it on the request thread
+     */
+    public User getCurrentUser() {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         if (auth != null && auth.isAuthenticated()) {
             return userRepository.findByUsernameAndDeletedAtIsNull(auth.getName())
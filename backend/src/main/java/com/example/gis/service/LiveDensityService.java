@@ -0,0 +1,198 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.LiveDensityFrame;
+import com.example.gis.util.TileMath;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory rolling density of device positions.
+ *
+ * Every position update adds one sample to its web-mercator cell; samples fade with an
+ * exponential half-life, applied lazily when a cell is next touched. Recording is O(1) per
+ * update. On a fixed cadence the changed cells are published as one diff to /topic/density
+ * (with a periodic keyframe of the whole grid), so the work per tick depends on the number
+ * of live cells, never on the number of subscribers.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LiveDensityService {
+    public static final String DENSITY_TOPIC = "/topic/density";
+
+    // Cells fading below this value are dropped
+    private static final double MIN_VALUE = 0.01;
+    // Relative change below which a cell is not re-sent in a diff
+    private static final double MIN_RELATIVE_CHANGE = 0.05;
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    private final Map<Long, Cell> cells = new ConcurrentHashMap<>();
+    // Values as last sent to clients; only touched by the publisher
+    private final Map<Long, Float> published = new HashMap<>();
+    private volatile long sequence;
+
+    @Value("${gis.live-density.cell-zoom:14}")
+    private int cellZoom;
+
+    @Value("${gis.live-density.half-life-seconds:300}")
+    private double halfLifeSeconds;
+
+    @Value("${gis.live-density.keyframe-every:15}")
+    private int keyframeEvery;
+
+    /**
+     * Add one position sample
+     */
+    public void record(double lng, double lat) {
+        long n = 1L << cellZoom;
+        int x = TileMath.cellIndex(TileMath.mercatorX(lng), n);
+        int y = TileMath.cellIndex(TileMath.mercatorY(lat), n);
+        long now = System.currentTimeMillis();
+        // compute() is atomic per key, so a concurrent publish cannot drop this sample
+        cells.compute(key(x, y), (k, cell) -> {
+            Cell target = cell != null ? cell : new Cell(now);
+            target.add(now, decayRate());
+            return target;
+        });
+    }
+
+    /**
+     * Full current grid, for clients joining between keyframes
+     */
+    public LiveDensityFrame snapshot() {
+        long now = System.currentTimeMillis();
+        Map<Long, Float> values = new HashMap<>();
+        for (Long key : cells.keySet()) {
+            cells.computeIfPresent(key, (k, cell) -> {
+                double value = cell.valueAt(now, decayRate());
+                if (value >= MIN_VALUE) {
+                    values.put(k, (float) value);
+                }
+                return cell;
+            });
+        }
+        // Diffs after the last published sequence apply on top of this grid
+        return frame(values, true, sequence - 1);
+    }
+
+    /**
+     * Publish the cells that changed since the last tick, or the whole grid every keyframeEvery ticks
+     */
+    @Scheduled(fixedRateString = "${gis.live-density.publish-interval-ms:2000}")
+    public synchronized void publish() {
+        long now = System.currentTimeMillis();
+        Map<Long, Float> current = new HashMap<>();
+        for (Long key : cells.keySet()) {
+            cells.computeIfPresent(key, (k, cell) -> {
+                double value = cell.valueAt(now, decayRate());
+                if (value < MIN_VALUE) {
+                    return null;
+                }
+                current.put(k, (float) value);
+                return cell;
+            });
+        }
+
+        boolean keyframe = keyframeEvery > 0 && sequence % keyframeEvery == 0;
+        Map<Long, Float> changes;
+        if (keyframe) {
+            if (current.isEmpty() && published.isEmpty()) {
+                // Nothing live and nothing to clear
+                return;
+            }
+            changes = current;
+            published.clear();
+            published.putAll(current);
+        } else {
+            changes = new HashMap<>();
+            for (Map.Entry<Long, Float> entry : current.entrySet()) {
+                Float previous = published.get(entry.getKey());
+                float value = entry.getValue();
+                if (previous == null || Math.abs(value - previous) > MIN_RELATIVE_CHANGE * previous) {
+                    changes.put(entry.getKey(), value);
+                    published.put(entry.getKey(), value);
+                }
+            }
+            Iterator<Long> it = published.keySet().iterator();
+            while (it.hasNext()) {
+                Long key = it.next();
+                if (!current.containsKey(key)) {
+                    changes.put(key, 0f);
+                    it.remove();
+                }
+            }
+            if (changes.isEmpty()) {
+                return;
+            }
+        }
+
+        LiveDensityFrame frame = frame(changes, keyframe, sequence++);
+        messagingTemplate.convertAndSend(DENSITY_TOPIC, frame);
+        log.debug("Published density {} #{} with {} cells", keyframe ? "keyframe" : "diff",
+                frame.getSequence(), changes.size());
+    }
+
+    private LiveDensityFrame frame(Map<Long, Float> values, boolean keyframe, long seq) {
+        int size = values.size();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        float[] vs = new float[size];
+        int i = 0;
+        for (Map.Entry<Long, Float> entry : values.entrySet()) {
+            xs[i] = (int) (entry.getKey() >>> 32);
+            ys[i] = (int) (long) entry.getKey();
+            vs[i] = entry.getValue();
+            i++;
+        }
+        return LiveDensityFrame.builder()
+                .sequence(seq)
+                .keyframe(keyframe)
+                .zoom(cellZoom)
+                .halfLifeSeconds(halfLifeSeconds)
+                .timestamp(OffsetDateTime.now())
+                .x(xs)
+                .y(ys)
+                .values(vs)
+                .build();
+    }
+
+    private double decayRate() {
+        return Math.log(2) / (halfLifeSeconds * 1000.0);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Decayed sample count of one cell; only accessed inside ConcurrentHashMap.compute
+     */
+    private static final class Cell {
+        private double value;
+        private long updatedAt;
+
+        Cell(long now) {
+            this.updatedAt = now;
+        }
+
+        void add(long now, double rate) {
+            value = valueAt(now, rate) + 1.0;
+            updatedAt = now;
+        }
+
+        double valueAt(long now, double rate) {
+            return value * Math.exp(-rate * Math.max(0, now - updatedAt));
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.dto.LayerDto;
+import com.example.gis.dto.LocationAllocationRequest;
+import com.example.gis.entity.Layer;
+import com.example.gis.entity.User;
+import com.example.gis.repository.AnalysisOutputRepository;
+import com.example.gis.repository.LayerRepository;
+import com.example.gis.repository.PointColumnRepository;
+import com.example.gis.util.ContractionHierarchy;
+import com.example.gis.util.Dijkstra;
+import com.example.gis.util.LocationAllocation;
+import com.example.gis.util.RoadGraph;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Location-allocation jobs: choose p candidate sites for a demand layer (p-median or max-coverage).
+ *
+ * The demand x candidate cost matrix is computed once into a primitive array (travel times from
+ * the contraction hierarchy or one reverse Dijkstra per candidate, or geodesic distances) and then
+ * handed to LocationAllocation. The chosen sites are written to a new layer.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LocationAllocationService {
+    public static final String JOB_TYPE = "location-allocation";
+
+    private final RoadNetworkService roadNetworkService;
+    private final RoutingService routingService;
+    private final IsochroneService isochroneService;
+    private final AnalysisJobService analysisJobService;
+    private final PointColumnRepository pointColumnRepository;
+    private final AnalysisOutputRepository analysisOutputRepository;
+    private final LayerRepository layerRepository;
+    private final LayerService layerService;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${gis.routing.max-snap-meters:1000}")
+    private double maxSnapMeters;
+
+    @Value("${gis.location-allocation.max-matrix-cells:50000000}")
+    private long maxMatrixCells;
+
+    /**
+     * Validate the request and start the solver job
+     */
+    public AnalysisJob solve(LocationAllocationRequest request) {
+        Layer candidateLayer = pointLayer(request.getCandidateLayerId(), "Candidate");
+        Layer demandLayer = pointLayer(request.getDemandLayerId(), "Demand");
+        if (request.getFacilities() == null || request.getFacilities() < 1) {
+            throw new IllegalArgumentException("Number of facilities must be at least 1");
+        }
+        String objective = request.getObjective() != null ? request.getObjective().toLowerCase(Locale.ROOT) : "p-median";
+        if (!objective.equals("p-median") && !objective.equals("max-coverage")) {
+            throw new IllegalArgumentException("Unsupported objective: " + request.getObjective());
+        }
+        String costType = request.getCostType() != null ? request.getCostType().toLowerCase(Locale.ROOT) : "travel-time";
+        if (!costType.equals("travel-time") && !costType.equals("geodesic")) {
+            throw new IllegalArgumentException("Unsupported cost type: " + request.getCostType());
+        }
+        if (request.getCutoff() != null && request.getCutoff() <= 0) {
+            throw new IllegalArgumentException("Cutoff must be positive");
+        }
+        if (objective.equals("max-coverage") && request.getCutoff() == null) {
+            throw new IllegalArgumentException("Max-coverage needs a cutoff");
+        }
+        UUID networkLayerId = null;
+        if (costType.equals("travel-time")) {
+            networkLayerId = request.getNetworkLayerId() != null
+                    ? request.getNetworkLayerId()
+                    : isochroneService.defaultNetworkLayerId();
+            if (networkLayerId == null) {
+                throw new IllegalArgumentException("Network layer ID is required for travel-time costs");
+            }
+        }
+        RoadGraph.Profile profile = RoadGraph.Profile.of(request.getProfile());
+        UUID network = networkLayerId;
+        // The job runs on an executor thread without the request's security context
+        User user = layerService.getCurrentUser();
+
+        return analysisJobService.submit(JOB_TYPE,
+                "Choose " + request.getFacilities() + " sites from " + candidateLayer.getName()
+                        + " for " + demandLayer.getName() + " (" + objective + ")",
+                progress -> run(request, candidateLayer, demandLayer, objective, costType, network, profile, user,
+                        progress));
+    }
+
+    private Map<String, Object> run(LocationAllocationRequest request, Layer candidateLayer, Layer demandLayer,
+                                    String objective, String costType, UUID networkLayerId,
+                                    RoadGraph.Profile profile, User user, DoubleConsumer progress) {
+        long started = System.currentTimeMillis();
+        String weightProperty = request.getWeightProperty() != null && !request.getWeightProperty().isBlank()
+                ? request.getWeightProperty() : null;
+        PointColumnRepository.PointColumns candidates = pointColumnRepository.findIdentifiedPoints(
+                candidateLayer.getId(), null);
+        PointColumnRepository.PointColumns demand = pointColumnRepository.findIdentifiedPoints(
+                demandLayer.getId(), weightProperty);
+        int candidateCount = candidates.getSize();
+        int demandCount = demand.getSize();
+        int p = request.getFacilities();
+        if (p > candidateCount) {
+            throw new IllegalArgumentException("Only " + candidateCount + " candidates for " + p + " facilities");
+        }
+        if (demandCount == 0) {
+            throw new IllegalArgumentException("Demand layer has no points");
+        }
+        if ((long) candidateCount * demandCount > Math.min(maxMatrixCells, Integer.MAX_VALUE - 8)) {
+            throw new IllegalArgumentException("Cost matrix of " + demandCount + " x " + candidateCount
+                    + " exceeds " + maxMatrixCells + " cells");
+        }
+        float cutoff = request.getCutoff() != null ? request.getCutoff().floatValue() : Float.POSITIVE_INFINITY;
+        progress.accept(0.05);
+
+        String method;
+        float[] cost;
+        if (costType.equals("geodesic")) {
+            cost = geodesicMatrix(candidates, demand);
+            method = "geodesic";
+        } else {
+            RoadGraph graph = roadNetworkService.getGraph(networkLayerId);
+            ContractionHierarchy hierarchy = routingService.getHierarchy(networkLayerId, profile);
+            method = hierarchy != null ? "ch" : "dijkstra";
+            cost = travelTimeMatrix(graph, hierarchy, profile, candidates, demand, cutoff);
+        }
+        progress.accept(0.4);
+
+        if (objective.equals("max-coverage")) {
+            LocationAllocation.toCoverage(cost, cutoff);
+        } else {
+            LocationAllocation.penalize(cost, cutoff);
+        }
+        float[] weights = new float[demandCount];
+        double totalWeight = 0;
+        for (int d = 0; d < demandCount; d++) {
+            weights[d] = demand.weightAt(d);
+            totalWeight += weights[d];
+        }
+        LocationAllocation solver = new LocationAllocation(cost, weights, demandCount, candidateCount);
+        int maxIterations = request.getMaxIterations() != null ? Math.max(0, request.getMaxIterations()) : 200;
+        solver.solve(p, maxIterations, fraction -> progress.accept(0.4 + 0.5 * fraction));
+
+        int[] open = solver.getOpen();
+        Map<Integer, Integer> rankOf = new HashMap<>();
+        for (int rank = 0; rank < open.length; rank++) {
+            rankOf.put(open[rank], rank);
+        }
+        long[] allocatedCount = new long[open.length];
+        double[] allocatedWeight = new double[open.length];
+        double[] allocatedCost = new double[open.length];
+        for (int d = 0; d < demandCount; d++) {
+            int rank = rankOf.get(solver.allocation(d));
+            allocatedCount[rank]++;
+            allocatedWeight[rank] += weights[d];
+            allocatedCost[rank] += weights[d] * solver.allocatedCost(d);
+        }
+
+        List<Map<String, Object>> sites = new ArrayList<>();
+        UUID[] siteIds = new UUID[open.length];
+        String[] siteProperties = new String[open.length];
+        for (int rank = 0; rank < open.length; rank++) {
+            siteIds[rank] = candidates.getId()[open[rank]];
+            Map<String, Object> site = new HashMap<>();
+            site.put("candidateId", siteIds[rank]);
+            site.put("demandCount", allocatedCount[rank]);
+            site.put("demandWeight", allocatedWeight[rank]);
+            if (objective.equals("p-median")) {
+                site.put("meanCost", allocatedWeight[rank] > 0 ? allocatedCost[rank] / allocatedWeight[rank] : null);
+            }
+            sites.add(site);
+            siteProperties[rank] = "{\"allocation_rank\":" + (rank + 1)
+                    + ",\"allocated_demand\":" + allocatedCount[rank]
+                    + ",\"allocated_weight\":" + allocatedWeight[rank] + "}";
+        }
+
+        // One transaction, so a failed copy leaves no empty output layer behind
+        LayerDto layer = new TransactionTemplate(transactionManager).execute(status -> {
+            LayerDto created = layerService.create(LayerDto.builder()
+                    .code("allocation_" + UUID.randomUUID().toString().substring(0, 8))
+                    .name(request.getLayerName() != null && !request.getLayerName().isBlank() ? request.getLayerName()
+                            : p + " sites for " + demandLayer.getName())
+                    .geomType(Layer.GeometryType.POINT)
+                    .style(Map.of())
+                    .metadata(Map.of("analysis", JOB_TYPE,
+                            "objective", objective,
+                            "costType", costType,
+                            "candidateLayerId", candidateLayer.getId().toString(),
+                            "demandLayerId", demandLayer.getId().toString()))
+                    .build(), user);
+            analysisOutputRepository.copyFeatures(created.getId(), siteIds, siteProperties, open.length);
+            return created;
+        });
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("objective", objective);
+        result.put("costType", costType);
+        result.put("method", method);
+        result.put("facilities", p);
+        result.put("candidateCount", candidateCount);
+        result.put("demandCount", demandCount);
+        result.put("totalWeight", totalWeight);
+        if (objective.equals("max-coverage")) {
+            result.put("coveredWeight", totalWeight - solver.getObjective());
+        } else {
+            result.put("totalCost", solver.getObjective());
+        }
+        result.put("iterations", solver.getIterations());
+        result.put("sites", sites);
+        result.put("outputLayerId", layer.getId());
+        result.put("millis", System.currentTimeMillis() - started);
+        log.info("Location-allocation ({}) chose {} of {} candidates for {} demand points in {} ms",
+                objective, p, candidateCount, demandCount, System.currentTimeMillis() - started);
+        return result;
+    }
+
+    /**
+     * Great-circle distances in meters, candidate-major
+     */
+    private static float[] geodesicMatrix(PointColumnRepository.PointColumns candidates,
+                                          PointColumnRepository.PointColumns demand) {
+        int demandCount = demand.getSize();
+        float[] cost = new float[candidates.getSize() * demandCount];
+        IntStream.range(0, candidates.getSize()).parallel().forEach(c -> {
+            double lng = candidates.getX()[c];
+            double lat = candidates.getY()[c];
+            int column = c * demandCount;
+            for (int d = 0; d < demandCount; d++) {
+                cost[column + d] = (float) RoadGraph.distanceMeters(demand.getX()[d], demand.getY()[d], lng, lat);
+            }
+        });
+        return cost;
+    }
+
+    /**
+     * Travel times from each demand point to each candidate, candidate-major; +Infinity when a point
+     * is off the network or the candidate is not reachable (within the cutoff)
+     */
+    private float[] travelTimeMatrix(RoadGraph graph, ContractionHierarchy hierarchy, RoadGraph.Profile profile,
+                                     PointColumnRepository.PointColumns candidates,
+                                     PointColumnRepository.PointColumns demand, float cutoff) {
+        int candidateCount = candidates.getSize();
+        int demandCount = demand.getSize();
+        int[] candidateNodes = new int[candidateCount];
+        float[] candidateAccess = new float[candidateCount];
+        int[] demandNodes = new int[demandCount];
+        float[] demandAccess = new float[demandCount];
+        snapAll(graph, profile, candidates, candidateNodes, candidateAccess);
+        snapAll(graph, profile, demand, demandNodes, demandAccess);
+
+        float[] cost = new float[candidateCount * demandCount];
+        if (hierarchy != null) {
+            float[][] rows = hierarchy.manyToMany(demandNodes, candidateNodes);
+            IntStream.range(0, candidateCount).parallel().forEach(c -> {
+                int column = c * demandCount;
+                for (int d = 0; d < demandCount; d++) {
+                    cost[column + d] = rows[d][c] + demandAccess[d] + candidateAccess[c];
+                }
+            });
+            return cost;
+        }
+
+        // One search per candidate on the reversed graph gives every node's time to that candidate
+        RoadGraph reverse = graph.reverse();
+        float[] costs = reverse.costs(profile);
+        int workers = Math.max(1, Math.min(candidateCount, Runtime.getRuntime().availableProcessors()));
+        IntStream.range(0, workers).parallel().forEach(worker -> {
+            Dijkstra dijkstra = new Dijkstra(reverse);
+            for (int c = worker; c < candidateCount; c += workers) {
+                int column = c * demandCount;
+                if (candidateNodes[c] < 0) {
+                    Arrays.fill(cost, column, column + demandCount, Float.POSITIVE_INFINITY);
+                    continue;
+                }
+                float[] dist = dijkstra.search(candidateNodes[c], candidateAccess[c], cutoff, costs);
+                for (int d = 0; d < demandCount; d++) {
+                    cost[column + d] = demandNodes[d] >= 0 ? dist[demandNodes[d]] + demandAccess[d]
+                            : Float.POSITIVE_INFINITY;
+                }
+            }
+        });
+        return cost;
+    }
+
+    private void snapAll(RoadGraph graph, RoadGraph.Profile profile, PointColumnRepository.PointColumns points,
+                         int[] nodes, float[] access) {
+        IntStream.range(0, points.getSize()).parallel().forEach(i -> {
+            RoadGraph.Snap snap = graph.snap(points.getX()[i], points.getY()[i]);
+            if (snap == null || snap.getDistanceMeters() > maxSnapMeters) {
+                nodes[i] = -1;
+                access[i] = Float.POSITIVE_INFINITY;
+            } else {
+                nodes[i] = snap.getNode();
+                access[i] = (float) (snap.getDistanceMeters() / (profile.getDefaultSpeedKmh() / 3.6));
+            }
+        });
+    }
+
+    private Layer pointLayer(UUID layerId, String role) {
+        if (layerId == null) {
+            throw new IllegalArgumentException(role + " layer ID is required");
+        }
+        Layer layer = layerRepository.findById(layerId)
+                .orElseThrow(() -> new RuntimeException("Layer not found"));
+        if (layer.getGeomType() != Layer.GeometryType.POINT) {
+            throw new IllegalArgumentException(role + " layer must be a POINT layer");
+        }
+        return layer;
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.MatchedTrace;
+import com.example.gis.repository.DevicePositionRepository;
+import com.example.gis.util.GeoJsonConverter;
+import com.example.gis.util.MapMatcher;
+import com.example.gis.util.RoadGraph;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Map matching of device positions onto a road network layer.
+ *
+ * Live positions feed one incremental matching session per device, bounded to the configured
+ * window, so each update costs the same however long the device has been reporting. Positions
+ * are queued per device and matched in order on the routing executor, off the request thread.
+ * Stored traces are matched in one pass. Matchers (edge index and pooled search state included)
+ * are built once per graph generation and shared; a layer edit gives a new graph and thereby
+ * restarts live sessions. Sessions of an older graph or idle for session-idle-seconds are evicted.
+ */
+@Service
+@Slf4j
+public class MapMatchingService {
+    private final RoadNetworkService roadNetworkService;
+    private final DevicePositionRepository devicePositionRepository;
+    private final GeoJsonConverter geoJsonConverter;
+    private final Executor executor;
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+
+    private final Map<UUID, LoadedMatcher> matchers = new ConcurrentHashMap<>();
+    private final Map<UUID, LiveSession> sessions = new ConcurrentHashMap<>();
+    private final Map<UUID, Queue<double[]>> queued = new ConcurrentHashMap<>();
+    private final Set<UUID> draining = ConcurrentHashMap.newKeySet();
+
+    @Value("${gis.map-matching.layer-id:}")
+    private String layerId;
+
+    @Value("${gis.map-matching.profile:driving}")
+    private String profileName;
+
+    @Value("${gis.map-matching.sigma-meters:10}")
+    private double sigmaMeters;
+
+    @Value("${gis.map-matching.beta-meters:20}")
+    private double betaMeters;
+
+    @Value("${gis.map-matching.search-radius-meters:50}")
+    private double searchRadiusMeters;
+
+    @Value("${gis.map-matching.max-candidates:8}")
+    private int maxCandidates;
+
+    @Value("${gis.map-matching.window:30}")
+    private int window;
+
+    @Value("${gis.map-matching.max-trace-positions:10000}")
+    private int maxTracePositions;
+
+    @Value("${gis.map-matching.session-idle-seconds:600}")
+    private long sessionIdleSeconds;
+
+    public MapMatchingService(RoadNetworkService roadNetworkService,
+                              DevicePositionRepository devicePositionRepository,
+                              GeoJsonConverter geoJsonConverter,
+                              @Qualifier("routingTaskExecutor") Executor executor) {
+        this.roadNetworkService = roadNetworkService;
+        this.devicePositionRepository = devicePositionRepository;
+        this.geoJsonConverter = geoJsonConverter;
+        this.executor = executor;
+    }
+
+    /**
+     * Whether live matching is configured
+     */
+    public boolean isEnabled() {
+        return layerId != null && !layerId.isBlank();
+    }
+
+    /**
+     * Queue a live position of a device for matching in the background; no-op when matching is
+     * not configured. Positions of one device are matched in the order they were queued.
+     */
+    public void submitLive(UUID deviceId, double lng, double lat) {
+        if (!isEnabled()) {
+            return;
+        }
+        // Added under the map's lock, so that the sweep never drops a queue holding a position
+        Queue<double[]> queue = queued.compute(deviceId, (id, existing) -> {
+            Queue<double[]> positions = existing != null ? existing : new ConcurrentLinkedQueue<>();
+            positions.add(new double[]{lng, lat});
+            // Only the newest window positions can influence the live path
+            while (positions.size() > window) {
+                positions.poll();
+            }
+            return positions;
+        });
+        if (draining.add(deviceId)) {
+            try {
+                executor.execute(() -> drain(deviceId, queue));
+            } catch (RejectedExecutionException e) {
+                draining.remove(deviceId);
+                log.warn("Live map matching for device {} rejected: {}", deviceId, e.getMessage());
+            }
+        }
+    }
+
+    private void drain(UUID deviceId, Queue<double[]> queue) {
+        do {
+            double[] position;
+            while ((position = queue.poll()) != null) {
+                try {
+                    matchLive(deviceId, position[0], position[1]);
+                } catch (RuntimeException e) {
+                    log.warn("Live map matching failed for device {}: {}", deviceId, e.getMessage());
+                }
+            }
+            draining.remove(deviceId);
+            // A position queued between the last poll and the release is picked up here
+        } while (!queue.isEmpty() && draining.add(deviceId));
+    }
+
+    /**
+     * Add a live position of a device to its session
+     */
+    private void matchLive(UUID deviceId, double lng, double lat) {
+        MapMatcher matcher = getMatcher(UUID.fromString(layerId));
+        LiveSession live = sessions.compute(deviceId, (id, existing) ->
+                existing != null && existing.matcher == matcher ? existing : new LiveSession(matcher, window));
+        synchronized (live) {
+            live.session.add(lng, lat);
+            live.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Current matched path of a device's live window
+     */
+    public MatchedTrace liveTrace(UUID deviceId) {
+        if (!isEnabled()) {
+            throw new IllegalArgumentException("Live map matching is not configured");
+        }
+        UUID networkLayerId = UUID.fromString(layerId);
+        LiveSession live = sessions.get(deviceId);
+        if (live == null) {
+            return toTrace(deviceId, networkLayerId, getMatcher(networkLayerId), List.of(), 0, null);
+        }
+        synchronized (live) {
+            return toTrace(deviceId, networkLayerId, live.matcher, live.session.path(), live.session.size(), null);
+        }
+    }
+
+    /**
+     * Match the stored positions of a device recorded in [from, to)
+     */
+    public MatchedTrace matchStored(UUID deviceId, OffsetDateTime from, OffsetDateTime to, UUID networkLayerId) {
+        UUID layer = networkLayerId != null ? networkLayerId : isEnabled() ? UUID.fromString(layerId) : null;
+        if (layer == null) {
+            throw new IllegalArgumentException("Network layer ID is required");
+        }
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new IllegalArgumentException("A time range with from before to is required");
+        }
+        long started = System.currentTimeMillis();
+        DevicePositionRepository.Trace trace = devicePositionRepository.findTrace(deviceId, from, to, maxTracePositions);
+        MapMatcher matcher = getMatcher(layer);
+        List<MapMatcher.Match> matches = matcher.matchTrace(trace.getLng(), trace.getLat(), trace.getSize());
+        MatchedTrace result = toTrace(deviceId, layer, matcher, matches, trace.getSize(), trace.getTime());
+        log.debug("Matched {} of {} positions of device {} in {} ms", matches.size(), trace.getSize(), deviceId,
+                System.currentTimeMillis() - started);
+        return result;
+    }
+
+    /**
+     * Drop live sessions that have been idle too long or belong to a graph that is no longer current
+     */
+    @Scheduled(fixedRateString = "${gis.map-matching.session-sweep-ms:60000}")
+    public void evictSessions() {
+        long cutoff = System.currentTimeMillis() - sessionIdleSeconds * 1000;
+        UUID networkLayerId = isEnabled() ? UUID.fromString(layerId) : null;
+        LoadedMatcher current = networkLayerId != null ? matchers.get(networkLayerId) : null;
+        if (current != null && !current.generation.equals(roadNetworkService.getGraphVersion(networkLayerId))) {
+            // The layer was edited: release the old graph along with its sessions
+            matchers.remove(networkLayerId, current);
+            current = null;
+        }
+        int before = sessions.size();
+        MapMatcher matcher = current != null ? current.matcher : null;
+        sessions.values().removeIf(live -> live.lastUsed < cutoff || live.matcher != matcher);
+        for (UUID deviceId : queued.keySet()) {
+            queued.computeIfPresent(deviceId, (id, queue) -> queue.isEmpty() && !draining.contains(id) ? null : queue);
+        }
+        if (sessions.size() < before) {
+            log.debug("Evicted {} live map matching sessions", before - sessions.size());
+        }
+    }
+
+    private MapMatcher getMatcher(UUID networkLayerId) {
+        String generation = roadNetworkService.getGraphVersion(networkLayerId);
+        RoadGraph graph = roadNetworkService.getGraph(networkLayerId);
+        LoadedMatcher loaded = matchers.get(networkLayerId);
+        if (loaded != null && loaded.graph == graph) {
+            return loaded.matcher;
+        }
+        // Building twice on a race is harmless: both matchers are equivalent and one is kept
+        MapMatcher matcher = new MapMatcher(graph, RoadGraph.Profile.of(profileName), sigmaMeters, betaMeters,
+                searchRadiusMeters, maxCandidates);
+        matchers.put(networkLayerId, new LoadedMatcher(graph, generation, matcher));
+        return matcher;
+    }
+
+    private MatchedTrace toTrace(UUID deviceId, UUID networkLayerId, MapMatcher matcher,
+                                 List<MapMatcher.Match> matches, int observations, double[] times) {
+        List<MatchedTrace.MatchedPosition> positions = new ArrayList<>(matches.size());
+        for (MapMatcher.Match match : matches) {
+            positions.add(MatchedTrace.MatchedPosition.builder()
+                    .observation(match.getObservation())
+                    .longitude(match.getLng())
+                    .latitude(match.getLat())
+                    .offsetMeters(match.getDistanceMeters())
+                    .recordedAt(times != null ? OffsetDateTime.ofInstant(
+                            Instant.ofEpochMilli(Math.round(times[match.getObservation()] * 1000)), ZoneOffset.UTC)
+                            : null)
+                    .build());
+        }
+
+        String geometry = null;
+        if (matches.size() > 1) {
+            List<double[]> path = matcher.route(matches);
+            Coordinate[] coordinates = new Coordinate[path.size()];
+            for (int i = 0; i < coordinates.length; i++) {
+                coordinates[i] = new Coordinate(path.get(i)[0], path.get(i)[1]);
+            }
+            geometry = geoJsonConverter.geometryToGeoJson(
+                    geometryFactory.createLineString(coordinates)).toString();
+        }
+
+        return MatchedTrace.builder()
+                .deviceId(deviceId)
+                .networkLayerId(networkLayerId)
+                .profile(RoadGraph.Profile.of(profileName).name().toLowerCase(Locale.ROOT))
+                .observations(observations)
+                .positions(positions)
+                .geometry(geometry)
+                .build();
+    }
+
+    private static final class LoadedMatcher {
+        private final RoadGraph graph;
+        private final String generation;
+        private final MapMatcher matcher;
+
+        LoadedMatcher(RoadGraph graph, String generation, MapMatcher matcher) {
+            this.graph = graph;
+            this.generation = generation;
+            this.matcher = matcher;
+        }
+    }
+
+    private static final class LiveSession {
+        private final MapMatcher matcher;
+        private final MapMatcher.Session session;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        LiveSession(MapMatcher matcher, int window) {
+            this.matcher = matcher;
+            this.session = matcher.newSession(window);
+        }
+    }
+}
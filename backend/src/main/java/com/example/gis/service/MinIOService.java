@@ -10,6 +10,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
@@ -59,6 +60,28 @@ public class MinIOService {
         );
     }
 
+    public InputStream downloadRange(String fileKey, long offset, long length) throws Exception {
+        return minioClient.getObject(
+            GetObjectArgs.builder()
+                .bucket(bucketName)
+                .object(fileKey)
+                .offset(offset)
+                .length(length)
+                .build()
+        );
+    }
+
+    public void uploadFile(String fileKey, Path file, String contentType) throws Exception {
+        minioClient.uploadObject(
+            UploadObjectArgs.builder()
+                .bucket(bucketName)
+                .object(fileKey)
+                .filename(file.toString())
+                .contentType(contentType)
+                .build()
+        );
+    }
+
     public void deleteFile(String fileKey) throws Exception {
         deleteFile(bucketName, fileKey);
     }
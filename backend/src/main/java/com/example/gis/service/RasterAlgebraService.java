@@ -0,0 +1,210 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.dto.RasterAnalysisRequest;
+import com.example.gis.util.ColorRamp;
+import com.example.gis.util.GridSpec;
+import com.example.gis.util.MapAlgebra;
+import com.example.gis.util.RasterEncoder;
+import com.example.gis.util.RasterStatistics;
+import com.example.gis.util.TerrainAnalysis;
+import com.example.gis.util.TileMath;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Map algebra over raster sources (see MapAlgebra). A program is evaluated over a bounding box by
+ * RasterAnalysisService, rendered as web-mercator tiles, or stored as a new raster source at the
+ * resolution of its first raster by a background job. The raster source of a request is named
+ * "elevation"; further sources are named in its rasters map.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RasterAlgebraService {
+    public static final String JOB_TYPE = "raster-algebra";
+    private static final int TILE_SIZE = 256;
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final RasterSourceService rasterSourceService;
+    private final AnalysisJobService analysisJobService;
+    private final CacheService cacheService;
+
+    /**
+     * Raster sources by the names programs use for them
+     */
+    public Map<String, String> sources(String rasterSource, Map<String, String> rasters) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        if (rasterSource != null && !rasterSource.isBlank()) {
+            sources.put(MapAlgebra.DEFAULT_RASTER, rasterSource);
+        }
+        if (rasters != null) {
+            for (Map.Entry<String, String> raster : rasters.entrySet()) {
+                String name = raster.getKey();
+                if (name == null || !NAME.matcher(name).matches()) {
+                    throw new IllegalArgumentException("Invalid raster name: " + name);
+                }
+                if (sources.containsKey(name)) {
+                    throw new IllegalArgumentException("Raster name used twice: " + name);
+                }
+                if (raster.getValue() == null || raster.getValue().isBlank()) {
+                    throw new IllegalArgumentException("Raster source is required for " + name);
+                }
+                sources.put(name, raster.getValue());
+            }
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("Raster source is required");
+        }
+        return sources;
+    }
+
+    /**
+     * Readers of the rasters a program uses, for grids in WGS84 degrees
+     */
+    public MapAlgebra.Bindings bindings(MapAlgebra algebra, Map<String, String> sources, double zFactor) {
+        Map<String, TerrainAnalysis.ElevationReader> readers = new HashMap<>();
+        for (String name : algebra.getRasters()) {
+            readers.put(name, rasterSourceService.elevationReader(sources.get(name)));
+        }
+        return new MapAlgebra.Bindings(readers, TerrainAnalysis.Units.DEGREES, zFactor);
+    }
+
+    /**
+     * Render one web-mercator tile of a program as a PNG. The expression holds the steps of the
+     * program separated by ';' and rasters are name=source pairs. Colours span min..max
+     * (default 0..1, which suits indices and masks) so that neighbouring tiles share one scale.
+     */
+    public byte[] renderTile(String expression, String rasterSource, List<String> rasters, int z, int x, int y,
+                             String colorRamp, Double min, Double max, double zFactor) {
+        TileMath.validateTile(z, x, y);
+        if (expression == null || expression.isBlank()) {
+            throw new IllegalArgumentException("Expression is required");
+        }
+        List<String> operations = new ArrayList<>();
+        for (String step : expression.split(";")) {
+            if (!step.isBlank()) {
+                operations.add(step);
+            }
+        }
+        Map<String, String> named = new LinkedHashMap<>();
+        if (rasters != null) {
+            for (String raster : rasters) {
+                int separator = raster.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Rasters must be given as name=source: " + raster);
+                }
+                named.put(raster.substring(0, separator).trim(), raster.substring(separator + 1).trim());
+            }
+        }
+        Map<String, String> sources = sources(rasterSource, named);
+        MapAlgebra algebra = MapAlgebra.compile(operations, sources.keySet());
+        double low = min != null ? min : 0;
+        double high = max != null ? max : 1;
+        if (low >= high) {
+            throw new IllegalArgumentException("Minimum must be below maximum");
+        }
+        ColorRamp ramp = ColorRamp.of(colorRamp != null ? colorRamp : "viridis");
+
+        // Tiles of a program stay valid while none of its rasters changes
+        StringBuilder program = new StringBuilder(String.join(";", operations));
+        for (String name : algebra.getRasters()) {
+            String source = sources.get(name);
+            program.append('\n').append(name).append('=').append(source)
+                    .append('@').append(rasterSourceService.getVersion(source));
+        }
+        String tileKey = cacheService.generateRasterTileKey("algebra",
+                UUID.nameUUIDFromBytes(program.toString().getBytes(StandardCharsets.UTF_8)).toString(),
+                z, x, y, colorRamp, min, max, zFactor, "png");
+        byte[] cached = cacheService.getCachedTile(tileKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        Map<String, TerrainAnalysis.ElevationReader> readers = new HashMap<>();
+        for (String name : algebra.getRasters()) {
+            readers.put(name, rasterSourceService.mercatorReader(sources.get(name)));
+        }
+        // Ground distances are the mercator ones times cos(latitude), applied per row
+        float[] values = algebra.evaluate(TileMath.mercatorGrid(z, x, y, TILE_SIZE),
+                new MapAlgebra.Bindings(readers, TerrainAnalysis.Units.MERCATOR, zFactor));
+        byte[] png = RasterEncoder.png(values, TILE_SIZE, TILE_SIZE, ramp, low, high);
+
+        cacheService.cacheTile(tileKey, png, null);
+        return png;
+    }
+
+    /**
+     * Validate the request and start a job storing the output of its program as a new raster
+     * source, over its bounding box if given, else the extent of the program's first raster
+     */
+    public AnalysisJob store(RasterAnalysisRequest request) {
+        Map<String, String> sources = sources(request.getRasterSource(), request.getRasters());
+        MapAlgebra algebra = MapAlgebra.compile(request.getOperations(), sources.keySet());
+        if (algebra.getRasters().isEmpty()) {
+            throw new IllegalArgumentException("Expression must use a raster");
+        }
+        boolean bounded = request.getMinLng() != null && request.getMinLat() != null
+                && request.getMaxLng() != null && request.getMaxLat() != null;
+        if (bounded && (request.getMinLng() >= request.getMaxLng() || request.getMinLat() >= request.getMaxLat())) {
+            throw new IllegalArgumentException("Invalid bounding box");
+        }
+        double zFactor = request.getZFactor() != null ? request.getZFactor() : 1.0;
+        String first = sources.get(algebra.getRasters().iterator().next());
+
+        return analysisJobService.submit(JOB_TYPE,
+                "Raster of " + String.join("; ", request.getOperations()),
+                progress -> {
+                    long started = System.currentTimeMillis();
+                    GridSpec grid = rasterSourceService.open(first).getGrid();
+                    if (bounded) {
+                        grid = clip(grid, request.getMinLng(), request.getMinLat(),
+                                request.getMaxLng(), request.getMaxLat());
+                    }
+                    MapAlgebra.Bindings bindings = bindings(algebra, sources, zFactor);
+                    progress.accept(0.05);
+                    RasterStatistics statistics = new RasterStatistics();
+                    String key = rasterSourceService.store(grid, writer ->
+                            algebra.write(writer, bindings, statistics, p -> progress.accept(0.05 + 0.85 * p)));
+                    log.info("Stored map algebra raster {}: {}x{} cells in {} ms", key, grid.getWidth(),
+                            grid.getHeight(), System.currentTimeMillis() - started);
+
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("rasterSource", key);
+                    result.put("operations", request.getOperations());
+                    result.put("width", grid.getWidth());
+                    result.put("height", grid.getHeight());
+                    result.put("bbox", new double[]{grid.getMinX(), grid.getMinY(), grid.getMaxX(), grid.getMaxY()});
+                    result.put("count", statistics.getCount());
+                    result.put("min", statistics.getMin());
+                    result.put("max", statistics.getMax());
+                    result.put("mean", statistics.getMean());
+                    result.put("stddev", statistics.getStddev());
+                    return result;
+                });
+    }
+
+    /**
+     * Cells of grid overlapping a bounding box
+     */
+    private static GridSpec clip(GridSpec grid, double minX, double minY, double maxX, double maxY) {
+        int col0 = (int) Math.max(0, Math.floor((minX - grid.getMinX()) / grid.getCellWidth()));
+        int col1 = (int) Math.min(grid.getWidth(), Math.ceil((maxX - grid.getMinX()) / grid.getCellWidth()));
+        int row0 = (int) Math.max(0, Math.floor((grid.getMaxY() - maxY) / grid.getCellHeight()));
+        int row1 = (int) Math.min(grid.getHeight(), Math.ceil((grid.getMaxY() - minY) / grid.getCellHeight()));
+        if (col1 <= col0 || row1 <= row0) {
+            throw new IllegalArgumentException("Bounding box does not overlap the raster");
+        }
+        return grid.window(col0, row0, col1 - col0, row1 - row0);
+    }
+}
@@ -2,137 +2,236 @@ package com.example.gis.service;
 
 import com.example.gis.dto.RasterAnalysisRequest;
 import com.example.gis.dto.RasterAnalysisResponse;
+import com.example.gis.util.ColorRamp;
+import com.example.gis.util.GridSpec;
+import com.example.gis.util.MapAlgebra;
+import com.example.gis.util.RasterEncoder;
+import com.example.gis.util.RasterStatistics;
+import com.example.gis.util.TerrainAnalysis;
+import com.example.gis.util.TileMath;
+import com.example.gis.util.TiledRaster;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
+/**
+ * Terrain analysis (elevation, slope, aspect, hillshade) of DEM rasters over a WGS84 bounding box.
+ *
+ * The output grid is resolution x resolution cells over the box; the product is computed tile by
+ * tile in parallel and its statistics are gathered in the same pass. The result is a colour-ramped
+ * PNG, or the raw values as little-endian Float32 (row-major from the north-west cell, NaN for no data),
+ * or just the statistics. Requests with operations evaluate that map-algebra program instead of a
+ * terrain product (see RasterAlgebraService).
+ *
+ * Web-mercator tiles are computed on demand from the overview level matching their zoom, each with
+ * a one-pixel halo so that kernels are continuous across tile edges, and cached per raster version.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class RasterAnalysisService {
-    
+    private static final int TILE_SIZE = 256;
+    private static final double SLOPE_TILE_MAX = 60.0;
+
+    private final RasterSourceService rasterSourceService;
+    private final CacheService cacheService;
+    private final RasterAlgebraService rasterAlgebraService;
+
+    @Value("${gis.raster.max-resolution:4096}")
+    private int maxResolution;
+
     /**
-     * Perform raster analysis (stub implementation)
-     * In production, this would integrate with GDAL, GeoTools, or similar libraries
+     * Perform raster analysis
      */
     public RasterAnalysisResponse analyzeRaster(RasterAnalysisRequest request) {
-        if (request.getAnalysisType() == null) {
-            throw new IllegalArgumentException("Analysis type is required");
+        boolean expression = request.getOperations() != null && !request.getOperations().isEmpty();
+        TerrainAnalysis.Product product = expression ? null : TerrainAnalysis.Product.of(request.getAnalysisType());
+        if (!expression && (request.getRasterSource() == null || request.getRasterSource().isBlank())) {
+            throw new IllegalArgumentException("Raster source is required");
+        }
+        if (request.getMinLng() == null || request.getMinLat() == null
+                || request.getMaxLng() == null || request.getMaxLat() == null) {
+            throw new IllegalArgumentException("Bounding box is required");
+        }
+        if (request.getMinLng() >= request.getMaxLng() || request.getMinLat() >= request.getMaxLat()
+                || request.getMinLat() < -90 || request.getMaxLat() > 90) {
+            throw new IllegalArgumentException("Invalid bounding box");
+        }
+        int resolution = request.getResolution() != null ? request.getResolution() : 256;
+        if (resolution < 1 || resolution > maxResolution) {
+            throw new IllegalArgumentException("Resolution must be between 1 and " + maxResolution);
+        }
+        String format = request.getFormat() != null ? request.getFormat().toUpperCase(Locale.ROOT) : "PNG";
+        if (!format.equals("PNG") && !format.equals("FLOAT32") && !format.equals("STATISTICS")) {
+            throw new IllegalArgumentException("Unsupported format: " + request.getFormat());
         }
-        
-        log.info("Performing raster analysis: {} for source: {}", 
-                request.getAnalysisType(), request.getRasterSource());
-        
-        // Stub implementation - returns placeholder data
-        // In production, this would:
-        // 1. Load raster data from source
-        // 2. Perform analysis (elevation, slope, aspect, etc.)
-        // 3. Generate output raster/image
-        // 4. Calculate statistics
-        
+        double zFactor = request.getZFactor() != null ? request.getZFactor() : 1.0;
+        double azimuth = request.getAzimuth() != null ? request.getAzimuth() : 315.0;
+        double altitude = request.getAltitude() != null ? request.getAltitude() : 45.0;
+        if (altitude < 0 || altitude > 90) {
+            throw new IllegalArgumentException("Altitude must be between 0 and 90 degrees");
+        }
+
+        long started = System.currentTimeMillis();
+        GridSpec grid = GridSpec.ofBounds(request.getMinLng(), request.getMinLat(),
+                request.getMaxLng(), request.getMaxLat(), resolution, resolution);
+        RasterStatistics statistics = new RasterStatistics();
+        float[] values;
+        if (expression) {
+            // Map algebra over the named rasters; only the statistics are gathered for STATISTICS
+            Map<String, String> sources = rasterAlgebraService.sources(request.getRasterSource(), request.getRasters());
+            MapAlgebra algebra = MapAlgebra.compile(request.getOperations(), sources.keySet());
+            values = algebra.run(grid, rasterAlgebraService.bindings(algebra, sources, zFactor), statistics,
+                    !format.equals("STATISTICS"));
+        } else {
+            TerrainAnalysis analysis = new TerrainAnalysis(product, zFactor, azimuth, altitude);
+            values = analysis.run(grid, TerrainAnalysis.Units.DEGREES,
+                    rasterSourceService.elevationReader(request.getRasterSource()), statistics);
+        }
+        String analysisType = expression ? "EXPRESSION" : product.name();
+
         Map<String, Object> metadata = new HashMap<>();
-        
-        switch (request.getAnalysisType().toUpperCase()) {
-            case "ELEVATION":
-                return performElevationAnalysis(request, metadata);
-            case "SLOPE":
-                return performSlopeAnalysis(request, metadata);
-            case "ASPECT":
-                return performAspectAnalysis(request, metadata);
-            case "HILLSHADE":
-                return performHillshadeAnalysis(request, metadata);
-            default:
-                throw new IllegalArgumentException("Unsupported analysis type: " + request.getAnalysisType());
+        metadata.put("min", statistics.getMin());
+        metadata.put("max", statistics.getMax());
+        metadata.put("mean", statistics.getMean());
+        metadata.put("stddev", statistics.getStddev());
+        metadata.put("count", statistics.getCount());
+        if (expression) {
+            metadata.put("operations", request.getOperations());
+        } else {
+            metadata.put("unit", product == TerrainAnalysis.Product.ELEVATION ? "meters"
+                    : product == TerrainAnalysis.Product.HILLSHADE ? "intensity" : "degrees");
         }
-    }
-    
-    private RasterAnalysisResponse performElevationAnalysis(RasterAnalysisRequest request, Map<String, Object> metadata) {
-        // Stub: Return placeholder elevation data
-        metadata.put("min", 0.0);
-        metadata.put("max", 1000.0);
-        metadata.put("mean", 500.0);
-        metadata.put("stddev", 200.0);
-        metadata.put("unit", "meters");
-        
+        if (product == TerrainAnalysis.Product.HILLSHADE) {
+            metadata.put("azimuth", azimuth);
+            metadata.put("altitude", altitude);
+        }
+        metadata.put("z_factor", zFactor);
+
+        String rasterData = null;
+        if (format.equals("PNG")) {
+            rasterData = "data:image/png;base64," + Base64.getEncoder().encodeToString(
+                    render(expression ? TerrainAnalysis.Product.ELEVATION : product, values, resolution,
+                            statistics, request.getColorRamp()));
+        } else if (format.equals("FLOAT32")) {
+            rasterData = "data:application/octet-stream;base64," + Base64.getEncoder().encodeToString(
+                    RasterEncoder.float32(values));
+        }
+        log.info("Raster analysis {} of {} at {}x{}: {} cells in {} ms", analysisType, request.getRasterSource(),
+                resolution, resolution, statistics.getCount(), System.currentTimeMillis() - started);
+
         return RasterAnalysisResponse.builder()
-                .analysisType("ELEVATION")
-                .rasterData("data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==") // 1x1 transparent PNG
+                .analysisType(analysisType)
+                .rasterData(rasterData)
                 .metadata(metadata)
-                .format("PNG")
-                .width(request.getResolution())
-                .height(request.getResolution())
+                .format(format)
+                .width(resolution)
+                .height(resolution)
                 .minLng(request.getMinLng())
                 .minLat(request.getMinLat())
                 .maxLng(request.getMaxLng())
                 .maxLat(request.getMaxLat())
                 .build();
     }
-    
-    private RasterAnalysisResponse performSlopeAnalysis(RasterAnalysisRequest request, Map<String, Object> metadata) {
-        // Stub: Return placeholder slope data
-        metadata.put("min", 0.0);
-        metadata.put("max", 90.0);
-        metadata.put("mean", 15.0);
-        metadata.put("stddev", 10.0);
-        metadata.put("unit", "degrees");
-        
-        return RasterAnalysisResponse.builder()
-                .analysisType("SLOPE")
-                .rasterData("data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==")
-                .metadata(metadata)
-                .format("PNG")
-                .width(request.getResolution())
-                .height(request.getResolution())
-                .minLng(request.getMinLng())
-                .minLat(request.getMinLat())
-                .maxLng(request.getMaxLng())
-                .maxLat(request.getMaxLat())
-                .build();
+
+    /**
+     * Render one web-mercator tile of a terrain product as a PNG. Colours use a fixed value range
+     * (min / max, defaulting to the raster's range for elevation, 0-60 for slope and 0-360 for
+     * aspect), so neighbouring tiles share one scale; hillshade is grey.
+     */
+    public byte[] renderTile(String source, String analysisType, int z, int x, int y, String colorRamp,
+                             Double min, Double max, double zFactor, double azimuth, double altitude) {
+        TileMath.validateTile(z, x, y);
+        TerrainAnalysis.Product product = TerrainAnalysis.Product.of(analysisType);
+        if (altitude < 0 || altitude > 90) {
+            throw new IllegalArgumentException("Altitude must be between 0 and 90 degrees");
+        }
+        ColorRamp ramp = ColorRamp.of(colorRamp != null ? colorRamp
+                : product == TerrainAnalysis.Product.SLOPE ? "magma" : "viridis");
+        String tileKey = cacheService.generateRasterTileKey(source, rasterSourceService.getVersion(source), z, x, y,
+                product, colorRamp, min, max, zFactor, azimuth, altitude, "png");
+        byte[] cached = cacheService.getCachedTile(tileKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        TiledRaster raster = rasterSourceService.openTiled(source);
+        float[] values = tileValues(raster, rasterSourceService.mercatorReader(source), product, z, x, y,
+                zFactor, azimuth, altitude);
+        byte[] png;
+        if (product == TerrainAnalysis.Product.HILLSHADE) {
+            png = RasterEncoder.grayPng(values, TILE_SIZE, TILE_SIZE);
+        } else {
+            double low;
+            double high;
+            if (product == TerrainAnalysis.Product.ELEVATION && (min == null || max == null)) {
+                try {
+                    double[] range = raster.overviewRange();
+                    low = min != null ? min : range[0];
+                    high = max != null ? max : range[1];
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to read raster: " + source, e);
+                }
+            } else {
+                low = min != null ? min : 0;
+                high = max != null ? max : product == TerrainAnalysis.Product.ASPECT ? 360 : SLOPE_TILE_MAX;
+            }
+            png = RasterEncoder.png(values, TILE_SIZE, TILE_SIZE, ramp, low, high);
+        }
+
+        cacheService.cacheTile(tileKey, png, null);
+        return png;
     }
-    
-    private RasterAnalysisResponse performAspectAnalysis(RasterAnalysisRequest request, Map<String, Object> metadata) {
-        // Stub: Return placeholder aspect data
-        metadata.put("min", 0.0);
-        metadata.put("max", 360.0);
-        metadata.put("mean", 180.0);
-        metadata.put("stddev", 90.0);
-        metadata.put("unit", "degrees");
-        
-        return RasterAnalysisResponse.builder()
-                .analysisType("ASPECT")
-                .rasterData("data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==")
-                .metadata(metadata)
-                .format("PNG")
-                .width(request.getResolution())
-                .height(request.getResolution())
-                .minLng(request.getMinLng())
-                .minLat(request.getMinLat())
-                .maxLng(request.getMaxLng())
-                .maxLat(request.getMaxLat())
-                .build();
+
+    /**
+     * Product values of one tile, computed on a grid of mercator meters. Ground distances are the
+     * mercator ones times cos(latitude), taken per row, so low-zoom tiles spanning many degrees of
+     * latitude stay right away from their centre and agree with their neighbours along the edges.
+     */
+    private static float[] tileValues(TiledRaster raster, TerrainAnalysis.ElevationReader reader,
+                                      TerrainAnalysis.Product product, int z, int x, int y,
+                                      double zFactor, double azimuth, double altitude) {
+        float[] values = new float[TILE_SIZE * TILE_SIZE];
+        double[] bounds = TileMath.tileBounds(z, x, y);
+        GridSpec extent = raster.getGrid();
+        if (bounds[2] < extent.getMinX() || bounds[0] > extent.getMaxX()
+                || bounds[3] < extent.getMinY() || bounds[1] > extent.getMaxY()) {
+            Arrays.fill(values, Float.NaN);
+            return values;
+        }
+        GridSpec grid = TileMath.mercatorGrid(z, x, y, TILE_SIZE);
+        TerrainAnalysis analysis = new TerrainAnalysis(product, zFactor, azimuth, altitude);
+        return analysis.run(grid, TerrainAnalysis.Units.MERCATOR, reader, new RasterStatistics());
     }
-    
-    private RasterAnalysisResponse performHillshadeAnalysis(RasterAnalysisRequest request, Map<String, Object> metadata) {
-        // Stub: Return placeholder hillshade data
-        metadata.put("azimuth", 315.0);
-        metadata.put("altitude", 45.0);
-        metadata.put("z_factor", 1.0);
-        
-        return RasterAnalysisResponse.builder()
-                .analysisType("HILLSHADE")
-                .rasterData("data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==")
-                .metadata(metadata)
-                .format("PNG")
-                .width(request.getResolution())
-                .height(request.getResolution())
-                .minLng(request.getMinLng())
-                .minLat(request.getMinLat())
-                .maxLng(request.getMaxLng())
-                .maxLat(request.getMaxLat())
-                .build();
+
+    /**
+     * PNG of a product: hillshade as grey, aspect over the full circle, elevation and slope
+     * stretched over their value range
+     */
+    static byte[] render(TerrainAnalysis.Product product, float[] values, int size,
+                         RasterStatistics statistics, String colorRamp) {
+        switch (product) {
+            case HILLSHADE:
+                return RasterEncoder.grayPng(values, size, size);
+            case ASPECT:
+                return RasterEncoder.png(values, size, size, ColorRamp.of(colorRamp != null ? colorRamp : "viridis"),
+                        0, 360);
+            case SLOPE:
+                return RasterEncoder.png(values, size, size, ColorRamp.of(colorRamp != null ? colorRamp : "magma"),
+                        0, statistics.getCount() > 0 ? statistics.getMax() : 90);
+            default:
+                return RasterEncoder.png(values, size, size, ColorRamp.of(colorRamp != null ? colorRamp : "viridis"),
+                        statistics.getCount() > 0 ? statistics.getMin() : 0,
+                        statistics.getCount() > 0 ? statistics.getMax() : 1);
+        }
     }
 }
-
@@ -0,0 +1,533 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.util.FloatGrid;
+import com.example.gis.util.GridSpec;
+import com.example.gis.util.TerrainAnalysis;
+import com.example.gis.util.TileCache;
+import com.example.gis.util.TileMath;
+import com.example.gis.util.TiledRaster;
+import io.minio.errors.ErrorResponseException;
+import lombok.extern.slf4j.Slf4j;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataDecoder;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.coverage.grid.GridEnvelope;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Elevation rasters (GeoTIFF DEMs stored in MinIO), served from a tiled store with overviews.
+ *
+ * A source is the MinIO object key of the DEM. Each object version (ETag) is converted once into a
+ * TiledRaster in WGS84 at the DEM's resolution, stored back in MinIO next to the other rasters and
+ * kept in the local raster cache. Reads touch only the tiles of the overview level matching the
+ * requested resolution: through a memory mapping when the node has the file locally, otherwise
+ * through range requests against MinIO. Decoded tiles are shared in an LRU cache bounded by bytes.
+ * Computed rasters are stored as tiled stores under rasters/derived/; sources ending in .rtl are
+ * such stores and are read as they are.
+ */
+@Service
+@Slf4j
+public class RasterSourceService {
+    private static final String TILE_JOB_TYPE = "raster-tiling";
+    private static final String TILED_PREFIX = "rasters/";
+    private static final String DERIVED_PREFIX = "rasters/derived/";
+    private static final String TILED_SUFFIX = ".rtl";
+    private static final int BLOCK_TILES = 4; // tiles per side converted per GeoTIFF read
+
+    private final MinIOService minIOService;
+    private final AnalysisJobService analysisJobService;
+    private final TileCache tileCache;
+    private final Map<String, OpenRaster> rasters = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private final Map<String, UUID> tilingJobs = new ConcurrentHashMap<>();
+
+    @Value("${gis.raster.cache-dir:./data/rasters}")
+    private String cacheDir;
+
+    public RasterSourceService(MinIOService minIOService, AnalysisJobService analysisJobService,
+                               @Value("${gis.raster.tile-cache-mb:512}") long tileCacheMb) {
+        this.minIOService = minIOService;
+        this.analysisJobService = analysisJobService;
+        this.tileCache = new TileCache(tileCacheMb * 1024 * 1024);
+    }
+
+    /**
+     * Elevation reader over a raster source; each window reads only the tiles it covers
+     */
+    public TerrainAnalysis.ElevationReader elevationReader(String source) {
+        TiledRaster raster = open(source);
+        return window -> {
+            try {
+                return raster.sample(window);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read raster: " + source, e);
+            }
+        };
+    }
+
+    /**
+     * Reader over a raster source for windows in web-mercator meters (centred on 0, 0), sampling
+     * the overview level matching the window's cells. For tiles, so the source must already be
+     * tiled (see openTiled).
+     */
+    public TerrainAnalysis.ElevationReader mercatorReader(String source) {
+        TiledRaster raster = openTiled(source);
+        return window -> {
+            try {
+                return mercatorSample(raster, window);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read raster: " + source, e);
+            }
+        };
+    }
+
+    /**
+     * Writes the tiles of a computed raster into a store
+     */
+    @FunctionalInterface
+    public interface TileProducer {
+        void write(TiledRaster.Writer writer) throws IOException;
+    }
+
+    /**
+     * Store a computed raster over grid as a new source and return its key; the producer writes
+     * its full-resolution tiles, the overviews are derived afterwards
+     */
+    public String store(GridSpec grid, TileProducer producer) throws IOException {
+        String key = DERIVED_PREFIX + UUID.randomUUID() + TILED_SUFFIX;
+        Path dir = Paths.get(cacheDir);
+        Files.createDirectories(dir);
+        Path part = Files.createTempFile(dir, "raster", ".part");
+        try {
+            try (TiledRaster.Writer writer = new TiledRaster.Writer(part, grid)) {
+                producer.write(writer);
+                writer.finish();
+            }
+            minIOService.uploadFile(key, part, "application/octet-stream");
+            Files.move(part, dir.resolve(id(key, getVersion(key)) + TILED_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            return key;
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to store raster", e);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Tiled store of a raster source, converting the source on first use
+     */
+    public TiledRaster open(String source) {
+        return open(source, progress -> {
+        });
+    }
+
+    /**
+     * Tiled store of a raster source for tile requests, which never convert inline: a conversion
+     * takes minutes and would hold the source's lock, and with it every other tile of the map.
+     * A source without a tiled store yet is answered with 409 and a hint to start its conversion.
+     */
+    public TiledRaster openTiled(String source) {
+        String etag = getVersion(source);
+        OpenRaster open = rasters.get(source);
+        if (open != null && open.etag.equals(etag)) {
+            return open.raster;
+        }
+        String id = id(source, etag);
+        boolean tiled;
+        try {
+            tiled = source.endsWith(TILED_SUFFIX) || Files.exists(Paths.get(cacheDir).resolve(id + TILED_SUFFIX))
+                    || exists(TILED_PREFIX + id + TILED_SUFFIX);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to open raster: " + source, e);
+        }
+        if (!tiled) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Raster " + source + " is not tiled yet; "
+                    + "start its conversion with POST /api/raster/tile?rasterSource=" + source
+                    + " and retry once the job has completed");
+        }
+        return open(source);
+    }
+
+    /**
+     * Start background conversion of a raster source so that later reads find it tiled;
+     * a conversion already running for the source is returned instead
+     */
+    public synchronized AnalysisJob tile(String source) {
+        if (source == null || source.isBlank()) {
+            throw new IllegalArgumentException("Raster source is required");
+        }
+        UUID running = tilingJobs.get(source);
+        if (running != null && analysisJobService.isActive(running)) {
+            return analysisJobService.getJob(running);
+        }
+        AnalysisJob job = analysisJobService.submit(TILE_JOB_TYPE, "Tiled store of raster " + source,
+                progress -> {
+                    TiledRaster raster = open(source, progress);
+                    GridSpec grid = raster.getGrid();
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("rasterSource", source);
+                    result.put("width", grid.getWidth());
+                    result.put("height", grid.getHeight());
+                    result.put("levels", raster.getLevels());
+                    result.put("cellWidth", grid.getCellWidth());
+                    result.put("cellHeight", grid.getCellHeight());
+                    result.put("bbox", new double[]{grid.getMinX(), grid.getMinY(), grid.getMaxX(), grid.getMaxY()});
+                    return result;
+                });
+        tilingJobs.put(source, job.getId());
+        return job;
+    }
+
+    /**
+     * Bytes and hit counts of the tile cache
+     */
+    public Map<String, Object> getCacheStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("tiles", tileCache.size());
+        statistics.put("bytes", tileCache.getBytes());
+        statistics.put("maxBytes", tileCache.getMaxBytes());
+        statistics.put("hits", tileCache.getHits());
+        statistics.put("misses", tileCache.getMisses());
+        return statistics;
+    }
+
+    /**
+     * Version (ETag) of a raster source; derived results cached across requests include it
+     */
+    public String getVersion(String source) {
+        if (source == null || source.isBlank()) {
+            throw new IllegalArgumentException("Raster source is required");
+        }
+        try {
+            return minIOService.getFileMetadata(source).etag().replaceAll("[^A-Za-z0-9]", "");
+        } catch (Exception e) {
+            throw new RuntimeException("Raster not found");
+        }
+    }
+
+    private TiledRaster open(String source, DoubleConsumer progress) {
+        String etag = getVersion(source);
+        OpenRaster open = rasters.get(source);
+        if (open != null && open.etag.equals(etag)) {
+            return open.raster;
+        }
+        // Conversions of one source are serialized; other sources stay readable meanwhile
+        synchronized (locks.computeIfAbsent(source, key -> new Object())) {
+            open = rasters.get(source);
+            if (open != null && open.etag.equals(etag)) {
+                return open.raster;
+            }
+            String id = id(source, etag);
+            String tiledKey = source.endsWith(TILED_SUFFIX) ? source : TILED_PREFIX + id + TILED_SUFFIX;
+            Path local = Paths.get(cacheDir).resolve(id + TILED_SUFFIX);
+            try {
+                TiledRaster raster;
+                if (Files.exists(local)) {
+                    raster = TiledRaster.open(id, TiledRaster.mapped(local), tileCache);
+                } else if (tiledKey.equals(source) || exists(tiledKey)) {
+                    raster = TiledRaster.open(id, rangeSource(tiledKey), tileCache);
+                } else {
+                    long started = System.currentTimeMillis();
+                    convert(source, local, progress);
+                    minIOService.uploadFile(tiledKey, local, "application/octet-stream");
+                    raster = TiledRaster.open(id, TiledRaster.mapped(local), tileCache);
+                    log.info("Tiled raster {}: {}x{} cells, {} levels in {} ms", source, raster.getGrid().getWidth(),
+                            raster.getGrid().getHeight(), raster.getLevels(), System.currentTimeMillis() - started);
+                }
+                rasters.put(source, new OpenRaster(etag, raster));
+                if (open != null) {
+                    // Mapped readers of the previous version keep their mapping
+                    Files.deleteIfExists(Paths.get(cacheDir).resolve(id(source, open.etag) + TILED_SUFFIX));
+                }
+                return raster;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open raster: " + source, e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to open raster: " + source, e);
+            }
+        }
+    }
+
+    /**
+     * Values at the centres of a window of mercator meters, from the level matching its cells
+     */
+    private static float[] mercatorSample(TiledRaster raster, GridSpec window) throws IOException {
+        double circumference = TileMath.EARTH_CIRCUMFERENCE_METERS;
+        int width = window.getWidth();
+        int height = window.getHeight();
+        double minLng = window.getMinX() / circumference * 360;
+        double maxLng = window.getMaxX() / circumference * 360;
+        double minLat = TileMath.latitude(0.5 - window.getMinY() / circumference);
+        double maxLat = TileMath.latitude(0.5 - window.getMaxY() / circumference);
+        double cellDegrees = window.getCellWidth() / circumference * 360;
+        float[] values = new float[width * height];
+        FloatGrid data = raster.read(raster.levelFor(cellDegrees,
+                        cellDegrees * Math.cos(Math.toRadians((minLat + maxLat) / 2))),
+                minLng, minLat, maxLng, maxLat);
+        if (data == null) {
+            Arrays.fill(values, Float.NaN);
+            return values;
+        }
+        for (int r = 0; r < height; r++) {
+            double lat = TileMath.latitude(0.5 - window.centerY(r) / circumference);
+            for (int c = 0; c < width; c++) {
+                values[r * width + c] = data.sample(window.centerX(c) / circumference * 360, lat);
+            }
+        }
+        return values;
+    }
+
+    private static String id(String source, String etag) {
+        return UUID.nameUUIDFromBytes(source.getBytes(StandardCharsets.UTF_8)) + "-" + etag;
+    }
+
+    private boolean exists(String key) throws Exception {
+        try {
+            minIOService.getFileMetadata(key);
+            return true;
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private TiledRaster.ByteSource rangeSource(String key) {
+        return (offset, length) -> {
+            try (InputStream in = minIOService.downloadRange(key, offset, length)) {
+                byte[] bytes = in.readAllBytes();
+                if (bytes.length != length) {
+                    throw new IOException("Short read of " + key + " at " + offset);
+                }
+                return ByteBuffer.wrap(bytes);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Failed to read " + key, e);
+            }
+        };
+    }
+
+    /**
+     * Resample a GeoTIFF source into a tiled store at target, block by block
+     */
+    private void convert(String source, Path target, DoubleConsumer progress) throws Exception {
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path tiff = dir.resolve(target.getFileName() + ".tif");
+        Path part = Files.createTempFile(dir, "raster", ".part");
+        GeoTiffReader reader = null;
+        try {
+            try (InputStream in = minIOService.downloadFile(source)) {
+                Files.copy(in, tiff, StandardCopyOption.REPLACE_EXISTING);
+            }
+            reader = new GeoTiffReader(tiff.toFile());
+            GeoTiff geoTiff = new GeoTiff(reader);
+            GridSpec grid = geoTiff.wgs84Grid();
+            int tileSize = TiledRaster.TILE_SIZE;
+            int blockSize = BLOCK_TILES * tileSize;
+            int blocksX = (grid.getWidth() + blockSize - 1) / blockSize;
+            int blocksY = (grid.getHeight() + blockSize - 1) / blockSize;
+            try (TiledRaster.Writer writer = new TiledRaster.Writer(part, grid)) {
+                float[] tile = new float[tileSize * tileSize];
+                for (int by = 0; by < blocksY; by++) {
+                    for (int bx = 0; bx < blocksX; bx++) {
+                        int col0 = bx * blockSize;
+                        int row0 = by * blockSize;
+                        int width = Math.min(blockSize, grid.getWidth() - col0);
+                        int height = Math.min(blockSize, grid.getHeight() - row0);
+                        GridSpec block = grid.window(col0, row0, width, height);
+                        float[] values = geoTiff.sample(block);
+                        for (int ty = 0; ty * tileSize < height; ty++) {
+                            for (int tx = 0; tx * tileSize < width; tx++) {
+                                Arrays.fill(tile, Float.NaN);
+                                int tileWidth = Math.min(tileSize, width - tx * tileSize);
+                                int tileHeight = Math.min(tileSize, height - ty * tileSize);
+                                for (int r = 0; r < tileHeight; r++) {
+                                    System.arraycopy(values, (ty * tileSize + r) * width + tx * tileSize,
+                                            tile, r * tileSize, tileWidth);
+                                }
+                                writer.writeTile(col0 / tileSize + tx, row0 / tileSize + ty, tile);
+                            }
+                        }
+                        progress.accept(0.9 * (by * blocksX + bx + 1) / (blocksX * blocksY));
+                    }
+                }
+                writer.finish();
+            }
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            progress.accept(1.0);
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(tiff);
+        }
+    }
+
+    private static final class OpenRaster {
+        private final String etag;
+        private final TiledRaster raster;
+
+        OpenRaster(String etag, TiledRaster raster) {
+            this.etag = etag;
+            this.raster = raster;
+        }
+    }
+
+    /**
+     * A GeoTIFF being converted, read through GeoTools
+     */
+    private static final class GeoTiff {
+        private final GeoTiffReader reader;
+        private final CoordinateReferenceSystem crs;
+        private final MathTransform toSource;
+        private final double noData;
+
+        GeoTiff(GeoTiffReader reader) throws Exception {
+            this.reader = reader;
+            this.crs = reader.getCoordinateReferenceSystem();
+            this.toSource = CRS.equalsIgnoreMetadata(crs, DefaultGeographicCRS.WGS84)
+                    ? null : CRS.findMathTransform(DefaultGeographicCRS.WGS84, crs, true);
+            GeoTiffIIOMetadataDecoder metadata = reader.getMetadata();
+            this.noData = metadata != null && metadata.hasNoData() ? metadata.getNoData() : Double.NaN;
+        }
+
+        /**
+         * WGS84 grid over the coverage with as many cells as the source
+         */
+        GridSpec wgs84Grid() throws Exception {
+            ReferencedEnvelope extent = new ReferencedEnvelope(reader.getOriginalEnvelope());
+            if (toSource != null) {
+                extent = extent.transform(DefaultGeographicCRS.WGS84, true);
+            }
+            GridEnvelope range = reader.getOriginalGridRange();
+            return GridSpec.ofBounds(extent.getMinX(), extent.getMinY(), extent.getMaxX(), extent.getMaxY(),
+                    range.getSpan(0), range.getSpan(1));
+        }
+
+        /**
+         * Values at the cell centres of a WGS84 block, from one read of the coverage under it
+         */
+        float[] sample(GridSpec block) throws Exception {
+            int width = block.getWidth();
+            int height = block.getHeight();
+            FloatGrid data = read(block.window(-1, -1, width + 2, height + 2));
+            double[] points = new double[width * 2];
+            float[] values = new float[width * height];
+            for (int r = 0; r < height; r++) {
+                for (int c = 0; c < width; c++) {
+                    points[2 * c] = block.centerX(c);
+                    points[2 * c + 1] = block.centerY(r);
+                }
+                if (toSource != null) {
+                    try {
+                        toSource.transform(points, 0, points, 0, width);
+                    } catch (TransformException e) {
+                        throw new RuntimeException("Failed to transform raster coordinates", e);
+                    }
+                }
+                for (int c = 0; c < width; c++) {
+                    values[r * width + c] = data == null ? Float.NaN : data.sample(points[2 * c], points[2 * c + 1]);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * The coverage under a WGS84 area, at about the area's resolution; null when they do not overlap
+         */
+        private FloatGrid read(GridSpec area) throws Exception {
+            ReferencedEnvelope envelope = new ReferencedEnvelope(area.getMinX(), area.getMaxX(),
+                    area.getMinY(), area.getMaxY(), DefaultGeographicCRS.WGS84);
+            if (toSource != null) {
+                envelope = envelope.transform(crs, true);
+            }
+            ReferencedEnvelope extent = new ReferencedEnvelope(reader.getOriginalEnvelope());
+            if (!envelope.intersects((Envelope) extent)) {
+                return null;
+            }
+            GridGeometry2D requested = new GridGeometry2D(
+                    new GridEnvelope2D(0, 0, area.getWidth(), area.getHeight()), envelope);
+            ParameterValue<GridGeometry2D> gridGeometry = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+            gridGeometry.setValue(requested);
+            GridCoverage2D coverage = reader.read(new GeneralParameterValue[]{gridGeometry});
+            if (coverage == null) {
+                return null;
+            }
+            try {
+                return toGrid(coverage);
+            } finally {
+                coverage.dispose(true);
+            }
+        }
+
+        private FloatGrid toGrid(GridCoverage2D coverage) {
+            AffineTransform gridToCrs = (AffineTransform) coverage.getGridGeometry()
+                    .getGridToCRS2D(PixelOrientation.UPPER_LEFT);
+            if (gridToCrs.getShearX() != 0 || gridToCrs.getShearY() != 0) {
+                throw new IllegalArgumentException("Rotated rasters are not supported");
+            }
+            Raster data = coverage.getRenderedImage().getData();
+            int width = data.getWidth();
+            int height = data.getHeight();
+            float[] values = data.getSamples(data.getMinX(), data.getMinY(), width, height, 0, new float[width * height]);
+            if (!Double.isNaN(noData)) {
+                float missing = (float) noData;
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == missing) {
+                        values[i] = Float.NaN;
+                    }
+                }
+            }
+            double cellWidth = gridToCrs.getScaleX();
+            double cellHeight = -gridToCrs.getScaleY();
+            GridSpec spec = new GridSpec(width, height,
+                    gridToCrs.getTranslateX() + data.getMinX() * cellWidth,
+                    gridToCrs.getTranslateY() - data.getMinY() * cellHeight,
+                    cellWidth, cellHeight);
+            return new FloatGrid(spec, values);
+        }
+    }
+}
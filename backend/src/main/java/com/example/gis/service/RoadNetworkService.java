@@ -0,0 +1,167 @@
+package com.example.gis.service;
+
+import com.example.gis.entity.Layer;
+import com.example.gis.repository.LayerRepository;
+import com.example.gis.repository.RoadNetworkRepository;
+import com.example.gis.util.RoadGraph;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Road graphs built from LINE layers, kept in memory and persisted per layer edit generation.
+ *
+ * Lookup order: the in-memory graph of the current generation, then the graph file of that
+ * generation (memory-mapped, so restarts skip the database), then a fresh build from the
+ * layer's features. Feature edits and uploads bump the layer generation in their transaction,
+ * and generations are kept in Postgres, so a graph built before an edit is left behind under the
+ * old generation and never taken as current again, also after a Redis flush or restart.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RoadNetworkService {
+    private final RoadNetworkRepository roadNetworkRepository;
+    private final LayerRepository layerRepository;
+    private final CacheService cacheService;
+
+    private final Map<UUID, LoadedGraph> graphs = new ConcurrentHashMap<>();
+    private final Map<UUID, Object> buildLocks = new ConcurrentHashMap<>();
+
+    @Value("${gis.routing.graph-dir:./data/graphs}")
+    private String graphDir;
+
+    @Value("${gis.routing.speed-property:maxspeed}")
+    private String speedProperty;
+
+    @Value("${gis.routing.oneway-property:oneway}")
+    private String onewayProperty;
+
+    @Value("${gis.routing.length-property:}")
+    private String lengthProperty;
+
+    /**
+     * Graph of a LINE layer, loading or building it when needed
+     */
+    public RoadGraph getGraph(UUID layerId) {
+        String generation = cacheService.getLayerGeneration(layerId);
+        LoadedGraph loaded = graphs.get(layerId);
+        if (loaded != null && loaded.generation.equals(generation)) {
+            return loaded.graph;
+        }
+        synchronized (buildLocks.computeIfAbsent(layerId, id -> new Object())) {
+            loaded = graphs.get(layerId);
+            if (loaded != null && loaded.generation.equals(generation)) {
+                return loaded.graph;
+            }
+            RoadGraph graph = loadOrBuild(layerId, generation);
+            graphs.put(layerId, new LoadedGraph(generation, graph));
+            return graph;
+        }
+    }
+
+    /**
+     * Edit generation the current graph of a layer was built from, for versioning derived results
+     */
+    public String getGraphVersion(UUID layerId) {
+        return cacheService.getLayerGeneration(layerId);
+    }
+
+    /**
+     * Drop the in-memory and persisted graphs of a layer; the next request rebuilds
+     */
+    public void evict(UUID layerId) {
+        synchronized (buildLocks.computeIfAbsent(layerId, id -> new Object())) {
+            graphs.remove(layerId);
+            deleteGraphFiles(layerId, null);
+        }
+    }
+
+    /**
+     * File for data derived from a layer's graph (e.g. "driving.ch"); removed with the graph generation
+     */
+    public Path derivedFile(UUID layerId, String generation, String suffix) {
+        return Paths.get(graphDir).resolve(layerId + "-g" + generation + "-" + suffix);
+    }
+
+    private RoadGraph loadOrBuild(UUID layerId, String generation) {
+        Path file = graphFile(layerId, generation);
+        if (Files.isRegularFile(file)) {
+            try {
+                RoadGraph graph = RoadGraph.load(file);
+                log.info("Loaded road graph for layer {} from {} ({} nodes)", layerId, file, graph.nodeCount());
+                return graph;
+            } catch (IOException e) {
+                log.warn("Could not read road graph {}, rebuilding: {}", file, e.getMessage());
+            }
+        }
+
+        Layer layer = layerRepository.findById(layerId)
+                .orElseThrow(() -> new RuntimeException("Layer not found"));
+        if (layer.getGeomType() != Layer.GeometryType.LINE) {
+            throw new IllegalArgumentException("Road network layer must be a LINE layer");
+        }
+        long started = System.currentTimeMillis();
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        int lines = roadNetworkRepository.loadLines(layerId, speedProperty, onewayProperty,
+                lengthProperty.isBlank() ? null : lengthProperty, builder);
+        RoadGraph graph = builder.build();
+        log.info("Built road graph for layer {} from {} lines: {} nodes, {} edges in {} ms",
+                layerId, lines, graph.nodeCount(), graph.edgeCount(), System.currentTimeMillis() - started);
+
+        try {
+            graph.save(file);
+            deleteGraphFiles(layerId, generation);
+        } catch (IOException e) {
+            // The graph is still usable; it is just rebuilt after a restart
+            log.warn("Could not persist road graph for layer {}: {}", layerId, e.getMessage());
+        }
+        return graph;
+    }
+
+    private Path graphFile(UUID layerId, String generation) {
+        return Paths.get(graphDir).resolve(layerId + "-g" + generation + ".graph");
+    }
+
+    /**
+     * Remove graph and derived files of other generations (all of them when keepGeneration is null)
+     */
+    private void deleteGraphFiles(UUID layerId, String keepGeneration) {
+        Path dir = Paths.get(graphDir);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        String keepGraph = layerId + "-g" + keepGeneration + ".graph";
+        String keepDerived = layerId + "-g" + keepGeneration + "-";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, layerId + "-g*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (keepGeneration == null || !(name.equals(keepGraph) || name.startsWith(keepDerived))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not clean up road graphs of layer {}: {}", layerId, e.getMessage());
+        }
+    }
+
+    private static final class LoadedGraph {
+        private final String generation;
+        private final RoadGraph graph;
+
+        LoadedGraph(String generation, RoadGraph graph) {
+            this.generation = generation;
+            this.graph = graph;
+        }
+    }
+}
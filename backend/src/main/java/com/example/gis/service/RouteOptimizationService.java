@@ -0,0 +1,433 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.dto.RouteOptimizationRequest;
+import com.example.gis.entity.Device;
+import com.example.gis.util.ContractionHierarchy;
+import com.example.gis.util.Dijkstra;
+import com.example.gis.util.GeoJsonConverter;
+import com.example.gis.util.RoadGraph;
+import com.example.gis.util.VehicleRouting;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Multi-stop route optimization jobs for a fleet of vehicles (optionally tracked devices).
+ *
+ * Stops and vehicle start / end locations share one travel-time matrix (contraction hierarchy
+ * or one Dijkstra per location on the road network, or geodesic at the profile's default speed),
+ * which VehicleRouting turns into routes within the time budget. Route geometries follow the
+ * shortest road paths between consecutive locations. Jobs can be cancelled via /api/jobs.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RouteOptimizationService {
+    public static final String JOB_TYPE = "route-optimization";
+
+    private final RoadNetworkService roadNetworkService;
+    private final RoutingService routingService;
+    private final IsochroneService isochroneService;
+    private final AnalysisJobService analysisJobService;
+    private final DeviceService deviceService;
+    private final GeoJsonConverter geoJsonConverter;
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+
+    @Value("${gis.routing.max-snap-meters:1000}")
+    private double maxSnapMeters;
+
+    @Value("${gis.route-optimization.max-stops:2000}")
+    private int maxStops;
+
+    @Value("${gis.route-optimization.max-vehicles:200}")
+    private int maxVehicles;
+
+    @Value("${gis.route-optimization.time-budget-ms:5000}")
+    private long defaultTimeBudgetMillis;
+
+    @Value("${gis.route-optimization.max-time-budget-ms:60000}")
+    private long maxTimeBudgetMillis;
+
+    /**
+     * Validate the request, resolve device positions and start the optimization job
+     */
+    public AnalysisJob optimize(RouteOptimizationRequest request) {
+        List<RouteOptimizationRequest.Stop> stops = request.getStops();
+        List<RouteOptimizationRequest.Vehicle> vehicles = request.getVehicles();
+        if (stops == null || stops.isEmpty()) {
+            throw new IllegalArgumentException("Stops are required");
+        }
+        if (vehicles == null || vehicles.isEmpty()) {
+            throw new IllegalArgumentException("Vehicles are required");
+        }
+        if (stops.size() > maxStops || vehicles.size() > maxVehicles) {
+            throw new IllegalArgumentException("At most " + maxStops + " stops and " + maxVehicles + " vehicles");
+        }
+        String costType = request.getCostType() != null ? request.getCostType().toLowerCase(Locale.ROOT) : "travel-time";
+        if (!costType.equals("travel-time") && !costType.equals("geodesic")) {
+            throw new IllegalArgumentException("Unsupported cost type: " + request.getCostType());
+        }
+        UUID networkLayerId = null;
+        if (costType.equals("travel-time")) {
+            networkLayerId = request.getNetworkLayerId() != null
+                    ? request.getNetworkLayerId()
+                    : isochroneService.defaultNetworkLayerId();
+            if (networkLayerId == null) {
+                throw new IllegalArgumentException("Network layer ID is required for travel-time costs");
+            }
+        }
+        RoadGraph.Profile profile = RoadGraph.Profile.of(request.getProfile());
+        long budget = request.getTimeBudgetMillis() != null
+                ? Math.max(0, Math.min(request.getTimeBudgetMillis(), maxTimeBudgetMillis))
+                : defaultTimeBudgetMillis;
+
+        Plan plan = plan(stops, vehicles);
+        UUID network = networkLayerId;
+        return analysisJobService.submit(JOB_TYPE,
+                "Routes for " + stops.size() + " stops and " + vehicles.size() + " vehicles",
+                progress -> run(plan, costType, network, profile, budget, request.getStartTime(),
+                        !Boolean.FALSE.equals(request.getGeometry()), progress));
+    }
+
+    private Map<String, Object> run(Plan plan, String costType, UUID networkLayerId, RoadGraph.Profile profile,
+                                    long budget, OffsetDateTime startTime, boolean withGeometry,
+                                    DoubleConsumer progress) {
+        long started = System.currentTimeMillis();
+        int size = plan.size;
+        RoadGraph graph = null;
+        int[] nodes = null;
+        String method;
+        float[] travel;
+        if (costType.equals("geodesic")) {
+            travel = geodesicMatrix(plan, profile);
+            method = "geodesic";
+        } else {
+            graph = roadNetworkService.getGraph(networkLayerId);
+            nodes = new int[size];
+            float[] access = new float[size];
+            snapAll(graph, profile, plan, nodes, access);
+            ContractionHierarchy hierarchy = routingService.getHierarchy(networkLayerId, profile);
+            method = hierarchy != null ? "ch" : "dijkstra";
+            travel = travelTimeMatrix(graph, hierarchy, profile, nodes, access);
+        }
+        progress.accept(0.3);
+
+        VehicleRouting solver = new VehicleRouting(travel, size, plan.stopCount, plan.service, plan.demand,
+                plan.earliest, plan.latest);
+        for (int v = 0; v < plan.vehicleCount; v++) {
+            solver.addVehicle(plan.vehicleStart[v], plan.vehicleEnd[v], plan.capacity[v],
+                    plan.shiftStart[v], plan.shiftEnd[v]);
+        }
+        solver.solve(budget, fraction -> progress.accept(0.3 + 0.6 * fraction));
+
+        String[] geometries = new String[plan.vehicleCount];
+        if (withGeometry) {
+            geometries = routeGeometries(plan, solver, graph, nodes, profile, travel);
+        }
+        progress.accept(0.95);
+
+        List<Map<String, Object>> routes = new ArrayList<>();
+        int usedVehicles = 0;
+        for (int v = 0; v < plan.vehicleCount; v++) {
+            int[] order = solver.route(v);
+            double[] begin = solver.serviceStart(v);
+            List<Map<String, Object>> visits = new ArrayList<>(order.length);
+            for (int k = 0; k < order.length; k++) {
+                int s = order[k];
+                Map<String, Object> visit = new HashMap<>();
+                visit.put("stopId", plan.stopIds[s]);
+                visit.put("sequence", k + 1);
+                visit.put("serviceStartSeconds", Math.round(begin[k] * 10) / 10.0);
+                visit.put("departureSeconds", Math.round((begin[k] + plan.service[s]) * 10) / 10.0);
+                if (startTime != null) {
+                    visit.put("eta", startTime.plusNanos(Math.round(begin[k] * 1e9)));
+                }
+                visits.add(visit);
+            }
+            Map<String, Object> route = new HashMap<>();
+            route.put("vehicleId", plan.vehicleIds[v]);
+            route.put("deviceId", plan.deviceIds[v]);
+            route.put("stops", visits);
+            route.put("stopCount", order.length);
+            route.put("load", solver.routeLoad(v));
+            route.put("travelSeconds", Math.round(solver.routeTravel(v) * 10) / 10.0);
+            route.put("finishSeconds", Math.round(solver.finishTime(v) * 10) / 10.0);
+            route.put("geometry", geometries[v]);
+            routes.add(route);
+            if (order.length > 0) {
+                usedVehicles++;
+            }
+        }
+        List<String> unassigned = new ArrayList<>();
+        for (int s : solver.getUnassigned()) {
+            unassigned.add(plan.stopIds[s]);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("costType", costType);
+        result.put("method", method);
+        result.put("networkLayerId", networkLayerId);
+        result.put("profile", profile.name().toLowerCase(Locale.ROOT));
+        result.put("stopCount", plan.stopCount);
+        result.put("vehicleCount", plan.vehicleCount);
+        result.put("usedVehicles", usedVehicles);
+        result.put("totalTravelSeconds", Math.round(solver.getTotalTravel() * 10) / 10.0);
+        result.put("unassigned", unassigned);
+        result.put("routes", routes);
+        result.put("improvementRounds", solver.getRounds());
+        result.put("improvementMoves", solver.getMoves());
+        result.put("millis", System.currentTimeMillis() - started);
+        log.info("Optimized routes for {} stops and {} vehicles ({} unassigned) in {} ms",
+                plan.stopCount, plan.vehicleCount, unassigned.size(), System.currentTimeMillis() - started);
+        return result;
+    }
+
+    /**
+     * Locations (stops first, then vehicle starts and ends) and the per-stop and per-vehicle arrays
+     */
+    private Plan plan(List<RouteOptimizationRequest.Stop> stops, List<RouteOptimizationRequest.Vehicle> vehicles) {
+        int stopCount = stops.size();
+        int vehicleCount = vehicles.size();
+        Plan plan = new Plan(stopCount, vehicleCount);
+        for (int s = 0; s < stopCount; s++) {
+            RouteOptimizationRequest.Stop stop = stops.get(s);
+            if (stop.getLongitude() == null || stop.getLatitude() == null) {
+                throw new IllegalArgumentException("Stop " + s + " has no location");
+            }
+            double demand = stop.getDemand() != null ? stop.getDemand() : 0;
+            int service = stop.getServiceSeconds() != null ? stop.getServiceSeconds() : 0;
+            if (demand < 0 || service < 0) {
+                throw new IllegalArgumentException("Stop " + s + " has a negative demand or service time");
+            }
+            float earliest = stop.getEarliest() != null ? stop.getEarliest() : 0f;
+            float latest = stop.getLatest() != null ? stop.getLatest() : Float.POSITIVE_INFINITY;
+            if (latest < earliest) {
+                throw new IllegalArgumentException("Stop " + s + " has a time window that ends before it starts");
+            }
+            plan.stopIds[s] = stop.getId() != null ? stop.getId() : String.valueOf(s);
+            plan.demand[s] = (float) demand;
+            plan.service[s] = service;
+            plan.earliest[s] = earliest;
+            plan.latest[s] = latest;
+            plan.add(stop.getLongitude(), stop.getLatitude());
+        }
+        for (int v = 0; v < vehicleCount; v++) {
+            RouteOptimizationRequest.Vehicle vehicle = vehicles.get(v);
+            double lng;
+            double lat;
+            if (vehicle.getLongitude() != null && vehicle.getLatitude() != null) {
+                lng = vehicle.getLongitude();
+                lat = vehicle.getLatitude();
+            } else if (vehicle.getDeviceId() != null) {
+                Device device = deviceService.findById(vehicle.getDeviceId());
+                if (device.getLastPosition() == null) {
+                    throw new IllegalArgumentException("Device " + device.getCode() + " has no position");
+                }
+                lng = device.getLastPosition().getX();
+                lat = device.getLastPosition().getY();
+            } else {
+                throw new IllegalArgumentException("Vehicle " + v + " needs a start location or a device");
+            }
+            if (vehicle.getCapacity() != null && vehicle.getCapacity() < 0) {
+                throw new IllegalArgumentException("Vehicle " + v + " has a negative capacity");
+            }
+            int shiftStart = vehicle.getShiftStart() != null ? vehicle.getShiftStart() : 0;
+            double shiftEnd = vehicle.getShiftEnd() != null ? vehicle.getShiftEnd() : Double.POSITIVE_INFINITY;
+            if (shiftEnd < shiftStart) {
+                throw new IllegalArgumentException("Vehicle " + v + " has a shift that ends before it starts");
+            }
+            plan.vehicleIds[v] = vehicle.getId() != null ? vehicle.getId()
+                    : vehicle.getDeviceId() != null ? vehicle.getDeviceId().toString() : String.valueOf(v);
+            plan.deviceIds[v] = vehicle.getDeviceId();
+            plan.capacity[v] = vehicle.getCapacity() != null ? vehicle.getCapacity() : Double.POSITIVE_INFINITY;
+            plan.shiftStart[v] = shiftStart;
+            plan.shiftEnd[v] = shiftEnd;
+            plan.vehicleStart[v] = plan.add(lng, lat);
+            if (vehicle.getEndLongitude() != null && vehicle.getEndLatitude() != null) {
+                plan.vehicleEnd[v] = plan.add(vehicle.getEndLongitude(), vehicle.getEndLatitude());
+            } else {
+                plan.vehicleEnd[v] = Boolean.FALSE.equals(vehicle.getReturnToStart()) ? -1 : plan.vehicleStart[v];
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Seconds at the profile's default speed along great circles
+     */
+    private static float[] geodesicMatrix(Plan plan, RoadGraph.Profile profile) {
+        int size = plan.size;
+        double metersPerSecond = profile.getDefaultSpeedKmh() / 3.6;
+        float[] travel = new float[size * size];
+        IntStream.range(0, size).parallel().forEach(i -> {
+            for (int j = 0; j < size; j++) {
+                travel[i * size + j] = (float) (RoadGraph.distanceMeters(plan.lng[i], plan.lat[i],
+                        plan.lng[j], plan.lat[j]) / metersPerSecond);
+            }
+        });
+        return travel;
+    }
+
+    /**
+     * Travel times between all locations, +Infinity when a location is off the network or unreachable
+     */
+    private static float[] travelTimeMatrix(RoadGraph graph, ContractionHierarchy hierarchy, RoadGraph.Profile profile,
+                                            int[] nodes, float[] access) {
+        int size = nodes.length;
+        float[] travel = new float[size * size];
+        if (hierarchy != null) {
+            float[][] rows = hierarchy.manyToMany(nodes, nodes);
+            IntStream.range(0, size).parallel().forEach(i -> {
+                for (int j = 0; j < size; j++) {
+                    travel[i * size + j] = i == j ? 0f : rows[i][j] + access[i] + access[j];
+                }
+            });
+            return travel;
+        }
+
+        float[] costs = graph.costs(profile);
+        int workers = Math.max(1, Math.min(size, Runtime.getRuntime().availableProcessors()));
+        IntStream.range(0, workers).parallel().forEach(worker -> {
+            Dijkstra dijkstra = new Dijkstra(graph);
+            for (int i = worker; i < size; i += workers) {
+                int row = i * size;
+                if (nodes[i] < 0) {
+                    for (int j = 0; j < size; j++) {
+                        travel[row + j] = i == j ? 0f : Float.POSITIVE_INFINITY;
+                    }
+                    continue;
+                }
+                float[] dist = dijkstra.search(nodes[i], access[i], Float.POSITIVE_INFINITY, costs);
+                for (int j = 0; j < size; j++) {
+                    travel[row + j] = i == j ? 0f
+                            : nodes[j] >= 0 ? dist[nodes[j]] + access[j] : Float.POSITIVE_INFINITY;
+                }
+            }
+        });
+        return travel;
+    }
+
+    /**
+     * GeoJSON LineString per vehicle through its start, stops and end: shortest road paths
+     * between consecutive locations, straight legs for geodesic costs; null for unused vehicles
+     */
+    private String[] routeGeometries(Plan plan, VehicleRouting solver, RoadGraph graph, int[] nodes,
+                                     RoadGraph.Profile profile, float[] travel) {
+        String[] geometries = new String[plan.vehicleCount];
+        float[] costs = graph != null ? graph.costs(profile) : null;
+        int workers = Math.max(1, Math.min(plan.vehicleCount, Runtime.getRuntime().availableProcessors()));
+        IntStream.range(0, workers).parallel().forEach(worker -> {
+            Dijkstra dijkstra = graph != null ? new Dijkstra(graph) : null;
+            for (int v = worker; v < plan.vehicleCount; v += workers) {
+                int[] order = solver.route(v);
+                if (order.length == 0) {
+                    continue;
+                }
+                List<Integer> sequence = new ArrayList<>(order.length + 2);
+                sequence.add(plan.vehicleStart[v]);
+                for (int s : order) {
+                    sequence.add(s);
+                }
+                if (plan.vehicleEnd[v] >= 0) {
+                    sequence.add(plan.vehicleEnd[v]);
+                }
+                List<Coordinate> coordinates = new ArrayList<>();
+                coordinates.add(new Coordinate(plan.lng[sequence.get(0)], plan.lat[sequence.get(0)]));
+                for (int k = 1; k < sequence.size(); k++) {
+                    int from = sequence.get(k - 1);
+                    int to = sequence.get(k);
+                    if (dijkstra != null && nodes[from] >= 0 && nodes[to] >= 0 && nodes[from] != nodes[to]) {
+                        // The matrix time bounds the search to exactly the leg's reach
+                        float[] dist = dijkstra.search(nodes[from], 0f, travel[from * plan.size + to] + 1f, costs);
+                        if (dist[nodes[to]] < Float.POSITIVE_INFINITY) {
+                            for (int node : dijkstra.pathTo(nodes[to])) {
+                                coordinates.add(new Coordinate(graph.lng(node), graph.lat(node)));
+                            }
+                        }
+                    }
+                    coordinates.add(new Coordinate(plan.lng[to], plan.lat[to]));
+                }
+                geometries[v] = geoJsonConverter.geometryToGeoJson(
+                        geometryFactory.createLineString(coordinates.toArray(new Coordinate[0]))).toString();
+            }
+        });
+        return geometries;
+    }
+
+    private void snapAll(RoadGraph graph, RoadGraph.Profile profile, Plan plan, int[] nodes, float[] access) {
+        IntStream.range(0, plan.size).parallel().forEach(i -> {
+            RoadGraph.Snap snap = graph.snap(plan.lng[i], plan.lat[i]);
+            if (snap == null || snap.getDistanceMeters() > maxSnapMeters) {
+                nodes[i] = -1;
+                access[i] = Float.POSITIVE_INFINITY;
+            } else {
+                nodes[i] = snap.getNode();
+                access[i] = (float) (snap.getDistanceMeters() / (profile.getDefaultSpeedKmh() / 3.6));
+            }
+        });
+    }
+
+    private static final class Plan {
+        private final int stopCount;
+        private final int vehicleCount;
+        private final double[] lng;
+        private final double[] lat;
+        private int size;
+        private final String[] stopIds;
+        private final float[] demand;
+        private final float[] service;
+        private final float[] earliest;
+        private final float[] latest;
+        private final String[] vehicleIds;
+        private final UUID[] deviceIds;
+        private final int[] vehicleStart;
+        private final int[] vehicleEnd;
+        private final double[] capacity;
+        private final double[] shiftStart;
+        private final double[] shiftEnd;
+
+        Plan(int stopCount, int vehicleCount) {
+            this.stopCount = stopCount;
+            this.vehicleCount = vehicleCount;
+            int maxLocations = stopCount + 2 * vehicleCount;
+            this.lng = new double[maxLocations];
+            this.lat = new double[maxLocations];
+            this.stopIds = new String[stopCount];
+            this.demand = new float[stopCount];
+            this.service = new float[stopCount];
+            this.earliest = new float[stopCount];
+            this.latest = new float[stopCount];
+            this.vehicleIds = new String[vehicleCount];
+            this.deviceIds = new UUID[vehicleCount];
+            this.vehicleStart = new int[vehicleCount];
+            this.vehicleEnd = new int[vehicleCount];
+            this.capacity = new double[vehicleCount];
+            this.shiftStart = new double[vehicleCount];
+            this.shiftEnd = new double[vehicleCount];
+        }
+
+        /**
+         * Append a location and return its index
+         */
+        int add(double x, double y) {
+            lng[size] = x;
+            lat[size] = y;
+            return size++;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.dto.RouteResponse;
+import com.example.gis.dto.TravelTimeMatrixRequest;
+import com.example.gis.dto.TravelTimeMatrixResponse;
+import com.example.gis.util.ContractionHierarchy;
+import com.example.gis.util.Dijkstra;
+import com.example.gis.util.RoadGraph;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Point-to-point routes and travel-time matrices on road network layers.
+ *
+ * Queries use the contraction hierarchy of the (layer, profile) when it has been built;
+ * preprocessing runs as a background job and its result is persisted next to the graph.
+ * Until then queries fall back to plain Dijkstra (and start the preprocessing job).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RoutingService {
+    public static final String PREPROCESS_JOB_TYPE = "contraction-hierarchy";
+
+    private final RoadNetworkService roadNetworkService;
+    private final AnalysisJobService analysisJobService;
+
+    private final Map<String, LoadedHierarchy> hierarchies = new ConcurrentHashMap<>();
+    private final Map<String, UUID> preprocessingJobs = new ConcurrentHashMap<>();
+    private final Map<String, String> automaticAttempts = new ConcurrentHashMap<>();
+
+    @Value("${gis.routing.max-snap-meters:1000}")
+    private double maxSnapMeters;
+
+    @Value("${gis.routing.max-matrix-locations:1000}")
+    private int maxMatrixLocations;
+
+    /**
+     * Start contraction-hierarchy preprocessing for a layer and profile, or return the running job
+     */
+    public synchronized AnalysisJob preprocess(UUID layerId, String profileName) {
+        RoadGraph.Profile profile = RoadGraph.Profile.of(profileName);
+        String key = key(layerId, profile);
+        UUID running = preprocessingJobs.get(key);
+        if (running != null && analysisJobService.isActive(running)) {
+            return analysisJobService.getJob(running);
+        }
+        AnalysisJob job = analysisJobService.submit(PREPROCESS_JOB_TYPE,
+                "Contraction hierarchy for layer " + layerId + " (" + profile.name().toLowerCase(Locale.ROOT) + ")",
+                progress -> {
+                    long started = System.currentTimeMillis();
+                    String generation = roadNetworkService.getGraphVersion(layerId);
+                    RoadGraph graph = roadNetworkService.getGraph(layerId);
+                    progress.accept(0.05);
+                    ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, graph.costs(profile),
+                            fraction -> progress.accept(0.05 + 0.9 * fraction));
+                    hierarchy.save(hierarchyFile(layerId, generation, profile));
+                    hierarchies.put(key, new LoadedHierarchy(generation, hierarchy));
+
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("layerId", layerId);
+                    result.put("profile", profile.name().toLowerCase(Locale.ROOT));
+                    result.put("nodes", hierarchy.nodeCount());
+                    result.put("upwardEdges", hierarchy.shortcutEdgeCount());
+                    result.put("millis", System.currentTimeMillis() - started);
+                    return result;
+                });
+        preprocessingJobs.put(key, job.getId());
+        return job;
+    }
+
+    /**
+     * Travel time between two locations
+     */
+    public RouteResponse route(UUID layerId, String profileName, double fromLng, double fromLat,
+                               double toLng, double toLat) {
+        if (layerId == null) {
+            throw new IllegalArgumentException("Network layer ID is required");
+        }
+        RoadGraph.Profile profile = RoadGraph.Profile.of(profileName);
+        RoadGraph graph = roadNetworkService.getGraph(layerId);
+        RoadGraph.Snap from = snap(graph, fromLng, fromLat);
+        RoadGraph.Snap to = snap(graph, toLng, toLat);
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Location is more than " + maxSnapMeters + " m from the road network");
+        }
+
+        ContractionHierarchy hierarchy = getHierarchy(layerId, profile);
+        float duration;
+        String method;
+        if (hierarchy != null) {
+            duration = hierarchy.query(from.getNode(), to.getNode());
+            method = "ch";
+        } else {
+            requestPreprocessing(layerId, profile);
+            duration = new Dijkstra(graph).search(from.getNode(), 0f, Float.POSITIVE_INFINITY,
+                    graph.costs(profile))[to.getNode()];
+            method = "dijkstra";
+        }
+
+        Double total = duration < Float.POSITIVE_INFINITY
+                ? duration + accessSeconds(from, profile) + accessSeconds(to, profile)
+                : null;
+        return RouteResponse.builder()
+                .durationSeconds(total)
+                .originSnapMeters(from.getDistanceMeters())
+                .destinationSnapMeters(to.getDistanceMeters())
+                .profile(profile.name().toLowerCase(Locale.ROOT))
+                .method(method)
+                .build();
+    }
+
+    /**
+     * Many-to-many travel-time matrix
+     */
+    public TravelTimeMatrixResponse matrix(TravelTimeMatrixRequest request) {
+        if (request.getNetworkLayerId() == null) {
+            throw new IllegalArgumentException("Network layer ID is required");
+        }
+        List<List<Double>> sources = request.getSources();
+        List<List<Double>> destinations = request.getDestinations() != null ? request.getDestinations() : sources;
+        if (sources == null || sources.isEmpty() || destinations.isEmpty()) {
+            throw new IllegalArgumentException("Sources are required");
+        }
+        if (sources.size() > maxMatrixLocations || destinations.size() > maxMatrixLocations) {
+            throw new IllegalArgumentException("At most " + maxMatrixLocations + " sources and destinations are allowed");
+        }
+        RoadGraph.Profile profile = RoadGraph.Profile.of(request.getProfile());
+        RoadGraph graph = roadNetworkService.getGraph(request.getNetworkLayerId());
+
+        RoadGraph.Snap[] sourceSnaps = snapAll(graph, sources);
+        RoadGraph.Snap[] destinationSnaps = snapAll(graph, destinations);
+        int[] sourceNodes = nodes(sourceSnaps);
+        int[] destinationNodes = nodes(destinationSnaps);
+
+        ContractionHierarchy hierarchy = getHierarchy(request.getNetworkLayerId(), profile);
+        float[][] raw;
+        String method;
+        if (hierarchy != null) {
+            raw = hierarchy.manyToMany(sourceNodes, destinationNodes);
+            method = "ch";
+        } else {
+            requestPreprocessing(request.getNetworkLayerId(), profile);
+            raw = dijkstraMatrix(graph, graph.costs(profile), sourceNodes, destinationNodes);
+            method = "dijkstra";
+        }
+
+        Double[][] durations = new Double[sources.size()][destinations.size()];
+        for (int s = 0; s < sourceNodes.length; s++) {
+            for (int t = 0; t < destinationNodes.length; t++) {
+                float value = raw[s][t];
+                if (value < Float.POSITIVE_INFINITY) {
+                    durations[s][t] = value + accessSeconds(sourceSnaps[s], profile)
+                            + accessSeconds(destinationSnaps[t], profile);
+                }
+            }
+        }
+        return TravelTimeMatrixResponse.builder()
+                .durations(durations)
+                .sourceSnapMeters(snapDistances(sourceSnaps))
+                .destinationSnapMeters(snapDistances(destinationSnaps))
+                .profile(profile.name().toLowerCase(Locale.ROOT))
+                .method(method)
+                .build();
+    }
+
+    /**
+     * The hierarchy of the current graph generation, loading it from disk if needed; null when not built
+     */
+    public ContractionHierarchy getHierarchy(UUID layerId, RoadGraph.Profile profile) {
+        String key = key(layerId, profile);
+        String generation = roadNetworkService.getGraphVersion(layerId);
+        LoadedHierarchy loaded = hierarchies.get(key);
+        if (loaded != null && loaded.generation.equals(generation)) {
+            return loaded.hierarchy;
+        }
+        Path file = hierarchyFile(layerId, generation, profile);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            ContractionHierarchy hierarchy = ContractionHierarchy.load(file);
+            hierarchies.put(key, new LoadedHierarchy(generation, hierarchy));
+            return hierarchy;
+        } catch (IOException e) {
+            log.warn("Could not read contraction hierarchy {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Start preprocessing on a query without a hierarchy, once per graph generation: a build that
+     * failed is retried after the next layer edit or an explicit preprocess request, not on every query
+     */
+    private void requestPreprocessing(UUID layerId, RoadGraph.Profile profile) {
+        String key = key(layerId, profile);
+        UUID running = preprocessingJobs.get(key);
+        if (running != null && analysisJobService.isActive(running)) {
+            return;
+        }
+        String generation = roadNetworkService.getGraphVersion(layerId);
+        if (!generation.equals(automaticAttempts.put(key, generation))) {
+            preprocess(layerId, profile.name());
+        }
+    }
+
+    /**
+     * One-to-all Dijkstra per source; each worker reuses one search state for its share of sources
+     */
+    private static float[][] dijkstraMatrix(RoadGraph graph, float[] costs, int[] sources, int[] targets) {
+        float[][] result = new float[sources.length][targets.length];
+        int workers = Math.max(1, Math.min(sources.length, Runtime.getRuntime().availableProcessors()));
+        IntStream.range(0, workers).parallel().forEach(worker -> {
+            Dijkstra dijkstra = new Dijkstra(graph);
+            for (int s = worker; s < sources.length; s += workers) {
+                float[] row = result[s];
+                if (sources[s] < 0) {
+                    Arrays.fill(row, Float.POSITIVE_INFINITY);
+                    continue;
+                }
+                float[] dist = dijkstra.search(sources[s], 0f, Float.POSITIVE_INFINITY, costs);
+                for (int t = 0; t < targets.length; t++) {
+                    row[t] = targets[t] >= 0 ? dist[targets[t]] : Float.POSITIVE_INFINITY;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Nearest node within the snap limit, or null
+     */
+    private RoadGraph.Snap snap(RoadGraph graph, double lng, double lat) {
+        RoadGraph.Snap snap = graph.snap(lng, lat);
+        return snap != null && snap.getDistanceMeters() <= maxSnapMeters ? snap : null;
+    }
+
+    private RoadGraph.Snap[] snapAll(RoadGraph graph, List<List<Double>> locations) {
+        RoadGraph.Snap[] snaps = new RoadGraph.Snap[locations.size()];
+        for (int i = 0; i < snaps.length; i++) {
+            List<Double> location = locations.get(i);
+            if (location == null || location.size() < 2 || location.get(0) == null || location.get(1) == null) {
+                throw new IllegalArgumentException("Locations must be [lng, lat] pairs");
+            }
+            snaps[i] = snap(graph, location.get(0), location.get(1));
+        }
+        return snaps;
+    }
+
+    private static int[] nodes(RoadGraph.Snap[] snaps) {
+        int[] nodes = new int[snaps.length];
+        for (int i = 0; i < snaps.length; i++) {
+            nodes[i] = snaps[i] != null ? snaps[i].getNode() : -1;
+        }
+        return nodes;
+    }
+
+    private static List<Double> snapDistances(RoadGraph.Snap[] snaps) {
+        List<Double> distances = new ArrayList<>(snaps.length);
+        for (RoadGraph.Snap snap : snaps) {
+            distances.add(snap != null ? snap.getDistanceMeters() : null);
+        }
+        return distances;
+    }
+
+    /**
+     * Time for the straight leg between a location and its snapped node, at the profile's default speed
+     */
+    private static double accessSeconds(RoadGraph.Snap snap, RoadGraph.Profile profile) {
+        return snap.getDistanceMeters() / (profile.getDefaultSpeedKmh() / 3.6);
+    }
+
+    private Path hierarchyFile(UUID layerId, String generation, RoadGraph.Profile profile) {
+        return roadNetworkService.derivedFile(layerId, generation, profile.name().toLowerCase(Locale.ROOT) + ".ch");
+    }
+
+    private static String key(UUID layerId, RoadGraph.Profile profile) {
+        return layerId + ":" + profile.name();
+    }
+
+    private static final class LoadedHierarchy {
+        private final String generation;
+        private final ContractionHierarchy hierarchy;
+
+        LoadedHierarchy(String generation, ContractionHierarchy hierarchy) {
+            this.generation = generation;
+            this.hierarchy = hierarchy;
+        }
+    }
+}
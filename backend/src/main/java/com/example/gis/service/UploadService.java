@@ -17,6 +17,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -43,6 +44,9 @@ public class UploadService {
     private final CSVParser csvParser;
     private final CRSTransformer crsTransformer;
     private final GeometryValidator geometryValidator;
+    private final ClusterCellService clusterCellService;
+    private final DensityPyramidService densityPyramidService;
+    private final CacheService cacheService;
     private final ObjectMapper objectMapper;
 
     @Transactional
@@ -172,12 +176,22 @@ public class UploadService {
             
             // Bulk insert in batches
             if (!features.isEmpty()) {
+                // Part of the upload's transaction, so readers see the new generation with its rows,
+                // including those of batches before a failure
+                cacheService.bumpLayerGeneration(layer.getId());
                 int batchSize = 100;
                 for (int i = 0; i < features.size(); i += batchSize) {
                     int end = Math.min(i + batchSize, features.size());
                     List<Feature> batch = features.subList(i, end);
                     featureRepository.saveAll(batch);
                     featureRepository.flush();
+                    List<Point> points = batch.stream()
+                            .map(Feature::getGeom)
+                            .filter(g -> g instanceof Point)
+                            .map(g -> (Point) g)
+                            .collect(Collectors.toList());
+                    clusterCellService.applyChanges(layer.getId(), points, Collections.emptyList());
+                    densityPyramidService.applyChanges(layer.getId(), points, Collections.emptyList());
                 }
             }
             
@@ -204,6 +218,8 @@ public class UploadService {
     }
 
 
+
+
     private Layer createLayerFromFile(String fileName, FileParser.ParsedFeature sampleFeature) {
         String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
         String code = baseName.toLowerCase().replaceAll("[^a-z0-9]", "_");
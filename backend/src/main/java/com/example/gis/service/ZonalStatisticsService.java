@@ -0,0 +1,216 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.AnalysisJob;
+import com.example.gis.dto.ZonalStatisticsRequest;
+import com.example.gis.entity.Layer;
+import com.example.gis.repository.FeatureGeometryRepository;
+import com.example.gis.repository.LayerRepository;
+import com.example.gis.util.TerrainAnalysis;
+import com.example.gis.util.TiledRaster;
+import com.example.gis.util.ZonalStatistics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.geom.Geometry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Zonal statistics of a DEM (or a terrain product of it) per feature of a layer, written back
+ * into the feature properties.
+ *
+ * Features are processed in chunks in spatial order: each chunk's geometries are loaded, their
+ * statistics computed in parallel over the full-resolution tiled raster (neighbouring features
+ * share tiles through the raster tile cache), and the results merged into their properties in
+ * one JDBC batch.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ZonalStatisticsService {
+    public static final String JOB_TYPE = "zonal-statistics";
+
+    private final RasterSourceService rasterSourceService;
+    private final AnalysisJobService analysisJobService;
+    private final FeatureGeometryRepository featureGeometryRepository;
+    private final LayerRepository layerRepository;
+    private final CacheService cacheService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${gis.zonal-statistics.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${gis.zonal-statistics.max-bins:256}")
+    private int maxBins;
+
+    /**
+     * Validate the request and start the zonal statistics job
+     */
+    public AnalysisJob analyze(ZonalStatisticsRequest request) {
+        if (request.getRasterSource() == null || request.getRasterSource().isBlank()) {
+            throw new IllegalArgumentException("Raster source is required");
+        }
+        if (request.getLayerId() == null) {
+            throw new IllegalArgumentException("Layer ID is required");
+        }
+        Layer layer = layerRepository.findById(request.getLayerId())
+                .orElseThrow(() -> new RuntimeException("Layer not found"));
+        TerrainAnalysis.Product product = TerrainAnalysis.Product.of(
+                request.getAnalysisType() != null ? request.getAnalysisType() : "ELEVATION");
+        int bins = request.getBins() != null ? request.getBins() : 10;
+        if (bins < 0 || bins > maxBins) {
+            throw new IllegalArgumentException("Bins must be between 0 and " + maxBins);
+        }
+        if (request.getHistogramMin() != null && request.getHistogramMax() != null
+                && request.getHistogramMin() >= request.getHistogramMax()) {
+            throw new IllegalArgumentException("Histogram minimum must be below its maximum");
+        }
+        String prefix = request.getPropertyPrefix() != null ? request.getPropertyPrefix() : "zonal_";
+        if (!prefix.matches("[A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("Property prefix may only contain letters, digits and underscores");
+        }
+
+        return analysisJobService.submit(JOB_TYPE,
+                product.name().toLowerCase(Locale.ROOT) + " of " + request.getRasterSource()
+                        + " per feature of " + layer.getName(),
+                progress -> run(request.getRasterSource(), layer.getId(), product, bins,
+                        request.getHistogramMin(), request.getHistogramMax(), prefix, progress));
+    }
+
+    private Map<String, Object> run(String source, UUID layerId, TerrainAnalysis.Product product, int bins,
+                                    Double histogramMin, Double histogramMax, String prefix,
+                                    DoubleConsumer progress) throws IOException {
+        long started = System.currentTimeMillis();
+        TiledRaster raster = rasterSourceService.open(source);
+        double[] range = histogramRange(raster, product, histogramMin, histogramMax);
+        ZonalStatistics zonal = new ZonalStatistics(raster, 0,
+                product == TerrainAnalysis.Product.ELEVATION ? null : new TerrainAnalysis(product, 1.0, 315, 45),
+                bins, range[0], range[1]);
+        progress.accept(0.05);
+
+        List<UUID> ids = featureGeometryRepository.findIds(layerId);
+        long featuresWithData = 0;
+        long cells = 0;
+        int updated = 0;
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<UUID> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+            Geometry[] geometries = featureGeometryRepository.findGeometries(chunk);
+            ZonalStatistics.Zone[] zones = new ZonalStatistics.Zone[chunk.size()];
+            IntStream.range(0, chunk.size()).parallel().forEach(i -> {
+                if (geometries[i] != null) {
+                    try {
+                        zones[i] = zonal.compute(geometries[i]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+
+            List<UUID> written = new ArrayList<>(chunk.size());
+            List<String> properties = new ArrayList<>(chunk.size());
+            for (int i = 0; i < zones.length; i++) {
+                ZonalStatistics.Zone zone = zones[i];
+                if (zone == null) {
+                    continue;
+                }
+                if (zone.getCount() > 0) {
+                    featuresWithData++;
+                    cells += zone.getCount();
+                }
+                written.add(chunk.get(i));
+                properties.add(toProperties(zone, prefix, bins > 0));
+            }
+            int chunkUpdated = featureGeometryRepository.mergeProperties(written, properties);
+            if (chunkUpdated > 0) {
+                // Each chunk commits on its own; bump after every one so that a job failing or
+                // cancelled partway leaves no written properties behind an old generation
+                cacheService.bumpLayerGeneration(layerId);
+            }
+            updated += chunkUpdated;
+            progress.accept(0.05 + 0.95 * (from + chunk.size()) / ids.size());
+        }
+        log.info("Zonal statistics of {} over {} features of layer {} in {} ms", source, ids.size(), layerId,
+                System.currentTimeMillis() - started);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("rasterSource", source);
+        result.put("layerId", layerId);
+        result.put("analysisType", product.name());
+        result.put("features", ids.size());
+        result.put("featuresUpdated", updated);
+        result.put("featuresWithData", featuresWithData);
+        result.put("cells", cells);
+        result.put("bins", bins);
+        result.put("histogramMin", range[0]);
+        result.put("histogramMax", range[1]);
+        result.put("propertyPrefix", prefix);
+        return result;
+    }
+
+    /**
+     * Requested histogram range, else the natural range of the product; elevation defaults to the
+     * range of the raster's single-tile overview, which the full-resolution extremes may exceed
+     * slightly (those values fall in the end bins)
+     */
+    private static double[] histogramRange(TiledRaster raster, TerrainAnalysis.Product product,
+                                           Double histogramMin, Double histogramMax) throws IOException {
+        double min;
+        double max;
+        switch (product) {
+            case SLOPE:
+                min = 0;
+                max = 90;
+                break;
+            case ASPECT:
+                min = 0;
+                max = 360;
+                break;
+            case HILLSHADE:
+                min = 0;
+                max = 255;
+                break;
+            default: {
+                double[] range = raster.overviewRange();
+                min = range[0];
+                max = range[1];
+            }
+        }
+        return new double[]{histogramMin != null ? histogramMin : min, histogramMax != null ? histogramMax : max};
+    }
+
+    private String toProperties(ZonalStatistics.Zone zone, String prefix, boolean histogram) {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put(prefix + "count", zone.getCount());
+        if (zone.getCount() > 0) {
+            node.put(prefix + "sum", zone.getSum());
+            node.put(prefix + "min", zone.getMin());
+            node.put(prefix + "max", zone.getMax());
+            node.put(prefix + "mean", zone.getMean());
+        } else {
+            node.putNull(prefix + "sum");
+            node.putNull(prefix + "min");
+            node.putNull(prefix + "max");
+            node.putNull(prefix + "mean");
+        }
+        if (histogram) {
+            ArrayNode bins = node.putArray(prefix + "histogram");
+            for (long count : zone.getHistogram()) {
+                bins.add(count);
+            }
+        }
+        return node.toString();
+    }
+}
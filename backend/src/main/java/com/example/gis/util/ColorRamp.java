@@ -0,0 +1,108 @@
+package com.example.gis.util;
+
+import java.util.Locale;
+
+/**
+ * Colour ramps mapping a normalized value (0..1) to ARGB, backed by a 256-entry lookup table.
+ * Zero maps to fully transparent so empty areas do not cover the base map.
+ */
+public final class ColorRamp {
+    private static final int LUT_SIZE = 256;
+
+    // Stops as {position, r, g, b, a}
+    private static final double[][] HEAT = {
+            {0.00, 0, 0, 255, 0},
+            {0.15, 0, 0, 255, 160},
+            {0.35, 0, 255, 255, 200},
+            {0.55, 0, 255, 0, 220},
+            {0.75, 255, 255, 0, 235},
+            {1.00, 255, 0, 0, 255}
+    };
+    private static final double[][] VIRIDIS = {
+            {0.00, 68, 1, 84, 0},
+            {0.10, 68, 1, 84, 180},
+            {0.25, 59, 82, 139, 210},
+            {0.50, 33, 145, 140, 230},
+            {0.75, 94, 201, 98, 245},
+            {1.00, 253, 231, 37, 255}
+    };
+    private static final double[][] MAGMA = {
+            {0.00, 0, 0, 4, 0},
+            {0.10, 0, 0, 4, 180},
+            {0.25, 81, 18, 124, 210},
+            {0.50, 183, 55, 121, 230},
+            {0.75, 252, 137, 97, 245},
+            {1.00, 252, 253, 191, 255}
+    };
+    private static final double[][] GRAYSCALE = {
+            {0.00, 0, 0, 0, 0},
+            {1.00, 255, 255, 255, 255}
+    };
+
+    private final int[] lut = new int[LUT_SIZE];
+
+    private ColorRamp(double[][] stops) {
+        for (int i = 0; i < LUT_SIZE; i++) {
+            lut[i] = interpolate(stops, i / (double) (LUT_SIZE - 1));
+        }
+        lut[0] = 0;
+    }
+
+    /**
+     * Ramp by name: heat (default), viridis, magma, grayscale
+     */
+    public static ColorRamp of(String name) {
+        String key = name != null ? name.toLowerCase(Locale.ROOT) : "heat";
+        switch (key) {
+            case "heat":
+                return Holder.HEAT;
+            case "viridis":
+                return Holder.VIRIDIS;
+            case "magma":
+                return Holder.MAGMA;
+            case "grayscale":
+                return Holder.GRAYSCALE;
+            default:
+                throw new IllegalArgumentException("Unknown colour ramp: " + name);
+        }
+    }
+
+    /**
+     * ARGB colour of a normalized value; values are clamped to 0..1
+     */
+    public int argb(double value) {
+        if (!(value > 0)) {
+            return lut[0];
+        }
+        int index = (int) Math.round(Math.min(value, 1.0) * (LUT_SIZE - 1));
+        // Any non-zero value gets at least the first visible colour
+        return lut[Math.max(1, index)];
+    }
+
+    private static int interpolate(double[][] stops, double t) {
+        for (int s = 1; s < stops.length; s++) {
+            if (t <= stops[s][0]) {
+                double[] a = stops[s - 1];
+                double[] b = stops[s];
+                double f = (t - a[0]) / (b[0] - a[0]);
+                return channel(a[4] + (b[4] - a[4]) * f) << 24
+                        | channel(a[1] + (b[1] - a[1]) * f) << 16
+                        | channel(a[2] + (b[2] - a[2]) * f) << 8
+                        | channel(a[3] + (b[3] - a[3]) * f);
+            }
+        }
+        double[] last = stops[stops.length - 1];
+        return channel(last[4]) << 24 | channel(last[1]) << 16 | channel(last[2]) << 8 | channel(last[3]);
+    }
+
+    private static int channel(double value) {
+        return (int) Math.round(Math.max(0, Math.min(255, value)));
+    }
+
+    private static final class Holder {
+        private static final ColorRamp HEAT = new ColorRamp(ColorRamp.HEAT);
+        private static final ColorRamp VIRIDIS = new ColorRamp(ColorRamp.VIRIDIS);
+        private static final ColorRamp MAGMA = new ColorRamp(ColorRamp.MAGMA);
+        private static final ColorRamp GRAYSCALE = new ColorRamp(ColorRamp.GRAYSCALE);
+    }
+}
@@ -0,0 +1,629 @@
+package com.example.gis.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction hierarchy over a RoadGraph for one cost profile.
+ *
+ * Preprocessing contracts nodes in order of importance (edge difference plus contracted
+ * neighbours, with lazy updates), adding a shortcut u -> w whenever a bounded witness
+ * search finds no path from u to w avoiding v that is as short as u -> v -> w. The result
+ * is two upward graphs in CSR form: forward edges to higher-ranked nodes, and the reversed
+ * edges arriving from higher-ranked nodes for backward searches.
+ *
+ * Queries only ever search upwards, which settles a few hundred nodes instead of a whole
+ * region. Many-to-many matrices use the bucket method: one backward search per target
+ * fills per-node buckets, then one forward search per source scans them. Search state lives
+ * in per-thread reusable arrays, so queries do not allocate per call and run in parallel.
+ */
+public final class ContractionHierarchy {
+    private static final int MAGIC = 0x52474348; // "RGCH"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    // Witness searches give up after settling this many nodes (adding a shortcut is always safe)
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int PRIORITY_OFFSET = 1 << 30;
+
+    private final int nodeCount;
+    private final int[] rank;
+    private final int[] upFirst;
+    private final int[] upTarget;
+    private final float[] upCost;
+    private final int[] downFirst;
+    private final int[] downTarget;
+    private final float[] downCost;
+    private final ThreadLocal<UpwardSearch> forwardSearch;
+    private final ThreadLocal<UpwardSearch> backwardSearch;
+
+    private ContractionHierarchy(int[] rank, int[] upFirst, int[] upTarget, float[] upCost,
+                                 int[] downFirst, int[] downTarget, float[] downCost) {
+        this.nodeCount = rank.length;
+        this.rank = rank;
+        this.upFirst = upFirst;
+        this.upTarget = upTarget;
+        this.upCost = upCost;
+        this.downFirst = downFirst;
+        this.downTarget = downTarget;
+        this.downCost = downCost;
+        this.forwardSearch = ThreadLocal.withInitial(() -> new UpwardSearch(nodeCount));
+        this.backwardSearch = ThreadLocal.withInitial(() -> new UpwardSearch(nodeCount));
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int shortcutEdgeCount() {
+        return upTarget.length + downTarget.length;
+    }
+
+    /**
+     * Contract the graph under the given edge costs (+Infinity edges are ignored).
+     * Progress is reported as the fraction of contracted nodes.
+     */
+    public static ContractionHierarchy build(RoadGraph graph, float[] costs, DoubleConsumer progress) {
+        return new Builder(graph, costs, progress).build();
+    }
+
+    /**
+     * Shortest travel cost from source to target, +Infinity when unreachable
+     */
+    public float query(int source, int target) {
+        if (source == target) {
+            return 0f;
+        }
+        UpwardSearch forward = forwardSearch.get();
+        UpwardSearch backward = backwardSearch.get();
+        forward.run(source, upFirst, upTarget, upCost);
+        backward.run(target, downFirst, downTarget, downCost);
+        float best = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < forward.touchedCount; i++) {
+            int node = forward.touched[i];
+            float total = forward.dist[node] + backward.dist[node];
+            if (total < best) {
+                best = total;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Travel costs from every source to every target; negative node ids give rows / columns of +Infinity
+     */
+    public float[][] manyToMany(int[] sources, int[] targets) {
+        int targetCount = targets.length;
+        int[][] spaceNodes = new int[targetCount][];
+        float[][] spaceDist = new float[targetCount][];
+
+        // Backward search spaces of all targets, in parallel
+        IntStream.range(0, targetCount).parallel().forEach(t -> {
+            if (targets[t] < 0) {
+                spaceNodes[t] = new int[0];
+                spaceDist[t] = new float[0];
+                return;
+            }
+            UpwardSearch backward = backwardSearch.get();
+            backward.run(targets[t], downFirst, downTarget, downCost);
+            int[] nodes = Arrays.copyOf(backward.touched, backward.touchedCount);
+            float[] dist = new float[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                dist[i] = backward.dist[nodes[i]];
+            }
+            spaceNodes[t] = nodes;
+            spaceDist[t] = dist;
+        });
+
+        // Buckets: entries grouped by node with a counting sort
+        int[] bucketStart = new int[nodeCount + 1];
+        for (int[] nodes : spaceNodes) {
+            for (int node : nodes) {
+                bucketStart[node + 1]++;
+            }
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            bucketStart[v + 1] += bucketStart[v];
+        }
+        int[] fill = Arrays.copyOf(bucketStart, nodeCount);
+        int[] entryTarget = new int[bucketStart[nodeCount]];
+        float[] entryDist = new float[bucketStart[nodeCount]];
+        for (int t = 0; t < targetCount; t++) {
+            int[] nodes = spaceNodes[t];
+            for (int i = 0; i < nodes.length; i++) {
+                int slot = fill[nodes[i]]++;
+                entryTarget[slot] = t;
+                entryDist[slot] = spaceDist[t][i];
+            }
+        }
+
+        float[][] result = new float[sources.length][targetCount];
+        IntStream.range(0, sources.length).parallel().forEach(s -> {
+            float[] row = result[s];
+            Arrays.fill(row, Float.POSITIVE_INFINITY);
+            if (sources[s] < 0) {
+                return;
+            }
+            UpwardSearch forward = forwardSearch.get();
+            forward.run(sources[s], upFirst, upTarget, upCost);
+            for (int i = 0; i < forward.touchedCount; i++) {
+                int node = forward.touched[i];
+                float du = forward.dist[node];
+                for (int k = bucketStart[node], end = bucketStart[node + 1]; k < end; k++) {
+                    float total = du + entryDist[k];
+                    if (total < row[entryTarget[k]]) {
+                        row[entryTarget[k]] = total;
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Write the hierarchy to a file, replacing it atomically
+     */
+    public void save(Path file) throws IOException {
+        int n = nodeCount;
+        int up = upTarget.length;
+        int down = downTarget.length;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, HEADER_BYTES)
+                    .putInt(MAGIC).putInt(FORMAT_VERSION).putInt(n).putInt(up).putInt(down);
+            position += HEADER_BYTES;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * n).asIntBuffer().put(rank);
+            position += 4L * n;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * (n + 1)).asIntBuffer().put(upFirst);
+            position += 4L * (n + 1);
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * up).asIntBuffer().put(upTarget);
+            position += 4L * up;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * up).asFloatBuffer().put(upCost);
+            position += 4L * up;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * (n + 1)).asIntBuffer().put(downFirst);
+            position += 4L * (n + 1);
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * down).asIntBuffer().put(downTarget);
+            position += 4L * down;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * down).asFloatBuffer().put(downCost);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a hierarchy written by save()
+     */
+    public static ContractionHierarchy load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, position, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a contraction hierarchy file: " + file);
+            }
+            int n = header.getInt();
+            int up = header.getInt();
+            int down = header.getInt();
+            position += HEADER_BYTES;
+            int[] rank = new int[n];
+            int[] upFirst = new int[n + 1];
+            int[] upTarget = new int[up];
+            float[] upCost = new float[up];
+            int[] downFirst = new int[n + 1];
+            int[] downTarget = new int[down];
+            float[] downCost = new float[down];
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * n).asIntBuffer().get(rank);
+            position += 4L * n;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * (n + 1)).asIntBuffer().get(upFirst);
+            position += 4L * (n + 1);
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * up).asIntBuffer().get(upTarget);
+            position += 4L * up;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * up).asFloatBuffer().get(upCost);
+            position += 4L * up;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * (n + 1)).asIntBuffer().get(downFirst);
+            position += 4L * (n + 1);
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * down).asIntBuffer().get(downTarget);
+            position += 4L * down;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * down).asFloatBuffer().get(downCost);
+            return new ContractionHierarchy(rank, upFirst, upTarget, upCost, downFirst, downTarget, downCost);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Plain Dijkstra over one upward graph with reusable arrays and a lazy binary heap
+     */
+    private static final class UpwardSearch {
+        private final float[] dist;
+        private final int[] touched;
+        private int touchedCount;
+        private float[] heapKey = new float[256];
+        private int[] heapNode = new int[256];
+        private int heapSize;
+
+        UpwardSearch(int n) {
+            dist = new float[n];
+            touched = new int[n];
+            Arrays.fill(dist, Float.POSITIVE_INFINITY);
+        }
+
+        void run(int source, int[] first, int[] target, float[] cost) {
+            for (int i = 0; i < touchedCount; i++) {
+                dist[touched[i]] = Float.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+            heapSize = 0;
+            dist[source] = 0f;
+            touched[touchedCount++] = source;
+            push(0f, source);
+            while (heapSize > 0) {
+                float key = heapKey[0];
+                int u = pop();
+                if (key > dist[u]) {
+                    continue;
+                }
+                for (int e = first[u], end = first[u + 1]; e < end; e++) {
+                    int v = target[e];
+                    float dv = key + cost[e];
+                    if (dv < dist[v]) {
+                        if (dist[v] == Float.POSITIVE_INFINITY) {
+                            touched[touchedCount++] = v;
+                        }
+                        dist[v] = dv;
+                        push(dv, v);
+                    }
+                }
+            }
+        }
+
+        private void push(float key, int node) {
+            if (heapSize == heapKey.length) {
+                heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+                heapNode = Arrays.copyOf(heapNode, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapKey[parent] <= key) {
+                    break;
+                }
+                heapKey[i] = heapKey[parent];
+                heapNode[i] = heapNode[parent];
+                i = parent;
+            }
+            heapKey[i] = key;
+            heapNode[i] = node;
+        }
+
+        private int pop() {
+            int top = heapNode[0];
+            heapSize--;
+            float key = heapKey[heapSize];
+            int node = heapNode[heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) {
+                    child++;
+                }
+                if (heapKey[child] >= key) {
+                    break;
+                }
+                heapKey[i] = heapKey[child];
+                heapNode[i] = heapNode[child];
+                i = child;
+            }
+            heapKey[i] = key;
+            heapNode[i] = node;
+            return top;
+        }
+    }
+
+    /**
+     * Node contraction over a mutable adjacency-list copy of the graph
+     */
+    private static final class Builder {
+        private final int n;
+        private final DoubleConsumer progress;
+        private final int[][] outTarget;
+        private final float[][] outCost;
+        private final int[] outSize;
+        private final int[][] inSource;
+        private final float[][] inCost;
+        private final int[] inSize;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbours;
+        private final int[] rank;
+        private final EdgeList up = new EdgeList();
+        private final EdgeList down = new EdgeList();
+        private final UpwardSearch witness;
+
+        Builder(RoadGraph graph, float[] costs, DoubleConsumer progress) {
+            this.n = graph.nodeCount();
+            this.progress = progress;
+            this.outTarget = new int[n][];
+            this.outCost = new float[n][];
+            this.outSize = new int[n];
+            this.inSource = new int[n][];
+            this.inCost = new float[n][];
+            this.inSize = new int[n];
+            this.contracted = new boolean[n];
+            this.contractedNeighbours = new int[n];
+            this.rank = new int[n];
+            this.witness = new UpwardSearch(n);
+            for (int u = 0; u < n; u++) {
+                int degree = graph.endEdge(u) - graph.firstEdge(u);
+                outTarget[u] = new int[Math.max(2, degree)];
+                outCost[u] = new float[Math.max(2, degree)];
+                inSource[u] = new int[Math.max(2, degree)];
+                inCost[u] = new float[Math.max(2, degree)];
+            }
+            for (int u = 0; u < n; u++) {
+                for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                    int v = graph.target(e);
+                    if (v != u && costs[e] < Float.POSITIVE_INFINITY) {
+                        addOrDecrease(u, v, costs[e]);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            PriorityQueue<Long> queue = new PriorityQueue<>(Math.max(1, n));
+            for (int v = 0; v < n; v++) {
+                queue.add(encode(priority(v), v));
+            }
+            int order = 0;
+            int reportEvery = Math.max(1, n / 100);
+            while (!queue.isEmpty()) {
+                int v = (int) (long) queue.poll();
+                if (contracted[v]) {
+                    continue;
+                }
+                // Lazy update: re-queue when the refreshed priority is no longer the smallest
+                int current = priority(v);
+                if (!queue.isEmpty() && encode(current, v) > queue.peek()) {
+                    queue.add(encode(current, v));
+                    continue;
+                }
+                contract(v);
+                rank[v] = order++;
+                if (progress != null && order % reportEvery == 0) {
+                    progress.accept(order / (double) n);
+                }
+            }
+            return new ContractionHierarchy(rank, up.firstIndex(n), up.targets(), up.costs(),
+                    down.firstIndex(n), down.targets(), down.costs());
+        }
+
+        private static long encode(int priority, int node) {
+            return ((long) (priority + PRIORITY_OFFSET) << 32) | node;
+        }
+
+        /**
+         * Edge difference (shortcuts added minus edges removed) plus contracted neighbours
+         */
+        private int priority(int v) {
+            int shortcuts = shortcuts(v, false);
+            return shortcuts - inSize[v] - outSize[v] + contractedNeighbours[v];
+        }
+
+        private void contract(int v) {
+            shortcuts(v, true);
+            // All remaining neighbours are contracted later, i.e. rank higher
+            for (int i = 0; i < outSize[v]; i++) {
+                int w = outTarget[v][i];
+                up.add(v, w, outCost[v][i]);
+                remove(inSource[w], inCost[w], inSize, w, v);
+                contractedNeighbours[w]++;
+            }
+            for (int i = 0; i < inSize[v]; i++) {
+                int u = inSource[v][i];
+                down.add(v, u, inCost[v][i]);
+                remove(outTarget[u], outCost[u], outSize, u, v);
+                contractedNeighbours[u]++;
+            }
+            contracted[v] = true;
+            outSize[v] = 0;
+            inSize[v] = 0;
+        }
+
+        /**
+         * Count (or add) the shortcuts needed to contract v
+         */
+        private int shortcuts(int v, boolean add) {
+            int count = 0;
+            int ins = inSize[v];
+            int outs = outSize[v];
+            if (ins == 0 || outs == 0) {
+                return 0;
+            }
+            // Shortcuts only change the lists of v's neighbours, never v's own
+            for (int i = 0; i < ins; i++) {
+                int u = inSource[v][i];
+                float cuv = inCost[v][i];
+                // -1 only when v leads nowhere but back to u; zero-cost paths still need shortcuts
+                float maxVia = -1f;
+                for (int j = 0; j < outs; j++) {
+                    if (outTarget[v][j] != u) {
+                        maxVia = Math.max(maxVia, cuv + outCost[v][j]);
+                    }
+                }
+                if (maxVia < 0f) {
+                    continue;
+                }
+                witnessSearch(u, v, maxVia);
+                for (int j = 0; j < outs; j++) {
+                    int w = outTarget[v][j];
+                    if (w == u) {
+                        continue;
+                    }
+                    float via = cuv + outCost[v][j];
+                    if (witness.dist[w] <= via) {
+                        continue;
+                    }
+                    count++;
+                    if (add) {
+                        addOrDecrease(u, w, via);
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Bounded Dijkstra from u over the remaining graph, never passing through the node being contracted
+         */
+        private void witnessSearch(int u, int skip, float limit) {
+            UpwardSearch s = witness;
+            for (int i = 0; i < s.touchedCount; i++) {
+                s.dist[s.touched[i]] = Float.POSITIVE_INFINITY;
+            }
+            s.touchedCount = 0;
+            s.heapSize = 0;
+            s.dist[u] = 0f;
+            s.touched[s.touchedCount++] = u;
+            s.push(0f, u);
+            int settled = 0;
+            while (s.heapSize > 0) {
+                float key = s.heapKey[0];
+                int x = s.pop();
+                if (key > s.dist[x]) {
+                    continue;
+                }
+                if (key > limit) {
+                    break;
+                }
+                if (++settled > WITNESS_SETTLE_LIMIT) {
+                    break;
+                }
+                for (int i = 0; i < outSize[x]; i++) {
+                    int y = outTarget[x][i];
+                    if (y == skip) {
+                        continue;
+                    }
+                    float dy = key + outCost[x][i];
+                    if (dy < s.dist[y] && dy <= limit) {
+                        if (s.dist[y] == Float.POSITIVE_INFINITY) {
+                            s.touched[s.touchedCount++] = y;
+                        }
+                        s.dist[y] = dy;
+                        s.push(dy, y);
+                    }
+                }
+            }
+        }
+
+        private void addOrDecrease(int u, int v, float cost) {
+            for (int i = 0; i < outSize[u]; i++) {
+                if (outTarget[u][i] == v) {
+                    if (cost < outCost[u][i]) {
+                        outCost[u][i] = cost;
+                        for (int j = 0; j < inSize[v]; j++) {
+                            if (inSource[v][j] == u) {
+                                inCost[v][j] = cost;
+                                break;
+                            }
+                        }
+                    }
+                    return;
+                }
+            }
+            if (outSize[u] == outTarget[u].length) {
+                outTarget[u] = Arrays.copyOf(outTarget[u], outSize[u] * 2);
+                outCost[u] = Arrays.copyOf(outCost[u], outSize[u] * 2);
+            }
+            outTarget[u][outSize[u]] = v;
+            outCost[u][outSize[u]++] = cost;
+            if (inSize[v] == inSource[v].length) {
+                inSource[v] = Arrays.copyOf(inSource[v], inSize[v] * 2);
+                inCost[v] = Arrays.copyOf(inCost[v], inSize[v] * 2);
+            }
+            inSource[v][inSize[v]] = u;
+            inCost[v][inSize[v]++] = cost;
+        }
+
+        private static void remove(int[] nodes, float[] costs, int[] sizes, int owner, int node) {
+            int size = sizes[owner];
+            for (int i = 0; i < size; i++) {
+                if (nodes[i] == node) {
+                    nodes[i] = nodes[size - 1];
+                    costs[i] = costs[size - 1];
+                    sizes[owner] = size - 1;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Growable edge list turned into CSR once contraction is done
+     */
+    private static final class EdgeList {
+        private int[] from = new int[1024];
+        private int[] to = new int[1024];
+        private float[] cost = new float[1024];
+        private int size;
+        private int[] csrTarget;
+        private float[] csrCost;
+
+        void add(int u, int v, float c) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                cost = Arrays.copyOf(cost, size * 2);
+            }
+            from[size] = u;
+            to[size] = v;
+            cost[size] = c;
+            size++;
+        }
+
+        int[] firstIndex(int n) {
+            int[] first = new int[n + 1];
+            for (int i = 0; i < size; i++) {
+                first[from[i] + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                first[v + 1] += first[v];
+            }
+            int[] next = Arrays.copyOf(first, n);
+            csrTarget = new int[size];
+            csrCost = new float[size];
+            for (int i = 0; i < size; i++) {
+                int slot = next[from[i]]++;
+                csrTarget[slot] = to[i];
+                csrCost[slot] = cost[i];
+            }
+            return first;
+        }
+
+        int[] targets() {
+            return csrTarget;
+        }
+
+        float[] costs() {
+            return csrCost;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.gis.util;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Grid-based, partition-parallel DBSCAN over lng/lat points.
+ *
+ * Points are bucketed into a uniform grid whose cell diagonal never exceeds eps, so all
+ * points sharing a cell are mutual neighbours: a cell holding minPts points is entirely
+ * core, and the core points of one cell always form a single component. Only pairs of
+ * neighbouring core cells need a distance check. Cells are split into contiguous
+ * partitions that are processed in parallel; links to cells owned by another partition
+ * are collected and merged afterwards with a union-find pass.
+ *
+ * Results do not depend on input order: clusters are connected components of core
+ * points, and border points join the cluster of their nearest core neighbour.
+ */
+public final class DbscanClusterer {
+    public static final int NOISE = -1;
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+    private static final int MIN_CELLS_PER_PARTITION = 256;
+
+    private DbscanClusterer() {
+    }
+
+    /**
+     * Cluster points and return a label per input index (NOISE for unclustered points).
+     * Labels are dense, starting at 0.
+     */
+    public static int[] cluster(double[] lng, double[] lat, int size, double epsMeters, int minPts) {
+        if (size == 0) {
+            return new int[0];
+        }
+        if (epsMeters <= 0) {
+            throw new IllegalArgumentException("eps must be positive");
+        }
+        int minPoints = Math.max(1, minPts);
+        double epsSq = epsMeters * epsMeters;
+
+        GridIndex grid = new GridIndex(lng, lat, size, epsMeters);
+        int cells = grid.cellCount();
+
+        // Phase 1: core flags. Dense cells are core without any distance test.
+        boolean[] core = new boolean[size];
+        IntStream.range(0, cells).parallel().forEach(c -> {
+            int from = grid.cellStart[c];
+            int to = grid.cellStart[c + 1];
+            boolean dense = to - from >= minPoints;
+            for (int s = from; s < to; s++) {
+                int i = grid.order[s];
+                core[i] = dense || grid.countNeighbours(i, c, epsSq, minPoints) >= minPoints;
+            }
+        });
+
+        // Phase 2: one representative core point per cell, unions per partition
+        int[] cellRep = new int[cells];
+        for (int c = 0; c < cells; c++) {
+            cellRep[c] = -1;
+            for (int s = grid.cellStart[c]; s < grid.cellStart[c + 1]; s++) {
+                if (core[grid.order[s]]) {
+                    cellRep[c] = c;
+                    break;
+                }
+            }
+        }
+        int partitions = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors() * 4,
+                cells / MIN_CELLS_PER_PARTITION));
+        int[] parent = new int[cells];
+        for (int c = 0; c < cells; c++) {
+            parent[c] = c;
+        }
+
+        LongList[] crossLinks = new LongList[partitions];
+        IntStream.range(0, partitions).parallel().forEach(p -> {
+            int from = (int) ((long) cells * p / partitions);
+            int to = (int) ((long) cells * (p + 1) / partitions);
+            LongList links = new LongList();
+            for (int c = from; c < to; c++) {
+                if (cellRep[c] < 0) {
+                    continue;
+                }
+                int cell = c;
+                grid.forEachLaterNeighbourCell(c, other -> {
+                    if (cellRep[other] < 0 || !grid.coreCellsTouch(cell, other, core, epsSq)) {
+                        return;
+                    }
+                    if (other < to) {
+                        union(parent, cell, other);
+                    } else {
+                        links.add(((long) cell << 32) | (other & 0xffffffffL));
+                    }
+                });
+            }
+            crossLinks[p] = links;
+        });
+
+        // Phase 3: merge components across partition borders
+        for (LongList links : crossLinks) {
+            for (int k = 0; k < links.size; k++) {
+                long link = links.values[k];
+                union(parent, (int) (link >>> 32), (int) link);
+            }
+        }
+
+        // Phase 4: dense labels for core components, in cell order for stability
+        int[] labels = new int[size];
+        Arrays.fill(labels, NOISE);
+        int[] rootLabel = new int[cells];
+        Arrays.fill(rootLabel, NOISE);
+        int next = 0;
+        for (int c = 0; c < cells; c++) {
+            if (cellRep[c] < 0) {
+                continue;
+            }
+            int root = find(parent, c);
+            if (rootLabel[root] == NOISE) {
+                rootLabel[root] = next++;
+            }
+            for (int s = grid.cellStart[c]; s < grid.cellStart[c + 1]; s++) {
+                int i = grid.order[s];
+                if (core[i]) {
+                    labels[i] = rootLabel[root];
+                }
+            }
+        }
+
+        // Phase 5: border points take the label of their nearest core neighbour
+        IntStream.range(0, cells).parallel().forEach(c -> {
+            for (int s = grid.cellStart[c]; s < grid.cellStart[c + 1]; s++) {
+                int i = grid.order[s];
+                if (core[i]) {
+                    continue;
+                }
+                int nearest = grid.nearestCore(i, c, epsSq, core);
+                if (nearest >= 0) {
+                    labels[i] = labels[nearest];
+                }
+            }
+        });
+
+        return labels;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra < rb) {
+            parent[rb] = ra;
+        } else if (rb < ra) {
+            parent[ra] = rb;
+        }
+    }
+
+    @FunctionalInterface
+    private interface CellVisitor {
+        void visit(int cell);
+    }
+
+    /**
+     * Uniform lng/lat grid with cell diagonals no longer than eps.
+     */
+    private static final class GridIndex {
+        private final double[] lng;
+        private final double[] lat;
+        private final double cellLng;
+        private final double cellLat;
+        private final double originLng;
+        private final double originLat;
+        private final int reachX;        // neighbour cells to scan in x
+        private final int reachY;        // neighbour cells to scan in y
+        private final long[] cellKeys;   // sorted unique cell keys
+        private final int[] cellStart;   // offsets into order, length cellKeys.length + 1
+        private final int[] order;       // point indices sorted by cell key
+
+        GridIndex(double[] lng, double[] lat, int size, double epsMeters) {
+            this.lng = lng;
+            this.lat = lat;
+
+            double minLng = Double.POSITIVE_INFINITY;
+            double minLat = Double.POSITIVE_INFINITY;
+            double minAbsLat = 90;
+            double maxAbsLat = 0;
+            for (int i = 0; i < size; i++) {
+                minLng = Math.min(minLng, lng[i]);
+                minLat = Math.min(minLat, lat[i]);
+                minAbsLat = Math.min(minAbsLat, Math.abs(lat[i]));
+                maxAbsLat = Math.max(maxAbsLat, Math.abs(lat[i]));
+            }
+            this.originLng = minLng;
+            this.originLat = minLat;
+
+            // Side eps/sqrt(2) keeps the diagonal within eps; longitude cells are sized at
+            // the widest latitude band, and the scan reach covers the narrowest one.
+            double side = epsMeters / Math.sqrt(2.0);
+            double widestCos = Math.cos(Math.toRadians(Math.min(minAbsLat, 89.0)));
+            double narrowestCos = Math.max(Math.cos(Math.toRadians(Math.min(maxAbsLat, 89.0))), 1e-6);
+            this.cellLat = side / METERS_PER_DEGREE;
+            this.cellLng = side / (METERS_PER_DEGREE * widestCos);
+            this.reachY = 2;
+            this.reachX = (int) Math.ceil(epsMeters / (cellLng * METERS_PER_DEGREE * narrowestCos));
+
+            long[] keyed = new long[size];
+            for (int i = 0; i < size; i++) {
+                keyed[i] = key(cellX(lng[i]), cellY(lat[i]));
+            }
+            Integer[] boxed = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, (a, b) -> {
+                int c = Long.compare(keyed[a], keyed[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            this.order = new int[size];
+            int unique = 0;
+            for (int s = 0; s < size; s++) {
+                order[s] = boxed[s];
+                if (s == 0 || keyed[order[s]] != keyed[order[s - 1]]) {
+                    unique++;
+                }
+            }
+            this.cellKeys = new long[unique];
+            this.cellStart = new int[unique + 1];
+            int c = -1;
+            for (int s = 0; s < size; s++) {
+                long k = keyed[order[s]];
+                if (c < 0 || cellKeys[c] != k) {
+                    c++;
+                    cellKeys[c] = k;
+                    cellStart[c] = s;
+                }
+            }
+            cellStart[unique] = size;
+        }
+
+        int cellCount() {
+            return cellKeys.length;
+        }
+
+        private int cellX(double x) {
+            return (int) Math.floor((x - originLng) / cellLng);
+        }
+
+        private int cellY(double y) {
+            return (int) Math.floor((y - originLat) / cellLat);
+        }
+
+        private static long key(int cx, int cy) {
+            return ((long) cx << 32) | (cy & 0xffffffffL);
+        }
+
+        private int cellOf(int cx, int cy) {
+            return Arrays.binarySearch(cellKeys, key(cx, cy));
+        }
+
+        int countNeighbours(int i, int ownCell, double epsSq, int stopAt) {
+            int cx = (int) (cellKeys[ownCell] >> 32);
+            int cy = (int) cellKeys[ownCell];
+            int count = cellStart[ownCell + 1] - cellStart[ownCell];
+            for (int dx = -reachX; dx <= reachX; dx++) {
+                for (int dy = -reachY; dy <= reachY; dy++) {
+                    if (dx == 0 && dy == 0) {
+                        continue;
+                    }
+                    int cell = cellOf(cx + dx, cy + dy);
+                    if (cell < 0) {
+                        continue;
+                    }
+                    for (int s = cellStart[cell]; s < cellStart[cell + 1]; s++) {
+                        if (distanceSq(i, order[s]) <= epsSq && ++count >= stopAt) {
+                            return count;
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        void forEachLaterNeighbourCell(int cell, CellVisitor visitor) {
+            int cx = (int) (cellKeys[cell] >> 32);
+            int cy = (int) cellKeys[cell];
+            for (int dx = 0; dx <= reachX; dx++) {
+                for (int dy = -reachY; dy <= reachY; dy++) {
+                    if (dx == 0 && dy <= 0) {
+                        continue;
+                    }
+                    int other = cellOf(cx + dx, cy + dy);
+                    if (other > cell) {
+                        visitor.visit(other);
+                    }
+                }
+            }
+        }
+
+        boolean coreCellsTouch(int a, int b, boolean[] core, double epsSq) {
+            for (int s = cellStart[a]; s < cellStart[a + 1]; s++) {
+                int i = order[s];
+                if (!core[i]) {
+                    continue;
+                }
+                for (int t = cellStart[b]; t < cellStart[b + 1]; t++) {
+                    int j = order[t];
+                    if (core[j] && distanceSq(i, j) <= epsSq) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        int nearestCore(int i, int ownCell, double epsSq, boolean[] core) {
+            int cx = (int) (cellKeys[ownCell] >> 32);
+            int cy = (int) cellKeys[ownCell];
+            int best = -1;
+            double bestDist = Double.POSITIVE_INFINITY;
+            for (int dx = -reachX; dx <= reachX; dx++) {
+                for (int dy = -reachY; dy <= reachY; dy++) {
+                    int cell = cellOf(cx + dx, cy + dy);
+                    if (cell < 0) {
+                        continue;
+                    }
+                    for (int s = cellStart[cell]; s < cellStart[cell + 1]; s++) {
+                        int j = order[s];
+                        if (!core[j]) {
+                            continue;
+                        }
+                        double d = distanceSq(i, j);
+                        if (d <= epsSq && (d < bestDist || (d == bestDist && j < best))) {
+                            bestDist = d;
+                            best = j;
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Squared distance in meters using an equirectangular approximation, which is
+         * accurate at clustering scales (eps well below a few hundred kilometres).
+         */
+        private double distanceSq(int a, int b) {
+            double meanLat = Math.toRadians((lat[a] + lat[b]) * 0.5);
+            double dx = (lng[b] - lng[a]) * METERS_PER_DEGREE * Math.cos(meanLat);
+            double dy = (lat[b] - lat[a]) * METERS_PER_DEGREE;
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private static final class LongList {
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.gis.util;
+
+import java.util.Arrays;
+
+/**
+ * Bounded one-to-all Dijkstra over a RoadGraph with an indexed binary heap (decrease-key).
+ *
+ * An instance owns its distance and heap arrays and resets only the nodes touched by the
+ * previous search, so one instance can be reused for many searches on the same graph
+ * without reallocating. Instances are not thread-safe; use one per thread.
+ *
+ * A multi-source search settles every node once from the nearest of several sources and
+ * records which source that was, e.g. the closest facility of every node in one pass.
+ */
+public final class Dijkstra {
+    private final RoadGraph graph;
+    private final float[] dist;
+    private final int[] heap;
+    private final int[] heapPosition;
+    private final int[] touched;
+    private final int[] origin;
+    private final int[] parent;
+    private int heapSize;
+    private int touchedCount;
+
+    public Dijkstra(RoadGraph graph) {
+        int n = graph.nodeCount();
+        this.graph = graph;
+        this.dist = new float[n];
+        this.heap = new int[n];
+        this.heapPosition = new int[n];
+        this.touched = new int[n];
+        this.origin = new int[n];
+        this.parent = new int[n];
+        Arrays.fill(dist, Float.POSITIVE_INFINITY);
+        Arrays.fill(heapPosition, -1);
+    }
+
+    /**
+     * Settle every node reachable from source within limit seconds. The source starts at
+     * initialCost (e.g. the time to reach the snapped node from the real origin).
+     *
+     * @return travel times per node, +Infinity beyond the limit; valid until the next search
+     */
+    public float[] search(int source, float initialCost, float limit, float[] costs) {
+        reset();
+        relax(source, initialCost, 0, -1);
+        return run(limit, costs);
+    }
+
+    /**
+     * Settle every node reachable within limit seconds of any source; sources[i] starts at
+     * initialCosts[i] and negative entries are skipped. sourceOf tells which source won each node.
+     *
+     * @return travel times per node from the nearest source; valid until the next search
+     */
+    public float[] search(int[] sources, float[] initialCosts, float limit, float[] costs) {
+        reset();
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] >= 0 && initialCosts[i] <= limit) {
+                relax(sources[i], initialCosts[i], i, -1);
+            }
+        }
+        return run(limit, costs);
+    }
+
+    /**
+     * Index of the source that reached a node first in the last search (0 for single-source searches);
+     * only meaningful for reached nodes
+     */
+    public int sourceOf(int node) {
+        return origin[node];
+    }
+
+    /**
+     * Nodes of the shortest path of the last search from its source to a reached node, source first
+     */
+    public int[] pathTo(int node) {
+        int length = 0;
+        for (int v = node; v >= 0; v = parent[v]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int v = node, i = length - 1; v >= 0; v = parent[v], i--) {
+            path[i] = v;
+        }
+        return path;
+    }
+
+    private float[] run(float limit, float[] costs) {
+        while (heapSize > 0) {
+            int u = poll();
+            float du = dist[u];
+            int source = origin[u];
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                float dv = du + costs[e];
+                if (dv <= limit) {
+                    relax(graph.target(e), dv, source, u);
+                }
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Nodes reached by the last search, in discovery order
+     */
+    public int reachedCount() {
+        return touchedCount;
+    }
+
+    public int reached(int i) {
+        return touched[i];
+    }
+
+    private void reset() {
+        for (int i = 0; i < touchedCount; i++) {
+            int node = touched[i];
+            dist[node] = Float.POSITIVE_INFINITY;
+            heapPosition[node] = -1;
+        }
+        touchedCount = 0;
+        heapSize = 0;
+    }
+
+    private void relax(int node, float value, int source, int from) {
+        if (value >= dist[node]) {
+            return;
+        }
+        if (dist[node] == Float.POSITIVE_INFINITY) {
+            touched[touchedCount++] = node;
+        }
+        dist[node] = value;
+        origin[node] = source;
+        parent[node] = from;
+        int position = heapPosition[node];
+        if (position < 0) {
+            position = heapSize++;
+            heap[position] = node;
+            heapPosition[node] = position;
+        }
+        siftUp(position);
+    }
+
+    private int poll() {
+        int top = heap[0];
+        int last = heap[--heapSize];
+        // Settled nodes keep a position of -2 so they are never pushed again
+        heapPosition[top] = -2;
+        if (heapSize > 0) {
+            heap[0] = last;
+            heapPosition[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int position) {
+        int node = heap[position];
+        float value = dist[node];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            int parentNode = heap[parent];
+            if (dist[parentNode] <= value) {
+                break;
+            }
+            heap[position] = parentNode;
+            heapPosition[parentNode] = position;
+            position = parent;
+        }
+        heap[position] = node;
+        heapPosition[node] = position;
+    }
+
+    private void siftDown(int position) {
+        int node = heap[position];
+        float value = dist[node];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && dist[heap[child + 1]] < dist[heap[child]]) {
+                child++;
+            }
+            if (dist[heap[child]] >= value) {
+                break;
+            }
+            heap[position] = heap[child];
+            heapPosition[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = node;
+        heapPosition[node] = position;
+    }
+}
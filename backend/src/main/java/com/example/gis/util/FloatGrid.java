@@ -0,0 +1,63 @@
+package com.example.gis.util;
+
+/**
+ * Raster values on a GridSpec as one row-major float array; NaN marks no data
+ */
+public final class FloatGrid {
+    private final GridSpec spec;
+    private final float[] values;
+
+    public FloatGrid(GridSpec spec, float[] values) {
+        if (values.length != (long) spec.getWidth() * spec.getHeight()) {
+            throw new IllegalArgumentException("Values do not match the grid size");
+        }
+        this.spec = spec;
+        this.values = values;
+    }
+
+    public GridSpec getSpec() {
+        return spec;
+    }
+
+    public float[] getValues() {
+        return values;
+    }
+
+    public float value(int col, int row) {
+        return values[row * spec.getWidth() + col];
+    }
+
+    /**
+     * Bilinear interpolation between the four nearest cell centres; nearest cell where one of them
+     * has no data, NaN outside the grid
+     */
+    public float sample(double x, double y) {
+        int width = spec.getWidth();
+        int height = spec.getHeight();
+        double fx = (x - spec.getMinX()) / spec.getCellWidth() - 0.5;
+        double fy = (spec.getMaxY() - y) / spec.getCellHeight() - 0.5;
+        if (!(fx > -0.5 && fy > -0.5 && fx < width - 0.5 && fy < height - 0.5)) {
+            return Float.NaN;
+        }
+        int c0 = (int) Math.floor(fx);
+        int r0 = (int) Math.floor(fy);
+        int c1 = Math.min(c0 + 1, width - 1);
+        int r1 = Math.min(r0 + 1, height - 1);
+        c0 = Math.max(c0, 0);
+        r0 = Math.max(r0, 0);
+        double tx = Math.max(0, Math.min(1, fx - c0));
+        double ty = Math.max(0, Math.min(1, fy - r0));
+        float v00 = values[r0 * width + c0];
+        float v10 = values[r0 * width + c1];
+        float v01 = values[r1 * width + c0];
+        float v11 = values[r1 * width + c1];
+        if (Float.isNaN(v00) || Float.isNaN(v10) || Float.isNaN(v01) || Float.isNaN(v11)) {
+            int col = Math.min(width - 1, Math.max(0, (int) Math.round(fx)));
+            int row = Math.min(height - 1, Math.max(0, (int) Math.round(fy)));
+            return values[row * width + col];
+        }
+        double top = v00 + (v10 - v00) * tx;
+        double bottom = v01 + (v11 - v01) * tx;
+        return (float) (top + (bottom - top) * ty);
+    }
+}
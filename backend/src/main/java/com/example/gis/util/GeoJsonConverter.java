@@ -43,6 +43,18 @@ public class GeoJsonConverter {
                 coordinates.add(coordinatesToArray(polygon.getInteriorRingN(i).getCoordinates()));
             }
             geoJson.set("coordinates", objectMapper.valueToTree(coordinates));
+        } else if (geom instanceof MultiPolygon) {
+            List<List<List<double[]>>> polygons = new ArrayList<>();
+            for (int p = 0; p < geom.getNumGeometries(); p++) {
+                Polygon polygon = (Polygon) geom.getGeometryN(p);
+                List<List<double[]>> rings = new ArrayList<>();
+                rings.add(coordinatesToArray(polygon.getExteriorRing().getCoordinates()));
+                for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    rings.add(coordinatesToArray(polygon.getInteriorRingN(i).getCoordinates()));
+                }
+                polygons.add(rings);
+            }
+            geoJson.set("coordinates", objectMapper.valueToTree(polygons));
         }
         
         return geoJson;
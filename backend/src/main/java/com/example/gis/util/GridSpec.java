@@ -0,0 +1,82 @@
+package com.example.gis.util;
+
+/**
+ * North-up raster grid: width x height cells of cellWidth x cellHeight CRS units whose
+ * north-west corner is (minX, maxY). Rows run southwards, so cell (col, row) is centred on
+ * (minX + (col + 0.5) * cellWidth, maxY - (row + 0.5) * cellHeight).
+ */
+public final class GridSpec {
+    private final int width;
+    private final int height;
+    private final double minX;
+    private final double maxY;
+    private final double cellWidth;
+    private final double cellHeight;
+
+    public GridSpec(int width, int height, double minX, double maxY, double cellWidth, double cellHeight) {
+        if (width <= 0 || height <= 0 || !(cellWidth > 0) || !(cellHeight > 0)) {
+            throw new IllegalArgumentException("Grid must have a positive size and cell size");
+        }
+        this.width = width;
+        this.height = height;
+        this.minX = minX;
+        this.maxY = maxY;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+    }
+
+    /**
+     * Grid of width x height cells exactly covering a bounding box
+     */
+    public static GridSpec ofBounds(double minX, double minY, double maxX, double maxY, int width, int height) {
+        return new GridSpec(width, height, minX, maxY, (maxX - minX) / width, (maxY - minY) / height);
+    }
+
+    /**
+     * Sub-grid (or super-grid, for halos) with the same cells starting at cell (col, row)
+     */
+    public GridSpec window(int col, int row, int windowWidth, int windowHeight) {
+        return new GridSpec(windowWidth, windowHeight, minX + col * cellWidth, maxY - row * cellHeight,
+                cellWidth, cellHeight);
+    }
+
+    public double centerX(int col) {
+        return minX + (col + 0.5) * cellWidth;
+    }
+
+    public double centerY(int row) {
+        return maxY - (row + 0.5) * cellHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMaxX() {
+        return minX + width * cellWidth;
+    }
+
+    public double getMinY() {
+        return maxY - height * cellHeight;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    public double getCellWidth() {
+        return cellWidth;
+    }
+
+    public double getCellHeight() {
+        return cellHeight;
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.gis.util;
+
+import java.util.Arrays;
+
+/**
+ * Static 2D KD-tree over planar coordinates, stored implicitly in a permutation array.
+ *
+ * The tree is built by recursive median partitioning (alternating x / y) of an index array:
+ * the node of range [lo, hi) is the median at (lo + hi) / 2, with the left subtree in
+ * [lo, mid) and the right one in [mid + 1, hi). No node objects are allocated, so a tree
+ * over 10^6 points costs one int[] on top of the coordinate arrays. Queries are read-only
+ * and safe to run from many threads.
+ */
+public final class KdTree {
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] index;
+
+    /**
+     * Build over the first size entries of xs / ys; the arrays are referenced, not copied
+     */
+    public KdTree(double[] xs, double[] ys, int size) {
+        this.xs = xs;
+        this.ys = ys;
+        this.index = new int[size];
+        for (int i = 0; i < size; i++) {
+            index[i] = i;
+        }
+        build(0, size, 0);
+    }
+
+    public int size() {
+        return index.length;
+    }
+
+    /**
+     * Distance from (x, y) to its k-th nearest point, or infinity if the tree holds fewer
+     * than k points. With skipSelf >= 0 that point index is ignored.
+     */
+    public double kthNearestDistance(double x, double y, int k, int skipSelf) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        Neighbours heap = new Neighbours(k);
+        nearest(0, index.length, 0, x, y, skipSelf, heap);
+        return heap.size < k ? Double.POSITIVE_INFINITY : Math.sqrt(heap.dist[0]);
+    }
+
+    /**
+     * Index of the point nearest to (x, y), or -1 for an empty tree
+     */
+    public int nearest(double x, double y) {
+        Neighbours heap = new Neighbours(1);
+        nearest(0, index.length, 0, x, y, -1, heap);
+        return heap.size == 0 ? -1 : heap.best;
+    }
+
+    /**
+     * Indices of all points inside [minX, maxX] x [minY, maxY]
+     */
+    public int[] range(double minX, double minY, double maxX, double maxY) {
+        IntBuffer out = new IntBuffer();
+        range(0, index.length, 0, minX, minY, maxX, maxY, out);
+        return out.toArray();
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, (depth & 1) == 0 ? xs : ys);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect: place the k-th smallest coordinate of index[lo..hi] at k, smaller ones before it
+     */
+    private void select(int lo, int hi, int k, double[] coord) {
+        while (hi > lo) {
+            double pivot = coord[index[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coord[index[i]] < pivot) {
+                    i++;
+                }
+                while (coord[index[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = index[i];
+                    index[i] = index[j];
+                    index[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void nearest(int lo, int hi, int depth, double x, double y, int skipSelf, Neighbours heap) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int p = index[mid];
+        if (p != skipSelf) {
+            double dx = xs[p] - x;
+            double dy = ys[p] - y;
+            heap.offer(dx * dx + dy * dy, p);
+        }
+        double delta = (depth & 1) == 0 ? x - xs[p] : y - ys[p];
+        // Visit the side containing the query first; the other only if it can still hold a closer point
+        if (delta < 0) {
+            nearest(lo, mid, depth + 1, x, y, skipSelf, heap);
+            if (delta * delta < heap.bound()) {
+                nearest(mid + 1, hi, depth + 1, x, y, skipSelf, heap);
+            }
+        } else {
+            nearest(mid + 1, hi, depth + 1, x, y, skipSelf, heap);
+            if (delta * delta < heap.bound()) {
+                nearest(lo, mid, depth + 1, x, y, skipSelf, heap);
+            }
+        }
+    }
+
+    private void range(int lo, int hi, int depth, double minX, double minY, double maxX, double maxY,
+                       IntBuffer out) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int p = index[mid];
+        double px = xs[p];
+        double py = ys[p];
+        if (px >= minX && px <= maxX && py >= minY && py <= maxY) {
+            out.add(p);
+        }
+        double value = (depth & 1) == 0 ? px : py;
+        double min = (depth & 1) == 0 ? minX : minY;
+        double max = (depth & 1) == 0 ? maxX : maxY;
+        if (min <= value) {
+            range(lo, mid, depth + 1, minX, minY, maxX, maxY, out);
+        }
+        if (max >= value) {
+            range(mid + 1, hi, depth + 1, minX, minY, maxX, maxY, out);
+        }
+    }
+
+    /**
+     * Bounded max-heap of the k smallest squared distances seen so far
+     */
+    private static final class Neighbours {
+        private final double[] dist;
+        private int size;
+        // Closest point seen so far, tracked for nearest()
+        private int best = -1;
+        private double bestDist = Double.POSITIVE_INFINITY;
+
+        Neighbours(int k) {
+            this.dist = new double[k];
+        }
+
+        double bound() {
+            return size < dist.length ? Double.POSITIVE_INFINITY : dist[0];
+        }
+
+        void offer(double d, int point) {
+            if (d < bestDist) {
+                bestDist = d;
+                best = point;
+            }
+            if (size < dist.length) {
+                int i = size++;
+                dist[i] = d;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (dist[parent] >= dist[i]) {
+                        break;
+                    }
+                    swap(i, parent);
+                    i = parent;
+                }
+            } else if (d < dist[0]) {
+                dist[0] = d;
+                int i = 0;
+                while (true) {
+                    int left = 2 * i + 1;
+                    int largest = i;
+                    if (left < size && dist[left] > dist[largest]) {
+                        largest = left;
+                    }
+                    if (left + 1 < size && dist[left + 1] > dist[largest]) {
+                        largest = left + 1;
+                    }
+                    if (largest == i) {
+                        break;
+                    }
+                    swap(i, largest);
+                    i = largest;
+                }
+            }
+        }
+
+        private void swap(int a, int b) {
+            double tmp = dist[a];
+            dist[a] = dist[b];
+            dist[b] = tmp;
+        }
+    }
+
+    private static final class IntBuffer {
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.gis.util;
+
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * p-median location-allocation over a dense demand x candidate cost matrix.
+ *
+ * The matrix is one float array laid out by candidate (cost[c * demands + d]), so the hot
+ * loops, which sweep all demand for one candidate, read memory sequentially.
+ *
+ * Max-coverage is solved as a p-median on 0/1 costs (0 when within the cutoff), so both
+ * objectives share one solver: a greedy start that adds the best candidate p times, then
+ * vertex substitution (Teitz-Bart). Each substitution round evaluates every (open, candidate)
+ * swap in one pass per candidate using each demand's closest and second-closest open site,
+ * with candidates spread over the common fork-join pool.
+ */
+public final class LocationAllocation {
+    private final float[] cost;
+    private final float[] weight;
+    private final int demandCount;
+    private final int candidateCount;
+
+    private int[] open;
+    private boolean[] isOpen;
+    private int[] closest;
+    private float[] best;
+    private float[] second;
+    private double objective;
+    private int iterations;
+
+    /**
+     * @param cost   candidate-major cost matrix; must be finite (see penalize / toCoverage)
+     * @param weight demand weights
+     */
+    public LocationAllocation(float[] cost, float[] weight, int demandCount, int candidateCount) {
+        if (cost.length != (long) demandCount * candidateCount || weight.length < demandCount) {
+            throw new IllegalArgumentException("Cost matrix does not match demand and candidate counts");
+        }
+        this.cost = cost;
+        this.weight = weight;
+        this.demandCount = demandCount;
+        this.candidateCount = candidateCount;
+    }
+
+    /**
+     * Replace infinite costs (unreachable pairs) with a penalty, in place: cutoff when given,
+     * otherwise twice the largest finite cost, so unreachable demand is served only as a last resort
+     */
+    public static void penalize(float[] cost, float cutoff) {
+        float penalty = cutoff;
+        if (!(cutoff > 0 && cutoff < Float.POSITIVE_INFINITY)) {
+            float max = 0;
+            for (float value : cost) {
+                if (value < Float.POSITIVE_INFINITY && value > max) {
+                    max = value;
+                }
+            }
+            penalty = max * 2 + 1;
+        }
+        for (int i = 0; i < cost.length; i++) {
+            if (cost[i] > penalty) {
+                cost[i] = penalty;
+            }
+        }
+    }
+
+    /**
+     * Turn costs into max-coverage costs in place: 0 within the cutoff, 1 beyond it
+     */
+    public static void toCoverage(float[] cost, float cutoff) {
+        for (int i = 0; i < cost.length; i++) {
+            cost[i] = cost[i] <= cutoff ? 0f : 1f;
+        }
+    }
+
+    /**
+     * Choose p sites; progress receives 0..1 (greedy, then substitution rounds up to maxIterations)
+     */
+    public void solve(int p, int maxIterations, DoubleConsumer progress) {
+        if (p < 1 || p > candidateCount) {
+            throw new IllegalArgumentException("p must be between 1 and the number of candidates");
+        }
+        open = new int[0];
+        isOpen = new boolean[candidateCount];
+        best = new float[demandCount];
+        second = new float[demandCount];
+        closest = new int[demandCount];
+        Arrays.fill(best, Float.POSITIVE_INFINITY);
+        Arrays.fill(second, Float.POSITIVE_INFINITY);
+        Arrays.fill(closest, -1);
+
+        for (int k = 0; k < p; k++) {
+            addBest();
+            progress.accept(0.5 * (k + 1) / p);
+        }
+        objective = total();
+
+        iterations = 0;
+        while (iterations < maxIterations && p < candidateCount) {
+            iterations++;
+            if (!substituteBest()) {
+                break;
+            }
+            progress.accept(0.5 + 0.5 * iterations / maxIterations);
+        }
+        progress.accept(1.0);
+    }
+
+    /**
+     * Open the candidate that lowers the total the most (greedy / myopic step)
+     */
+    private void addBest() {
+        double[] totals = new double[candidateCount];
+        IntStream.range(0, candidateCount).parallel().forEach(c -> {
+            if (isOpen[c]) {
+                totals[c] = Double.POSITIVE_INFINITY;
+                return;
+            }
+            double sum = 0;
+            int column = c * demandCount;
+            for (int d = 0; d < demandCount; d++) {
+                float value = cost[column + d];
+                sum += weight[d] * (value < best[d] ? value : best[d]);
+            }
+            totals[c] = sum;
+        });
+        int chosen = argMin(totals);
+        open = Arrays.copyOf(open, open.length + 1);
+        open[open.length - 1] = chosen;
+        isOpen[chosen] = true;
+        assign();
+    }
+
+    /**
+     * Apply the single best (open site -> closed candidate) swap; false when no swap improves
+     */
+    private boolean substituteBest() {
+        int p = open.length;
+        int[] slotOf = new int[candidateCount];
+        Arrays.fill(slotOf, -1);
+        for (int s = 0; s < p; s++) {
+            slotOf[open[s]] = s;
+        }
+        double[] bestSwap = new double[candidateCount];
+        int[] bestSlot = new int[candidateCount];
+        IntStream.range(0, candidateCount).parallel().forEach(c -> {
+            bestSwap[c] = Double.POSITIVE_INFINITY;
+            if (isOpen[c]) {
+                return;
+            }
+            // Cost with c added, plus per open site the extra cost of also closing it
+            double added = 0;
+            double[] extra = new double[p];
+            int column = c * demandCount;
+            for (int d = 0; d < demandCount; d++) {
+                float value = cost[column + d];
+                float withC = value < best[d] ? value : best[d];
+                added += weight[d] * withC;
+                float withoutClosest = value < second[d] ? value : second[d];
+                extra[slotOf[closest[d]]] += weight[d] * (withoutClosest - withC);
+            }
+            for (int s = 0; s < p; s++) {
+                double swapped = added + extra[s];
+                if (swapped < bestSwap[c]) {
+                    bestSwap[c] = swapped;
+                    bestSlot[c] = s;
+                }
+            }
+        });
+        int c = argMin(bestSwap);
+        // Relative tolerance keeps float noise from cycling between equivalent solutions
+        if (!(bestSwap[c] < objective - 1e-9 * Math.max(1.0, Math.abs(objective)))) {
+            return false;
+        }
+        isOpen[open[bestSlot[c]]] = false;
+        open[bestSlot[c]] = c;
+        isOpen[c] = true;
+        assign();
+        objective = total();
+        return true;
+    }
+
+    /**
+     * Closest and second-closest open site of every demand
+     */
+    private void assign() {
+        IntStream.range(0, demandCount).parallel().forEach(d -> {
+            float first = Float.POSITIVE_INFINITY;
+            float next = Float.POSITIVE_INFINITY;
+            int firstSite = open[0];
+            for (int site : open) {
+                float value = cost[site * demandCount + d];
+                if (value < first) {
+                    next = first;
+                    first = value;
+                    firstSite = site;
+                } else if (value < next) {
+                    next = value;
+                }
+            }
+            best[d] = first;
+            second[d] = next;
+            closest[d] = firstSite;
+        });
+    }
+
+    private double total() {
+        double sum = 0;
+        for (int d = 0; d < demandCount; d++) {
+            sum += weight[d] * best[d];
+        }
+        return sum;
+    }
+
+    private static int argMin(double[] values) {
+        int index = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] < values[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Chosen candidate indices
+     */
+    public int[] getOpen() {
+        return open.clone();
+    }
+
+    /**
+     * Candidate index serving each demand
+     */
+    public int allocation(int demand) {
+        return closest[demand];
+    }
+
+    /**
+     * Cost of each demand at its allocated site
+     */
+    public float allocatedCost(int demand) {
+        return best[demand];
+    }
+
+    /**
+     * Weighted total of the solution (uncovered weight for max-coverage)
+     */
+    public double getObjective() {
+        return objective;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+}
@@ -0,0 +1,988 @@
+package com.example.gis.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Map algebra over named single-band rasters, e.g. "(nir - red) / (nir + red)" or
+ * "slope > 15 and elevation < 500".
+ *
+ * A program is a list of steps "name = expression" followed by the output expression; steps may
+ * use the rasters and earlier steps. Expressions have arithmetic (+ - * / % ^), comparisons
+ * (< <= > >= == !=, giving 1 or 0), and / or / not, the constant nodata, and the functions
+ * where(condition, then, else), min, max, abs, sqrt, log, exp, clamp(x, low, high), isnull(x),
+ * focal_mean / focal_min / focal_max(x, radius), reclass(x, from, to, value, ...) and
+ * slope / aspect / hillshade(x [, azimuth, altitude]). Bare slope, aspect and hillshade are those
+ * of the raster named elevation. NaN is no data: it propagates through arithmetic, division by
+ * zero gives it, and focal statistics skip it.
+ *
+ * A program compiles into a tree of window kernels and nothing is materialized beyond one window:
+ * the output grid is evaluated in CHUNK_SIZE chunks in parallel, and each node computes the
+ * window its parent asks for. Focal and terrain nodes ask their input for the window grown by
+ * their radius, so halos compose down the tree; steps and rasters used more than once are
+ * evaluated once per window. Programs are capped at MAX_LENGTH characters, MAX_DEPTH levels of
+ * nesting and a total halo of MAX_HALO cells, which bounds the window any node can ask for.
+ */
+public final class MapAlgebra {
+    public static final int CHUNK_SIZE = 256;
+    public static final int MAX_RADIUS = 32;
+    public static final int MAX_HALO = 64;
+    public static final int MAX_DEPTH = 48;
+    public static final int MAX_LENGTH = 4096;
+    public static final String DEFAULT_RASTER = "elevation";
+
+    private final Node output;
+    private final Set<String> rasters;
+
+    private MapAlgebra(Node output, Set<String> rasters) {
+        this.output = output;
+        this.rasters = rasters;
+    }
+
+    /**
+     * Compile a program over the given raster names
+     */
+    public static MapAlgebra compile(List<String> operations, Collection<String> rasterNames) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("Expression is required");
+        }
+        int length = 0;
+        for (String operation : operations) {
+            length += operation != null ? operation.length() : 0;
+        }
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Program is longer than " + MAX_LENGTH + " characters");
+        }
+        Parser parser = new Parser(rasterNames);
+        Node output = null;
+        for (String operation : operations) {
+            output = parser.statement(operation);
+        }
+        for (Node node : parser.uses.keySet()) {
+            node.shared = parser.uses.get(node) > 1;
+        }
+        return new MapAlgebra(output, parser.rasters.keySet().stream()
+                .filter(name -> parser.uses.containsKey(parser.rasters.get(name)))
+                .collect(Collectors.toCollection(LinkedHashSet::new)));
+    }
+
+    /**
+     * Names of the rasters the program reads, in order of first use
+     */
+    public Set<String> getRasters() {
+        return rasters;
+    }
+
+    /**
+     * Values over a grid, chunk by chunk in parallel, with their statistics; with keep false only
+     * the statistics are gathered and null is returned
+     */
+    public float[] run(GridSpec grid, Bindings bindings, RasterStatistics statistics, boolean keep) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        int chunksX = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int chunksY = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        float[] out = keep ? new float[width * height] : null;
+        RasterStatistics[] chunkStatistics = new RasterStatistics[chunksX * chunksY];
+        IntStream.range(0, chunksX * chunksY).parallel().forEach(t -> {
+            int col0 = (t % chunksX) * CHUNK_SIZE;
+            int row0 = (t / chunksX) * CHUNK_SIZE;
+            int chunkWidth = Math.min(CHUNK_SIZE, width - col0);
+            int chunkHeight = Math.min(CHUNK_SIZE, height - row0);
+            float[] values = evaluate(grid.window(col0, row0, chunkWidth, chunkHeight), bindings);
+            RasterStatistics chunk = new RasterStatistics();
+            for (int r = 0; r < chunkHeight; r++) {
+                for (int c = 0; c < chunkWidth; c++) {
+                    float value = values[r * chunkWidth + c];
+                    chunk.add(value);
+                    if (out != null) {
+                        out[(row0 + r) * width + col0 + c] = value;
+                    }
+                }
+            }
+            chunkStatistics[t] = chunk;
+        });
+        for (RasterStatistics chunk : chunkStatistics) {
+            statistics.merge(chunk);
+        }
+        return out;
+    }
+
+    /**
+     * Write the values over the writer's grid into it, one row of tiles at a time (the tiles of a
+     * row in parallel), gathering their statistics
+     */
+    public void write(TiledRaster.Writer writer, Bindings bindings, RasterStatistics statistics,
+                      DoubleConsumer progress) throws IOException {
+        GridSpec grid = writer.getGrid();
+        int tileSize = TiledRaster.TILE_SIZE;
+        int tilesX = (grid.getWidth() + tileSize - 1) / tileSize;
+        int tilesY = (grid.getHeight() + tileSize - 1) / tileSize;
+        for (int ty = 0; ty < tilesY; ty++) {
+            int row0 = ty * tileSize;
+            int tileHeight = Math.min(tileSize, grid.getHeight() - row0);
+            float[][] tiles = new float[tilesX][];
+            RasterStatistics[] tileStatistics = new RasterStatistics[tilesX];
+            IntStream.range(0, tilesX).parallel().forEach(tx -> {
+                int col0 = tx * tileSize;
+                int tileWidth = Math.min(tileSize, grid.getWidth() - col0);
+                float[] values = evaluate(grid.window(col0, row0, tileWidth, tileHeight), bindings);
+                float[] tile = new float[tileSize * tileSize];
+                Arrays.fill(tile, Float.NaN);
+                RasterStatistics chunk = new RasterStatistics();
+                for (int r = 0; r < tileHeight; r++) {
+                    for (int c = 0; c < tileWidth; c++) {
+                        float value = values[r * tileWidth + c];
+                        tile[r * tileSize + c] = value;
+                        chunk.add(value);
+                    }
+                }
+                tiles[tx] = tile;
+                tileStatistics[tx] = chunk;
+            });
+            for (int tx = 0; tx < tilesX; tx++) {
+                writer.writeTile(tx, ty, tiles[tx]);
+                statistics.merge(tileStatistics[tx]);
+            }
+            progress.accept((ty + 1.0) / tilesY);
+        }
+    }
+
+    /**
+     * Values at the cell centres of one window
+     */
+    public float[] evaluate(GridSpec window, Bindings bindings) {
+        return output.evaluate(window, new Evaluation(bindings));
+    }
+
+    /**
+     * Readers of the rasters of an evaluation, and the units of its grid's cell sizes (see
+     * TerrainAnalysis.Units); zFactor scales elevations for the terrain functions
+     */
+    public static final class Bindings {
+        private final Map<String, TerrainAnalysis.ElevationReader> readers;
+        private final TerrainAnalysis.Units units;
+        private final double zFactor;
+
+        public Bindings(Map<String, TerrainAnalysis.ElevationReader> readers, TerrainAnalysis.Units units,
+                        double zFactor) {
+            this.readers = readers;
+            this.units = units;
+            this.zFactor = zFactor;
+        }
+    }
+
+    /**
+     * State of evaluating one window: the values of shared nodes already computed for it
+     */
+    private static final class Evaluation {
+        private final Bindings bindings;
+        private final Map<Node, List<Computed>> computed = new IdentityHashMap<>();
+
+        Evaluation(Bindings bindings) {
+            this.bindings = bindings;
+        }
+
+        synchronized float[] lookup(Node node, GridSpec window) {
+            for (Computed entry : computed.getOrDefault(node, List.of())) {
+                if (sameWindow(entry.window, window)) {
+                    return entry.values;
+                }
+            }
+            return null;
+        }
+
+        synchronized void store(Node node, GridSpec window, float[] values) {
+            computed.computeIfAbsent(node, key -> new ArrayList<>()).add(new Computed(window, values));
+        }
+
+        private static boolean sameWindow(GridSpec a, GridSpec b) {
+            return a.getWidth() == b.getWidth() && a.getHeight() == b.getHeight()
+                    && a.getMinX() == b.getMinX() && a.getMaxY() == b.getMaxY();
+        }
+    }
+
+    private static final class Computed {
+        private final GridSpec window;
+        private final float[] values;
+
+        Computed(GridSpec window, float[] values) {
+            this.window = window;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Kernel of the program tree; compute returns a new array and never modifies its inputs,
+     * which may be shared
+     */
+    private abstract static class Node {
+        boolean shared;
+        // Cells the node reads beyond the window it is asked for, through its whole subtree
+        int halo;
+
+        final float[] evaluate(GridSpec window, Evaluation evaluation) {
+            if (!shared) {
+                return compute(window, evaluation);
+            }
+            float[] values = evaluation.lookup(this, window);
+            if (values == null) {
+                values = compute(window, evaluation);
+                evaluation.store(this, window, values);
+            }
+            return values;
+        }
+
+        abstract float[] compute(GridSpec window, Evaluation evaluation);
+    }
+
+    private static final class Constant extends Node {
+        private final float value;
+
+        Constant(double value) {
+            this.value = (float) value;
+        }
+
+        @Override
+        float[] compute(GridSpec window, Evaluation evaluation) {
+            float[] out = new float[window.getWidth() * window.getHeight()];
+            Arrays.fill(out, value);
+            return out;
+        }
+    }
+
+    private static final class RasterInput extends Node {
+        private final String name;
+
+        RasterInput(String name) {
+            this.name = name;
+        }
+
+        @Override
+        float[] compute(GridSpec window, Evaluation evaluation) {
+            TerrainAnalysis.ElevationReader reader = evaluation.bindings.readers.get(name);
+            if (reader == null) {
+                throw new IllegalArgumentException("Raster not bound: " + name);
+            }
+            return reader.read(window);
+        }
+    }
+
+    private enum UnaryOp { NEG, NOT, ABS, SQRT, LOG, EXP, ISNULL }
+
+    private static final class Unary extends Node {
+        private final UnaryOp op;
+        private final Node input;
+
+        Unary(UnaryOp op, Node input) {
+            this.op = op;
+            this.input = input;
+            this.halo = input.halo;
+        }
+
+        @Override
+        float[] compute(GridSpec window, Evaluation evaluation) {
+            float[] in = input.evaluate(window, evaluation);
+            float[] out = new float[in.length];
+            for (int i = 0; i < in.length; i++) {
+                out[i] = apply(in[i]);
+            }
+            return out;
+        }
+
+        private float apply(float a) {
+            switch (op) {
+                case NEG:
+                    return -a;
+                case NOT:
+                    return Float.isNaN(a) ? Float.NaN : a == 0 ? 1 : 0;
+                case ABS:
+                    return Math.abs(a);
+                case SQRT:
+                    return (float) Math.sqrt(a);
+                case LOG:
+                    return a > 0 ? (float) Math.log(a) : Float.NaN;
+                case EXP:
+                    return (float) Math.exp(a);
+                default:
+                    return Float.isNaN(a) ? 1 : 0;
+            }
+        }
+    }
+
+    private enum BinaryOp { ADD, SUB, MUL, DIV, MOD, POW, LT, LE, GT, GE, EQ, NE, AND, OR, MIN, MAX }
+
+    private static final class Binary extends Node {
+        private final BinaryOp op;
+        private final Node left;
+        private final Node right;
+
+        Binary(BinaryOp op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.halo = Math.max(left.halo, right.halo);
+        }
+
+        @Override
+        float[] compute(GridSpec window, Evaluation evaluation) {
+            float[] a = left.evaluate(window, evaluation);
+            float[] b = right.evaluate(window, evaluation);
+            float[] out = new float[a.length];
+            for (int i = 0; i < a.length; i++) {
+                out[i] = apply(a[i], b[i]);
+            }
+            return out;
+        }
+
+        private float apply(float a, float b) {
+            if (Float.isNaN(a) || Float.isNaN(b)) {
+                return Float.NaN;
+            }
+            switch (op) {
+                case ADD:
+                    return a + b;
+                case SUB:
+                    return a - b;
+                case MUL:
+                    return a * b;
+                case DIV:
+                    return b == 0 ? Float.NaN : a / b;
+                case MOD:
+                    return b == 0 ? Float.NaN : a % b;
+                case POW:
+                    return (float) Math.pow(a, b);
+                case LT:
+                    return a < b ? 1 : 0;
+                case LE:
+                    return a <= b ? 1 : 0;
+                case GT:
+                    return a > b ? 1 : 0;
+                case GE:
+                    return a >= b ? 1 : 0;
+                case EQ:
+                    return a == b ? 1 : 0;
+                case NE:
+                    return a != b ? 1 : 0;
+                case AND:
+                    return a != 0 && b != 0 ? 1 : 0;
+                case OR:
+                    return a != 0 || b != 0 ? 1 : 0;
+                case MIN:
+                    return Math.min(a, b);
+                default:
+                    return Math.max(a, b);
+            }
+        }
+    }
+
+    private static final class Where extends Node {
+        private final Node condition;
+        private final Node then;
+        private final Node otherwise;
+
+        Where(Node condition, Node then, Node otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+            this.halo = Math.max(condition.halo, Math.max(then.halo, otherwise.halo));
+        }
+
+        @Override
+        float[] compute(GridSpec window, Evaluation evaluation) {
+            float[] c = condition.evaluate(window, evaluation);
+            float[] a = then.evaluate(window, evaluation);
+            float[] b = otherwise.evaluate(window, evaluation);
+            float[] out = new float[c.length];
+            for (int i = 0; i < c.length; i++) {
+                out[i] = Float.isNaN(c[i]) ? Float.NaN : c[i] != 0 ? a[i] : b[i];
+            }
+            return out;
+        }
+    }
+
+    /**
+     * First rule with from <= value < to gives the class; values matching no rule are no data
+     */
+    private static final class Reclass extends Node {
+        private final Node input;
+        private final float[] rules;
+
+        Reclass(Node input, float[] rules) {
+            this.input = input;
+            this.rules = rules;
+            this.halo = input.halo;
+        }
+
+        @Override
+        float[] compute(GridSpec window, Evaluation evaluation) {
+            float[] in = input.evaluate(window, evaluation);
+            float[] out = new float[in.length];
+            for (int i = 0; i < in.length; i++) {
+                float value = in[i];
+                float result = Float.NaN;
+                for (int k = 0; k < rules.length; k += 3) {
+                    if (value >= rules[k] && value < rules[k + 1]) {
+                        result = rules[k + 2];
+                        break;
+                    }
+                }
+                out[i] = result;
+            }
+            return out;
+        }
+    }
+
+    private enum FocalOp { MEAN, MIN, MAX }
+
+    /**
+     * Statistic of the (2 radius + 1)^2 square around each cell, skipping no data; separable, as a
+     * pass along rows over the grown window followed by one along columns
+     */
+    private static final class Focal extends Node {
+        private final FocalOp op;
+        private final Node input;
+        private final int radius;
+
+        Focal(FocalOp op, Node input, int radius) {
+            this.op = op;
+            this.input = input;
+            this.radius = radius;
+            this.halo = input.halo + radius;
+        }
+
+        @Override
+        float[] compute(GridSpec window, Evaluation evaluation) {
+            int width = window.getWidth();
+            int height = window.getHeight();
+            int size = 2 * radius + 1;
+            int grownWidth = width + 2 * radius;
+            int grownHeight = height + 2 * radius;
+            float[] in = input.evaluate(window.window(-radius, -radius, grownWidth, grownHeight), evaluation);
+            float[] out = new float[width * height];
+            if (op == FocalOp.MEAN) {
+                double[] sums = new double[grownHeight * width];
+                int[] counts = new int[grownHeight * width];
+                for (int r = 0; r < grownHeight; r++) {
+                    double sum = 0;
+                    int count = 0;
+                    for (int c = 0; c < grownWidth; c++) {
+                        float entering = in[r * grownWidth + c];
+                        if (!Float.isNaN(entering)) {
+                            sum += entering;
+                            count++;
+                        }
+                        if (c >= size) {
+                            float leaving = in[r * grownWidth + c - size];
+                            if (!Float.isNaN(leaving)) {
+                                sum -= leaving;
+                                count--;
+                            }
+                        }
+                        if (c >= size - 1) {
+                            sums[r * width + c - size + 1] = sum;
+                            counts[r * width + c - size + 1] = count;
+                        }
+                    }
+                }
+                for (int c = 0; c < width; c++) {
+                    double sum = 0;
+                    int count = 0;
+                    for (int r = 0; r < grownHeight; r++) {
+                        sum += sums[r * width + c];
+                        count += counts[r * width + c];
+                        if (r >= size) {
+                            sum -= sums[(r - size) * width + c];
+                            count -= counts[(r - size) * width + c];
+                        }
+                        if (r >= size - 1) {
+                            out[(r - size + 1) * width + c] = count > 0 ? (float) (sum / count) : Float.NaN;
+                        }
+                    }
+                }
+            } else {
+                boolean max = op == FocalOp.MAX;
+                float[] rows = new float[grownHeight * width];
+                for (int r = 0; r < grownHeight; r++) {
+                    for (int c = 0; c < width; c++) {
+                        rows[r * width + c] = extreme(in, r * grownWidth + c, 1, size, max);
+                    }
+                }
+                for (int r = 0; r < height; r++) {
+                    for (int c = 0; c < width; c++) {
+                        out[r * width + c] = extreme(rows, r * width + c, width, size, max);
+                    }
+                }
+            }
+            return out;
+        }
+
+        private static float extreme(float[] values, int start, int step, int count, boolean max) {
+            float result = Float.NaN;
+            for (int k = 0, i = start; k < count; k++, i += step) {
+                float value = values[i];
+                if (!Float.isNaN(value) && (Float.isNaN(result) || (max ? value > result : value < result))) {
+                    result = value;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Slope, aspect or hillshade of the input as a surface, through the Horn kernels of TerrainAnalysis
+     */
+    private static final class Terrain extends Node {
+        private final TerrainAnalysis.Product product;
+        private final Node input;
+        private final double azimuth;
+        private final double altitude;
+
+        Terrain(TerrainAnalysis.Product product, Node input, double azimuth, double altitude) {
+            this.product = product;
+            this.input = input;
+            this.azimuth = azimuth;
+            this.altitude = altitude;
+            this.halo = input.halo + 1;
+        }
+
+        @Override
+        float[] compute(GridSpec window, Evaluation evaluation) {
+            TerrainAnalysis analysis = new TerrainAnalysis(product, evaluation.bindings.zFactor, azimuth, altitude);
+            return analysis.run(window, evaluation.bindings.units,
+                    halo -> input.evaluate(halo, evaluation), new RasterStatistics());
+        }
+    }
+
+    private enum TokenType { NUMBER, NAME, SYMBOL, END }
+
+    private static final class Token {
+        private final TokenType type;
+        private final String text;
+        private final int position;
+
+        Token(TokenType type, String text, int position) {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Recursive-descent parser; precedence from loosest: or, and, not, comparison, + -, * / %,
+     * unary minus, ^ (right-associative)
+     */
+    private static final class Parser {
+        private static final List<String> SYMBOLS = List.of("<=", ">=", "==", "!=",
+                "+", "-", "*", "/", "%", "^", "(", ")", ",", "<", ">", "=");
+        private static final Set<String> KEYWORDS = Set.of("and", "or", "not", "nodata");
+
+        private final Map<String, Node> rasters = new LinkedHashMap<>();
+        private final Map<String, Node> steps = new HashMap<>();
+        private final Map<TerrainAnalysis.Product, Node> terrain = new HashMap<>();
+        private final Map<Node, Integer> uses = new IdentityHashMap<>();
+        private List<Token> tokens;
+        private int index;
+        private int depth;
+
+        Parser(Collection<String> rasterNames) {
+            for (String name : rasterNames) {
+                rasters.put(name, new RasterInput(name));
+            }
+        }
+
+        Node statement(String text) {
+            if (text == null || text.isBlank()) {
+                throw new IllegalArgumentException("Expression is empty");
+            }
+            tokens = tokenize(text);
+            index = 0;
+            String step = null;
+            if (peek().type == TokenType.NAME && tokens.get(1).text.equals("=")) {
+                step = next().text;
+                if (KEYWORDS.contains(step) || rasters.containsKey(step) || steps.containsKey(step)) {
+                    throw new IllegalArgumentException("Name already used: " + step);
+                }
+                next();
+            }
+            Node node = or();
+            if (peek().type != TokenType.END) {
+                throw error(peek(), "Unexpected '" + peek().text + "'");
+            }
+            if (step != null) {
+                steps.put(step, node);
+            }
+            return node;
+        }
+
+        private Node or() {
+            Node node = and();
+            while (accept("or")) {
+                node = new Binary(BinaryOp.OR, node, and());
+            }
+            return node;
+        }
+
+        private Node and() {
+            Node node = not();
+            while (accept("and")) {
+                node = new Binary(BinaryOp.AND, node, not());
+            }
+            return node;
+        }
+
+        private Node not() {
+            if (accept("not")) {
+                enter();
+                try {
+                    return new Unary(UnaryOp.NOT, not());
+                } finally {
+                    depth--;
+                }
+            }
+            return comparison();
+        }
+
+        private Node comparison() {
+            Node node = additive();
+            BinaryOp op = null;
+            switch (peek().text) {
+                case "<":
+                    op = BinaryOp.LT;
+                    break;
+                case "<=":
+                    op = BinaryOp.LE;
+                    break;
+                case ">":
+                    op = BinaryOp.GT;
+                    break;
+                case ">=":
+                    op = BinaryOp.GE;
+                    break;
+                case "==":
+                    op = BinaryOp.EQ;
+                    break;
+                case "!=":
+                    op = BinaryOp.NE;
+                    break;
+                default:
+                    break;
+            }
+            if (op != null && peek().type == TokenType.SYMBOL) {
+                next();
+                node = new Binary(op, node, additive());
+            }
+            return node;
+        }
+
+        private Node additive() {
+            Node node = multiplicative();
+            while (true) {
+                if (accept("+")) {
+                    node = new Binary(BinaryOp.ADD, node, multiplicative());
+                } else if (accept("-")) {
+                    node = new Binary(BinaryOp.SUB, node, multiplicative());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node multiplicative() {
+            Node node = unary();
+            while (true) {
+                if (accept("*")) {
+                    node = new Binary(BinaryOp.MUL, node, unary());
+                } else if (accept("/")) {
+                    node = new Binary(BinaryOp.DIV, node, unary());
+                } else if (accept("%")) {
+                    node = new Binary(BinaryOp.MOD, node, unary());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        /**
+         * Every parenthesis, function call, power and sign passes through here, so this is where
+         * the nesting depth is counted
+         */
+        private Node unary() {
+            enter();
+            try {
+                if (accept("-")) {
+                    Node node = unary();
+                    return node instanceof Constant ? new Constant(-((Constant) node).value) : new Unary(UnaryOp.NEG, node);
+                }
+                return power();
+            } finally {
+                depth--;
+            }
+        }
+
+        private void enter() {
+            if (++depth > MAX_DEPTH) {
+                throw error(peek(), "Expression is nested more than " + MAX_DEPTH + " levels deep");
+            }
+        }
+
+        private Node power() {
+            Node node = primary();
+            if (accept("^")) {
+                node = new Binary(BinaryOp.POW, node, unary());
+            }
+            return node;
+        }
+
+        private Node primary() {
+            Token token = next();
+            switch (token.type) {
+                case NUMBER:
+                    return new Constant(Double.parseDouble(token.text));
+                case NAME:
+                    if (token.text.equals("nodata")) {
+                        return new Constant(Double.NaN);
+                    }
+                    if (accept("(")) {
+                        List<Node> args = new ArrayList<>();
+                        if (!accept(")")) {
+                            do {
+                                args.add(or());
+                            } while (accept(","));
+                            expect(")");
+                        }
+                        return function(token, args);
+                    }
+                    return reference(token);
+                case SYMBOL:
+                    if (token.text.equals("(")) {
+                        Node node = or();
+                        expect(")");
+                        return node;
+                    }
+                    throw error(token, "Unexpected '" + token.text + "'");
+                default:
+                    throw error(token, "Unexpected end of expression");
+            }
+        }
+
+        private Node reference(Token token) {
+            Node node = steps.containsKey(token.text) ? steps.get(token.text) : rasters.get(token.text);
+            if (node == null) {
+                TerrainAnalysis.Product product = terrainProduct(token.text);
+                if (product == null || !rasters.containsKey(DEFAULT_RASTER)) {
+                    throw error(token, "Unknown raster: " + token.text);
+                }
+                node = terrain.computeIfAbsent(product,
+                        key -> new Terrain(key, use(rasters.get(DEFAULT_RASTER)), 315, 45));
+            }
+            return use(node);
+        }
+
+        private Node use(Node node) {
+            uses.merge(node, 1, Integer::sum);
+            return node;
+        }
+
+        private Node function(Token token, List<Node> args) {
+            String name = token.text.toLowerCase(Locale.ROOT);
+            switch (name) {
+                case "where":
+                    arity(token, args, 3, 3);
+                    return new Where(args.get(0), args.get(1), args.get(2));
+                case "min":
+                case "max": {
+                    arity(token, args, 2, Integer.MAX_VALUE);
+                    Node node = args.get(0);
+                    for (int i = 1; i < args.size(); i++) {
+                        node = new Binary(name.equals("min") ? BinaryOp.MIN : BinaryOp.MAX, node, args.get(i));
+                    }
+                    return node;
+                }
+                case "clamp":
+                    arity(token, args, 3, 3);
+                    return new Binary(BinaryOp.MIN, new Binary(BinaryOp.MAX, args.get(0), args.get(1)), args.get(2));
+                case "abs":
+                case "sqrt":
+                case "log":
+                case "exp":
+                case "isnull":
+                    arity(token, args, 1, 1);
+                    return new Unary(UnaryOp.valueOf(name.toUpperCase(Locale.ROOT)), args.get(0));
+                case "focal_mean":
+                case "focal_min":
+                case "focal_max": {
+                    arity(token, args, 2, 2);
+                    double radius = constant(token, args.get(1));
+                    if (radius != Math.rint(radius) || radius < 1 || radius > MAX_RADIUS) {
+                        throw error(token, "Focal radius must be a whole number between 1 and " + MAX_RADIUS);
+                    }
+                    FocalOp op = FocalOp.valueOf(name.substring("focal_".length()).toUpperCase(Locale.ROOT));
+                    return halo(token, new Focal(op, args.get(0), (int) radius));
+                }
+                case "reclass": {
+                    if (args.size() < 4 || (args.size() - 1) % 3 != 0) {
+                        throw error(token, "reclass takes a value followed by from, to, value triples");
+                    }
+                    float[] rules = new float[args.size() - 1];
+                    for (int i = 1; i < args.size(); i++) {
+                        rules[i - 1] = (float) constant(token, args.get(i));
+                    }
+                    return new Reclass(args.get(0), rules);
+                }
+                case "slope":
+                case "aspect":
+                case "hillshade": {
+                    TerrainAnalysis.Product product = terrainProduct(name);
+                    arity(token, args, 1, product == TerrainAnalysis.Product.HILLSHADE ? 3 : 1);
+                    double azimuth = args.size() > 1 ? constant(token, args.get(1)) : 315;
+                    double altitude = args.size() > 2 ? constant(token, args.get(2)) : 45;
+                    if (altitude < 0 || altitude > 90) {
+                        throw error(token, "Altitude must be between 0 and 90 degrees");
+                    }
+                    return halo(token, new Terrain(product, args.get(0), azimuth, altitude));
+                }
+                default:
+                    throw error(token, "Unknown function: " + token.text);
+            }
+        }
+
+        /**
+         * Reject a focal or terrain node whose reads, with those of its inputs, reach beyond MAX_HALO cells
+         */
+        private static Node halo(Token token, Node node) {
+            if (node.halo > MAX_HALO) {
+                throw error(token, "Focal and terrain functions reach " + node.halo
+                        + " cells around each cell, more than the limit of " + MAX_HALO);
+            }
+            return node;
+        }
+
+        private static TerrainAnalysis.Product terrainProduct(String name) {
+            switch (name) {
+                case "slope":
+                    return TerrainAnalysis.Product.SLOPE;
+                case "aspect":
+                    return TerrainAnalysis.Product.ASPECT;
+                case "hillshade":
+                    return TerrainAnalysis.Product.HILLSHADE;
+                default:
+                    return null;
+            }
+        }
+
+        private double constant(Token token, Node node) {
+            if (!(node instanceof Constant)) {
+                throw error(token, token.text + " needs constant arguments after its input");
+            }
+            return ((Constant) node).value;
+        }
+
+        private void arity(Token token, List<Node> args, int min, int max) {
+            if (args.size() < min || args.size() > max) {
+                throw error(token, "Wrong number of arguments to " + token.text);
+            }
+        }
+
+        private Token peek() {
+            return tokens.get(index);
+        }
+
+        private Token next() {
+            Token token = tokens.get(index);
+            if (token.type != TokenType.END) {
+                index++;
+            }
+            return token;
+        }
+
+        private boolean accept(String text) {
+            Token token = peek();
+            if (token.type != TokenType.NUMBER && token.text.equals(text)) {
+                index++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String text) {
+            if (!accept(text)) {
+                throw error(peek(), "Expected '" + text + "'");
+            }
+        }
+
+        private static IllegalArgumentException error(Token token, String message) {
+            return new IllegalArgumentException(message + " at position " + (token.position + 1));
+        }
+
+        private static List<Token> tokenize(String text) {
+            List<Token> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < text.length()) {
+                char ch = text.charAt(i);
+                if (Character.isWhitespace(ch)) {
+                    i++;
+                } else if (Character.isDigit(ch) || (ch == '.' && i + 1 < text.length()
+                        && Character.isDigit(text.charAt(i + 1)))) {
+                    int start = i;
+                    while (i < text.length() && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.')) {
+                        i++;
+                    }
+                    if (i < text.length() && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+                        int exponent = i + 1;
+                        if (exponent < text.length() && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) {
+                            exponent++;
+                        }
+                        if (exponent < text.length() && Character.isDigit(text.charAt(exponent))) {
+                            i = exponent;
+                            while (i < text.length() && Character.isDigit(text.charAt(i))) {
+                                i++;
+                            }
+                        }
+                    }
+                    String number = text.substring(start, i);
+                    try {
+                        Double.parseDouble(number);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid number '" + number + "' at position " + (start + 1));
+                    }
+                    tokens.add(new Token(TokenType.NUMBER, number, start));
+                } else if (Character.isLetter(ch) || ch == '_') {
+                    int start = i;
+                    while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+                        i++;
+                    }
+                    tokens.add(new Token(TokenType.NAME, text.substring(start, i), start));
+                } else {
+                    String symbol = null;
+                    for (String candidate : SYMBOLS) {
+                        if (text.startsWith(candidate, i)) {
+                            symbol = candidate;
+                            break;
+                        }
+                    }
+                    if (symbol == null) {
+                        throw new IllegalArgumentException("Unexpected '" + ch + "' at position " + (i + 1));
+                    }
+                    tokens.add(new Token(TokenType.SYMBOL, symbol, i));
+                    i += symbol.length();
+                }
+            }
+            tokens.add(new Token(TokenType.END, "", text.length()));
+            return tokens;
+        }
+    }
+}
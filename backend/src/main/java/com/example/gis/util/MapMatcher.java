@@ -0,0 +1,415 @@
+package com.example.gis.util;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Hidden Markov model map matching (Newson &amp; Krumm) of GPS traces onto a RoadGraph.
+ *
+ * Candidates of an observation are the projections onto nearby edges, found with an STRtree of
+ * edge envelopes. Emission log-probability falls with the squared GPS error (sigma); transition
+ * log-probability falls with the difference between route distance and straight-line distance
+ * (beta), the route distance coming from one bounded Dijkstra (by length) per previous candidate.
+ * Viterbi runs incrementally in a Session that keeps at most window observations, so each update
+ * costs the same regardless of how long the trace is. A matcher is immutable and shared; sessions
+ * are not thread-safe. Route search state (node-sized arrays) is pooled per matcher and borrowed for
+ * each update, so sessions stay small however many devices are matched.
+ */
+public final class MapMatcher {
+    private static final double METERS_PER_DEGREE = 111_320.0;
+    // Route searches stop at this multiple of the straight-line distance (plus slack for the candidates)
+    private static final double MAX_ROUTE_FACTOR = 4.0;
+
+    private final RoadGraph graph;
+    private final float[] distances;
+    private final int[] edgeSource;
+    private final STRtree edges = new STRtree();
+    private final double sigmaMeters;
+    private final double betaMeters;
+    private final double radiusMeters;
+    private final int maxCandidates;
+    private final ArrayBlockingQueue<Dijkstra> searches =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    public MapMatcher(RoadGraph graph, RoadGraph.Profile profile, double sigmaMeters, double betaMeters,
+                      double radiusMeters, int maxCandidates) {
+        this.graph = graph;
+        this.distances = graph.distances(profile);
+        this.sigmaMeters = sigmaMeters;
+        this.betaMeters = betaMeters;
+        this.radiusMeters = radiusMeters;
+        this.maxCandidates = maxCandidates;
+        this.edgeSource = new int[graph.edgeCount()];
+        for (int u = 0; u < graph.nodeCount(); u++) {
+            for (int e = graph.firstEdge(u), end = graph.endEdge(u); e < end; e++) {
+                edgeSource[e] = u;
+                if (distances[e] < Float.POSITIVE_INFINITY) {
+                    int v = graph.target(e);
+                    edges.insert(new Envelope(graph.lng(u), graph.lng(v), graph.lat(u), graph.lat(v)), e);
+                }
+            }
+        }
+        // Build now: the tree is built lazily on first query, which is not thread-safe
+        edges.build();
+    }
+
+    /**
+     * A new incremental matching state keeping at most window observations
+     */
+    public Session newSession(int window) {
+        return new Session(Math.max(2, window));
+    }
+
+    /**
+     * Match a whole trace; observations with no road nearby are left out, and each HMM break
+     * (no road path between consecutive candidates) starts a new segment
+     */
+    public List<Match> matchTrace(double[] lngs, double[] lats, int count) {
+        Session session = new Session(Math.max(2, count));
+        session.completed = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            session.add(lngs[i], lats[i]);
+        }
+        List<Match> matches = session.completed;
+        matches.addAll(session.path());
+        return matches;
+    }
+
+    /**
+     * Coordinates ([lng, lat] pairs) of the road path through consecutive matches; legs with no
+     * road path within the search bound (across an HMM break) are joined straight
+     */
+    public List<double[]> route(List<Match> matches) {
+        List<double[]> coordinates = new ArrayList<>();
+        if (matches.isEmpty()) {
+            return coordinates;
+        }
+        Dijkstra dijkstra = borrowSearch();
+        try {
+            appendRoute(coordinates, matches, dijkstra);
+        } finally {
+            releaseSearch(dijkstra);
+        }
+        return coordinates;
+    }
+
+    private void appendRoute(List<double[]> coordinates, List<Match> matches, Dijkstra dijkstra) {
+        Match from = matches.get(0);
+        coordinates.add(new double[]{from.lng, from.lat});
+        for (int i = 1; i < matches.size(); i++) {
+            Match to = matches.get(i);
+            if (from.edge != to.edge || to.fraction < from.fraction) {
+                int end = edgeSource[to.edge];
+                // Same bound the transitions were searched with, widened by the snap offsets
+                double straight = RoadGraph.distanceMeters(from.lng, from.lat, to.lng, to.lat);
+                float limit = (float) ((straight + 2 * radiusMeters) * MAX_ROUTE_FACTOR + 2 * radiusMeters);
+                float[] dist = dijkstra.search(graph.target(from.edge), 0f, limit, distances);
+                if (dist[end] < Float.POSITIVE_INFINITY) {
+                    for (int node : dijkstra.pathTo(end)) {
+                        coordinates.add(new double[]{graph.lng(node), graph.lat(node)});
+                    }
+                }
+            }
+            coordinates.add(new double[]{to.lng, to.lat});
+            from = to;
+        }
+    }
+
+    private Dijkstra borrowSearch() {
+        Dijkstra dijkstra = searches.poll();
+        return dijkstra != null ? dijkstra : new Dijkstra(graph);
+    }
+
+    /**
+     * Return search state to the pool; beyond one per processor it is left to the garbage collector
+     */
+    private void releaseSearch(Dijkstra dijkstra) {
+        searches.offer(dijkstra);
+    }
+
+    /**
+     * Candidates of one observation, nearest first
+     */
+    private Step candidates(int observation, double lng, double lat) {
+        double metersPerLng = METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+        double dLng = radiusMeters / metersPerLng;
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        @SuppressWarnings("unchecked")
+        List<Integer> nearby = edges.query(new Envelope(lng - dLng, lng + dLng, lat - dLat, lat + dLat));
+
+        int size = 0;
+        int[] edge = new int[nearby.size()];
+        float[] fraction = new float[nearby.size()];
+        float[] distance = new float[nearby.size()];
+        for (int e : nearby) {
+            int u = edgeSource[e];
+            int v = graph.target(e);
+            // Project in a local equirectangular frame centred on the observation
+            double ax = (graph.lng(u) - lng) * metersPerLng;
+            double ay = (graph.lat(u) - lat) * METERS_PER_DEGREE;
+            double bx = (graph.lng(v) - lng) * metersPerLng;
+            double by = (graph.lat(v) - lat) * METERS_PER_DEGREE;
+            double dx = bx - ax;
+            double dy = by - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double f = lengthSquared > 0 ? Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared)) : 0;
+            double px = ax + f * dx;
+            double py = ay + f * dy;
+            double d = Math.sqrt(px * px + py * py);
+            if (d <= radiusMeters) {
+                edge[size] = e;
+                fraction[size] = (float) f;
+                distance[size] = (float) d;
+                size++;
+            }
+        }
+
+        // Keep the nearest maxCandidates
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(distance[a], distance[b]));
+        int kept = Math.min(size, maxCandidates);
+        Step step = new Step(observation, lng, lat, kept);
+        for (int i = 0; i < kept; i++) {
+            int k = order[i];
+            step.edge[i] = edge[k];
+            step.fraction[i] = fraction[k];
+            step.distance[i] = distance[k];
+            double z = distance[k] / sigmaMeters;
+            step.emission[i] = -0.5 * z * z;
+        }
+        return step;
+    }
+
+    /**
+     * Transition log-probabilities from every candidate of prev to every candidate of next
+     * (-Infinity when unreachable within the search bound)
+     */
+    private double[][] transitions(Step prev, Step next, Dijkstra dijkstra) {
+        double straight = RoadGraph.distanceMeters(prev.lng, prev.lat, next.lng, next.lat);
+        float limit = (float) (straight * MAX_ROUTE_FACTOR + 2 * radiusMeters);
+        double[][] result = new double[prev.size][next.size];
+        for (int i = 0; i < prev.size; i++) {
+            int a = prev.edge[i];
+            float lengthA = graph.length(a);
+            float[] dist = dijkstra.search(graph.target(a), (1 - prev.fraction[i]) * lengthA, limit, distances);
+            for (int j = 0; j < next.size; j++) {
+                int b = next.edge[j];
+                double route;
+                if (a == b && next.fraction[j] >= prev.fraction[i]) {
+                    route = (next.fraction[j] - prev.fraction[i]) * lengthA;
+                } else {
+                    route = dist[edgeSource[b]] + next.fraction[j] * graph.length(b);
+                }
+                result[i][j] = route <= limit ? -Math.abs(route - straight) / betaMeters : Double.NEGATIVE_INFINITY;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Incremental Viterbi over a sliding window of observations
+     */
+    public final class Session {
+        private final int window;
+        private final ArrayDeque<Step> steps = new ArrayDeque<>();
+        private int observations;
+        // Paths of segments ended by HMM breaks, kept only for whole-trace matching
+        private List<Match> completed;
+
+        private Session(int window) {
+            this.window = window;
+        }
+
+        /**
+         * Add an observation; returns its currently most likely match, or null when no road is nearby
+         */
+        public Match add(double lng, double lat) {
+            Step step = candidates(observations++, lng, lat);
+            if (step.size == 0) {
+                return null;
+            }
+            Step prev = steps.peekLast();
+            boolean connected = false;
+            if (prev != null) {
+                double[][] transition;
+                Dijkstra dijkstra = borrowSearch();
+                try {
+                    transition = transitions(prev, step, dijkstra);
+                } finally {
+                    releaseSearch(dijkstra);
+                }
+                for (int j = 0; j < step.size; j++) {
+                    double best = Double.NEGATIVE_INFINITY;
+                    int from = -1;
+                    for (int i = 0; i < prev.size; i++) {
+                        double score = prev.score[i] + transition[i][j];
+                        if (score > best) {
+                            best = score;
+                            from = i;
+                        }
+                    }
+                    step.score[j] = best + step.emission[j];
+                    step.back[j] = from;
+                    connected |= from >= 0;
+                }
+            }
+            if (!connected) {
+                // First observation or an HMM break (no candidate reachable): restart from here
+                if (completed != null) {
+                    completed.addAll(path());
+                }
+                steps.clear();
+                System.arraycopy(step.emission, 0, step.score, 0, step.size);
+                Arrays.fill(step.back, -1);
+            } else {
+                // Keep scores near zero so long sessions do not lose precision
+                double max = step.score[step.best()];
+                for (int j = 0; j < step.size; j++) {
+                    step.score[j] -= max;
+                }
+            }
+            steps.addLast(step);
+            if (steps.size() > window) {
+                steps.removeFirst();
+            }
+            return step.match(step.best());
+        }
+
+        /**
+         * Most likely matches of the observations in the window (since the last break), oldest first
+         */
+        public List<Match> path() {
+            List<Match> path = new ArrayList<>(steps.size());
+            if (steps.isEmpty()) {
+                return path;
+            }
+            Iterator<Step> newestFirst = steps.descendingIterator();
+            Step step = newestFirst.next();
+            int candidate = step.best();
+            path.add(step.match(candidate));
+            while (newestFirst.hasNext() && step.back[candidate] >= 0) {
+                candidate = step.back[candidate];
+                step = newestFirst.next();
+                path.add(step.match(candidate));
+            }
+            Collections.reverse(path);
+            return path;
+        }
+
+        public int size() {
+            return steps.size();
+        }
+    }
+
+    private final class Step {
+        private final int observation;
+        private final double lng;
+        private final double lat;
+        private final int size;
+        private final int[] edge;
+        private final float[] fraction;
+        private final float[] distance;
+        private final double[] emission;
+        private final double[] score;
+        private final int[] back;
+
+        Step(int observation, double lng, double lat, int size) {
+            this.observation = observation;
+            this.lng = lng;
+            this.lat = lat;
+            this.size = size;
+            this.edge = new int[size];
+            this.fraction = new float[size];
+            this.distance = new float[size];
+            this.emission = new double[size];
+            this.score = new double[size];
+            this.back = new int[size];
+        }
+
+        int best() {
+            int best = 0;
+            for (int j = 1; j < size; j++) {
+                if (score[j] > score[best]) {
+                    best = j;
+                }
+            }
+            return best;
+        }
+
+        Match match(int j) {
+            int e = edge[j];
+            int u = edgeSource[e];
+            int v = graph.target(e);
+            double f = fraction[j];
+            return new Match(observation, e,
+                    graph.lng(u) + (graph.lng(v) - graph.lng(u)) * f,
+                    graph.lat(u) + (graph.lat(v) - graph.lat(u)) * f,
+                    f, distance[j]);
+        }
+    }
+
+    /**
+     * An observation snapped onto an edge
+     */
+    public static final class Match {
+        private final int observation;
+        private final int edge;
+        private final double lng;
+        private final double lat;
+        private final double fraction;
+        private final double distanceMeters;
+
+        Match(int observation, int edge, double lng, double lat, double fraction, double distanceMeters) {
+            this.observation = observation;
+            this.edge = edge;
+            this.lng = lng;
+            this.lat = lat;
+            this.fraction = fraction;
+            this.distanceMeters = distanceMeters;
+        }
+
+        /**
+         * Index of the observation in the trace (or in the session since it started)
+         */
+        public int getObservation() {
+            return observation;
+        }
+
+        public int getEdge() {
+            return edge;
+        }
+
+        public double getLng() {
+            return lng;
+        }
+
+        public double getLat() {
+            return lat;
+        }
+
+        /**
+         * Position along the edge, 0 at its source node and 1 at its target
+         */
+        public double getFraction() {
+            return fraction;
+        }
+
+        /**
+         * Distance from the observed position to the matched one
+         */
+        public double getDistanceMeters() {
+            return distanceMeters;
+        }
+    }
+}
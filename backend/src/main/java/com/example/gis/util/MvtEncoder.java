@@ -0,0 +1,181 @@
+package com.example.gis.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal Mapbox Vector Tile (v2.1) encoder for point layers.
+ * Writes the protobuf wire format directly; keys and values are de-duplicated per layer.
+ */
+public final class MvtEncoder {
+    public static final int DEFAULT_EXTENT = 4096;
+
+    private static final int GEOM_TYPE_POINT = 1;
+    private static final int CMD_MOVE_TO = 1;
+
+    private MvtEncoder() {
+    }
+
+    /**
+     * Encode layers into one tile
+     */
+    public static byte[] encode(Layer... layers) {
+        ProtoWriter tile = new ProtoWriter();
+        for (Layer layer : layers) {
+            if (!layer.features.isEmpty()) {
+                tile.writeBytes(3, layer.toBytes());
+            }
+        }
+        return tile.toByteArray();
+    }
+
+    /**
+     * One tile layer; point coordinates are in tile space (0..extent, y down)
+     */
+    public static final class Layer {
+        private final String name;
+        private final int extent;
+        private final Map<String, Integer> keys = new LinkedHashMap<>();
+        private final Map<Object, Integer> values = new LinkedHashMap<>();
+        private final List<byte[]> features = new ArrayList<>();
+
+        public Layer(String name, int extent) {
+            this.name = name;
+            this.extent = extent;
+        }
+
+        public int getExtent() {
+            return extent;
+        }
+
+        public void addPoint(long id, int x, int y, Map<String, ?> properties) {
+            ProtoWriter tags = new ProtoWriter();
+            for (Map.Entry<String, ?> property : properties.entrySet()) {
+                if (property.getValue() == null) {
+                    continue;
+                }
+                tags.writeVarint(keys.computeIfAbsent(property.getKey(), k -> keys.size()));
+                tags.writeVarint(values.computeIfAbsent(normalize(property.getValue()), v -> values.size()));
+            }
+
+            ProtoWriter geometry = new ProtoWriter();
+            geometry.writeVarint((CMD_MOVE_TO & 0x7) | (1 << 3));
+            geometry.writeVarint(zigZag(x) & 0xFFFFFFFFL);
+            geometry.writeVarint(zigZag(y) & 0xFFFFFFFFL);
+
+            ProtoWriter feature = new ProtoWriter();
+            feature.writeTag(1, 0);
+            feature.writeVarint(id);
+            feature.writeBytes(2, tags.toByteArray());
+            feature.writeTag(3, 0);
+            feature.writeVarint(GEOM_TYPE_POINT);
+            feature.writeBytes(4, geometry.toByteArray());
+            features.add(feature.toByteArray());
+        }
+
+        private byte[] toBytes() {
+            ProtoWriter layer = new ProtoWriter();
+            layer.writeTag(15, 0);
+            layer.writeVarint(2);
+            layer.writeString(1, name);
+            for (byte[] feature : features) {
+                layer.writeBytes(2, feature);
+            }
+            for (String key : keys.keySet()) {
+                layer.writeString(3, key);
+            }
+            for (Object value : values.keySet()) {
+                layer.writeBytes(4, encodeValue(value));
+            }
+            layer.writeTag(5, 0);
+            layer.writeVarint(extent);
+            return layer.toByteArray();
+        }
+    }
+
+    /**
+     * Widen numeric types so equal values share one entry in the value table
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        }
+        if (value instanceof Long || value instanceof Double || value instanceof Boolean) {
+            return value;
+        }
+        return value.toString();
+    }
+
+    private static byte[] encodeValue(Object value) {
+        ProtoWriter writer = new ProtoWriter();
+        if (value instanceof String) {
+            writer.writeString(1, (String) value);
+        } else if (value instanceof Double) {
+            writer.writeTag(3, 1);
+            writer.writeFixed64(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Long) {
+            long v = (Long) value;
+            if (v >= 0) {
+                writer.writeTag(5, 0);
+                writer.writeVarint(v);
+            } else {
+                writer.writeTag(6, 0);
+                writer.writeVarint((v << 1) ^ (v >> 63));
+            }
+        } else if (value instanceof Boolean) {
+            writer.writeTag(7, 0);
+            writer.writeVarint((Boolean) value ? 1 : 0);
+        }
+        return writer.toByteArray();
+    }
+
+    private static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    /**
+     * Protobuf wire format writer
+     */
+    private static final class ProtoWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void writeTag(int field, int wireType) {
+            writeVarint(((long) field << 3) | wireType);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void writeFixed64(long value) {
+            for (int i = 0; i < 8; i++) {
+                out.write((int) (value >>> (8 * i)) & 0xFF);
+            }
+        }
+
+        void writeBytes(int field, byte[] bytes) {
+            writeTag(field, 2);
+            writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writeString(int field, String value) {
+            writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.gis.util;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodings of float rasters (row-major from the north-west cell; NaN for no data)
+ */
+public final class RasterEncoder {
+    private RasterEncoder() {
+    }
+
+    /**
+     * PNG through a colour ramp, min..max stretched over the ramp; no data is transparent
+     */
+    public static byte[] png(float[] values, int width, int height, ColorRamp ramp, double min, double max) {
+        double range = max > min ? max - min : 1.0;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            float value = values[i];
+            if (!Float.isNaN(value)) {
+                // The ramp keeps exact zero transparent; the minimum still gets the first colour
+                pixels[i] = ramp.argb(Math.max(Double.MIN_VALUE, (value - min) / range));
+            }
+        }
+        return encode(pixels, width, height);
+    }
+
+    /**
+     * Opaque grey PNG of values 0..255 (hillshade); no data is transparent
+     */
+    public static byte[] grayPng(float[] values, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            float value = values[i];
+            if (!Float.isNaN(value)) {
+                int v = Math.max(0, Math.min(255, Math.round(value)));
+                pixels[i] = 0xFF000000 | v << 16 | v << 8 | v;
+            }
+        }
+        return encode(pixels, width, height);
+    }
+
+    /**
+     * Raw little-endian Float32 values
+     */
+    public static byte[] float32(float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static byte[] encode(int[] pixels, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "PNG", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode raster image", e);
+        }
+    }
+}
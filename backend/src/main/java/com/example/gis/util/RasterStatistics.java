@@ -0,0 +1,76 @@
+package com.example.gis.util;
+
+/**
+ * Streaming count / min / max / mean / standard deviation of raster values (Welford), mergeable
+ * across tiles computed in parallel (Chan et al.). NaN values are skipped.
+ */
+public final class RasterStatistics {
+    private long count;
+    private double mean;
+    private double m2;
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+
+    public void add(float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public void merge(RasterStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            count = other.count;
+            mean = other.mean;
+            m2 = other.m2;
+            min = other.min;
+            max = other.max;
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Smallest value; NaN when there are no values
+     */
+    public double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    public double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+
+    /**
+     * Population standard deviation
+     */
+    public double getStddev() {
+        return count > 0 ? Math.sqrt(m2 / count) : Double.NaN;
+    }
+}
@@ -0,0 +1,476 @@
+package com.example.gis.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable directed road graph in compressed sparse row (CSR) form.
+ *
+ * Nodes are line vertices (vertices shared by several lines join them); the outgoing edges
+ * of node u are firstEdge[u] .. firstEdge[u + 1] - 1, with target, length (m), speed (km/h,
+ * 0 when unknown) and flags in parallel primitive arrays. Every segment is stored in both
+ * directions; the reverse copy of a one-way segment is flagged so profiles that respect
+ * one-way restrictions can skip it. Per-profile travel times (seconds) are derived lazily.
+ *
+ * Graphs are persisted to a flat little-endian file that is memory-mapped on load, so a
+ * restart reads the arrays back without touching the database.
+ */
+public final class RoadGraph {
+    public static final byte AGAINST_ONEWAY = 1;
+
+    private static final int MAGIC = 0x52475231; // "RGR1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final double METERS_PER_DEGREE = 111_320.0;
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    private final double[] lng;
+    private final double[] lat;
+    private final int[] firstEdge;
+    private final int[] target;
+    private final float[] length;
+    private final float[] speed;
+    private final byte[] flags;
+    private final float[][] costs = new float[Profile.values().length][];
+    private final float[][] distances = new float[Profile.values().length][];
+    private volatile Snapper snapper;
+    private volatile RoadGraph reversed;
+
+    private RoadGraph(double[] lng, double[] lat, int[] firstEdge, int[] target,
+                      float[] length, float[] speed, byte[] flags) {
+        this.lng = lng;
+        this.lat = lat;
+        this.firstEdge = firstEdge;
+        this.target = target;
+        this.length = length;
+        this.speed = speed;
+        this.flags = flags;
+    }
+
+    /**
+     * Travel modes: default speed (km/h), whether edge speeds apply and whether one-way restrictions apply
+     */
+    public enum Profile {
+        DRIVING(50.0, true, true),
+        CYCLING(15.0, false, true),
+        WALKING(5.0, false, false);
+
+        private final double defaultSpeedKmh;
+        private final boolean usesEdgeSpeed;
+        private final boolean respectsOneway;
+
+        Profile(double defaultSpeedKmh, boolean usesEdgeSpeed, boolean respectsOneway) {
+            this.defaultSpeedKmh = defaultSpeedKmh;
+            this.usesEdgeSpeed = usesEdgeSpeed;
+            this.respectsOneway = respectsOneway;
+        }
+
+        public double getDefaultSpeedKmh() {
+            return defaultSpeedKmh;
+        }
+
+        /**
+         * Profile by name: driving (default), cycling, walking
+         */
+        public static Profile of(String name) {
+            if (name == null) {
+                return DRIVING;
+            }
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown routing profile: " + name);
+            }
+        }
+    }
+
+    public int nodeCount() {
+        return lng.length;
+    }
+
+    public int edgeCount() {
+        return target.length;
+    }
+
+    public double lng(int node) {
+        return lng[node];
+    }
+
+    public double lat(int node) {
+        return lat[node];
+    }
+
+    public int firstEdge(int node) {
+        return firstEdge[node];
+    }
+
+    public int endEdge(int node) {
+        return firstEdge[node + 1];
+    }
+
+    public int target(int edge) {
+        return target[edge];
+    }
+
+    public float length(int edge) {
+        return length[edge];
+    }
+
+    /**
+     * Travel time in seconds per edge for a profile; +Infinity for edges the profile may not use.
+     * Computed once per profile and shared, so callers must not modify the array.
+     */
+    public float[] costs(Profile profile) {
+        float[] cached = costs[profile.ordinal()];
+        if (cached != null) {
+            return cached;
+        }
+        float[] result = new float[target.length];
+        for (int e = 0; e < result.length; e++) {
+            if (profile.respectsOneway && (flags[e] & AGAINST_ONEWAY) != 0) {
+                result[e] = Float.POSITIVE_INFINITY;
+                continue;
+            }
+            double kmh = profile.usesEdgeSpeed && speed[e] > 0 ? speed[e] : profile.defaultSpeedKmh;
+            result[e] = (float) (length[e] / (kmh / 3.6));
+        }
+        costs[profile.ordinal()] = result;
+        return result;
+    }
+
+    /**
+     * Edge lengths in meters for a profile, +Infinity for edges it may not use (e.g. against one-way
+     * for driving); for searches by distance rather than time. Computed once per profile and shared.
+     */
+    public float[] distances(Profile profile) {
+        float[] cached = distances[profile.ordinal()];
+        if (cached != null) {
+            return cached;
+        }
+        float[] result = new float[target.length];
+        for (int e = 0; e < result.length; e++) {
+            boolean forbidden = profile.respectsOneway && (flags[e] & AGAINST_ONEWAY) != 0;
+            result[e] = forbidden ? Float.POSITIVE_INFINITY : length[e];
+        }
+        distances[profile.ordinal()] = result;
+        return result;
+    }
+
+    /**
+     * The transpose: same nodes, every edge reversed with its length, speed and flags. Travel
+     * times found by searching it from a node are times to reach that node in this graph.
+     * Built once and shared.
+     */
+    public RoadGraph reverse() {
+        RoadGraph r = reversed;
+        if (r != null) {
+            return r;
+        }
+        int n = lng.length;
+        int[] reverseFirst = new int[n + 1];
+        for (int e = 0; e < target.length; e++) {
+            reverseFirst[target[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            reverseFirst[i + 1] += reverseFirst[i];
+        }
+        int[] cursor = Arrays.copyOf(reverseFirst, n);
+        int[] reverseTarget = new int[target.length];
+        float[] reverseLength = new float[target.length];
+        float[] reverseSpeed = new float[target.length];
+        byte[] reverseFlags = new byte[target.length];
+        for (int u = 0; u < n; u++) {
+            for (int e = firstEdge[u]; e < firstEdge[u + 1]; e++) {
+                int position = cursor[target[e]]++;
+                reverseTarget[position] = u;
+                reverseLength[position] = length[e];
+                reverseSpeed[position] = speed[e];
+                reverseFlags[position] = flags[e];
+            }
+        }
+        r = new RoadGraph(lng, lat, reverseFirst, reverseTarget, reverseLength, reverseSpeed, reverseFlags);
+        r.reversed = this;
+        r.snapper = snapper;
+        reversed = r;
+        return r;
+    }
+
+    /**
+     * Nearest node to a location and its distance in meters, or null for an empty graph
+     */
+    public Snap snap(double lngValue, double latValue) {
+        if (lng.length == 0) {
+            return null;
+        }
+        Snapper s = snapper;
+        if (s == null) {
+            s = new Snapper(this);
+            snapper = s;
+        }
+        int node = s.tree.nearest(s.x(lngValue), s.y(latValue));
+        return new Snap(node, distanceMeters(lngValue, latValue, lng[node], lat[node]));
+    }
+
+    /**
+     * Snapped origin: graph node and the straight-line distance to it
+     */
+    public static final class Snap {
+        private final int node;
+        private final double distanceMeters;
+
+        Snap(int node, double distanceMeters) {
+            this.node = node;
+            this.distanceMeters = distanceMeters;
+        }
+
+        public int getNode() {
+            return node;
+        }
+
+        public double getDistanceMeters() {
+            return distanceMeters;
+        }
+    }
+
+    /**
+     * Great-circle distance in meters
+     */
+    public static double distanceMeters(double lng1, double lat1, double lng2, double lat2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Write the graph to a file, replacing it atomically
+     */
+    public void save(Path file) throws IOException {
+        int n = lng.length;
+        int m = target.length;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, position, HEADER_BYTES);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(n).putInt(m);
+            position += HEADER_BYTES;
+            // Each array gets its own mapping, keeping every region below the 2 GB mapping limit
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 8L * n).asDoubleBuffer().put(lng);
+            position += 8L * n;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 8L * n).asDoubleBuffer().put(lat);
+            position += 8L * n;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * (n + 1)).asIntBuffer().put(firstEdge);
+            position += 4L * (n + 1);
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * m).asIntBuffer().put(target);
+            position += 4L * m;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * m).asFloatBuffer().put(length);
+            position += 4L * m;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, 4L * m).asFloatBuffer().put(speed);
+            position += 4L * m;
+            map(channel, FileChannel.MapMode.READ_WRITE, position, m).put(flags);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a graph written by save()
+     */
+    public static RoadGraph load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, position, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a road graph file: " + file);
+            }
+            int n = header.getInt();
+            int m = header.getInt();
+            position += HEADER_BYTES;
+            double[] lng = new double[n];
+            double[] lat = new double[n];
+            int[] firstEdge = new int[n + 1];
+            int[] target = new int[m];
+            float[] length = new float[m];
+            float[] speed = new float[m];
+            byte[] flags = new byte[m];
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 8L * n).asDoubleBuffer().get(lng);
+            position += 8L * n;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 8L * n).asDoubleBuffer().get(lat);
+            position += 8L * n;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * (n + 1)).asIntBuffer().get(firstEdge);
+            position += 4L * (n + 1);
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * m).asIntBuffer().get(target);
+            position += 4L * m;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * m).asFloatBuffer().get(length);
+            position += 4L * m;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * m).asFloatBuffer().get(speed);
+            position += 4L * m;
+            map(channel, FileChannel.MapMode.READ_ONLY, position, m).get(flags);
+            return new RoadGraph(lng, lat, firstEdge, target, length, speed, flags);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Lazily built KD-tree over nodes in a local equirectangular projection
+     */
+    private static final class Snapper {
+        private final double originLat;
+        private final double metersPerLng;
+        private final KdTree tree;
+
+        Snapper(RoadGraph graph) {
+            int n = graph.nodeCount();
+            double minLat = Double.POSITIVE_INFINITY;
+            double maxLat = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                minLat = Math.min(minLat, graph.lat[i]);
+                maxLat = Math.max(maxLat, graph.lat[i]);
+            }
+            this.originLat = (minLat + maxLat) / 2.0;
+            this.metersPerLng = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                xs[i] = x(graph.lng[i]);
+                ys[i] = y(graph.lat[i]);
+            }
+            this.tree = new KdTree(xs, ys, n);
+        }
+
+        double x(double lngValue) {
+            return lngValue * metersPerLng;
+        }
+
+        double y(double latValue) {
+            return (latValue - originLat) * METERS_PER_DEGREE;
+        }
+    }
+
+    /**
+     * Accumulates lines and produces the CSR graph. Vertices closer than 1e-7 degrees are merged.
+     */
+    public static final class Builder {
+        private final Map<Long, Integer> nodeIds = new HashMap<>();
+        private double[] lng = new double[1024];
+        private double[] lat = new double[1024];
+        private int nodes;
+        private int[] from = new int[1024];
+        private int[] to = new int[1024];
+        private float[] length = new float[1024];
+        private float[] speed = new float[1024];
+        private byte[] flags = new byte[1024];
+        private int edges;
+
+        /**
+         * Add a line as one segment per consecutive vertex pair.
+         *
+         * @param speedKmh    edge speed, 0 or less when unknown
+         * @param oneway      true when the line may only be travelled in vertex order
+         * @param lengthMeters declared length of the whole line, or 0 to use the geometric length
+         */
+        public void addLine(double[] lngs, double[] lats, int count, double speedKmh, boolean oneway,
+                            double lengthMeters) {
+            if (count < 2) {
+                return;
+            }
+            double geometric = 0;
+            for (int i = 1; i < count; i++) {
+                geometric += distanceMeters(lngs[i - 1], lats[i - 1], lngs[i], lats[i]);
+            }
+            double scale = lengthMeters > 0 && geometric > 0 ? lengthMeters / geometric : 1.0;
+            float edgeSpeed = speedKmh > 0 ? (float) speedKmh : 0f;
+
+            int previous = node(lngs[0], lats[0]);
+            for (int i = 1; i < count; i++) {
+                int current = node(lngs[i], lats[i]);
+                if (current == previous) {
+                    continue;
+                }
+                float segment = (float) (distanceMeters(lngs[i - 1], lats[i - 1], lngs[i], lats[i]) * scale);
+                addEdge(previous, current, segment, edgeSpeed, (byte) 0);
+                addEdge(current, previous, segment, edgeSpeed, oneway ? AGAINST_ONEWAY : 0);
+                previous = current;
+            }
+        }
+
+        public RoadGraph build() {
+            int[] firstEdge = new int[nodes + 1];
+            for (int e = 0; e < edges; e++) {
+                firstEdge[from[e] + 1]++;
+            }
+            for (int u = 0; u < nodes; u++) {
+                firstEdge[u + 1] += firstEdge[u];
+            }
+            int[] next = Arrays.copyOf(firstEdge, nodes);
+            int[] csrTarget = new int[edges];
+            float[] csrLength = new float[edges];
+            float[] csrSpeed = new float[edges];
+            byte[] csrFlags = new byte[edges];
+            for (int e = 0; e < edges; e++) {
+                int slot = next[from[e]]++;
+                csrTarget[slot] = to[e];
+                csrLength[slot] = length[e];
+                csrSpeed[slot] = speed[e];
+                csrFlags[slot] = flags[e];
+            }
+            return new RoadGraph(Arrays.copyOf(lng, nodes), Arrays.copyOf(lat, nodes), firstEdge,
+                    csrTarget, csrLength, csrSpeed, csrFlags);
+        }
+
+        private int node(double lngValue, double latValue) {
+            long x = Math.round(lngValue * 1e7) + 1_800_000_000L;
+            long y = Math.round(latValue * 1e7) + 900_000_000L;
+            Integer existing = nodeIds.get(x * 1_800_000_001L + y);
+            if (existing != null) {
+                return existing;
+            }
+            if (nodes == lng.length) {
+                lng = Arrays.copyOf(lng, nodes * 2);
+                lat = Arrays.copyOf(lat, nodes * 2);
+            }
+            lng[nodes] = lngValue;
+            lat[nodes] = latValue;
+            nodeIds.put(x * 1_800_000_001L + y, nodes);
+            return nodes++;
+        }
+
+        private void addEdge(int u, int v, float edgeLength, float edgeSpeed, byte edgeFlags) {
+            if (edges == from.length) {
+                int capacity = edges * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                length = Arrays.copyOf(length, capacity);
+                speed = Arrays.copyOf(speed, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+            }
+            from[edges] = u;
+            to[edges] = v;
+            length[edges] = edgeLength;
+            speed[edges] = edgeSpeed;
+            flags[edges] = edgeFlags;
+            edges++;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.gis.util;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Separable blurs over row-major float grids, parallel across row bands.
+ *
+ * A 2D Gaussian factors into a horizontal and a vertical 1D pass, so blurring a
+ * W x H grid costs O(W * H * r) instead of O(W * H * r^2) (or O(points * r^2) when
+ * splatting a kernel per point). For wide kernels a three-pass box blur approximates
+ * the Gaussian in O(W * H) independent of the radius.
+ */
+public final class SeparableBlur {
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    private SeparableBlur() {
+    }
+
+    /**
+     * Unnormalized Gaussian weights exp(-d^2 / (2 sigma^2)) for d in [-radius, radius]
+     */
+    public static float[] gaussianKernel(double sigma, int radius) {
+        float[] kernel = new float[2 * radius + 1];
+        double denominator = 2.0 * sigma * sigma;
+        for (int d = -radius; d <= radius; d++) {
+            kernel[d + radius] = (float) Math.exp(-(d * (double) d) / denominator);
+        }
+        return kernel;
+    }
+
+    /**
+     * Convolve the grid in place with kernelX along rows and kernelY along columns.
+     * Cells outside the grid count as zero.
+     */
+    public static void convolve(float[] grid, int width, int height, float[] kernelX, float[] kernelY) {
+        float[] tmp = new float[grid.length];
+        int rx = kernelX.length / 2;
+        int ry = kernelY.length / 2;
+
+        forEachBand(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    float value = grid[row + x];
+                    if (value == 0f) {
+                        continue;
+                    }
+                    // Scatter each non-empty cell; sparse inputs skip most of the work
+                    int kFrom = Math.max(0, rx - x);
+                    int kTo = Math.min(kernelX.length, width - x + rx);
+                    int base = row + x - rx;
+                    for (int k = kFrom; k < kTo; k++) {
+                        tmp[base + k] += value * kernelX[k];
+                    }
+                }
+            }
+        });
+
+        forEachBand(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = y * width;
+                Arrays.fill(grid, row, row + width, 0f);
+                int kFrom = Math.max(0, ry - y);
+                int kTo = Math.min(kernelY.length, height - y + ry);
+                for (int k = kFrom; k < kTo; k++) {
+                    // Gathering from row y + k - ry, so the kernel is read back to front
+                    float weight = kernelY[kernelY.length - 1 - k];
+                    int src = (y + k - ry) * width;
+                    for (int x = 0; x < width; x++) {
+                        grid[row + x] += weight * tmp[src + x];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Gaussian blur with per-axis sigma (in cells), truncated at 3 sigma.
+     * Above maxExactRadius cells the three-pass box approximation is used.
+     */
+    public static void gaussian(float[] grid, int width, int height,
+                                double sigmaX, double sigmaY, int maxExactRadius) {
+        int rx = (int) Math.ceil(3 * sigmaX);
+        int ry = (int) Math.ceil(3 * sigmaY);
+        if (Math.max(rx, ry) > maxExactRadius) {
+            boxApproximation(grid, width, height, sigmaX, sigmaY);
+            return;
+        }
+        convolve(grid, width, height, gaussianKernel(sigmaX, rx), gaussianKernel(sigmaY, ry));
+    }
+
+    /**
+     * Three successive box blurs per axis approximating a Gaussian of the given sigma.
+     * The result is scaled to the mass of the unnormalized Gaussian kernel, so it matches
+     * {@link #convolve} with {@link #gaussianKernel} in magnitude.
+     */
+    public static void boxApproximation(float[] grid, int width, int height, double sigmaX, double sigmaY) {
+        int[] boxesX = boxSizes(sigmaX);
+        int[] boxesY = boxSizes(sigmaY);
+        float[] tmp = new float[grid.length];
+        for (int pass = 0; pass < 3; pass++) {
+            boxRows(grid, tmp, width, height, boxesX[pass] / 2);
+            boxColumns(tmp, grid, width, height, boxesY[pass] / 2);
+        }
+        // Box passes preserve the total; the unnormalized Gaussian sums to sigma * sqrt(2 pi) per axis
+        float scale = (float) (2.0 * Math.PI * sigmaX * sigmaY);
+        IntStream.range(0, grid.length).parallel().forEach(i -> grid[i] *= scale);
+    }
+
+    /**
+     * Odd box widths whose three-fold convolution has (about) the given standard deviation
+     */
+    private static int[] boxSizes(double sigma) {
+        double ideal = Math.sqrt(12.0 * sigma * sigma / 3 + 1);
+        int lower = (int) Math.floor(ideal);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        lower = Math.max(1, lower);
+        int upper = lower + 2;
+        double m = (12 * sigma * sigma - 3.0 * lower * lower - 12.0 * lower - 9) / (-4.0 * lower - 4);
+        long lowerCount = Math.round(m);
+        int[] sizes = new int[3];
+        for (int i = 0; i < 3; i++) {
+            sizes[i] = i < lowerCount ? lower : upper;
+        }
+        return sizes;
+    }
+
+    private static void boxRows(float[] src, float[] dst, int width, int height, int r) {
+        float norm = 1f / (2 * r + 1);
+        forEachBand(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row = y * width;
+                float sum = 0f;
+                for (int x = 0; x < Math.min(r, width); x++) {
+                    sum += src[row + x];
+                }
+                for (int x = 0; x < width; x++) {
+                    if (x + r < width) {
+                        sum += src[row + x + r];
+                    }
+                    if (x - r - 1 >= 0) {
+                        sum -= src[row + x - r - 1];
+                    }
+                    dst[row + x] = sum * norm;
+                }
+            }
+        });
+    }
+
+    private static void boxColumns(float[] src, float[] dst, int width, int height, int r) {
+        float norm = 1f / (2 * r + 1);
+        forEachBand(height, (from, to) -> {
+            // Running column sums for the first row of the band, then slide down
+            float[] sums = new float[width];
+            for (int y = Math.max(0, from - r); y <= Math.min(height - 1, from + r); y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    sums[x] += src[row + x];
+                }
+            }
+            for (int y = from; y < to; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    dst[row + x] = sums[x] * norm;
+                }
+                int add = y + r + 1;
+                int remove = y - r;
+                if (add < height) {
+                    int addRow = add * width;
+                    for (int x = 0; x < width; x++) {
+                        sums[x] += src[addRow + x];
+                    }
+                }
+                if (remove >= 0) {
+                    int removeRow = remove * width;
+                    for (int x = 0; x < width; x++) {
+                        sums[x] -= src[removeRow + x];
+                    }
+                }
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface Band {
+        void run(int fromRow, int toRow);
+    }
+
+    private static void forEachBand(int height, Band band) {
+        int bands = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors() * 2, height / MIN_ROWS_PER_BAND));
+        IntStream.range(0, bands).parallel().forEach(b -> band.run(
+                (int) ((long) height * b / bands),
+                (int) ((long) height * (b + 1) / bands)));
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.gis.util;
+
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Terrain products of a DEM on an output grid: elevation, slope, aspect and hillshade.
+ *
+ * The grid is processed in TILE_SIZE x TILE_SIZE tiles in parallel. Each tile reads its
+ * elevations with a one-cell halo, so the 3x3 Horn kernels need nothing from neighbouring
+ * tiles, and accumulates statistics of its output as it writes it; tile statistics are merged
+ * afterwards, so values are visited once. Slope and aspect are in degrees (aspect clockwise
+ * from north, NaN on flat cells), hillshade 0..255 with the usual ESRI conventions.
+ */
+public final class TerrainAnalysis {
+    public static final int TILE_SIZE = 256;
+    private static final double METERS_PER_DEGREE = 111_320.0;
+    private static final double MERCATOR_RADIUS = TileMath.EARTH_CIRCUMFERENCE_METERS / (2 * Math.PI);
+
+    public enum Product {
+        ELEVATION, SLOPE, ASPECT, HILLSHADE;
+
+        public static Product of(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("Analysis type is required");
+            }
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported analysis type: " + name);
+            }
+        }
+    }
+
+    /**
+     * How cell sizes of a grid translate to ground meters: METERS as they are, DEGREES times the
+     * meters per degree (longitudes shrunk by cos(latitude) per row), MERCATOR (EPSG:3857 meters)
+     * times the mercator scale cos(latitude) of each row
+     */
+    public enum Units { METERS, DEGREES, MERCATOR }
+
+    /**
+     * Elevations at the cell centres of a window (row-major, NaN for no data); called from several
+     * threads at once, with windows that may extend one cell beyond the output grid
+     */
+    @FunctionalInterface
+    public interface ElevationReader {
+        float[] read(GridSpec window);
+    }
+
+    private final Product product;
+    private final double zFactor;
+    private final double zenith;
+    private final double azimuth;
+
+    /**
+     * @param zFactor  vertical exaggeration (elevation units per horizontal meter)
+     * @param azimuth  hillshade light direction, degrees clockwise from north
+     * @param altitude hillshade light angle above the horizon, degrees
+     */
+    public TerrainAnalysis(Product product, double zFactor, double azimuth, double altitude) {
+        this.product = product;
+        this.zFactor = zFactor;
+        this.zenith = Math.toRadians(90 - altitude);
+        // Compass direction to the math angle of the light, counter-clockwise from east
+        this.azimuth = Math.toRadians((360.0 - azimuth + 90.0) % 360.0);
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    /**
+     * Product and parameters, naming the output for caches
+     */
+    public String getKey() {
+        return product.name().toLowerCase(Locale.ROOT) + ":" + zFactor + ":" + zenith + ":" + azimuth;
+    }
+
+    /**
+     * Compute the product over a grid whose cell sizes are in the given units
+     */
+    public float[] run(GridSpec grid, Units units, ElevationReader reader, RasterStatistics statistics) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        float[] out = new float[width * height];
+        RasterStatistics[] tileStatistics = new RasterStatistics[tilesX * tilesY];
+        IntStream.range(0, tilesX * tilesY).parallel().forEach(t -> {
+            int col0 = (t % tilesX) * TILE_SIZE;
+            int row0 = (t / tilesX) * TILE_SIZE;
+            int tileWidth = Math.min(TILE_SIZE, width - col0);
+            int tileHeight = Math.min(TILE_SIZE, height - row0);
+            RasterStatistics tile = new RasterStatistics();
+            if (product == Product.ELEVATION) {
+                float[] z = reader.read(grid.window(col0, row0, tileWidth, tileHeight));
+                for (int r = 0; r < tileHeight; r++) {
+                    int target = (row0 + r) * width + col0;
+                    for (int c = 0; c < tileWidth; c++) {
+                        float value = z[r * tileWidth + c];
+                        out[target + c] = value;
+                        tile.add(value);
+                    }
+                }
+            } else {
+                GridSpec halo = grid.window(col0 - 1, row0 - 1, tileWidth + 2, tileHeight + 2);
+                float[] z = reader.read(halo);
+                kernel(z, halo, units, out, width, col0, row0, tileWidth, tileHeight, tile);
+            }
+            tileStatistics[t] = tile;
+        });
+        for (RasterStatistics tile : tileStatistics) {
+            statistics.merge(tile);
+        }
+        return out;
+    }
+
+    /**
+     * Horn 3x3 kernel over one tile; z covers the tile plus a one-cell halo
+     */
+    private void kernel(float[] z, GridSpec halo, Units units, float[] out, int outWidth,
+                        int col0, int row0, int tileWidth, int tileHeight, RasterStatistics statistics) {
+        int stride = tileWidth + 2;
+        for (int r = 0; r < tileHeight; r++) {
+            double cellX = halo.getCellWidth();
+            double cellY = halo.getCellHeight();
+            if (units == Units.DEGREES) {
+                cellX *= METERS_PER_DEGREE * Math.cos(Math.toRadians(halo.centerY(r + 1)));
+                cellY *= METERS_PER_DEGREE;
+            } else if (units == Units.MERCATOR) {
+                double scale = Math.cos(Math.atan(Math.sinh(halo.centerY(r + 1) / MERCATOR_RADIUS)));
+                cellX *= scale;
+                cellY *= scale;
+            }
+            int target = (row0 + r) * outWidth + col0;
+            for (int c = 0; c < tileWidth; c++) {
+                int center = (r + 1) * stride + c + 1;
+                float e = z[center];
+                if (Float.isNaN(e)) {
+                    out[target + c] = Float.NaN;
+                    continue;
+                }
+                // Missing neighbours take the centre value
+                double a = orElse(z[center - stride - 1], e);
+                double b = orElse(z[center - stride], e);
+                double cc = orElse(z[center - stride + 1], e);
+                double d = orElse(z[center - 1], e);
+                double f = orElse(z[center + 1], e);
+                double g = orElse(z[center + stride - 1], e);
+                double h = orElse(z[center + stride], e);
+                double i = orElse(z[center + stride + 1], e);
+                double dzdx = zFactor * ((cc + 2 * f + i) - (a + 2 * d + g)) / (8 * cellX);
+                double dzdy = zFactor * ((g + 2 * h + i) - (a + 2 * b + cc)) / (8 * cellY);
+                float value = (float) value(dzdx, dzdy);
+                out[target + c] = value;
+                statistics.add(value);
+            }
+        }
+    }
+
+    private double value(double dzdx, double dzdy) {
+        double slope = Math.atan(Math.sqrt(dzdx * dzdx + dzdy * dzdy));
+        switch (product) {
+            case SLOPE:
+                return Math.toDegrees(slope);
+            case ASPECT: {
+                if (dzdx == 0 && dzdy == 0) {
+                    return Double.NaN;
+                }
+                double aspect = Math.toDegrees(Math.atan2(dzdy, -dzdx));
+                return aspect < 0 ? 90 - aspect : aspect > 90 ? 450 - aspect : 90 - aspect;
+            }
+            case HILLSHADE: {
+                double aspect;
+                if (dzdx != 0) {
+                    aspect = Math.atan2(dzdy, -dzdx);
+                    if (aspect < 0) {
+                        aspect += 2 * Math.PI;
+                    }
+                } else {
+                    aspect = dzdy > 0 ? Math.PI / 2 : dzdy < 0 ? 1.5 * Math.PI : 0;
+                }
+                double shade = Math.cos(zenith) * Math.cos(slope)
+                        + Math.sin(zenith) * Math.sin(slope) * Math.cos(azimuth - aspect);
+                return Math.max(0, 255 * shade);
+            }
+            default:
+                throw new IllegalStateException("Not a kernel product: " + product);
+        }
+    }
+
+    private static double orElse(float value, float fallback) {
+        return Float.isNaN(value) ? fallback : value;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.gis.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of decoded raster tiles, bounded by the bytes of the tiles it holds
+ */
+public final class TileCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, float[]> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    public TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized float[] get(String key) {
+        float[] tile = tiles.get(key);
+        if (tile != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return tile;
+    }
+
+    /**
+     * Add a tile, evicting the least recently used ones beyond the byte bound
+     */
+    public synchronized void put(String key, float[] tile) {
+        float[] previous = tiles.put(key, tile);
+        bytes += sizeOf(tile) - (previous != null ? sizeOf(previous) : 0);
+        Iterator<Map.Entry<String, float[]>> eldest = tiles.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private static long sizeOf(float[] tile) {
+        return 4L * tile.length;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.gis.util;
+
+/**
+ * Web Mercator (EPSG:3857) tile arithmetic for z/x/y tiles.
+ * Normalized mercator coordinates run from 0 to 1, with y growing southwards.
+ */
+public final class TileMath {
+    public static final double MAX_LATITUDE = 85.0511287798;
+    public static final double EARTH_CIRCUMFERENCE_METERS = 40075016.686;
+
+    private TileMath() {
+    }
+
+    public static double mercatorX(double lng) {
+        return (lng + 180.0) / 360.0;
+    }
+
+    public static double mercatorY(double lat) {
+        double clamped = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat));
+        double rad = Math.toRadians(clamped);
+        return (1.0 - Math.log(Math.tan(rad) + 1.0 / Math.cos(rad)) / Math.PI) / 2.0;
+    }
+
+    public static double longitude(double mercatorX) {
+        return mercatorX * 360.0 - 180.0;
+    }
+
+    public static double latitude(double mercatorY) {
+        double n = Math.PI - 2.0 * Math.PI * mercatorY;
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    /**
+     * Index of the cell containing a normalized coordinate on an axis split into n cells
+     */
+    public static int cellIndex(double mercator, long n) {
+        long index = (long) Math.floor(mercator * n);
+        return (int) Math.max(0, Math.min(n - 1, index));
+    }
+
+    public static int tileX(double lng, int zoom) {
+        return cellIndex(mercatorX(lng), 1L << zoom);
+    }
+
+    public static int tileY(double lat, int zoom) {
+        return cellIndex(mercatorY(lat), 1L << zoom);
+    }
+
+    /**
+     * Tile bounds as [minLng, minLat, maxLng, maxLat]
+     */
+    public static double[] tileBounds(int zoom, int x, int y) {
+        double n = 1L << zoom;
+        return new double[]{
+                longitude(x / n),
+                latitude((y + 1) / n),
+                longitude((x + 1) / n),
+                latitude(y / n)
+        };
+    }
+
+    /**
+     * Grid of size x size cells over a tile in web-mercator meters, centred on (0, 0)
+     */
+    public static GridSpec mercatorGrid(int zoom, int x, int y, int size) {
+        double cell = EARTH_CIRCUMFERENCE_METERS / (size * (double) (1L << zoom));
+        return new GridSpec(size, size, x * size * cell - EARTH_CIRCUMFERENCE_METERS / 2,
+                EARTH_CIRCUMFERENCE_METERS / 2 - y * size * cell, cell, cell);
+    }
+
+    /**
+     * Ground resolution in meters per pixel at a latitude for 256px tiles
+     */
+    public static double metersPerPixel(double lat, int zoom) {
+        return EARTH_CIRCUMFERENCE_METERS * Math.cos(Math.toRadians(lat)) / (256.0 * (1L << zoom));
+    }
+
+    public static void validateTile(int zoom, int x, int y) {
+        if (zoom < 0 || zoom > 24) {
+            throw new IllegalArgumentException("Zoom must be between 0 and 24");
+        }
+        long n = 1L << zoom;
+        if (x < 0 || y < 0 || x >= n || y >= n) {
+            throw new IllegalArgumentException("Tile " + zoom + "/" + x + "/" + y + " is out of range");
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.gis.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tiled raster store: a single-band float raster cut into TILE_SIZE x TILE_SIZE tiles, with
+ * overview levels of half the resolution of the previous one, down to a single tile.
+ *
+ * File layout (little-endian): a header, the tile index of each level (file offsets, 0 for tiles
+ * without data, which are not stored), then the tiles as raw Float32, row-major from the
+ * north-west cell. Tile data starts on a tile boundary, so a reader can map the file in segments
+ * that never split a tile. Reads go through a ByteSource (a memory-mapped local file, or range
+ * requests against object storage), fetch only the tiles of the level a window needs, and share
+ * decoded tiles through a TileCache.
+ */
+public final class TiledRaster {
+    public static final int TILE_SIZE = 256;
+    private static final int HALF = TILE_SIZE / 2;
+    private static final int TILE_CELLS = TILE_SIZE * TILE_SIZE;
+    private static final int TILE_BYTES = TILE_CELLS * 4;
+    private static final byte[] MAGIC = "GISRTL01".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_BYTES = 56;
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    /**
+     * Random access to the bytes of a stored raster; returned buffers are not shared
+     */
+    @FunctionalInterface
+    public interface ByteSource {
+        ByteBuffer read(long offset, int length) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface TileComputation {
+        float[] compute() throws IOException;
+    }
+
+    private final String id;
+    private final ByteSource source;
+    private final TileCache cache;
+    private final GridSpec[] levels;
+    private final long[][] offsets;
+
+    private TiledRaster(String id, ByteSource source, TileCache cache, GridSpec[] levels, long[][] offsets) {
+        this.id = id;
+        this.source = source;
+        this.cache = cache;
+        this.levels = levels;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Open a stored raster by reading its header and tile index; id keys its tiles in the cache
+     */
+    public static TiledRaster open(String id, ByteSource source, TileCache cache) throws IOException {
+        ByteBuffer header = source.read(0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a tiled raster: " + id);
+        }
+        int tileSize = header.getInt();
+        if (tileSize != TILE_SIZE) {
+            throw new IOException("Unsupported tile size: " + tileSize);
+        }
+        int width = header.getInt();
+        int height = header.getInt();
+        int levelCount = header.getInt();
+        GridSpec[] levels = levels(new GridSpec(width, height,
+                header.getDouble(), header.getDouble(), header.getDouble(), header.getDouble()));
+        if (levels.length != levelCount) {
+            throw new IOException("Corrupt tiled raster: " + id);
+        }
+        long[][] offsets = new long[levels.length][];
+        int indexSize = 0;
+        for (int l = 0; l < levels.length; l++) {
+            offsets[l] = new long[tileCount(levels[l])];
+            indexSize += offsets[l].length;
+        }
+        ByteBuffer index = source.read(HEADER_BYTES, indexSize * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long[] level : offsets) {
+            index.asLongBuffer().get(level);
+            index.position(index.position() + level.length * 8);
+        }
+        return new TiledRaster(id, source, cache, levels, offsets);
+    }
+
+    /**
+     * Memory-mapped local file, mapped in segments that never split a tile
+     */
+    public static ByteSource mapped(Path file) throws IOException {
+        MappedByteBuffer[] segments;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int s = 0; s < segments.length; s++) {
+                long start = s * SEGMENT_BYTES;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, size - start));
+            }
+        }
+        return (offset, length) -> {
+            ByteBuffer copy = null;
+            long at = offset;
+            int remaining = length;
+            while (remaining > 0) {
+                int s = (int) (at / SEGMENT_BYTES);
+                if (s >= segments.length) {
+                    throw new IOException("Read beyond the end of " + file);
+                }
+                int position = (int) (at % SEGMENT_BYTES);
+                int n = Math.min(remaining, segments[s].capacity() - position);
+                if (copy == null && n == length) {
+                    return segments[s].slice(position, length);
+                }
+                // Only the tile index can span segments
+                if (copy == null) {
+                    copy = ByteBuffer.allocate(length);
+                }
+                copy.put(segments[s].slice(position, n));
+                at += n;
+                remaining -= n;
+            }
+            return copy != null ? copy.flip() : ByteBuffer.allocate(0);
+        };
+    }
+
+    public GridSpec getGrid() {
+        return levels[0];
+    }
+
+    public int getLevels() {
+        return levels.length;
+    }
+
+    public GridSpec level(int level) {
+        return levels[level];
+    }
+
+    /**
+     * [min, max] of the single-tile overview; the full-resolution extremes may lie slightly beyond.
+     * [0, 1] for a raster without data
+     */
+    public double[] overviewRange() throws IOException {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        float[] overview = tile(levels.length - 1, 0, 0);
+        if (overview != null) {
+            for (float value : overview) {
+                if (!Float.isNaN(value)) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+        }
+        if (Double.isInfinite(min)) {
+            return new double[]{0, 1};
+        }
+        return new double[]{min, max > min ? max : min + 1};
+    }
+
+    /**
+     * Coarsest level whose cells are no larger than the given ones
+     */
+    public int levelFor(double cellWidth, double cellHeight) {
+        int level = 0;
+        while (level + 1 < levels.length
+                && levels[level + 1].getCellWidth() <= cellWidth * 1.000001
+                && levels[level + 1].getCellHeight() <= cellHeight * 1.000001) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Cells of a tile (row-major, NaN beyond the raster edge), or null for a tile without data
+     */
+    public float[] tile(int level, int tileX, int tileY) throws IOException {
+        long offset = offsets[level][tileY * tilesX(levels[level]) + tileX];
+        if (offset == 0) {
+            return null;
+        }
+        String key = id + "/" + level + "/" + tileX + "/" + tileY;
+        float[] tile = cache.get(key);
+        if (tile == null) {
+            tile = new float[TILE_CELLS];
+            source.read(offset, TILE_BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(tile);
+            cache.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Tile of a product derived from this raster, computed on the first request and then kept in
+     * the tile cache beside the raster's own tiles. The product name must cover every parameter
+     * of the computation; null results (tiles without data) are not cached.
+     */
+    public float[] derivedTile(String product, int level, int tileX, int tileY, TileComputation computation)
+            throws IOException {
+        String key = id + "/" + product + "/" + level + "/" + tileX + "/" + tileY;
+        float[] tile = cache.get(key);
+        if (tile == null) {
+            tile = computation.compute();
+            if (tile != null) {
+                cache.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Cells of a level under an area plus one cell around it, or null when the area is outside the raster
+     */
+    public FloatGrid read(int level, double minX, double minY, double maxX, double maxY) throws IOException {
+        GridSpec grid = levels[level];
+        int col0 = (int) Math.max(0, Math.floor((minX - grid.getMinX()) / grid.getCellWidth()) - 1);
+        int col1 = (int) Math.min(grid.getWidth(), Math.ceil((maxX - grid.getMinX()) / grid.getCellWidth()) + 1);
+        int row0 = (int) Math.max(0, Math.floor((grid.getMaxY() - maxY) / grid.getCellHeight()) - 1);
+        int row1 = (int) Math.min(grid.getHeight(), Math.ceil((grid.getMaxY() - minY) / grid.getCellHeight()) + 1);
+        if (col0 >= col1 || row0 >= row1) {
+            return null;
+        }
+        int width = col1 - col0;
+        int height = row1 - row0;
+        float[] values = new float[width * height];
+        Arrays.fill(values, Float.NaN);
+        for (int ty = row0 / TILE_SIZE; ty <= (row1 - 1) / TILE_SIZE; ty++) {
+            for (int tx = col0 / TILE_SIZE; tx <= (col1 - 1) / TILE_SIZE; tx++) {
+                float[] tile = tile(level, tx, ty);
+                if (tile == null) {
+                    continue;
+                }
+                int c0 = Math.max(col0, tx * TILE_SIZE);
+                int c1 = Math.min(col1, tx * TILE_SIZE + TILE_SIZE);
+                int r1 = Math.min(row1, ty * TILE_SIZE + TILE_SIZE);
+                for (int r = Math.max(row0, ty * TILE_SIZE); r < r1; r++) {
+                    System.arraycopy(tile, (r - ty * TILE_SIZE) * TILE_SIZE + c0 - tx * TILE_SIZE,
+                            values, (r - row0) * width + c0 - col0, c1 - c0);
+                }
+            }
+        }
+        return new FloatGrid(grid.window(col0, row0, width, height), values);
+    }
+
+    /**
+     * Values at the cell centres of a window (row-major, NaN for no data), read from the coarsest
+     * level that still resolves the window's cells
+     */
+    public float[] sample(GridSpec window) throws IOException {
+        int width = window.getWidth();
+        int height = window.getHeight();
+        float[] values = new float[width * height];
+        FloatGrid data = read(levelFor(window.getCellWidth(), window.getCellHeight()),
+                window.getMinX(), window.getMinY(), window.getMaxX(), window.getMaxY());
+        if (data == null) {
+            Arrays.fill(values, Float.NaN);
+            return values;
+        }
+        for (int r = 0; r < height; r++) {
+            double y = window.centerY(r);
+            for (int c = 0; c < width; c++) {
+                values[r * width + c] = data.sample(window.centerX(c), y);
+            }
+        }
+        return values;
+    }
+
+    private static GridSpec[] levels(GridSpec grid) {
+        List<GridSpec> levels = new ArrayList<>();
+        GridSpec level = grid;
+        levels.add(level);
+        while (level.getWidth() > TILE_SIZE || level.getHeight() > TILE_SIZE) {
+            level = new GridSpec((level.getWidth() + 1) / 2, (level.getHeight() + 1) / 2, level.getMinX(),
+                    level.getMaxY(), level.getCellWidth() * 2, level.getCellHeight() * 2);
+            levels.add(level);
+        }
+        return levels.toArray(new GridSpec[0]);
+    }
+
+    private static int tilesX(GridSpec level) {
+        return (level.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private static int tileCount(GridSpec level) {
+        return tilesX(level) * ((level.getHeight() + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    /**
+     * Writes a stored raster: full-resolution tiles first, in any order, then finish() derives
+     * the overviews (mean of the available cells of each 2x2 block) and writes the index
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final GridSpec[] levels;
+        private final long[][] offsets;
+        private long next;
+
+        public Writer(Path file, GridSpec grid) throws IOException {
+            this.levels = levels(grid);
+            this.offsets = new long[levels.length][];
+            long indexSize = 0;
+            for (int l = 0; l < levels.length; l++) {
+                offsets[l] = new long[tileCount(levels[l])];
+                indexSize += offsets[l].length;
+            }
+            long dataStart = HEADER_BYTES + indexSize * 8;
+            this.next = (dataStart + TILE_BYTES - 1) / TILE_BYTES * TILE_BYTES;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        public GridSpec getGrid() {
+            return levels[0];
+        }
+
+        /**
+         * Store a full-resolution tile (TILE_SIZE x TILE_SIZE cells, NaN beyond the raster edge)
+         */
+        public void writeTile(int tileX, int tileY, float[] values) throws IOException {
+            write(0, tileX, tileY, values);
+        }
+
+        /**
+         * Build the overviews and write the header and tile index
+         */
+        public void finish() throws IOException {
+            float[] child = new float[TILE_CELLS];
+            for (int l = 1; l < levels.length; l++) {
+                GridSpec below = levels[l - 1];
+                int belowTilesX = tilesX(below);
+                int belowTilesY = tileCount(below) / belowTilesX;
+                int tilesX = tilesX(levels[l]);
+                int tilesY = tileCount(levels[l]) / tilesX;
+                for (int ty = 0; ty < tilesY; ty++) {
+                    for (int tx = 0; tx < tilesX; tx++) {
+                        float[] tile = new float[TILE_CELLS];
+                        Arrays.fill(tile, Float.NaN);
+                        for (int dy = 0; dy < 2; dy++) {
+                            for (int dx = 0; dx < 2; dx++) {
+                                int cx = 2 * tx + dx;
+                                int cy = 2 * ty + dy;
+                                if (cx >= belowTilesX || cy >= belowTilesY || offsets[l - 1][cy * belowTilesX + cx] == 0) {
+                                    continue;
+                                }
+                                readTile(offsets[l - 1][cy * belowTilesX + cx], child);
+                                downsample(child, tile, dx * HALF, dy * HALF);
+                            }
+                        }
+                        write(l, tx, ty, tile);
+                    }
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            GridSpec grid = levels[0];
+            header.put(MAGIC)
+                    .putInt(TILE_SIZE)
+                    .putInt(grid.getWidth())
+                    .putInt(grid.getHeight())
+                    .putInt(levels.length)
+                    .putDouble(grid.getMinX())
+                    .putDouble(grid.getMaxY())
+                    .putDouble(grid.getCellWidth())
+                    .putDouble(grid.getCellHeight());
+            writeFully(header.flip(), 0);
+            long position = HEADER_BYTES;
+            for (long[] level : offsets) {
+                ByteBuffer index = ByteBuffer.allocate(level.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+                index.asLongBuffer().put(level);
+                writeFully(index, position);
+                position += level.length * 8L;
+            }
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void write(int level, int tileX, int tileY, float[] values) throws IOException {
+            boolean empty = true;
+            for (float value : values) {
+                if (!Float.isNaN(value)) {
+                    empty = false;
+                    break;
+                }
+            }
+            if (empty) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(TILE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(values);
+            writeFully(buffer, next);
+            offsets[level][tileY * tilesX(levels[level]) + tileX] = next;
+            next += TILE_BYTES;
+        }
+
+        private void readTile(long offset, float[] tile) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(TILE_BYTES);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Truncated tiled raster");
+                }
+            }
+            buffer.flip().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(tile);
+        }
+
+        private void writeFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        private static void downsample(float[] child, float[] tile, int col0, int row0) {
+            for (int y = 0; y < HALF; y++) {
+                for (int x = 0; x < HALF; x++) {
+                    int i = 2 * y * TILE_SIZE + 2 * x;
+                    float sum = 0;
+                    int count = 0;
+                    for (int k = 0; k < 4; k++) {
+                        float value = child[i + (k & 1) + (k >> 1) * TILE_SIZE];
+                        if (!Float.isNaN(value)) {
+                            sum += value;
+                            count++;
+                        }
+                    }
+                    tile[(row0 + y) * TILE_SIZE + col0 + x] = count > 0 ? sum / count : Float.NaN;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,705 @@
+package com.example.gis.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Multi-vehicle routing with capacities and time windows over a dense travel-time matrix.
+ *
+ * Stops are locations 0..stopCount-1 of the matrix; vehicles start and end at any location
+ * (or end wherever their last stop is). Construction is regret insertion: cheapest insertion
+ * that first places the stops with the most to lose from waiting, with each stop's best
+ * position per vehicle cached so only the route that changed is re-evaluated. Improvement then
+ * repeats, until no move helps or the time budget runs out, 2-opt and Or-opt within each route
+ * (routes in parallel) and Or-opt segment moves between routes (evaluated in parallel per
+ * source route, applied greedily on disjoint route pairs).
+ *
+ * Insertions are checked in O(1) against the latest feasible service start of every position;
+ * other moves are priced in O(1) from prefix sums and only improving ones are re-scheduled.
+ * Times are seconds from the plan start; a vehicle that arrives early waits for the window.
+ */
+public final class VehicleRouting {
+    // Stand-in for unreachable legs so move costs stay finite (and never look improving)
+    private static final double UNREACHABLE = 1e9;
+    private static final double EPSILON = 1e-6;
+    private static final int MAX_SEGMENT = 3;
+
+    private final float[] travel;
+    private final int size;
+    private final int stopCount;
+    private final float[] service;
+    private final float[] demand;
+    private final float[] earliest;
+    private final float[] latest;
+    private final List<Route> routes = new ArrayList<>();
+
+    private boolean[] assigned;
+    private int rounds;
+    private int moves;
+
+    /**
+     * @param travel   travel seconds from location a to b at travel[a * size + b]; +Infinity when unreachable
+     * @param service  service seconds per stop
+     * @param demand   load per stop (against vehicle capacity)
+     * @param earliest earliest service start per stop
+     * @param latest   latest service start per stop (+Infinity when unconstrained)
+     */
+    public VehicleRouting(float[] travel, int size, int stopCount, float[] service, float[] demand,
+                          float[] earliest, float[] latest) {
+        if (travel.length != (long) size * size || stopCount > size) {
+            throw new IllegalArgumentException("Travel matrix does not match the location count");
+        }
+        this.travel = travel;
+        this.size = size;
+        this.stopCount = stopCount;
+        this.service = service;
+        this.demand = demand;
+        this.earliest = earliest;
+        this.latest = latest;
+    }
+
+    /**
+     * Add a vehicle; end is -1 for a route that ends at its last stop
+     */
+    public void addVehicle(int start, int end, double capacity, double shiftStart, double shiftEnd) {
+        if (start < 0 || start >= size || end >= size) {
+            throw new IllegalArgumentException("Vehicle location out of range");
+        }
+        routes.add(new Route(start, end, capacity, shiftStart, shiftEnd));
+    }
+
+    /**
+     * Build and improve routes within roughly budgetMillis; progress receives 0..1 from the calling
+     * thread (construction, then improvement rounds), so a progress callback that throws cancels
+     */
+    public void solve(long budgetMillis, DoubleConsumer progress) {
+        if (routes.isEmpty()) {
+            throw new IllegalArgumentException("At least one vehicle is required");
+        }
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+        assigned = new boolean[stopCount];
+        rounds = 0;
+        moves = 0;
+        insertUnassigned(fraction -> progress.accept(0.3 * fraction));
+
+        long improveStart = System.nanoTime();
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            rounds++;
+            improved = false;
+            // Routes are independent for intra-route moves
+            int[] applied = new int[routes.size()];
+            IntStream.range(0, routes.size()).parallel().forEach(v -> applied[v] = improveIntra(routes.get(v), deadline));
+            for (int count : applied) {
+                moves += count;
+                improved |= count > 0;
+            }
+            if (System.nanoTime() < deadline && relocateBetween(deadline) > 0) {
+                improved = true;
+            }
+            // Moves may have freed capacity or time for stops that did not fit before
+            if (improved && unassignedCount() > 0) {
+                insertUnassigned(fraction -> { });
+            }
+            double elapsed = (double) (System.nanoTime() - improveStart) / Math.max(1, deadline - improveStart);
+            progress.accept(0.3 + 0.7 * Math.min(1.0, elapsed));
+        }
+        progress.accept(1.0);
+    }
+
+    // Construction
+
+    /**
+     * Regret insertion of every stop not yet routed; stops that fit no vehicle stay unassigned
+     */
+    private void insertUnassigned(DoubleConsumer progress) {
+        int vehicleCount = routes.size();
+        int[] pending = IntStream.range(0, stopCount).filter(s -> !assigned[s]).toArray();
+        int pendingCount = pending.length;
+        int total = pendingCount;
+        double[][] delta = new double[stopCount][];
+        int[][] gap = new int[stopCount][];
+        IntStream.range(0, pendingCount).parallel().forEach(i -> {
+            int s = pending[i];
+            delta[s] = new double[vehicleCount];
+            gap[s] = new int[vehicleCount];
+            for (int v = 0; v < vehicleCount; v++) {
+                bestInsertion(routes.get(v), s, delta[s], gap[s], v);
+            }
+        });
+
+        while (pendingCount > 0) {
+            int chosen = -1;
+            int chosenVehicle = -1;
+            double chosenRegret = Double.NEGATIVE_INFINITY;
+            double chosenCost = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < pendingCount; i++) {
+                int s = pending[i];
+                double best = Double.POSITIVE_INFINITY;
+                double second = Double.POSITIVE_INFINITY;
+                int bestVehicle = -1;
+                for (int v = 0; v < vehicleCount; v++) {
+                    double value = delta[s][v];
+                    if (value < best) {
+                        second = best;
+                        best = value;
+                        bestVehicle = v;
+                    } else if (value < second) {
+                        second = value;
+                    }
+                }
+                if (bestVehicle < 0) {
+                    continue;
+                }
+                // A stop that fits only one vehicle has unbounded regret and goes first
+                double regret = second - best;
+                if (regret > chosenRegret || (regret == chosenRegret && best < chosenCost)) {
+                    chosen = i;
+                    chosenVehicle = bestVehicle;
+                    chosenRegret = regret;
+                    chosenCost = best;
+                }
+            }
+            if (chosen < 0) {
+                break;
+            }
+            int stop = pending[chosen];
+            Route route = routes.get(chosenVehicle);
+            int insertedGap = gap[stop][chosenVehicle];
+            route.insert(insertedGap, new int[]{stop}, 0, 1);
+            assigned[stop] = true;
+            pending[chosen] = pending[--pendingCount];
+
+            int remaining = pendingCount;
+            int vehicle = chosenVehicle;
+            IntStream.range(0, remaining).parallel().forEach(i -> {
+                int s = pending[i];
+                updateInsertion(route, s, delta[s], gap[s], vehicle, insertedGap);
+            });
+            progress.accept((double) (total - pendingCount) / total);
+        }
+    }
+
+    /**
+     * Cheapest feasible gap of route for stop s into delta[v] / gap[v] (+Infinity when none)
+     */
+    private void bestInsertion(Route route, int s, double[] delta, int[] gap, int v) {
+        delta[v] = Double.POSITIVE_INFINITY;
+        gap[v] = -1;
+        if (route.load + demand[s] > route.capacity) {
+            return;
+        }
+        for (int g = 0; g <= route.len; g++) {
+            double value = route.insertionCost(s, g);
+            if (value < delta[v]) {
+                delta[v] = value;
+                gap[v] = g;
+            }
+        }
+    }
+
+    /**
+     * Refresh a cached best insertion after a stop went into gap insertedGap of route. The old gaps
+     * keep their costs and can only lose feasibility (an insertion delays the schedule when travel
+     * times obey the triangle inequality, as shortest-path times do), so unless the cached gap was
+     * the one filled or no longer fits, only the two new gaps around the stop need a look.
+     */
+    private void updateInsertion(Route route, int s, double[] delta, int[] gap, int v, int insertedGap) {
+        int cached = gap[v];
+        if (cached == insertedGap) {
+            bestInsertion(route, s, delta, gap, v);
+            return;
+        }
+        if (route.load + demand[s] > route.capacity) {
+            delta[v] = Double.POSITIVE_INFINITY;
+            gap[v] = -1;
+            return;
+        }
+        if (cached >= 0) {
+            int shifted = cached > insertedGap ? cached + 1 : cached;
+            if (route.insertionCost(s, shifted) < Double.POSITIVE_INFINITY) {
+                gap[v] = shifted;
+            } else {
+                bestInsertion(route, s, delta, gap, v);
+                return;
+            }
+        }
+        for (int g = insertedGap; g <= insertedGap + 1; g++) {
+            double value = route.insertionCost(s, g);
+            if (value < delta[v]) {
+                delta[v] = value;
+                gap[v] = g;
+            }
+        }
+    }
+
+    // Intra-route improvement
+
+    /**
+     * 2-opt and Or-opt within one route until neither improves; returns the number of moves applied
+     */
+    private int improveIntra(Route route, long deadline) {
+        int applied = 0;
+        while (System.nanoTime() < deadline && (twoOpt(route) || orOpt(route))) {
+            applied++;
+        }
+        return applied;
+    }
+
+    /**
+     * Apply the first improving feasible segment reversal
+     */
+    private boolean twoOpt(Route route) {
+        int len = route.len;
+        int[] seq = route.seq;
+        // forward[k] / backward[k]: travel along seq[0..k] in route order / against it
+        double[] forward = new double[len];
+        double[] backward = new double[len];
+        for (int k = 1; k < len; k++) {
+            forward[k] = forward[k - 1] + leg(seq[k - 1], seq[k]);
+            backward[k] = backward[k - 1] + leg(seq[k], seq[k - 1]);
+        }
+        int[] candidate = new int[len];
+        for (int i = 0; i < len - 1; i++) {
+            int a = route.location(i - 1);
+            int b = seq[i];
+            for (int j = i + 1; j < len; j++) {
+                int c = seq[j];
+                int d = route.location(j + 1);
+                double before = leg(a, b) + (forward[j] - forward[i]) + leg(c, d);
+                double after = leg(a, c) + (backward[j] - backward[i]) + leg(b, d);
+                if (after < before - EPSILON) {
+                    System.arraycopy(seq, 0, candidate, 0, len);
+                    for (int l = i, r = j; l < r; l++, r--) {
+                        candidate[l] = seq[r];
+                        candidate[r] = seq[l];
+                    }
+                    if (route.feasible(candidate, len)) {
+                        route.replace(candidate, len);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply the first improving feasible move of a segment of up to MAX_SEGMENT stops within the route
+     */
+    private boolean orOpt(Route route) {
+        int len = route.len;
+        int[] seq = route.seq;
+        int[] candidate = new int[len];
+        for (int k = 1; k <= MAX_SEGMENT && k < len; k++) {
+            for (int i = 0; i + k <= len; i++) {
+                int first = seq[i];
+                int last = seq[i + k - 1];
+                int before = route.location(i - 1);
+                int after = route.location(i + k);
+                double removed = leg(before, first) + leg(last, after) - leg(before, after);
+                for (int g = 0; g <= len; g++) {
+                    if (g >= i && g <= i + k) {
+                        continue;
+                    }
+                    int x = route.location(g - 1);
+                    int y = route.location(g);
+                    double added = leg(x, first) + leg(last, y) - leg(x, y);
+                    if (added < removed - EPSILON) {
+                        moveSegment(seq, len, i, k, g, candidate);
+                        if (route.feasible(candidate, len)) {
+                            route.replace(candidate, len);
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * seq with seq[i..i+k) moved to the gap before seq[g] (g outside the segment) into out
+     */
+    private static void moveSegment(int[] seq, int len, int i, int k, int g, int[] out) {
+        int n = 0;
+        for (int p = 0; p <= len; p++) {
+            if (p == g) {
+                for (int q = i; q < i + k; q++) {
+                    out[n++] = seq[q];
+                }
+            }
+            if (p < len && (p < i || p >= i + k)) {
+                out[n++] = seq[p];
+            }
+        }
+    }
+
+    // Inter-route improvement
+
+    /**
+     * Best Or-opt move out of every route (in parallel), applied greedily so each route changes
+     * at most once per call; returns the number of moves applied
+     */
+    private int relocateBetween(long deadline) {
+        if (routes.size() < 2) {
+            return 0;
+        }
+        Move[] best = new Move[routes.size()];
+        IntStream.range(0, routes.size()).parallel().forEach(a -> best[a] = bestRelocation(a, deadline));
+        List<Move> candidates = new ArrayList<>();
+        for (Move move : best) {
+            if (move != null) {
+                candidates.add(move);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(move -> move.delta));
+        boolean[] touched = new boolean[routes.size()];
+        int applied = 0;
+        for (Move move : candidates) {
+            if (touched[move.from] || touched[move.to]) {
+                continue;
+            }
+            Route from = routes.get(move.from);
+            Route to = routes.get(move.to);
+            int[] segment = Arrays.copyOfRange(from.seq, move.index, move.index + move.length);
+            from.remove(move.index, move.length);
+            to.insert(move.gap, segment, 0, segment.length);
+            touched[move.from] = true;
+            touched[move.to] = true;
+            applied++;
+        }
+        moves += applied;
+        return applied;
+    }
+
+    /**
+     * Most improving feasible move of a segment of route a into another route, or null
+     */
+    private Move bestRelocation(int a, long deadline) {
+        Route source = routes.get(a);
+        int len = source.len;
+        int[] seq = source.seq;
+        Move best = null;
+        int[] remaining = new int[len];
+        for (int k = 1; k <= MAX_SEGMENT && k <= len; k++) {
+            for (int i = 0; i + k <= len && System.nanoTime() < deadline; i++) {
+                int first = seq[i];
+                int last = seq[i + k - 1];
+                double inner = source.segmentTravel(i, k);
+                double load = 0;
+                for (int q = i; q < i + k; q++) {
+                    load += demand[seq[q]];
+                }
+                int before = source.location(i - 1);
+                int after = source.location(i + k);
+                // Saving of taking the segment out (an emptied route costs nothing)
+                double removed = k == len ? source.cost()
+                        : leg(before, first) + inner + leg(last, after) - leg(before, after);
+                boolean sourceChecked = false;
+                segment:
+                for (int b = 0; b < routes.size(); b++) {
+                    Route target = routes.get(b);
+                    if (b == a || target.load + load > target.capacity) {
+                        continue;
+                    }
+                    for (int g = 0; g <= target.len; g++) {
+                        int x = target.location(g - 1);
+                        int y = target.location(g);
+                        double added = leg(x, first) + inner + leg(last, y) - (target.len == 0 ? 0 : leg(x, y));
+                        double delta = added - removed;
+                        if (!(delta < -EPSILON) || (best != null && delta >= best.delta)) {
+                            continue;
+                        }
+                        if (!sourceChecked) {
+                            System.arraycopy(seq, 0, remaining, 0, i);
+                            System.arraycopy(seq, i + k, remaining, i, len - i - k);
+                            if (!source.feasible(remaining, len - k)) {
+                                break segment;
+                            }
+                            sourceChecked = true;
+                        }
+                        boolean fits = k == 1
+                                ? target.insertionCost(first, g) < Double.POSITIVE_INFINITY
+                                : target.feasibleWith(seq, i, k, g);
+                        if (fits) {
+                            best = new Move(a, i, k, b, g, delta);
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private double leg(int from, int to) {
+        if (to < 0) {
+            return 0;
+        }
+        float value = travel[from * size + to];
+        return value < UNREACHABLE ? value : UNREACHABLE;
+    }
+
+    private int unassignedCount() {
+        int count = 0;
+        for (boolean value : assigned) {
+            if (!value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Results
+
+    public int vehicleCount() {
+        return routes.size();
+    }
+
+    /**
+     * Stops of a vehicle's route in visiting order
+     */
+    public int[] route(int vehicle) {
+        Route route = routes.get(vehicle);
+        return Arrays.copyOf(route.seq, route.len);
+    }
+
+    /**
+     * Service start time at each stop of a vehicle's route
+     */
+    public double[] serviceStart(int vehicle) {
+        Route route = routes.get(vehicle);
+        return Arrays.copyOf(route.begin, route.len);
+    }
+
+    /**
+     * Time the vehicle reaches its end location (or finishes its last stop); its shift start when unused
+     */
+    public double finishTime(int vehicle) {
+        Route route = routes.get(vehicle);
+        return route.len == 0 ? route.shiftStart : route.schedule(route.seq, route.len, null);
+    }
+
+    /**
+     * Travel seconds of a vehicle's route, waiting and service excluded
+     */
+    public double routeTravel(int vehicle) {
+        return routes.get(vehicle).cost();
+    }
+
+    public double routeLoad(int vehicle) {
+        return routes.get(vehicle).load;
+    }
+
+    public double getTotalTravel() {
+        double total = 0;
+        for (Route route : routes) {
+            total += route.cost();
+        }
+        return total;
+    }
+
+    /**
+     * Stops no vehicle could serve within capacities, windows and shifts
+     */
+    public int[] getUnassigned() {
+        return IntStream.range(0, stopCount).filter(s -> !assigned[s]).toArray();
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * One vehicle's stop sequence with its schedule: begin[k] is the service start at seq[k] and
+     * latestBegin[k] the latest start there that keeps the rest of the route feasible
+     */
+    private final class Route {
+        private final int start;
+        private final int end;
+        private final double capacity;
+        private final double shiftStart;
+        private final double shiftEnd;
+        private int[] seq = new int[8];
+        private double[] begin = new double[8];
+        private double[] latestBegin = new double[8];
+        private double[] travelPrefix = new double[8];
+        private int len;
+        private double load;
+
+        Route(int start, int end, double capacity, double shiftStart, double shiftEnd) {
+            this.start = start;
+            this.end = end;
+            this.capacity = capacity;
+            this.shiftStart = shiftStart;
+            this.shiftEnd = shiftEnd;
+        }
+
+        /**
+         * Location at position k, with -1 the start and len the end (-1 for an open route)
+         */
+        int location(int k) {
+            return k < 0 ? start : k >= len ? end : seq[k];
+        }
+
+        /**
+         * Travel seconds through seq[i..i+k)
+         */
+        double segmentTravel(int i, int k) {
+            return travelPrefix[i + k - 1] - travelPrefix[i];
+        }
+
+        double cost() {
+            if (len == 0) {
+                return 0;
+            }
+            return leg(start, seq[0]) + travelPrefix[len - 1] + leg(seq[len - 1], end);
+        }
+
+        /**
+         * Added travel for serving stop s in gap g (before seq[g]), +Infinity when that breaks a
+         * window or the shift; capacity is checked by the caller
+         */
+        double insertionCost(int s, int g) {
+            int x = location(g - 1);
+            double depart = g == 0 ? shiftStart : begin[g - 1] + service[x];
+            double in = leg(x, s);
+            if (in >= UNREACHABLE) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double b = Math.max(depart + in, earliest[s]);
+            if (b > latest[s]) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double leave = b + service[s];
+            int y = location(g);
+            double out = leg(s, y);
+            if (out >= UNREACHABLE) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (g < len) {
+                if (Math.max(leave + out, earliest[y]) > latestBegin[g]) {
+                    return Double.POSITIVE_INFINITY;
+                }
+            } else if (leave + out > shiftEnd) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return in + out - (len == 0 ? 0 : leg(x, y));
+        }
+
+        /**
+         * Whether the route stays feasible with source[i..i+k) inserted in gap g
+         */
+        boolean feasibleWith(int[] source, int i, int k, int g) {
+            int[] candidate = new int[len + k];
+            System.arraycopy(seq, 0, candidate, 0, g);
+            System.arraycopy(source, i, candidate, g, k);
+            System.arraycopy(seq, g, candidate, g + k, len - g);
+            return feasible(candidate, len + k);
+        }
+
+        boolean feasible(int[] candidate, int count) {
+            return count == 0 || !Double.isNaN(schedule(candidate, count, null));
+        }
+
+        /**
+         * Service starts of candidate into out (when not null); returns the finish time, or NaN when
+         * a leg is unreachable or a window or the shift end is missed
+         */
+        double schedule(int[] candidate, int count, double[] out) {
+            double time = shiftStart;
+            int at = start;
+            for (int k = 0; k < count; k++) {
+                int s = candidate[k];
+                double t = leg(at, s);
+                if (t >= UNREACHABLE) {
+                    return Double.NaN;
+                }
+                double b = Math.max(time + t, earliest[s]);
+                if (b > latest[s]) {
+                    return Double.NaN;
+                }
+                if (out != null) {
+                    out[k] = b;
+                }
+                time = b + service[s];
+                at = s;
+            }
+            double t = leg(at, end);
+            if (t >= UNREACHABLE) {
+                return Double.NaN;
+            }
+            time += t;
+            return time <= shiftEnd ? time : Double.NaN;
+        }
+
+        void insert(int g, int[] stops, int from, int count) {
+            int[] next = new int[len + count];
+            System.arraycopy(seq, 0, next, 0, g);
+            System.arraycopy(stops, from, next, g, count);
+            System.arraycopy(seq, g, next, g + count, len - g);
+            replace(next, len + count);
+        }
+
+        void remove(int i, int count) {
+            int[] next = new int[len - count];
+            System.arraycopy(seq, 0, next, 0, i);
+            System.arraycopy(seq, i + count, next, i, len - i - count);
+            replace(next, len - count);
+        }
+
+        /**
+         * Take over a (feasible) sequence and refresh the schedule, slack and load
+         */
+        void replace(int[] candidate, int count) {
+            if (seq.length < count) {
+                int capacity = Math.max(count, seq.length * 2);
+                seq = new int[capacity];
+                begin = new double[capacity];
+                latestBegin = new double[capacity];
+                travelPrefix = new double[capacity];
+            }
+            System.arraycopy(candidate, 0, seq, 0, count);
+            len = count;
+            schedule(seq, len, begin);
+            load = 0;
+            for (int k = 0; k < len; k++) {
+                load += demand[seq[k]];
+                travelPrefix[k] = k == 0 ? 0 : travelPrefix[k - 1] + leg(seq[k - 1], seq[k]);
+            }
+            for (int k = len - 1; k >= 0; k--) {
+                int s = seq[k];
+                double leaveBy = k == len - 1
+                        ? shiftEnd - leg(s, end)
+                        : latestBegin[k + 1] - leg(s, seq[k + 1]);
+                latestBegin[k] = Math.min(latest[s], leaveBy - service[s]);
+            }
+        }
+    }
+
+    private static final class Move {
+        private final int from;
+        private final int index;
+        private final int length;
+        private final int to;
+        private final int gap;
+        private final double delta;
+
+        Move(int from, int index, int length, int to, int gap, double delta) {
+            this.from = from;
+            this.index = index;
+            this.length = length;
+            this.to = to;
+            this.gap = gap;
+            this.delta = delta;
+        }
+    }
+}
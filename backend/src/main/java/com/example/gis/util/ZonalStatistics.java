@@ -0,0 +1,369 @@
+package com.example.gis.util;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Zonal statistics of one level of a tiled raster under feature geometries.
+ *
+ * Polygons are rasterized by scanlines through the cell centres (even-odd rule, so holes are left
+ * out), sweeping the edges top to bottom with an active edge list and visiting the rows one tile
+ * band at a time, so only tiles under the polygon are read. A polygon covering no cell centre takes
+ * the cell under its interior point. Lines take every cell they pass through, points their cell.
+ * Values are the raster itself or, with a terrain analysis, its slope / aspect / hillshade,
+ * computed per tile and kept in the raster's tile cache, so features sharing a tile (and later
+ * jobs with the same product) compute it once. Instances are thread-safe; compute one feature per thread.
+ */
+public final class ZonalStatistics {
+    private static final int TILE_SIZE = TiledRaster.TILE_SIZE;
+
+    private final TiledRaster raster;
+    private final int level;
+    private final GridSpec grid;
+    private final TerrainAnalysis terrain;
+    private final int bins;
+    private final double histogramMin;
+    private final double histogramMax;
+
+    /**
+     * @param terrain product computed from the raster, or null for its values
+     * @param bins    histogram bins over [histogramMin, histogramMax]; values outside go to the end bins
+     */
+    public ZonalStatistics(TiledRaster raster, int level, TerrainAnalysis terrain,
+                           int bins, double histogramMin, double histogramMax) {
+        this.raster = raster;
+        this.level = level;
+        this.grid = raster.level(level);
+        this.terrain = terrain;
+        this.bins = bins;
+        this.histogramMin = histogramMin;
+        this.histogramMax = histogramMax;
+    }
+
+    public Zone compute(Geometry geometry) throws IOException {
+        Zone zone = new Zone(bins);
+        Map<Long, float[]> tiles = new HashMap<>();
+        if (geometry.getDimension() == 2) {
+            int cells = sweep(geometry, zone, tiles);
+            if (cells == 0 && !geometry.isEmpty()) {
+                addCell(geometry.getInteriorPoint().getCoordinate(), zone, tiles);
+            }
+            return zone;
+        }
+        Set<Long> cells = new LinkedHashSet<>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof LineString) {
+                lineCells(part.getCoordinates(), cells);
+            } else if (part instanceof Point && !part.isEmpty()) {
+                long cell = cellOf(part.getCoordinate().x, part.getCoordinate().y);
+                if (cell >= 0) {
+                    cells.add(cell);
+                }
+            }
+        }
+        for (long cell : cells) {
+            add((int) (cell >>> 32), (int) cell, zone, tiles);
+        }
+        return zone;
+    }
+
+    /**
+     * Accumulate the cells whose centres fall inside the polygons; returns the number of such cells
+     */
+    private int sweep(Geometry geometry, Zone zone, Map<Long, float[]> tiles) throws IOException {
+        Edges edges = new Edges();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon) {
+                Polygon polygon = (Polygon) part;
+                edges.addRing(polygon.getExteriorRing().getCoordinates());
+                for (int h = 0; h < polygon.getNumInteriorRing(); h++) {
+                    edges.addRing(polygon.getInteriorRingN(h).getCoordinates());
+                }
+            }
+        }
+        if (edges.size == 0) {
+            return 0;
+        }
+        edges.sort();
+
+        double top = geometry.getEnvelopeInternal().getMaxY();
+        double bottom = geometry.getEnvelopeInternal().getMinY();
+        int row0 = (int) Math.max(0, Math.ceil((grid.getMaxY() - top) / grid.getCellHeight() - 0.5));
+        int row1 = (int) Math.min(grid.getHeight() - 1, Math.floor((grid.getMaxY() - bottom) / grid.getCellHeight() - 0.5));
+        int cells = 0;
+        int[] active = new int[edges.size];
+        int activeCount = 0;
+        int next = 0;
+        double[] crossings = new double[edges.size];
+        List<int[]> bandSpans = new ArrayList<>();
+        for (int bandStart = row0; bandStart <= row1; bandStart = (bandStart / TILE_SIZE + 1) * TILE_SIZE) {
+            int bandEnd = Math.min(row1, (bandStart / TILE_SIZE + 1) * TILE_SIZE - 1);
+            bandSpans.clear();
+            // Tiles of earlier bands are not needed again
+            tiles.clear();
+            int minCol = Integer.MAX_VALUE;
+            int maxCol = -1;
+            for (int row = bandStart; row <= bandEnd; row++) {
+                double y = grid.centerY(row);
+                // Edges cross the scanline when bottom <= y < top, so shared vertices count once
+                while (next < edges.size && edges.top(edges.order[next]) > y) {
+                    active[activeCount++] = edges.order[next++];
+                }
+                int crossingCount = 0;
+                for (int a = 0; a < activeCount; a++) {
+                    int e = active[a];
+                    if (edges.bottom(e) > y) {
+                        active[a--] = active[--activeCount];
+                        continue;
+                    }
+                    crossings[crossingCount++] = edges.xAt(e, y);
+                }
+                Arrays.sort(crossings, 0, crossingCount);
+                int[] spans = new int[crossingCount];
+                int spanCount = 0;
+                for (int k = 0; k + 1 < crossingCount; k += 2) {
+                    int col0 = (int) Math.max(0, Math.ceil((crossings[k] - grid.getMinX()) / grid.getCellWidth() - 0.5));
+                    int col1 = (int) Math.min(grid.getWidth(),
+                            Math.ceil((crossings[k + 1] - grid.getMinX()) / grid.getCellWidth() - 0.5));
+                    if (col0 < col1) {
+                        spans[spanCount++] = col0;
+                        spans[spanCount++] = col1;
+                        minCol = Math.min(minCol, col0);
+                        maxCol = Math.max(maxCol, col1 - 1);
+                        cells += col1 - col0;
+                    }
+                }
+                bandSpans.add(Arrays.copyOf(spans, spanCount));
+            }
+            if (maxCol < 0) {
+                continue;
+            }
+            int ty = bandStart / TILE_SIZE;
+            for (int tx = minCol / TILE_SIZE; tx <= maxCol / TILE_SIZE; tx++) {
+                float[] values = values(tx, ty, tiles);
+                if (values == null) {
+                    continue;
+                }
+                int tileCol0 = tx * TILE_SIZE;
+                int tileCol1 = tileCol0 + TILE_SIZE;
+                for (int r = 0; r < bandSpans.size(); r++) {
+                    int[] spans = bandSpans.get(r);
+                    int offset = (bandStart + r - ty * TILE_SIZE) * TILE_SIZE - tileCol0;
+                    for (int s = 0; s < spans.length; s += 2) {
+                        int from = Math.max(spans[s], tileCol0);
+                        int to = Math.min(spans[s + 1], tileCol1);
+                        for (int col = from; col < to; col++) {
+                            zone.add(values[offset + col], histogramMin, histogramMax);
+                        }
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Cells along a line, walking each segment in steps of half a cell
+     */
+    private void lineCells(Coordinate[] coordinates, Set<Long> cells) {
+        double step = Math.min(grid.getCellWidth(), grid.getCellHeight()) / 2;
+        for (int i = 0; i < coordinates.length; i++) {
+            Coordinate from = coordinates[i];
+            Coordinate to = i + 1 < coordinates.length ? coordinates[i + 1] : from;
+            int steps = Math.max(1, (int) Math.ceil(from.distance(to) / step));
+            for (int s = 0; s <= steps; s++) {
+                double t = (double) s / steps;
+                long cell = cellOf(from.x + (to.x - from.x) * t, from.y + (to.y - from.y) * t);
+                if (cell >= 0) {
+                    cells.add(cell);
+                }
+            }
+        }
+    }
+
+    private void addCell(Coordinate coordinate, Zone zone, Map<Long, float[]> tiles) throws IOException {
+        long cell = cellOf(coordinate.x, coordinate.y);
+        if (cell >= 0) {
+            add((int) (cell >>> 32), (int) cell, zone, tiles);
+        }
+    }
+
+    private void add(int col, int row, Zone zone, Map<Long, float[]> tiles) throws IOException {
+        float[] values = values(col / TILE_SIZE, row / TILE_SIZE, tiles);
+        if (values != null) {
+            zone.add(values[(row % TILE_SIZE) * TILE_SIZE + col % TILE_SIZE], histogramMin, histogramMax);
+        }
+    }
+
+    /**
+     * Column (high half) and row (low half) of the cell containing a point, or -1 outside the raster
+     */
+    private long cellOf(double x, double y) {
+        double col = Math.floor((x - grid.getMinX()) / grid.getCellWidth());
+        double row = Math.floor((grid.getMaxY() - y) / grid.getCellHeight());
+        if (col < 0 || row < 0 || col >= grid.getWidth() || row >= grid.getHeight()) {
+            return -1;
+        }
+        return (long) col << 32 | (long) row;
+    }
+
+    /**
+     * Values of a tile (TILE_SIZE x TILE_SIZE, row-major), or null for a tile without data
+     */
+    private float[] values(int tx, int ty, Map<Long, float[]> tiles) throws IOException {
+        long key = (long) tx << 32 | ty;
+        if (tiles.containsKey(key)) {
+            return tiles.get(key);
+        }
+        float[] values = terrain == null ? raster.tile(level, tx, ty)
+                : raster.derivedTile("zonal:" + terrain.getKey(), level, tx, ty, () -> product(tx, ty));
+        tiles.put(key, values);
+        return values;
+    }
+
+    /**
+     * Terrain product of a tile, padded with NaN to TILE_SIZE x TILE_SIZE, or null for a tile without data
+     */
+    private float[] product(int tx, int ty) throws IOException {
+        if (raster.tile(level, tx, ty) == null) {
+            return null;
+        }
+        int width = Math.min(TILE_SIZE, grid.getWidth() - tx * TILE_SIZE);
+        int height = Math.min(TILE_SIZE, grid.getHeight() - ty * TILE_SIZE);
+        float[] product = terrain.run(grid.window(tx * TILE_SIZE, ty * TILE_SIZE, width, height),
+                TerrainAnalysis.Units.DEGREES,
+                window -> {
+                    try {
+                        return raster.sample(window);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, new RasterStatistics());
+        float[] values = new float[TILE_SIZE * TILE_SIZE];
+        Arrays.fill(values, Float.NaN);
+        for (int r = 0; r < height; r++) {
+            System.arraycopy(product, r * width, values, r * TILE_SIZE, width);
+        }
+        return values;
+    }
+
+    /**
+     * Polygon edges, ordered by their top for the sweep
+     */
+    private static final class Edges {
+        private double[] coordinates = new double[64];
+        private int size;
+        private int[] order;
+
+        void addRing(Coordinate[] ring) {
+            for (int i = 0; i + 1 < ring.length; i++) {
+                Coordinate a = ring[i];
+                Coordinate b = ring[i + 1];
+                if (a.y == b.y) {
+                    continue;
+                }
+                if (4 * size + 4 > coordinates.length) {
+                    coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+                }
+                // Stored bottom point first
+                Coordinate low = a.y < b.y ? a : b;
+                Coordinate high = a.y < b.y ? b : a;
+                coordinates[4 * size] = low.x;
+                coordinates[4 * size + 1] = low.y;
+                coordinates[4 * size + 2] = high.x;
+                coordinates[4 * size + 3] = high.y;
+                size++;
+            }
+        }
+
+        void sort() {
+            order = IntStream.range(0, size).boxed()
+                    .sorted((a, b) -> Double.compare(top(b), top(a)))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        double bottom(int e) {
+            return coordinates[4 * e + 1];
+        }
+
+        double top(int e) {
+            return coordinates[4 * e + 3];
+        }
+
+        double xAt(int e, double y) {
+            double x0 = coordinates[4 * e];
+            double y0 = coordinates[4 * e + 1];
+            return x0 + (y - y0) * (coordinates[4 * e + 2] - x0) / (coordinates[4 * e + 3] - y0);
+        }
+    }
+
+    /**
+     * Statistics of the valid cells of one zone
+     */
+    public static final class Zone {
+        private final long[] histogram;
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        Zone(int bins) {
+            this.histogram = new long[bins];
+        }
+
+        void add(float value, double histogramMin, double histogramMax) {
+            if (Float.isNaN(value)) {
+                return;
+            }
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (histogram.length > 0) {
+                int bin = (int) Math.floor((value - histogramMin) / (histogramMax - histogramMin) * histogram.length);
+                histogram[Math.max(0, Math.min(histogram.length - 1, bin))]++;
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return count > 0 ? min : Double.NaN;
+        }
+
+        public double getMax() {
+            return count > 0 ? max : Double.NaN;
+        }
+
+        public double getMean() {
+            return count > 0 ? sum / count : Double.NaN;
+        }
+
+        public long[] getHistogram() {
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,3 @@
+-- Layer generation whose last aggregate build failed; builds on first use are skipped for it
+-- until the layer changes, instead of being started again by every request
+ALTER TABLE layer_aggregate_state ADD COLUMN failed_generation BIGINT;
@@ -0,0 +1,38 @@
+-- Per-zoom cluster cell aggregates for point layers, maintained incrementally on edits.
+-- Cells are 64px in Web Mercator (4 per 256px tile edge), so cells at zoom z line up with tile z/x/y.
+
+-- Cell index of a longitude / latitude at a zoom level (4 << zoom cells per axis)
+CREATE OR REPLACE FUNCTION cluster_cell_x(DOUBLE PRECISION, INTEGER) RETURNS INTEGER AS $$
+    SELECT LEAST(GREATEST(floor(($1 + 180.0) / 360.0 * (4 << $2))::integer, 0), (4 << $2) - 1)
+$$ LANGUAGE sql IMMUTABLE STRICT;
+
+CREATE OR REPLACE FUNCTION cluster_cell_y(DOUBLE PRECISION, INTEGER) RETURNS INTEGER AS $$
+    SELECT LEAST(GREATEST(floor(
+        (1.0 - ln(tan(radians(LEAST(GREATEST($1, -85.0511287798), 85.0511287798)))
+                  + 1.0 / cos(radians(LEAST(GREATEST($1, -85.0511287798), 85.0511287798)))) / pi()) / 2.0
+        * (4 << $2))::integer, 0), (4 << $2) - 1)
+$$ LANGUAGE sql IMMUTABLE STRICT;
+
+CREATE TABLE cluster_cells (
+    layer_id UUID NOT NULL REFERENCES layers(id) ON DELETE CASCADE,
+    zoom SMALLINT NOT NULL,
+    cell_x INTEGER NOT NULL,
+    cell_y INTEGER NOT NULL,
+    point_count BIGINT NOT NULL,
+    sum_lng DOUBLE PRECISION NOT NULL,
+    sum_lat DOUBLE PRECISION NOT NULL,
+    min_lng DOUBLE PRECISION NOT NULL,
+    min_lat DOUBLE PRECISION NOT NULL,
+    max_lng DOUBLE PRECISION NOT NULL,
+    max_lat DOUBLE PRECISION NOT NULL,
+    PRIMARY KEY (layer_id, zoom, cell_x, cell_y)
+);
+
+-- Build state of derived per-layer aggregates (cluster cells, density pyramids, ...)
+CREATE TABLE layer_aggregate_state (
+    layer_id UUID NOT NULL REFERENCES layers(id) ON DELETE CASCADE,
+    aggregate VARCHAR(32) NOT NULL,
+    status VARCHAR(16) NOT NULL,
+    built_at TIMESTAMP WITH TIME ZONE,
+    PRIMARY KEY (layer_id, aggregate)
+);
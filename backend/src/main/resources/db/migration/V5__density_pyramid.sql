@@ -0,0 +1,38 @@
+-- Quadtree density pyramid for point layers: one 64x64 count grid per web-mercator tile
+-- and zoom level, maintained incrementally on edits. Cells at zoom z are 4px (a zoom z+6 tile).
+
+-- Cell index of a longitude / latitude on a web-mercator axis split into $2 cells
+CREATE OR REPLACE FUNCTION mercator_cell_x(DOUBLE PRECISION, INTEGER) RETURNS INTEGER AS $$
+    SELECT LEAST(GREATEST(floor(($1 + 180.0) / 360.0 * $2)::integer, 0), $2 - 1)
+$$ LANGUAGE sql IMMUTABLE STRICT;
+
+CREATE OR REPLACE FUNCTION mercator_cell_y(DOUBLE PRECISION, INTEGER) RETURNS INTEGER AS $$
+    SELECT LEAST(GREATEST(floor(
+        (1.0 - ln(tan(radians(LEAST(GREATEST($1, -85.0511287798), 85.0511287798)))
+                  + 1.0 / cos(radians(LEAST(GREATEST($1, -85.0511287798), 85.0511287798)))) / pi()) / 2.0
+        * $2)::integer, 0), $2 - 1)
+$$ LANGUAGE sql IMMUTABLE STRICT;
+
+CREATE TABLE density_tiles (
+    layer_id UUID NOT NULL REFERENCES layers(id) ON DELETE CASCADE,
+    zoom SMALLINT NOT NULL,
+    tile_x INTEGER NOT NULL,
+    tile_y INTEGER NOT NULL,
+    counts INTEGER[] NOT NULL, -- 4096 counts, row-major from the north-west cell
+    total BIGINT NOT NULL,
+    PRIMARY KEY (layer_id, zoom, tile_x, tile_y)
+);
+
+-- Counts with deltas added at the given 1-based cells; edits sum their deltas per tile first
+-- so that every touched tile is rewritten once per batch
+CREATE OR REPLACE FUNCTION density_add(p_counts INTEGER[], p_cells INTEGER[], p_deltas INTEGER[])
+RETURNS INTEGER[] AS $$
+DECLARE
+    i INTEGER;
+BEGIN
+    FOR i IN 1 .. COALESCE(array_length(p_cells, 1), 0) LOOP
+        p_counts[p_cells[i]] := p_counts[p_cells[i]] + p_deltas[i];
+    END LOOP;
+    RETURN p_counts;
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
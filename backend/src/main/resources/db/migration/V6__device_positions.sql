@@ -0,0 +1,12 @@
+-- Position history of tracked devices, read back as traces for map matching
+
+CREATE TABLE device_positions (
+    id BIGSERIAL PRIMARY KEY,
+    device_id UUID NOT NULL REFERENCES devices(id) ON DELETE CASCADE,
+    position GEOMETRY(POINT, 4326) NOT NULL,
+    recorded_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_device_positions_device_time ON device_positions(device_id, recorded_at);
+-- Positions past the retention period are purged by age
+CREATE INDEX idx_device_positions_recorded_at ON device_positions(recorded_at);
@@ -0,0 +1,14 @@
+-- Epoch seconds of an ISO-8601 timestamp held in a text property, or NULL when the text is
+-- not a timestamp, so that analyses skip such values instead of failing on the cast
+CREATE OR REPLACE FUNCTION property_epoch(p_value TEXT) RETURNS DOUBLE PRECISION AS $$
+BEGIN
+    IF p_value IS NULL OR p_value !~ '^\s*\d{4}-\d{1,2}-\d{1,2}' THEN
+        RETURN NULL;
+    END IF;
+    BEGIN
+        RETURN EXTRACT(EPOCH FROM p_value::timestamptz);
+    EXCEPTION WHEN data_exception THEN
+        RETURN NULL;
+    END;
+END;
+$$ LANGUAGE plpgsql STABLE;
@@ -0,0 +1,13 @@
+-- Edit generation of each layer, bumped in the transaction of every edit. Caches, road graph
+-- files and hierarchy files derived from a layer are keyed by it, so it must survive cache
+-- flushes and restarts and can never move backwards.
+
+CREATE TABLE layer_generations (
+    layer_id UUID PRIMARY KEY REFERENCES layers(id) ON DELETE CASCADE,
+    generation BIGINT NOT NULL
+);
+
+-- Generations used to be counted in Redis; start existing layers past any value counted there
+-- so that results and files of those generations are never taken as current
+INSERT INTO layer_generations (layer_id, generation)
+SELECT id, extract(epoch FROM now())::bigint FROM layers;
@@ -0,0 +1,20 @@
+-- Versions of cluster cell tiles, so that a point edit retires the cached cells and cluster tiles
+-- of the tiles it touches and no others. Every build takes a fresh version for the whole layer;
+-- edits give each touched tile a fresh one. Versions come from one sequence and never repeat.
+
+CREATE SEQUENCE cluster_tile_version_seq;
+
+ALTER TABLE layer_aggregate_state ADD COLUMN version BIGINT;
+
+CREATE TABLE cluster_tile_versions (
+    layer_id UUID NOT NULL REFERENCES layers(id) ON DELETE CASCADE,
+    zoom SMALLINT NOT NULL,
+    tile_x INTEGER NOT NULL,
+    tile_y INTEGER NOT NULL,
+    version BIGINT NOT NULL,
+    PRIMARY KEY (layer_id, zoom, tile_x, tile_y)
+);
+
+-- Cells built before versions existed
+UPDATE layer_aggregate_state SET version = nextval('cluster_tile_version_seq')
+WHERE aggregate = 'cluster_cells' AND status = 'READY';
@@ -0,0 +1,323 @@
+package com.example.gis.service;
+
+import com.example.gis.dto.IsochroneRequest;
+import com.example.gis.dto.IsochroneResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hedging, timeouts, in-flight caps and circuit breaking of the provider client, against a
+ * local stub server with injected latency and failures
+ */
+class IsochroneProviderClientTest {
+    private static final String CIRCUIT_OPEN = "circuit is open";
+
+    private StubRoutingServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = new StubRoutingServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void readsOsrmContours() {
+        IsochroneResponse response = client(2000, 8, 0, 5, 30).osrm(request(13.4, List.of(300, 600)));
+
+        assertEquals(List.of(300, 600), values(response));
+        assertTrue(server.requestUris().get(0).getPath().startsWith("/route/v1/driving/13.4"));
+    }
+
+    @Test
+    void splitsUnevenGraphhopperContoursIntoConcurrentCalls() {
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.ok(StubRoutingServer.graphhopperIsochrone(1)).after(300));
+
+        IsochroneResponse response = client(2000, 8, 0, 5, 30).graphhopper(request(13.4, List.of(300, 700)));
+
+        assertEquals(List.of(300, 700), values(response));
+        List<String> queries = server.requestUris().stream().map(URI::getQuery).collect(Collectors.toList());
+        assertTrue(queries.stream().anyMatch(query -> query.contains("time_limit=300&buckets=1")));
+        assertTrue(queries.stream().anyMatch(query -> query.contains("time_limit=700&buckets=1")));
+        // GraphHopper takes lat,lng
+        assertTrue(queries.get(0).startsWith("point=52.500000,13.400000"));
+        // Both calls were in flight together
+        assertEquals(2, server.maxInFlight());
+    }
+
+    @Test
+    void asksGraphhopperOnceForEvenlySpacedContours() {
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.ok(StubRoutingServer.graphhopperIsochrone(3)));
+
+        IsochroneResponse response = client(2000, 8, 0, 5, 30).graphhopper(request(13.4, List.of(300, 600, 900)));
+
+        assertEquals(List.of(300, 600, 900), values(response));
+        assertEquals(1, server.requestCount());
+        assertTrue(server.requestUris().get(0).getQuery().contains("time_limit=900&buckets=3"));
+    }
+
+    @Test
+    void hedgeAnswersWhenFirstAttemptIsSlow() {
+        server.respond((uri, attempt) -> attempt == 1
+                ? StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE).after(5000)
+                : StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE));
+        long started = System.nanoTime();
+
+        IsochroneResponse response = client(10_000, 8, 100, 5, 30).osrm(request(13.4, List.of(300, 600)));
+
+        assertEquals(List.of(300, 600), values(response));
+        assertEquals(2, server.requestCount());
+        assertTrue(millisSince(started) < 4000);
+    }
+
+    @Test
+    void retriesAtOnceAfterServerError() {
+        server.respond((uri, attempt) -> attempt == 1
+                ? StubRoutingServer.Reply.error(503)
+                : StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE));
+        long started = System.nanoTime();
+
+        // The hedge delay is far away, so only the retry on failure can explain a quick answer
+        IsochroneResponse response = client(5000, 8, 10_000, 5, 30).osrm(request(13.4, List.of(300, 600)));
+
+        assertEquals(List.of(300, 600), values(response));
+        assertEquals(2, server.requestCount());
+        assertTrue(millisSince(started) < 5000);
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.error(400));
+        IsochroneProviderClient client = client(2000, 8, 10_000, 1, 30);
+
+        IllegalStateException error = assertThrows(IllegalStateException.class,
+                () -> client.osrm(request(13.4, List.of(300))));
+
+        assertTrue(error.getMessage().contains("HTTP 400"));
+        assertEquals(1, server.requestCount());
+        // A client error says nothing about the provider, so the circuit (threshold 1) stays closed
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE));
+        assertEquals(List.of(300, 600), values(client.osrm(request(13.4, List.of(300)))));
+    }
+
+    @Test
+    void timesOutWhenNoAttemptAnswersAndCountsTimeoutsAsFailures() {
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE).after(5000));
+        IsochroneProviderClient client = client(300, 8, 100, 1, 30);
+        long started = System.nanoTime();
+
+        assertThrows(IllegalStateException.class, () -> client.osrm(request(13.4, List.of(300))));
+
+        // First attempt and hedge were both sent and given up well before the stub would have answered
+        assertTrue(millisSince(started) < 4000);
+        assertEquals(2, server.requestCount());
+        // The timed-out first attempt counted as a failure and opened the circuit (threshold 1)
+        IllegalStateException rejected = assertThrows(IllegalStateException.class,
+                () -> client.osrm(request(13.4, List.of(300))));
+        assertTrue(rejected.getMessage().contains(CIRCUIT_OPEN));
+        assertEquals(2, server.requestCount());
+    }
+
+    @Test
+    void circuitOpensThenLetsOneTrialThroughThenCloses() throws Exception {
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.error(500));
+        IsochroneProviderClient client = client(2000, 16, 0, 3, 1);
+
+        for (int i = 0; i < 3; i++) {
+            IllegalStateException error = assertThrows(IllegalStateException.class,
+                    () -> client.osrm(request(13.4, List.of(300))));
+            assertTrue(error.getMessage().contains("HTTP 500"));
+        }
+        // Open: calls fail without reaching the provider
+        IllegalStateException rejected = assertThrows(IllegalStateException.class,
+                () -> client.osrm(request(13.4, List.of(300))));
+        assertTrue(rejected.getMessage().contains(CIRCUIT_OPEN));
+        assertEquals(3, server.requestCount());
+
+        // Half-open: of a burst, only one trial reaches the recovered provider
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE).after(500));
+        Thread.sleep(1100);
+        List<Future<IsochroneResponse>> burst = concurrently(8, i -> client.osrm(request(13.4 + i * 0.001, List.of(300))));
+        assertEquals(1, succeeded(burst));
+        assertEquals(7, failedWith(burst, CIRCUIT_OPEN));
+        assertEquals(4, server.requestCount());
+
+        // Closed again after the successful trial
+        List<Future<IsochroneResponse>> after = concurrently(8, i -> client.osrm(request(13.4 + i * 0.001, List.of(300))));
+        assertEquals(8, succeeded(after));
+        assertEquals(12, server.requestCount());
+    }
+
+    @Test
+    void failedTrialReopensCircuit() throws Exception {
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.error(502));
+        IsochroneProviderClient client = client(2000, 8, 0, 1, 1);
+
+        assertThrows(IllegalStateException.class, () -> client.osrm(request(13.4, List.of(300))));
+        Thread.sleep(1100);
+        IllegalStateException trial = assertThrows(IllegalStateException.class,
+                () -> client.osrm(request(13.4, List.of(300))));
+        assertTrue(trial.getMessage().contains("HTTP 502"));
+        assertEquals(2, server.requestCount());
+
+        // The failed trial opened the circuit for another full period
+        IllegalStateException rejected = assertThrows(IllegalStateException.class,
+                () -> client.osrm(request(13.4, List.of(300))));
+        assertTrue(rejected.getMessage().contains(CIRCUIT_OPEN));
+        assertEquals(2, server.requestCount());
+
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE));
+        Thread.sleep(1100);
+        assertEquals(List.of(300, 600), values(client.osrm(request(13.4, List.of(300)))));
+        assertEquals(List.of(300, 600), values(client.osrm(request(13.4, List.of(300)))));
+        assertEquals(4, server.requestCount());
+    }
+
+    @Test
+    void capsRequestsInFlightWithoutTrippingTheCircuit() throws Exception {
+        server.respond((uri, attempt) -> StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE).after(500));
+        IsochroneProviderClient client = client(2000, 4, 0, 3, 30);
+
+        List<Future<IsochroneResponse>> calls = concurrently(12, i -> client.osrm(request(13.4 + i * 0.001, List.of(300))));
+
+        assertEquals(4, succeeded(calls));
+        assertEquals(8, failedWith(calls, "too many requests in flight"));
+        assertEquals(4, server.requestCount());
+        // Shedding load is not a provider failure: the circuit (threshold 3) is still closed
+        assertEquals(List.of(300, 600), values(client.osrm(request(13.4, List.of(300)))));
+    }
+
+    @Test
+    void hedgesEverySlowCallUnderConcurrentLoad() throws Exception {
+        // The first attempt of every call stalls; its hedge answers at once
+        server.respond((uri, attempt) -> attempt == 1
+                ? StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE).after(5000)
+                : StubRoutingServer.Reply.ok(StubRoutingServer.OSRM_ISOCHRONE).after(20));
+        IsochroneProviderClient client = client(10_000, 64, 100, 5, 30);
+        long started = System.nanoTime();
+
+        List<Future<IsochroneResponse>> calls = concurrently(20, i -> client.osrm(request(13.4 + i * 0.001, List.of(300))));
+
+        assertEquals(20, succeeded(calls));
+        assertEquals(40, server.requestCount());
+        assertTrue(millisSince(started) < 4000);
+    }
+
+    private IsochroneProviderClient client(long timeoutMs, int maxConcurrent, long hedgeAfterMs,
+                                           int failureThreshold, long openSeconds) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+        return new IsochroneProviderClient(httpClient, new ObjectMapper(),
+                server.url(), timeoutMs, maxConcurrent, hedgeAfterMs,
+                server.url(), timeoutMs, maxConcurrent, hedgeAfterMs,
+                failureThreshold, openSeconds);
+    }
+
+    private static IsochroneRequest request(double longitude, List<Integer> contours) {
+        IsochroneRequest request = new IsochroneRequest();
+        request.setLongitude(longitude);
+        request.setLatitude(52.5);
+        request.setContours(contours);
+        return request;
+    }
+
+    private static List<Integer> values(IsochroneResponse response) {
+        return response.getContours().stream()
+                .map(IsochroneResponse.IsochroneContour::getValue)
+                .collect(Collectors.toList());
+    }
+
+    private static long millisSince(long startedNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+    }
+
+    /**
+     * Run calls on their own threads, released together, and wait for all of them
+     */
+    private static <T> List<Future<T>> concurrently(int calls, IntFunction<T> call) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(calls);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                int index = i;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return call.apply(index);
+                }));
+            }
+            start.countDown();
+            for (Future<T> future : futures) {
+                try {
+                    future.get(30, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    // Counted by the assertions
+                } catch (TimeoutException e) {
+                    throw new AssertionError("Call did not finish", e);
+                }
+            }
+            return futures;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int succeeded(List<? extends Future<?>> futures) {
+        int count = 0;
+        for (Future<?> future : futures) {
+            if (failure(future) == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int failedWith(List<? extends Future<?>> futures, String message) {
+        int count = 0;
+        for (Future<?> future : futures) {
+            Throwable failure = failure(future);
+            if (failure != null && failure.getMessage() != null && failure.getMessage().contains(message)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Throwable failure(Future<?> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.gis.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for OSRM and GraphHopper: a JDK HttpServer that answers each request with a
+ * canned reply picked by the test, after an injected delay. Requests are counted per URI, so a
+ * test can tell a first attempt from a hedge of the same call.
+ */
+final class StubRoutingServer implements AutoCloseable {
+    static final String OSRM_ISOCHRONE = "{\"type\":\"FeatureCollection\",\"features\":["
+            + "{\"type\":\"Feature\",\"properties\":{\"contour\":300},\"geometry\":" + square(0.01) + "},"
+            + "{\"type\":\"Feature\",\"properties\":{\"contour\":600},\"geometry\":" + square(0.02) + "}]}";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    private final List<URI> uris = new CopyOnWriteArrayList<>();
+    private volatile Responder responder = (uri, attempt) -> Reply.ok(OSRM_ISOCHRONE);
+
+    /**
+     * Reply to a request; attempt counts the requests for the same URI, starting at 1
+     */
+    @FunctionalInterface
+    interface Responder {
+        Reply reply(URI uri, int attempt);
+    }
+
+    static final class Reply {
+        private final int status;
+        private final String body;
+        private final long delayMs;
+
+        private Reply(int status, String body, long delayMs) {
+            this.status = status;
+            this.body = body;
+            this.delayMs = delayMs;
+        }
+
+        static Reply ok(String body) {
+            return new Reply(200, body, 0);
+        }
+
+        static Reply error(int status) {
+            return new Reply(status, "{\"message\":\"stub failure\"}", 0);
+        }
+
+        Reply after(long delayMs) {
+            return new Reply(status, body, delayMs);
+        }
+    }
+
+    StubRoutingServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    void respond(Responder responder) {
+        this.responder = responder;
+    }
+
+    int requestCount() {
+        return requests.get();
+    }
+
+    List<URI> requestUris() {
+        return uris;
+    }
+
+    /**
+     * Most requests the server was handling at the same time
+     */
+    int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * GraphHopper isochrone body with one polygon per bucket
+     */
+    static String graphhopperIsochrone(int buckets) {
+        StringBuilder body = new StringBuilder("{\"polygons\":[");
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            if (bucket > 0) {
+                body.append(',');
+            }
+            body.append("{\"type\":\"Feature\",\"properties\":{\"bucket\":").append(bucket)
+                    .append("},\"geometry\":").append(square(0.01 * (bucket + 1))).append('}');
+        }
+        return body.append("]}").toString();
+    }
+
+    private static String square(double size) {
+        return "{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[" + size + ",0],[" + size + "," + size
+                + "],[0," + size + "],[0,0]]]}";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            URI uri = exchange.getRequestURI();
+            requests.incrementAndGet();
+            uris.add(uri);
+            int attempt = attempts.computeIfAbsent(uri.toString(), key -> new AtomicInteger()).incrementAndGet();
+            Reply reply = responder.reply(uri, attempt);
+            if (reply.delayMs > 0) {
+                Thread.sleep(reply.delayMs);
+            }
+            byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(reply.status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client gave up on this attempt (timeout or a cancelled hedge)
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
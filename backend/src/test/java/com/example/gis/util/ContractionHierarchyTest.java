@@ -0,0 +1,159 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Hierarchy queries and matrices against plain Dijkstra on random graphs, including zero-cost
+ * and forbidden edges
+ */
+class ContractionHierarchyTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void queriesMatchDijkstra() {
+        for (int seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            RoadGraph graph = randomGraph(random, 12);
+            float[] costs = randomCosts(random, graph, 0.1, 0.1);
+
+            assertMatchesDijkstra(graph, costs, ContractionHierarchy.build(graph, costs, fraction -> { }), random);
+        }
+    }
+
+    @Test
+    void zeroCostEdgesKeepTheirShortcuts() {
+        for (int seed = 0; seed < 10; seed++) {
+            Random random = new Random(100 + seed);
+            RoadGraph graph = randomGraph(random, 10);
+            // Mostly free edges: many paths tie at zero
+            float[] costs = randomCosts(random, graph, 0.6, 0.1);
+
+            assertMatchesDijkstra(graph, costs, ContractionHierarchy.build(graph, costs, fraction -> { }), random);
+        }
+    }
+
+    @Test
+    void allZeroCosts() {
+        Random random = new Random(7);
+        RoadGraph graph = randomGraph(random, 8);
+        float[] costs = new float[graph.edgeCount()];
+
+        assertMatchesDijkstra(graph, costs, ContractionHierarchy.build(graph, costs, fraction -> { }), random);
+    }
+
+    @Test
+    void manyToManyMatchesDijkstra() {
+        Random random = new Random(42);
+        RoadGraph graph = randomGraph(random, 15);
+        float[] costs = randomCosts(random, graph, 0.2, 0.1);
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, costs, fraction -> { });
+        int last = graph.nodeCount() - 1;
+        int[] sources = {0, 17, -1, 120, last, 17};
+        int[] targets = {3, -1, 99, 0, last};
+
+        float[][] matrix = hierarchy.manyToMany(sources, targets);
+
+        Dijkstra dijkstra = new Dijkstra(graph);
+        for (int s = 0; s < sources.length; s++) {
+            float[] dist = sources[s] >= 0
+                    ? dijkstra.search(sources[s], 0f, Float.POSITIVE_INFINITY, costs).clone() : null;
+            for (int t = 0; t < targets.length; t++) {
+                float expected = dist != null && targets[t] >= 0 ? dist[targets[t]] : Float.POSITIVE_INFINITY;
+                assertClose(expected, matrix[s][t], sources[s] + " -> " + targets[t]);
+            }
+        }
+    }
+
+    @Test
+    void savedHierarchyAnswersTheSame() throws Exception {
+        Random random = new Random(9);
+        RoadGraph graph = randomGraph(random, 10);
+        float[] costs = randomCosts(random, graph, 0.1, 0.1);
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, costs, fraction -> { });
+        Path file = directory.resolve("graph.ch");
+
+        hierarchy.save(file);
+        ContractionHierarchy loaded = ContractionHierarchy.load(file);
+
+        assertEquals(hierarchy.nodeCount(), loaded.nodeCount());
+        assertEquals(hierarchy.shortcutEdgeCount(), loaded.shortcutEdgeCount());
+        for (int s = 0; s < graph.nodeCount(); s += 7) {
+            for (int t = 0; t < graph.nodeCount(); t += 5) {
+                assertEquals(hierarchy.query(s, t), loaded.query(s, t));
+            }
+        }
+    }
+
+    private static void assertMatchesDijkstra(RoadGraph graph, float[] costs, ContractionHierarchy hierarchy,
+                                              Random random) {
+        Dijkstra dijkstra = new Dijkstra(graph);
+        for (int q = 0; q < 40; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            float[] dist = dijkstra.search(source, 0f, Float.POSITIVE_INFINITY, costs);
+            for (int target = 0; target < graph.nodeCount(); target++) {
+                assertClose(dist[target], hierarchy.query(source, target), source + " -> " + target);
+            }
+        }
+    }
+
+    private static void assertClose(float expected, float actual, String message) {
+        if (Float.isInfinite(expected)) {
+            assertEquals(expected, actual, message);
+        } else {
+            // Shortcuts add the same costs in another order
+            assertEquals(expected, actual, 1e-4f * Math.max(1f, expected), message);
+        }
+    }
+
+    /**
+     * Nodes on a size x size lattice joined by random lines: mostly lattice steps, some longer
+     * multi-vertex lines and some one-way streets
+     */
+    private static RoadGraph randomGraph(Random random, int size) {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int line = 0; line < size * size * 2; line++) {
+            int count = random.nextInt(5) == 0 ? 3 + random.nextInt(3) : 2;
+            double[] lngs = new double[count];
+            double[] lats = new double[count];
+            int x = random.nextInt(size);
+            int y = random.nextInt(size);
+            for (int i = 0; i < count; i++) {
+                lngs[i] = 13.0 + x * 0.001;
+                lats[i] = 52.0 + y * 0.001;
+                if (random.nextBoolean()) {
+                    x = Math.max(0, Math.min(size - 1, x + (random.nextBoolean() ? 1 : -1)));
+                } else {
+                    y = Math.max(0, Math.min(size - 1, y + (random.nextBoolean() ? 1 : -1)));
+                }
+            }
+            builder.addLine(lngs, lats, count, 30 + random.nextInt(70), random.nextInt(6) == 0, 0);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Random per-edge costs (each direction on its own) with a share of free and of forbidden edges
+     */
+    private static float[] randomCosts(Random random, RoadGraph graph, double zeroShare, double forbiddenShare) {
+        float[] costs = new float[graph.edgeCount()];
+        for (int e = 0; e < costs.length; e++) {
+            double draw = random.nextDouble();
+            if (draw < zeroShare) {
+                costs[e] = 0f;
+            } else if (draw < zeroShare + forbiddenShare) {
+                costs[e] = Float.POSITIVE_INFINITY;
+            } else {
+                costs[e] = 1 + random.nextInt(100);
+            }
+        }
+        return costs;
+    }
+}
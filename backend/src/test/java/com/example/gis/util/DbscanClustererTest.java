@@ -0,0 +1,191 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Grid DBSCAN against the textbook quadratic algorithm with the same distance
+ */
+class DbscanClustererTest {
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    @Test
+    void separatesBlobsAndNoise() {
+        // Two groups of three points 50 m apart, 10 km from each other, and one lone point
+        double[] lng = {10.0, 10.0005, 10.0010, 10.1, 10.1005, 10.1010, 11.0};
+        double[] lat = {50.0, 50.0, 50.0, 50.0, 50.0, 50.0, 50.0};
+
+        int[] labels = DbscanClusterer.cluster(lng, lat, lng.length, 100, 3);
+
+        assertEquals(labels[0], labels[1]);
+        assertEquals(labels[0], labels[2]);
+        assertEquals(labels[3], labels[4]);
+        assertEquals(labels[3], labels[5]);
+        assertNotEquals(labels[0], labels[3]);
+        assertNotEquals(DbscanClusterer.NOISE, labels[0]);
+        assertNotEquals(DbscanClusterer.NOISE, labels[3]);
+        assertEquals(DbscanClusterer.NOISE, labels[6]);
+    }
+
+    @Test
+    void matchesBruteForceOnRandomPoints() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int size = 200 + random.nextInt(600);
+            double baseLat = -70 + 140 * random.nextDouble();
+            double[] lng = new double[size];
+            double[] lat = new double[size];
+            // Points around a few blob centres within ~2 km, plus uniform noise
+            double[][] centres = new double[1 + random.nextInt(5)][];
+            for (int c = 0; c < centres.length; c++) {
+                centres[c] = new double[]{random.nextDouble() * 0.02, baseLat + random.nextDouble() * 0.02};
+            }
+            for (int i = 0; i < size; i++) {
+                if (random.nextInt(4) == 0) {
+                    lng[i] = random.nextDouble() * 0.03;
+                    lat[i] = baseLat + random.nextDouble() * 0.03;
+                } else {
+                    double[] centre = centres[random.nextInt(centres.length)];
+                    lng[i] = centre[0] + random.nextGaussian() * 0.002;
+                    lat[i] = centre[1] + random.nextGaussian() * 0.002;
+                }
+            }
+            double eps = 20 + random.nextDouble() * 150;
+            int minPts = 1 + random.nextInt(8);
+
+            int[] expected = bruteForce(lng, lat, size, eps, minPts);
+            int[] actual = DbscanClusterer.cluster(lng, lat, size, eps, minPts);
+
+            assertSamePartition(expected, actual, "seed " + seed);
+        }
+    }
+
+    @Test
+    void ignoresInputOrder() {
+        Random random = new Random(7);
+        int size = 500;
+        double[] lng = new double[size];
+        double[] lat = new double[size];
+        for (int i = 0; i < size; i++) {
+            lng[i] = random.nextDouble() * 0.01;
+            lat[i] = 40 + random.nextDouble() * 0.01;
+        }
+        int[] labels = DbscanClusterer.cluster(lng, lat, size, 40, 4);
+
+        int[] reversedLabels = DbscanClusterer.cluster(reverse(lng), reverse(lat), size, 40, 4);
+
+        int[] back = new int[size];
+        for (int i = 0; i < size; i++) {
+            back[i] = reversedLabels[size - 1 - i];
+        }
+        assertSamePartition(labels, back, "reversed");
+    }
+
+    @Test
+    void rejectsNonPositiveEps() {
+        assertThrows(IllegalArgumentException.class,
+                () -> DbscanClusterer.cluster(new double[]{0}, new double[]{0}, 1, 0, 1));
+    }
+
+    /**
+     * Core points by full scans, clusters as connected components of core points, and border
+     * points joined to their nearest core neighbour (the lowest index on ties)
+     */
+    private static int[] bruteForce(double[] lng, double[] lat, int size, double eps, int minPts) {
+        double epsSq = eps * eps;
+        boolean[] core = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            int count = 0;
+            for (int j = 0; j < size; j++) {
+                if (distanceSq(lng, lat, i, j) <= epsSq) {
+                    count++;
+                }
+            }
+            core[i] = count >= minPts;
+        }
+        int[] labels = new int[size];
+        Arrays.fill(labels, DbscanClusterer.NOISE);
+        int next = 0;
+        int[] stack = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (!core[i] || labels[i] != DbscanClusterer.NOISE) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = i;
+            labels[i] = next;
+            while (top > 0) {
+                int p = stack[--top];
+                for (int j = 0; j < size; j++) {
+                    if (core[j] && labels[j] == DbscanClusterer.NOISE && distanceSq(lng, lat, p, j) <= epsSq) {
+                        labels[j] = next;
+                        stack[top++] = j;
+                    }
+                }
+            }
+            next++;
+        }
+        for (int i = 0; i < size; i++) {
+            if (core[i]) {
+                continue;
+            }
+            int best = -1;
+            double bestDist = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < size; j++) {
+                double d = distanceSq(lng, lat, i, j);
+                if (core[j] && d <= epsSq && d < bestDist) {
+                    bestDist = d;
+                    best = j;
+                }
+            }
+            if (best >= 0) {
+                labels[i] = labels[best];
+            }
+        }
+        return labels;
+    }
+
+    private static double distanceSq(double[] lng, double[] lat, int a, int b) {
+        double meanLat = Math.toRadians((lat[a] + lat[b]) * 0.5);
+        double dx = (lng[b] - lng[a]) * METERS_PER_DEGREE * Math.cos(meanLat);
+        double dy = (lat[b] - lat[a]) * METERS_PER_DEGREE;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Same noise points and the same clusters, whatever the label numbers
+     */
+    private static void assertSamePartition(int[] expected, int[] actual, String message) {
+        assertEquals(expected.length, actual.length, message);
+        Map<Integer, Integer> forward = new HashMap<>();
+        Map<Integer, Integer> backward = new HashMap<>();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] == DbscanClusterer.NOISE, actual[i] == DbscanClusterer.NOISE,
+                    message + ", noise at " + i);
+            if (expected[i] == DbscanClusterer.NOISE) {
+                continue;
+            }
+            int point = i;
+            int mapped = forward.computeIfAbsent(expected[i], label -> actual[point]);
+            int mappedBack = backward.computeIfAbsent(actual[i], label -> expected[point]);
+            assertEquals(mapped, actual[i], message + ", point " + i);
+            assertEquals(mappedBack, expected[i], message + ", point " + i);
+        }
+    }
+
+    private static double[] reverse(double[] values) {
+        double[] reversed = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            reversed[values.length - 1 - i] = values[i];
+        }
+        return reversed;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * KD-tree queries against linear scans, including inputs full of duplicate coordinates
+ */
+class KdTreeTest {
+
+    @Test
+    void kthNearestMatchesBruteForce() {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            int size = 1 + random.nextInt(400);
+            double[][] points = randomPoints(random, size, round % 2 == 0);
+            double[] xs = points[0];
+            double[] ys = points[1];
+            KdTree tree = new KdTree(xs, ys, size);
+
+            for (int q = 0; q < 50; q++) {
+                double x = random.nextDouble() * 20;
+                double y = random.nextDouble() * 20;
+                int k = 1 + random.nextInt(12);
+                int skip = random.nextBoolean() ? random.nextInt(size) : -1;
+                double[] distances = new double[size];
+                int count = 0;
+                for (int i = 0; i < size; i++) {
+                    if (i != skip) {
+                        distances[count++] = Math.hypot(xs[i] - x, ys[i] - y);
+                    }
+                }
+                Arrays.sort(distances, 0, count);
+                double expected = k <= count ? distances[k - 1] : Double.POSITIVE_INFINITY;
+
+                assertEquals(expected, tree.kthNearestDistance(x, y, k, skip), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForce() {
+        Random random = new Random(2);
+        int size = 1000;
+        double[][] points = randomPoints(random, size, true);
+        KdTree tree = new KdTree(points[0], points[1], size);
+
+        for (int q = 0; q < 500; q++) {
+            double x = random.nextDouble() * 20;
+            double y = random.nextDouble() * 20;
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                best = Math.min(best, Math.hypot(points[0][i] - x, points[1][i] - y));
+            }
+            int nearest = tree.nearest(x, y);
+
+            assertEquals(best, Math.hypot(points[0][nearest] - x, points[1][nearest] - y), 1e-12);
+        }
+    }
+
+    @Test
+    void rangeMatchesBruteForce() {
+        Random random = new Random(3);
+        int size = 800;
+        double[][] points = randomPoints(random, size, true);
+        KdTree tree = new KdTree(points[0], points[1], size);
+
+        for (int q = 0; q < 200; q++) {
+            // Integer bounds put many duplicate points exactly on the edges
+            double minX = random.nextInt(20);
+            double minY = random.nextInt(20);
+            double maxX = minX + random.nextInt(8);
+            double maxY = minY + random.nextInt(8);
+            int[] expected = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (points[0][i] >= minX && points[0][i] <= maxX && points[1][i] >= minY && points[1][i] <= maxY) {
+                    expected[count++] = i;
+                }
+            }
+            int[] actual = tree.range(minX, minY, maxX, maxY);
+            Arrays.sort(actual);
+
+            assertArrayEquals(Arrays.copyOf(expected, count), actual);
+        }
+    }
+
+    @Test
+    void emptyTree() {
+        KdTree tree = new KdTree(new double[0], new double[0], 0);
+
+        assertEquals(-1, tree.nearest(1, 1));
+        assertEquals(Double.POSITIVE_INFINITY, tree.kthNearestDistance(1, 1, 1, -1));
+        assertEquals(0, tree.range(0, 0, 10, 10).length);
+        assertThrows(IllegalArgumentException.class, () -> tree.kthNearestDistance(1, 1, 0, -1));
+    }
+
+    /**
+     * Points in [0, 20) x [0, 20), snapped to a coarse integer grid when duplicates are wanted
+     */
+    private static double[][] randomPoints(Random random, int size, boolean duplicates) {
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = duplicates ? random.nextInt(20) : random.nextDouble() * 20;
+            ys[i] = duplicates ? random.nextInt(20) : random.nextDouble() * 20;
+        }
+        return new double[][]{xs, ys};
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * p-median solutions against exhaustive search over small random instances
+ */
+class LocationAllocationTest {
+
+    @Test
+    void singleSiteIsTheWeightedMedian() {
+        // Demand at 0..4 on a line, heaviest at 3; candidates at the same positions
+        float[] positions = {0, 1, 2, 3, 4};
+        float[] weights = {1, 1, 1, 5, 1};
+        float[] cost = new float[25];
+        for (int c = 0; c < 5; c++) {
+            for (int d = 0; d < 5; d++) {
+                cost[c * 5 + d] = Math.abs(positions[c] - positions[d]);
+            }
+        }
+        LocationAllocation solver = new LocationAllocation(cost, weights, 5, 5);
+
+        solver.solve(1, 10, fraction -> { });
+
+        assertArrayEquals(new int[]{3}, solver.getOpen());
+        assertEquals(3 + 2 + 1 + 0 + 1, solver.getObjective(), 1e-9);
+    }
+
+    @Test
+    void solutionsAreConsistentAndCannotBeImprovedBySwapping() {
+        Random random = new Random(3);
+        int solvedOptimally = 0;
+        for (int round = 0; round < 30; round++) {
+            int demandCount = 5 + random.nextInt(30);
+            int candidateCount = 2 + random.nextInt(9);
+            int p = 1 + random.nextInt(Math.min(3, candidateCount));
+            float[] weights = new float[demandCount];
+            float[] cost = euclidean(random, demandCount, candidateCount, weights);
+            LocationAllocation solver = new LocationAllocation(cost.clone(), weights, demandCount, candidateCount);
+
+            solver.solve(p, 100, fraction -> { });
+
+            int[] open = solver.getOpen();
+            assertEquals(p, Arrays.stream(open).distinct().count());
+            double objective = objective(cost, weights, demandCount, open);
+            assertEquals(objective, solver.getObjective(), 1e-3 * Math.max(1, objective));
+            for (int d = 0; d < demandCount; d++) {
+                assertEquals(cost[solver.allocation(d) * demandCount + d], solver.allocatedCost(d));
+                assertEquals(minCost(cost, demandCount, open, d), solver.allocatedCost(d));
+            }
+            for (int slot = 0; slot < p; slot++) {
+                for (int c = 0; c < candidateCount; c++) {
+                    int candidate = c;
+                    int[] swapped = open.clone();
+                    swapped[slot] = c;
+                    if (Arrays.stream(open).noneMatch(site -> site == candidate)) {
+                        assertTrue(objective(cost, weights, demandCount, swapped) >= objective - 1e-3,
+                                "round " + round + ": swapping in " + c + " improves the solution");
+                    }
+                }
+            }
+            double optimum = optimum(cost, weights, demandCount, candidateCount, p);
+            assertTrue(objective >= optimum - 1e-3);
+            if (objective <= optimum + 1e-3) {
+                solvedOptimally++;
+            }
+        }
+        // Vertex substitution is a heuristic, but on instances this small it nearly always finds the optimum
+        assertTrue(solvedOptimally >= 27, solvedOptimally + " of 30 optimal");
+    }
+
+    @Test
+    void maxCoverageCoversBothClusters() {
+        // Two demand clusters around 0 and 100; candidates at 0, 50 and 100
+        float[] demand = {-2, -1, 0, 1, 99, 100, 101};
+        float[] candidates = {0, 50, 100};
+        float[] cost = new float[candidates.length * demand.length];
+        for (int c = 0; c < candidates.length; c++) {
+            for (int d = 0; d < demand.length; d++) {
+                cost[c * demand.length + d] = Math.abs(candidates[c] - demand[d]);
+            }
+        }
+        float[] weights = new float[demand.length];
+        Arrays.fill(weights, 1f);
+        LocationAllocation.toCoverage(cost, 5f);
+        LocationAllocation solver = new LocationAllocation(cost, weights, demand.length, candidates.length);
+
+        solver.solve(2, 10, fraction -> { });
+
+        int[] open = solver.getOpen();
+        Arrays.sort(open);
+        assertArrayEquals(new int[]{0, 2}, open);
+        assertEquals(0.0, solver.getObjective(), 0.0);
+    }
+
+    @Test
+    void penalizeCapsUnreachableCosts() {
+        float[] withCutoff = {1, Float.POSITIVE_INFINITY, 30};
+        LocationAllocation.penalize(withCutoff, 20f);
+        assertArrayEquals(new float[]{1, 20, 20}, withCutoff);
+
+        float[] withoutCutoff = {1, Float.POSITIVE_INFINITY, 30};
+        LocationAllocation.penalize(withoutCutoff, Float.POSITIVE_INFINITY);
+        assertArrayEquals(new float[]{1, 61, 30}, withoutCutoff);
+    }
+
+    @Test
+    void rejectsMoreSitesThanCandidates() {
+        LocationAllocation solver = new LocationAllocation(new float[4], new float[2], 2, 2);
+
+        assertThrows(IllegalArgumentException.class, () -> solver.solve(3, 10, fraction -> { }));
+        assertThrows(IllegalArgumentException.class, () -> new LocationAllocation(new float[3], new float[2], 2, 2));
+    }
+
+    /**
+     * Random demand and candidates in the unit square, candidate-major distance matrix
+     */
+    private static float[] euclidean(Random random, int demandCount, int candidateCount, float[] weights) {
+        double[][] demand = new double[demandCount][];
+        for (int d = 0; d < demandCount; d++) {
+            demand[d] = new double[]{random.nextDouble(), random.nextDouble()};
+            weights[d] = 1 + random.nextInt(5);
+        }
+        float[] cost = new float[candidateCount * demandCount];
+        for (int c = 0; c < candidateCount; c++) {
+            double x = random.nextDouble();
+            double y = random.nextDouble();
+            for (int d = 0; d < demandCount; d++) {
+                cost[c * demandCount + d] = (float) Math.hypot(demand[d][0] - x, demand[d][1] - y);
+            }
+        }
+        return cost;
+    }
+
+    private static float minCost(float[] cost, int demandCount, int[] open, int d) {
+        float min = Float.POSITIVE_INFINITY;
+        for (int site : open) {
+            min = Math.min(min, cost[site * demandCount + d]);
+        }
+        return min;
+    }
+
+    private static double objective(float[] cost, float[] weights, int demandCount, int[] open) {
+        double total = 0;
+        for (int d = 0; d < demandCount; d++) {
+            total += weights[d] * minCost(cost, demandCount, open, d);
+        }
+        return total;
+    }
+
+    /**
+     * Best objective over every set of p candidates
+     */
+    private static double optimum(float[] cost, float[] weights, int demandCount, int candidateCount, int p) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int mask = 0; mask < 1 << candidateCount; mask++) {
+            if (Integer.bitCount(mask) != p) {
+                continue;
+            }
+            int[] open = new int[p];
+            int k = 0;
+            for (int c = 0; c < candidateCount; c++) {
+                if ((mask & 1 << c) != 0) {
+                    open[k++] = c;
+                }
+            }
+            best = Math.min(best, objective(cost, weights, demandCount, open));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleBinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Map algebra parser and evaluator: known answers, cell-by-cell and brute-force focal statistics
+ */
+class MapAlgebraTest {
+    // 300 x 270 cells of 1 m, so runs cross the chunk edges
+    private static final GridSpec GRID = new GridSpec(300, 270, 0, 270, 1, 1);
+
+    @Test
+    void operatorsAndFunctions() {
+        assertEquals(7f, constant("1 + 2 * 3"));
+        assertEquals(9f, constant("(1 + 2) * 3"));
+        assertEquals(512f, constant("2 ^ 3 ^ 2"));
+        assertEquals(-4f, constant("-2 ^ 2"));
+        assertEquals(3f, constant("7 % 4"));
+        assertEquals(100.5f, constant("1e2 + .5"));
+        assertEquals(1f, constant("1 < 2 and 2 < 1 or not 0"));
+        assertEquals(0f, constant("not 1 == 1"));
+        assertEquals(1f, constant("2 >= 2 and 2 <= 2 and 1 != 2"));
+        assertEquals(2f, constant("min(4, 2, 9)"));
+        assertEquals(9f, constant("max(4, 2, 9)"));
+        assertEquals(3f, constant("clamp(5, 0, 3)"));
+        assertEquals(5f, constant("where(0, 4, 5)"));
+        assertEquals(3f, constant("abs(-9) / sqrt(9)"));
+        assertEquals(1f, constant("exp(log(1))"));
+        assertEquals(20f, constant("reclass(5, 0, 3, 10, 3, 10, 20)"));
+        assertEquals(1f, constant("isnull(nodata)"));
+        assertEquals(0f, constant("isnull(1)"));
+    }
+
+    @Test
+    void noDataPropagates() {
+        assertTrue(Float.isNaN(constant("nodata + 1")));
+        assertTrue(Float.isNaN(constant("1 / 0")));
+        assertTrue(Float.isNaN(constant("5 % 0")));
+        assertTrue(Float.isNaN(constant("log(-1)")));
+        assertTrue(Float.isNaN(constant("nodata > 1")));
+        assertTrue(Float.isNaN(constant("where(nodata, 1, 2)")));
+        assertTrue(Float.isNaN(constant("reclass(15, 0, 3, 10)")));
+    }
+
+    @Test
+    void evaluatesEveryCell() {
+        MapAlgebra program = MapAlgebra.compile(List.of("(nir - red) / (nir + red)"), List.of("red", "nir", "blue"));
+        DoubleBinaryOperator red = (x, y) -> 10 + (x * 7 + y * 3) % 50;
+        DoubleBinaryOperator nir = (x, y) -> x == 100.5 ? -red.applyAsDouble(x, y) : 20 + (x * 5 + y * 11) % 80;
+        MapAlgebra.Bindings bindings = bindings(Map.of("red", reader(red), "nir", reader(nir)));
+        RasterStatistics statistics = new RasterStatistics();
+
+        float[] values = program.run(GRID, bindings, statistics, true);
+
+        assertEquals(List.of("red", "nir"), List.copyOf(program.getRasters()));
+        long valid = 0;
+        for (int row = 0; row < GRID.getHeight(); row++) {
+            for (int col = 0; col < GRID.getWidth(); col++) {
+                float r = (float) red.applyAsDouble(GRID.centerX(col), GRID.centerY(row));
+                float n = (float) nir.applyAsDouble(GRID.centerX(col), GRID.centerY(row));
+                float expected = n + r == 0 ? Float.NaN : (n - r) / (n + r);
+                assertEquals(expected, values[row * GRID.getWidth() + col]);
+                valid += Float.isNaN(expected) ? 0 : 1;
+            }
+        }
+        // Column 100 divides by zero
+        assertEquals((long) (GRID.getWidth() - 1) * GRID.getHeight(), valid);
+        assertEquals(valid, statistics.getCount());
+    }
+
+    @Test
+    void sharedStepsAreReadOnce() {
+        AtomicInteger reads = new AtomicInteger();
+        TerrainAnalysis.ElevationReader counted = window -> {
+            reads.incrementAndGet();
+            return reader((x, y) -> x + y).read(window);
+        };
+        MapAlgebra program = MapAlgebra.compile(List.of("d = a * 2", "s = d + a", "s / d + d"), List.of("a"));
+
+        float[] values = program.evaluate(GRID.window(0, 0, 4, 4), bindings(Map.of("a", counted)));
+
+        assertEquals(1, reads.get());
+        float a = (float) (GRID.centerX(0) + GRID.centerY(0));
+        assertEquals((2 * a + a) / (2 * a) + 2 * a, values[0]);
+    }
+
+    @Test
+    void focalStatisticsMatchBruteForce() {
+        // Deterministic values with scattered no data
+        DoubleBinaryOperator field = (x, y) -> {
+            long hash = (long) Math.floor(x) * 73856093L ^ (long) Math.floor(y) * 19349663L;
+            return Math.floorMod(hash, 7) == 0 ? Double.NaN : Math.floorMod(hash, 1000);
+        };
+        MapAlgebra.Bindings bindings = bindings(Map.of("a", reader(field)));
+        GridSpec grid = GRID.window(0, 0, 300, 40);
+
+        for (String op : List.of("mean", "min", "max")) {
+            MapAlgebra program = MapAlgebra.compile(List.of("focal_" + op + "(a, 2)"), List.of("a"));
+            float[] values = program.run(grid, bindings, new RasterStatistics(), true);
+            for (int row = 0; row < grid.getHeight(); row++) {
+                for (int col = 0; col < grid.getWidth(); col++) {
+                    double sum = 0;
+                    int count = 0;
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (int dr = -2; dr <= 2; dr++) {
+                        for (int dc = -2; dc <= 2; dc++) {
+                            double value = field.applyAsDouble(grid.centerX(col + dc), grid.centerY(row + dr));
+                            if (!Double.isNaN(value)) {
+                                sum += value;
+                                count++;
+                                min = Math.min(min, value);
+                                max = Math.max(max, value);
+                            }
+                        }
+                    }
+                    double expected = count == 0 ? Double.NaN
+                            : op.equals("mean") ? sum / count : op.equals("min") ? min : max;
+                    assertEquals(expected, values[row * grid.getWidth() + col], 1e-3);
+                }
+            }
+        }
+    }
+
+    @Test
+    void nestedFocalHalosCompose() {
+        MapAlgebra.Bindings bindings = bindings(Map.of("a", reader((x, y) -> x * x + 3 * y)));
+        GridSpec grid = GRID.window(250, 10, 20, 20);
+
+        float[] nested = MapAlgebra.compile(List.of("focal_max(focal_min(a, 1), 2)"), List.of("a"))
+                .evaluate(grid, bindings);
+
+        // min over the 3 x 3 square is at its west and south edge, max of those over 5 x 5 at the east and north
+        for (int row = 0; row < grid.getHeight(); row++) {
+            for (int col = 0; col < grid.getWidth(); col++) {
+                double x = grid.centerX(col + 2 - 1);
+                double y = grid.centerY(row - 2 + 1);
+                assertEquals((float) (x * x + 3 * y), nested[row * grid.getWidth() + col]);
+            }
+        }
+    }
+
+    @Test
+    void bareSlopeReadsTheElevation() {
+        MapAlgebra program = MapAlgebra.compile(List.of("where(slope > 20, slope, 0)"), List.of("elevation"));
+        MapAlgebra.Bindings bindings = bindings(Map.of("elevation", reader((x, y) -> 0.5 * x + 0.25 * y)));
+
+        float[] values = program.evaluate(GRID.window(10, 10, 5, 5), bindings);
+
+        double expected = Math.toDegrees(Math.atan(Math.hypot(0.5, 0.25)));
+        for (float value : values) {
+            assertEquals(expected, value, 1e-4);
+        }
+    }
+
+    @Test
+    void rejectsBadPrograms() {
+        List<String> rasters = List.of("a");
+        for (String program : List.of("", "1 +", "(1", "1 2", "b + 1", "1 $ 2", "where(1, 2)", "frob(a)",
+                "focal_mean(a, 0)", "focal_mean(a, 1.5)", "focal_mean(a, a)", "reclass(a, 1, 2)",
+                "hillshade(a, 315, 95)", "slope",
+                "focal_mean(focal_mean(focal_mean(a, 32), 32), 1)", "(".repeat(60) + "1" + ")".repeat(60))) {
+            assertThrows(IllegalArgumentException.class, () -> MapAlgebra.compile(List.of(program), rasters));
+        }
+        assertThrows(IllegalArgumentException.class, () -> MapAlgebra.compile(List.of("a = 1", "a"), rasters));
+        assertThrows(IllegalArgumentException.class, () -> MapAlgebra.compile(List.of(), rasters));
+        assertThrows(IllegalArgumentException.class,
+                () -> MapAlgebra.compile(List.of("1" + " + 1".repeat(MapAlgebra.MAX_LENGTH / 4)), rasters));
+
+        String message = assertThrows(IllegalArgumentException.class,
+                () -> MapAlgebra.compile(List.of("1 + * 2"), rasters)).getMessage();
+        assertTrue(message.endsWith("at position 5"), message);
+    }
+
+    private static float constant(String expression) {
+        return MapAlgebra.compile(List.of(expression), List.of()).evaluate(GRID.window(0, 0, 1, 1), bindings(Map.of()))[0];
+    }
+
+    private static MapAlgebra.Bindings bindings(Map<String, TerrainAnalysis.ElevationReader> readers) {
+        return new MapAlgebra.Bindings(readers, TerrainAnalysis.Units.METERS, 1);
+    }
+
+    /**
+     * Values of a function at the cell centres of any window, including those beyond the grid
+     */
+    private static TerrainAnalysis.ElevationReader reader(DoubleBinaryOperator function) {
+        return window -> {
+            float[] values = new float[window.getWidth() * window.getHeight()];
+            for (int row = 0; row < window.getHeight(); row++) {
+                for (int col = 0; col < window.getWidth(); col++) {
+                    values[row * window.getWidth() + col] =
+                            (float) function.applyAsDouble(window.centerX(col), window.centerY(row));
+                }
+            }
+            return values;
+        };
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Matching noisy traces on a small network: main street A along latitude 52, a parallel street B
+ * 30 m north joined to it only at both ends, and a side street C going north from the middle of A
+ */
+class MapMatcherTest {
+    private static final double LAT_A = 52.0;
+    private static final double LAT_B = 52.00027;
+    private static final double LNG_C = 13.010;
+    private static final double METERS_PER_DEGREE_LAT = 111_195.0;
+
+    private final RoadGraph graph = network();
+    private final MapMatcher matcher = new MapMatcher(graph, RoadGraph.Profile.WALKING, 10, 50, 50, 8);
+
+    @Test
+    void staysOnTheStreetDespiteAnOutlierCloserToTheParallelOne() {
+        Random random = new Random(1);
+        int count = 15;
+        double[] lngs = new double[count];
+        double[] lats = new double[count];
+        for (int i = 0; i < count; i++) {
+            lngs[i] = 13.0025 + i * 0.0005;
+            lats[i] = LAT_A + random.nextGaussian() * 4 / METERS_PER_DEGREE_LAT;
+        }
+        // 17 m north of A, 13 m south of B
+        lats[7] = LAT_A + 17 / METERS_PER_DEGREE_LAT;
+
+        List<MapMatcher.Match> matches = matcher.matchTrace(lngs, lats, count);
+
+        assertEquals(count, matches.size());
+        for (int i = 0; i < count; i++) {
+            MapMatcher.Match match = matches.get(i);
+            assertEquals(i, match.getObservation());
+            assertEquals(LAT_A, match.getLat(), 1e-9, "observation " + i);
+            assertEquals(lngs[i], match.getLng(), 1e-6, "observation " + i);
+        }
+    }
+
+    @Test
+    void followsATurnAndRoutesThroughTheCorner() {
+        // East along A, then north along C, a few meters off the centre lines
+        double[] lngs = {13.0080, 13.0090, 13.0098, LNG_C + 0.00004, LNG_C - 0.00003};
+        double[] lats = {LAT_A + 0.00003, LAT_A - 0.00002, LAT_A + 0.00002, 52.0009, 52.0016};
+
+        List<MapMatcher.Match> matches = matcher.matchTrace(lngs, lats, lngs.length);
+
+        assertEquals(lngs.length, matches.size());
+        assertEquals(LAT_A, matches.get(1).getLat(), 1e-9);
+        assertEquals(LNG_C, matches.get(3).getLng(), 1e-9);
+        assertEquals(LNG_C, matches.get(4).getLng(), 1e-9);
+        List<double[]> route = matcher.route(matches);
+        assertTrue(route.stream().anyMatch(point -> point[0] == LNG_C && point[1] == LAT_A),
+                "route passes the corner");
+        for (double[] point : route) {
+            assertTrue(point[1] == LAT_A || point[0] == LNG_C, "route leaves the streets");
+        }
+    }
+
+    @Test
+    void skipsObservationsFarFromAnyRoad() {
+        double[] lngs = {13.004, 13.005, 13.006};
+        double[] lats = {LAT_A, LAT_A + 0.01, LAT_A};
+
+        List<MapMatcher.Match> matches = matcher.matchTrace(lngs, lats, 3);
+
+        assertEquals(2, matches.size());
+        assertEquals(0, matches.get(0).getObservation());
+        assertEquals(2, matches.get(1).getObservation());
+        assertNull(matcher.newSession(4).add(13.005, LAT_A + 0.01));
+    }
+
+    @Test
+    void sessionsKeepABoundedWindow() {
+        MapMatcher.Session session = matcher.newSession(4);
+
+        for (int i = 0; i < 20; i++) {
+            MapMatcher.Match match = session.add(13.001 + i * 0.0008, LAT_A + 0.00002);
+            assertNotNull(match);
+            assertEquals(LAT_A, match.getLat(), 1e-9);
+        }
+
+        assertEquals(4, session.size());
+        List<MapMatcher.Match> path = session.path();
+        assertEquals(4, path.size());
+        assertEquals(16, path.get(0).getObservation());
+        assertEquals(19, path.get(3).getObservation());
+    }
+
+    private static RoadGraph network() {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        int vertices = 21;
+        double[] lngs = new double[vertices];
+        double[] latsA = new double[vertices];
+        double[] latsB = new double[vertices];
+        for (int i = 0; i < vertices; i++) {
+            lngs[i] = 13.000 + i * 0.001;
+            latsA[i] = LAT_A;
+            latsB[i] = LAT_B;
+        }
+        builder.addLine(lngs, latsA, vertices, 0, false, 0);
+        builder.addLine(lngs, latsB, vertices, 0, false, 0);
+        builder.addLine(new double[]{13.000, 13.000}, new double[]{LAT_A, LAT_B}, 2, 0, false, 0);
+        builder.addLine(new double[]{13.020, 13.020}, new double[]{LAT_A, LAT_B}, 2, 0, false, 0);
+        builder.addLine(new double[]{LNG_C, LNG_C, LNG_C}, new double[]{LAT_A, 52.001, 52.002}, 3, 0, false, 0);
+        return builder.build();
+    }
+}
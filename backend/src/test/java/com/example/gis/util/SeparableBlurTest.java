@@ -0,0 +1,139 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Separable passes against direct 2D convolution, and the box approximation against the Gaussian
+ */
+class SeparableBlurTest {
+
+    @Test
+    void gaussianKernelIsUnnormalized() {
+        float[] kernel = SeparableBlur.gaussianKernel(2.0, 3);
+
+        assertEquals(7, kernel.length);
+        assertEquals(1f, kernel[3]);
+        assertEquals((float) Math.exp(-9 / 8.0), kernel[0], 1e-7f);
+        assertEquals(kernel[0], kernel[6]);
+    }
+
+    @Test
+    void impulseSpreadsToKernelOuterProduct() {
+        int width = 9;
+        int height = 7;
+        float[] grid = new float[width * height];
+        // One cell from the left edge, so part of the kernel falls off the grid
+        grid[3 * width + 1] = 2f;
+        float[] kernelX = {1f, 2f, 3f, 4f, 5f};
+        float[] kernelY = {0.5f, 1f, 0.25f};
+
+        SeparableBlur.convolve(grid, width, height, kernelX, kernelY);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int kx = x - 1 + 2;
+                int ky = y - 3 + 1;
+                float expected = kx >= 0 && kx < kernelX.length && ky >= 0 && ky < kernelY.length
+                        ? 2f * kernelX[kx] * kernelY[ky] : 0f;
+                assertEquals(expected, grid[y * width + x], 1e-6f, "cell " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void convolveMatchesDirectConvolution() {
+        Random random = new Random(11);
+        for (int round = 0; round < 10; round++) {
+            int width = 5 + random.nextInt(60);
+            int height = 5 + random.nextInt(60);
+            float[] grid = new float[width * height];
+            for (int i = 0; i < grid.length; i++) {
+                grid[i] = random.nextInt(3) == 0 ? random.nextFloat() * 10 : 0f;
+            }
+            float[] kernelX = randomKernel(random, 1 + random.nextInt(6));
+            float[] kernelY = randomKernel(random, 1 + random.nextInt(6));
+            float[] expected = direct(grid, width, height, kernelX, kernelY);
+
+            SeparableBlur.convolve(grid, width, height, kernelX, kernelY);
+
+            assertArrayEquals(expected, grid, 1e-3f);
+        }
+    }
+
+    @Test
+    void boxApproximationKeepsGaussianMassAndShape() {
+        int size = 201;
+        double sigmaX = 12;
+        double sigmaY = 7;
+        float[] exact = new float[size * size];
+        exact[100 * size + 100] = 1f;
+        float[] approximated = exact.clone();
+
+        SeparableBlur.gaussian(exact, size, size, sigmaX, sigmaY, 64);
+        SeparableBlur.boxApproximation(approximated, size, size, sigmaX, sigmaY);
+
+        double exactMass = 0;
+        double approximatedMass = 0;
+        float peak = 0f;
+        for (int i = 0; i < exact.length; i++) {
+            exactMass += exact[i];
+            approximatedMass += approximated[i];
+            peak = Math.max(peak, exact[i]);
+        }
+        assertEquals(2 * Math.PI * sigmaX * sigmaY, approximatedMass, 1e-3 * approximatedMass);
+        assertEquals(exactMass, approximatedMass, 0.01 * exactMass);
+        // Three boxes of an impulse are piecewise quadratic: close to the bell, not equal to it
+        for (int i = 0; i < exact.length; i++) {
+            assertTrue(Math.abs(exact[i] - approximated[i]) < 0.1f * peak, "cell " + i);
+        }
+    }
+
+    @Test
+    void wideKernelsSwitchToTheBoxApproximation() {
+        int size = 64;
+        float[] viaGaussian = new float[size * size];
+        viaGaussian[32 * size + 32] = 1f;
+        float[] viaBox = viaGaussian.clone();
+
+        SeparableBlur.gaussian(viaGaussian, size, size, 5, 5, 10);
+        SeparableBlur.boxApproximation(viaBox, size, size, 5, 5);
+
+        assertArrayEquals(viaBox, viaGaussian);
+    }
+
+    private static float[] randomKernel(Random random, int radius) {
+        float[] kernel = new float[2 * radius + 1];
+        for (int k = 0; k < kernel.length; k++) {
+            kernel[k] = random.nextFloat();
+        }
+        return kernel;
+    }
+
+    private static float[] direct(float[] grid, int width, int height, float[] kernelX, float[] kernelY) {
+        int rx = kernelX.length / 2;
+        int ry = kernelY.length / 2;
+        float[] out = new float[grid.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double sum = 0;
+                for (int dy = -ry; dy <= ry; dy++) {
+                    for (int dx = -rx; dx <= rx; dx++) {
+                        int sx = x - dx;
+                        int sy = y - dy;
+                        if (sx >= 0 && sx < width && sy >= 0 && sy < height) {
+                            sum += grid[sy * width + sx] * kernelX[dx + rx] * kernelY[dy + ry];
+                        }
+                    }
+                }
+                out[y * width + x] = (float) sum;
+            }
+        }
+        return out;
+    }
+}
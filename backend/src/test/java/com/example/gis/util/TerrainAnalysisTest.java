@@ -0,0 +1,176 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Horn kernels on planes, whose slope, aspect and hillshade are known exactly
+ */
+class TerrainAnalysisTest {
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    @Test
+    void slopeOfAPlane() {
+        // Rises 1 m per 2 m east and 1 m per 4 m north
+        float[] slope = run(TerrainAnalysis.Product.SLOPE, meters(10, 10), TerrainAnalysis.Units.METERS,
+                (x, y) -> 0.5 * x + 0.25 * y, new RasterStatistics());
+
+        double expected = Math.toDegrees(Math.atan(Math.hypot(0.5, 0.25)));
+        for (float value : slope) {
+            assertEquals(expected, value, 1e-4);
+        }
+    }
+
+    @Test
+    void aspectFacesDownhill() {
+        assertAspect(270, (x, y) -> x);
+        assertAspect(90, (x, y) -> -x);
+        assertAspect(180, (x, y) -> y);
+        assertAspect(0, (x, y) -> -y);
+        assertAspect(225, (x, y) -> x + y);
+        assertAspect(315, (x, y) -> x - y);
+    }
+
+    @Test
+    void flatGround() {
+        GridSpec grid = meters(5, 5);
+        TerrainAnalysis.Units units = TerrainAnalysis.Units.METERS;
+
+        float[] slope = run(TerrainAnalysis.Product.SLOPE, grid, units, (x, y) -> 100, new RasterStatistics());
+        float[] aspect = run(TerrainAnalysis.Product.ASPECT, grid, units, (x, y) -> 100, new RasterStatistics());
+        float[] shade = run(TerrainAnalysis.Product.HILLSHADE, grid, units, (x, y) -> 100, new RasterStatistics());
+
+        for (int i = 0; i < slope.length; i++) {
+            assertEquals(0f, slope[i]);
+            assertTrue(Float.isNaN(aspect[i]));
+            // Light 45 degrees above the horizon
+            assertEquals(255 * Math.cos(Math.toRadians(45)), shade[i], 1e-3);
+        }
+    }
+
+    @Test
+    void hillshadeIsBrightestFacingTheLight() {
+        // Slope 45 degrees facing north-west, lit from the north-west 45 degrees above the horizon
+        double gradient = Math.sqrt(0.5);
+        DoubleBinaryOperator facingLight = (x, y) -> gradient * x - gradient * y;
+        DoubleBinaryOperator facingAway = (x, y) -> -gradient * x + gradient * y;
+
+        float[] lit = new TerrainAnalysis(TerrainAnalysis.Product.HILLSHADE, 1, 315, 45)
+                .run(meters(4, 4), TerrainAnalysis.Units.METERS, reader(facingLight), new RasterStatistics());
+        float[] dark = new TerrainAnalysis(TerrainAnalysis.Product.HILLSHADE, 1, 315, 45)
+                .run(meters(4, 4), TerrainAnalysis.Units.METERS, reader(facingAway), new RasterStatistics());
+
+        assertEquals(255, lit[5], 1e-2);
+        assertEquals(0, dark[5], 1e-2);
+    }
+
+    @Test
+    void degreeCellsShrinkWithLatitude() {
+        // 0.001 degree cells around 60N; ground rising 1 m per 10 m east of the grid's centre
+        GridSpec grid = new GridSpec(6, 6, 10.0, 60.003, 0.001, 0.001);
+        DoubleBinaryOperator plane = (lng, lat) -> 0.1 * (lng - 10.003) * METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(lat));
+
+        float[] slope = run(TerrainAnalysis.Product.SLOPE, grid, TerrainAnalysis.Units.DEGREES, plane,
+                new RasterStatistics());
+
+        for (float value : slope) {
+            assertEquals(Math.toDegrees(Math.atan(0.1)), value, 0.01);
+        }
+    }
+
+    @Test
+    void mercatorCellsShrinkWithLatitude() {
+        // Mercator meters around 60N, where a mercator meter is half a ground meter
+        GridSpec grid = TileMath.mercatorGrid(12, 2200, 1200, 16);
+        double radius = TileMath.EARTH_CIRCUMFERENCE_METERS / (2 * Math.PI);
+        double centreX = (grid.getMinX() + grid.getMaxX()) / 2;
+        DoubleBinaryOperator plane = (x, y) -> 0.1 * (x - centreX) * Math.cos(Math.atan(Math.sinh(y / radius)));
+
+        float[] slope = run(TerrainAnalysis.Product.SLOPE, grid, TerrainAnalysis.Units.MERCATOR, plane,
+                new RasterStatistics());
+
+        for (float value : slope) {
+            assertEquals(Math.toDegrees(Math.atan(0.1)), value, 0.01);
+        }
+    }
+
+    @Test
+    void missingNeighboursTakeTheCentreValue() {
+        // Only the centre cell of the 3 x 3 window has data
+        GridSpec grid = meters(1, 1);
+        TerrainAnalysis.ElevationReader reader = window -> {
+            float[] z = new float[window.getWidth() * window.getHeight()];
+            Arrays.fill(z, Float.NaN);
+            z[z.length / 2] = 50;
+            return z;
+        };
+
+        float[] slope = new TerrainAnalysis(TerrainAnalysis.Product.SLOPE, 1, 315, 45)
+                .run(grid, TerrainAnalysis.Units.METERS, reader, new RasterStatistics());
+        float[] nodata = new TerrainAnalysis(TerrainAnalysis.Product.SLOPE, 1, 315, 45)
+                .run(grid, TerrainAnalysis.Units.METERS, window -> new float[]{Float.NaN, Float.NaN, Float.NaN,
+                        Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN}, new RasterStatistics());
+
+        assertEquals(0f, slope[0]);
+        assertTrue(Float.isNaN(nodata[0]));
+    }
+
+    @Test
+    void statisticsCoverEveryTile() {
+        // Wider and taller than one tile, with a bowl so values vary
+        GridSpec grid = meters(TerrainAnalysis.TILE_SIZE + 37, TerrainAnalysis.TILE_SIZE + 5);
+        RasterStatistics statistics = new RasterStatistics();
+
+        float[] slope = run(TerrainAnalysis.Product.SLOPE, grid, TerrainAnalysis.Units.METERS,
+                (x, y) -> 0.001 * ((x - 150) * (x - 150) + (y + 130) * (y + 130)), statistics);
+
+        RasterStatistics expected = new RasterStatistics();
+        for (float value : slope) {
+            expected.add(value);
+        }
+        assertEquals(slope.length, statistics.getCount());
+        assertEquals(expected.getMin(), statistics.getMin(), 0.0);
+        assertEquals(expected.getMax(), statistics.getMax(), 0.0);
+        assertEquals(expected.getMean(), statistics.getMean(), 1e-9);
+        assertEquals(expected.getStddev(), statistics.getStddev(), 1e-9);
+    }
+
+    private static void assertAspect(double expected, DoubleBinaryOperator surface) {
+        float[] aspect = run(TerrainAnalysis.Product.ASPECT, meters(3, 3), TerrainAnalysis.Units.METERS, surface,
+                new RasterStatistics());
+        for (float value : aspect) {
+            assertEquals(expected, value, 1e-4);
+        }
+    }
+
+    private static float[] run(TerrainAnalysis.Product product, GridSpec grid, TerrainAnalysis.Units units,
+                               DoubleBinaryOperator surface, RasterStatistics statistics) {
+        return new TerrainAnalysis(product, 1, 315, 45).run(grid, units, reader(surface), statistics);
+    }
+
+    /**
+     * Grid of 1 m cells with its north-west corner at the origin
+     */
+    private static GridSpec meters(int width, int height) {
+        return new GridSpec(width, height, 0, 0, 1, 1);
+    }
+
+    private static TerrainAnalysis.ElevationReader reader(DoubleBinaryOperator surface) {
+        return window -> {
+            float[] z = new float[window.getWidth() * window.getHeight()];
+            for (int row = 0; row < window.getHeight(); row++) {
+                for (int col = 0; col < window.getWidth(); col++) {
+                    z[row * window.getWidth() + col] = (float) surface.applyAsDouble(window.centerX(col),
+                            window.centerY(row));
+                }
+            }
+            return z;
+        };
+    }
+}
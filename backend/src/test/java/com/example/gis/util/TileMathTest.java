@@ -0,0 +1,87 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cell and tile arithmetic the density pyramid relies on: levels nest exactly, cells fall in
+ * their tiles, and coordinates survive the trip to mercator and back
+ */
+class TileMathTest {
+    private static final int CELLS_PER_TILE = 64;
+
+    @Test
+    void knownTiles() {
+        assertEquals(0.5, TileMath.mercatorY(0), 1e-15);
+        assertEquals(1, TileMath.tileX(0, 1));
+        assertEquals(1, TileMath.tileY(-0.001, 1));
+        assertEquals(0, TileMath.tileY(0.001, 1));
+        // Berlin
+        assertEquals(8801, TileMath.tileX(13.4, 14));
+        assertEquals(5373, TileMath.tileY(52.52, 14));
+        assertArrayEquals(new double[]{-180, -TileMath.MAX_LATITUDE, 180, TileMath.MAX_LATITUDE},
+                TileMath.tileBounds(0, 0, 0), 1e-9);
+    }
+
+    @Test
+    void clampsOutsideTheWorld() {
+        long n = CELLS_PER_TILE << 3;
+        assertEquals(0, TileMath.cellIndex(TileMath.mercatorY(90), n));
+        assertEquals(n - 1, TileMath.cellIndex(TileMath.mercatorY(-90), n));
+        assertEquals(n - 1, TileMath.cellIndex(TileMath.mercatorX(180), n));
+        assertEquals(0, TileMath.cellIndex(-0.25, n));
+    }
+
+    @Test
+    void coarserCellsHalveFinerOnes() {
+        Random random = new Random(5);
+        for (int i = 0; i < 10000; i++) {
+            double x = TileMath.mercatorX(random.nextDouble() * 360 - 180);
+            double y = TileMath.mercatorY(random.nextDouble() * 170 - 85);
+            for (int z = 1; z <= 18; z++) {
+                long fine = (long) CELLS_PER_TILE << z;
+                assertEquals(TileMath.cellIndex(x, fine) >> 1, TileMath.cellIndex(x, fine >> 1));
+                assertEquals(TileMath.cellIndex(y, fine) >> 1, TileMath.cellIndex(y, fine >> 1));
+            }
+        }
+    }
+
+    @Test
+    void cellsLieInTheirTiles() {
+        Random random = new Random(6);
+        for (int i = 0; i < 10000; i++) {
+            double lng = random.nextDouble() * 360 - 180;
+            double lat = random.nextDouble() * 170 - 85;
+            int z = random.nextInt(19);
+            long n = (long) CELLS_PER_TILE << z;
+            assertEquals(TileMath.tileX(lng, z), TileMath.cellIndex(TileMath.mercatorX(lng), n) / CELLS_PER_TILE);
+            assertEquals(TileMath.tileY(lat, z), TileMath.cellIndex(TileMath.mercatorY(lat), n) / CELLS_PER_TILE);
+
+            double[] bounds = TileMath.tileBounds(z, TileMath.tileX(lng, z), TileMath.tileY(lat, z));
+            assertTrue(bounds[0] <= lng && lng <= bounds[2] && bounds[1] <= lat && lat <= bounds[3],
+                    lng + "," + lat + " at zoom " + z);
+        }
+    }
+
+    @Test
+    void mercatorRoundTrips() {
+        for (double lat = -85; lat <= 85; lat += 0.5) {
+            assertEquals(lat, TileMath.latitude(TileMath.mercatorY(lat)), 1e-9);
+        }
+        for (double lng = -180; lng <= 180; lng += 7.5) {
+            assertEquals(lng, TileMath.longitude(TileMath.mercatorX(lng)), 1e-9);
+        }
+    }
+
+    @Test
+    void rejectsTilesOutsideTheZoom() {
+        assertThrows(IllegalArgumentException.class, () -> TileMath.validateTile(2, 4, 0));
+        assertThrows(IllegalArgumentException.class, () -> TileMath.validateTile(25, 0, 0));
+    }
+}
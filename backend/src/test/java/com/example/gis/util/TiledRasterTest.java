@@ -0,0 +1,234 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips through the tiled raster file, overviews against 2x2 means, and range reads
+ */
+class TiledRasterTest {
+    private static final int SIZE = TiledRaster.TILE_SIZE;
+    // 3 x 2 tiles at full resolution, the last column partly beyond the raster edge
+    private static final int WIDTH = 2 * SIZE + 88;
+    private static final int HEIGHT = 2 * SIZE;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackEveryCell() throws IOException {
+        float[] cells = cells();
+        TiledRaster raster = write(cells);
+
+        assertEquals(3, raster.getLevels());
+        assertEquals(WIDTH, raster.getGrid().getWidth());
+        assertEquals(HEIGHT, raster.getGrid().getHeight());
+        assertEquals(0.5, raster.getGrid().getCellWidth(), 0.0);
+        for (int ty = 0; ty < 2; ty++) {
+            for (int tx = 0; tx < 3; tx++) {
+                float[] tile = raster.tile(0, tx, ty);
+                if (tx == 1 && ty == 1) {
+                    // No data, so not stored
+                    assertNull(tile);
+                    continue;
+                }
+                for (int r = 0; r < SIZE; r++) {
+                    for (int c = 0; c < SIZE; c++) {
+                        int col = tx * SIZE + c;
+                        float expected = col < WIDTH ? cells[(ty * SIZE + r) * WIDTH + col] : Float.NaN;
+                        assertEquals(expected, tile[r * SIZE + c]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void overviewsAverageTheAvailableCells() throws IOException {
+        TiledRaster raster = write(cells());
+        float[] below = cells();
+        int belowWidth = WIDTH;
+        int belowHeight = HEIGHT;
+
+        for (int level = 1; level < raster.getLevels(); level++) {
+            GridSpec grid = raster.level(level);
+            assertEquals((belowWidth + 1) / 2, grid.getWidth());
+            assertEquals((belowHeight + 1) / 2, grid.getHeight());
+            float[] expected = new float[grid.getWidth() * grid.getHeight()];
+            for (int r = 0; r < grid.getHeight(); r++) {
+                for (int c = 0; c < grid.getWidth(); c++) {
+                    double sum = 0;
+                    int count = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int col = 2 * c + (k & 1);
+                        int row = 2 * r + (k >> 1);
+                        float value = col < belowWidth && row < belowHeight ? below[row * belowWidth + col] : Float.NaN;
+                        if (!Float.isNaN(value)) {
+                            sum += value;
+                            count++;
+                        }
+                    }
+                    expected[r * grid.getWidth() + c] = count > 0 ? (float) (sum / count) : Float.NaN;
+                }
+            }
+            FloatGrid actual = raster.read(level, grid.getMinX(), grid.getMinY(), grid.getMaxX(), grid.getMaxY());
+            assertEquals(grid.getWidth(), actual.getSpec().getWidth());
+            assertArrayEquals(expected, actual.getValues(), 0.25f);
+
+            below = expected;
+            belowWidth = grid.getWidth();
+            belowHeight = grid.getHeight();
+        }
+        // The coarsest level fits in one tile
+        assertTrue(below.length <= SIZE * SIZE);
+    }
+
+    @Test
+    void readsAWindowWithOneCellAround() throws IOException {
+        float[] cells = cells();
+        TiledRaster raster = write(cells);
+        GridSpec grid = raster.getGrid();
+
+        // Cells 250..259 x 10..14, across the first two tiles
+        FloatGrid window = raster.read(0, grid.getMinX() + 250 * 0.5, grid.getMaxY() - 15 * 0.5,
+                grid.getMinX() + 260 * 0.5, grid.getMaxY() - 10 * 0.5);
+
+        assertEquals(12, window.getSpec().getWidth());
+        assertEquals(7, window.getSpec().getHeight());
+        for (int r = 0; r < 7; r++) {
+            for (int c = 0; c < 12; c++) {
+                assertEquals(cells[(9 + r) * WIDTH + 249 + c], window.value(c, r));
+            }
+        }
+        assertNull(raster.read(0, grid.getMaxX() + 10, grid.getMinY(), grid.getMaxX() + 20, grid.getMaxY()));
+    }
+
+    @Test
+    void samplesFromTheLevelMatchingTheResolution() throws IOException {
+        TiledRaster raster = write(cells());
+        GridSpec grid = raster.getGrid();
+
+        assertEquals(0, raster.levelFor(0.5, 0.5));
+        assertEquals(1, raster.levelFor(1.5, 1.5));
+        assertEquals(2, raster.levelFor(100, 100));
+        // Cell centres of the full resolution grid read back their own values
+        GridSpec window = grid.window(300, 20, 5, 3);
+        float[] values = raster.sample(window);
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 5; c++) {
+                assertEquals(value(300 + c, 20 + r), values[r * 5 + c], 1e-3f);
+            }
+        }
+    }
+
+    @Test
+    void readsOnlyTheTilesItNeeds() throws IOException {
+        Path file = writeFile(cells());
+        TiledRaster.ByteSource mapped = TiledRaster.mapped(file);
+        AtomicLong bytes = new AtomicLong();
+        AtomicInteger reads = new AtomicInteger();
+        TiledRaster.ByteSource counting = (offset, length) -> {
+            bytes.addAndGet(length);
+            reads.incrementAndGet();
+            return mapped.read(offset, length);
+        };
+        TileCache cache = new TileCache(1L << 30);
+        TiledRaster raster = TiledRaster.open("counted", counting, cache);
+        long opened = bytes.get();
+
+        float[] first = raster.tile(0, 2, 0);
+        float[] again = raster.tile(0, 2, 0);
+
+        // Header and index on open, then one tile once: the second read comes from the cache
+        assertEquals(3, reads.get());
+        assertTrue(opened < Files.size(file) / 4);
+        assertEquals(opened + 4L * SIZE * SIZE, bytes.get());
+        assertSame(first, again);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void derivedTilesAreComputedOnce() throws IOException {
+        TiledRaster raster = write(cells());
+        AtomicInteger computed = new AtomicInteger();
+        float[] product = new float[4];
+
+        raster.derivedTile("slope", 0, 0, 0, () -> {
+            computed.incrementAndGet();
+            return product;
+        });
+        float[] cached = raster.derivedTile("slope", 0, 0, 0, () -> {
+            computed.incrementAndGet();
+            return new float[4];
+        });
+
+        assertEquals(1, computed.get());
+        assertSame(product, cached);
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("other.bin");
+        byte[] bytes = new byte[4096];
+        Arrays.fill(bytes, (byte) 7);
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> TiledRaster.open("other", TiledRaster.mapped(file), new TileCache(1024)));
+    }
+
+    /**
+     * Distinct, exactly representable values; NaN over the south half of the middle tile column
+     */
+    private static float[] cells() {
+        float[] cells = new float[WIDTH * HEIGHT];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                boolean empty = row >= SIZE && col >= SIZE && col < 2 * SIZE;
+                cells[row * WIDTH + col] = empty ? Float.NaN : value(col, row);
+            }
+        }
+        return cells;
+    }
+
+    private static float value(int col, int row) {
+        return col + 1000f * row;
+    }
+
+    private TiledRaster write(float[] cells) throws IOException {
+        return TiledRaster.open("test", TiledRaster.mapped(writeFile(cells)), new TileCache(1L << 30));
+    }
+
+    private Path writeFile(float[] cells) throws IOException {
+        Path file = directory.resolve("raster.tiled");
+        try (TiledRaster.Writer writer = new TiledRaster.Writer(file, new GridSpec(WIDTH, HEIGHT, 100, 200, 0.5, 0.5))) {
+            for (int ty = 0; ty < 2; ty++) {
+                for (int tx = 0; tx < 3; tx++) {
+                    float[] tile = new float[SIZE * SIZE];
+                    for (int r = 0; r < SIZE; r++) {
+                        for (int c = 0; c < SIZE; c++) {
+                            int col = tx * SIZE + c;
+                            tile[r * SIZE + c] = col < WIDTH ? cells[(ty * SIZE + r) * WIDTH + col] : Float.NaN;
+                        }
+                    }
+                    writer.writeTile(tx, ty, tile);
+                }
+            }
+            writer.finish();
+        }
+        return file;
+    }
+}
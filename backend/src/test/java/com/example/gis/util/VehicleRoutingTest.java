@@ -0,0 +1,269 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Vehicle routes replayed against their constraints, and single-vehicle tours against brute force
+ */
+class VehicleRoutingTest {
+    private static final double EPSILON = 1e-3;
+
+    @Test
+    void visitsStopsOnALineInOrder() {
+        // Stops 0..4 at x = 1..5, start (location 5) at x = 0, one second per unit, open route
+        float[] x = {1, 2, 3, 4, 5, 0};
+        VehicleRouting routing = problem(x, new float[6], new float[6], null, null);
+        routing.addVehicle(5, -1, 100, 0, 1000);
+
+        routing.solve(1000, fraction -> { });
+
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, routing.route(0));
+        assertEquals(5.0, routing.getTotalTravel(), EPSILON);
+        assertArrayEquals(new double[]{1, 2, 3, 4, 5}, routing.serviceStart(0), EPSILON);
+    }
+
+    @Test
+    void timeWindowsReorderTheRoute() {
+        // Stop 0 at x = 1 opens at t = 20, stop 1 at x = 3 closes at t = 3
+        float[] x = {1, 3, 0};
+        float[] earliest = {20, 0, 0};
+        float[] latest = {Float.POSITIVE_INFINITY, 3, Float.POSITIVE_INFINITY};
+        VehicleRouting routing = problem(x, new float[3], new float[3], earliest, latest);
+        routing.addVehicle(2, -1, 100, 0, 1000);
+
+        routing.solve(1000, fraction -> { });
+
+        // Nearest first would reach stop 1 at t = 22
+        assertArrayEquals(new int[]{1, 0}, routing.route(0));
+        assertArrayEquals(new double[]{3, 20}, routing.serviceStart(0), EPSILON);
+        assertFeasible(routing, x.length, 2, travel(x), new float[3], new float[3], earliest, latest,
+                new int[]{2}, new int[]{-1}, new double[]{100}, new double[]{0}, new double[]{1000});
+    }
+
+    @Test
+    void capacityNeedsASecondVehicleAndImpossibleStopsStayUnassigned() {
+        float[] x = {1, 2, 3, 500, 0};
+        float[] demand = {2, 2, 2, 1};
+        VehicleRouting routing = problem(x, new float[5], demand, null, null);
+        routing.addVehicle(4, 4, 4, 0, 100);
+        routing.addVehicle(4, 4, 4, 0, 100);
+
+        routing.solve(1000, fraction -> { });
+
+        // Stop 3 is too far for the shift
+        assertArrayEquals(new int[]{3}, routing.getUnassigned());
+        assertEquals(3, routing.route(0).length + routing.route(1).length);
+        assertTrue(routing.route(0).length > 0 && routing.route(1).length > 0);
+    }
+
+    @Test
+    void randomPlansRespectEveryConstraint() {
+        Random random = new Random(4);
+        for (int round = 0; round < 25; round++) {
+            int stops = 5 + random.nextInt(40);
+            int vehicles = 1 + random.nextInt(4);
+            int size = stops + vehicles;
+            float[] travel = randomTravel(random, size);
+            float[] service = new float[size];
+            float[] demand = new float[size];
+            float[] earliest = new float[size];
+            float[] latest = new float[size];
+            for (int s = 0; s < stops; s++) {
+                service[s] = random.nextInt(60);
+                demand[s] = 1 + random.nextInt(4);
+                earliest[s] = random.nextBoolean() ? random.nextInt(2000) : 0;
+                latest[s] = random.nextBoolean() ? earliest[s] + 200 + random.nextInt(2000) : Float.POSITIVE_INFINITY;
+            }
+            int[] starts = new int[vehicles];
+            int[] ends = new int[vehicles];
+            double[] capacities = new double[vehicles];
+            double[] shiftStarts = new double[vehicles];
+            double[] shiftEnds = new double[vehicles];
+            VehicleRouting routing = new VehicleRouting(travel, size, stops, service, demand, earliest, latest);
+            for (int v = 0; v < vehicles; v++) {
+                starts[v] = stops + v;
+                ends[v] = random.nextBoolean() ? stops + v : -1;
+                capacities[v] = 10 + random.nextInt(30);
+                shiftStarts[v] = random.nextInt(300);
+                shiftEnds[v] = shiftStarts[v] + 2000 + random.nextInt(4000);
+                routing.addVehicle(starts[v], ends[v], capacities[v], shiftStarts[v], shiftEnds[v]);
+            }
+
+            routing.solve(200, fraction -> { });
+
+            assertFeasible(routing, size, stops, travel, service, demand, earliest, latest,
+                    starts, ends, capacities, shiftStarts, shiftEnds);
+        }
+    }
+
+    @Test
+    void singleVehicleToursAreNearOptimal() {
+        Random random = new Random(8);
+        for (int round = 0; round < 20; round++) {
+            int stops = 3 + random.nextInt(5);
+            int size = stops + 1;
+            float[] travel = randomTravel(random, size);
+            VehicleRouting routing = new VehicleRouting(travel, size, stops, new float[size], new float[size],
+                    new float[size], infinite(size));
+            routing.addVehicle(stops, stops, 100, 0, 1e9);
+
+            routing.solve(200, fraction -> { });
+
+            double optimum = bestTour(travel, size, stops);
+            assertEquals(0, routing.getUnassigned().length);
+            assertTrue(routing.getTotalTravel() >= optimum - EPSILON);
+            assertTrue(routing.getTotalTravel() <= optimum * 1.1 + EPSILON,
+                    "round " + round + ": " + routing.getTotalTravel() + " against " + optimum);
+        }
+    }
+
+    @Test
+    void rejectsMismatchedMatrices() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new VehicleRouting(new float[8], 3, 2, new float[3], new float[3], new float[3], new float[3]));
+        VehicleRouting routing = new VehicleRouting(new float[4], 2, 1, new float[2], new float[2], new float[2],
+                new float[2]);
+        assertThrows(IllegalArgumentException.class, () -> routing.addVehicle(2, -1, 1, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> routing.solve(10, fraction -> { }));
+    }
+
+    /**
+     * Replay every route from its vehicle's start and check windows, capacity, shift and the reported figures
+     */
+    private static void assertFeasible(VehicleRouting routing, int size, int stops, float[] travel, float[] service,
+                                       float[] demand, float[] earliest, float[] latest, int[] starts, int[] ends,
+                                       double[] capacities, double[] shiftStarts, double[] shiftEnds) {
+        int[] visits = new int[stops];
+        for (int s : routing.getUnassigned()) {
+            visits[s]++;
+        }
+        double totalTravel = 0;
+        for (int v = 0; v < routing.vehicleCount(); v++) {
+            int[] route = routing.route(v);
+            double[] begins = routing.serviceStart(v);
+            double time = shiftStarts[v];
+            double load = 0;
+            double legs = 0;
+            int at = starts[v];
+            for (int k = 0; k < route.length; k++) {
+                int s = route[k];
+                visits[s]++;
+                double leg = travel[at * size + s];
+                legs += leg;
+                double begin = Math.max(time + leg, earliest[s]);
+                assertTrue(begin <= latest[s] + EPSILON, "vehicle " + v + " late at stop " + s);
+                assertEquals(begin, begins[k], EPSILON);
+                time = begin + service[s];
+                load += demand[s];
+                at = s;
+            }
+            if (ends[v] >= 0 && route.length > 0) {
+                legs += travel[at * size + ends[v]];
+                time += travel[at * size + ends[v]];
+            }
+            assertTrue(load <= capacities[v] + EPSILON, "vehicle " + v + " over capacity");
+            assertTrue(route.length == 0 || time <= shiftEnds[v] + EPSILON, "vehicle " + v + " over its shift");
+            assertEquals(load, routing.routeLoad(v), EPSILON);
+            assertEquals(legs, routing.routeTravel(v), EPSILON * Math.max(1, legs));
+            totalTravel += legs;
+        }
+        for (int s = 0; s < stops; s++) {
+            assertEquals(1, visits[s], "stop " + s + " routed or reported unassigned exactly once");
+        }
+        assertEquals(totalTravel, routing.getTotalTravel(), EPSILON * Math.max(1, totalTravel));
+    }
+
+    private static VehicleRouting problem(float[] x, float[] service, float[] demand, float[] earliest,
+                                          float[] latest) {
+        int size = x.length;
+        int stops = demand.length < size ? demand.length : size - 1;
+        return new VehicleRouting(travel(x), size, stops, service, demand,
+                earliest != null ? earliest : new float[size], latest != null ? latest : infinite(size));
+    }
+
+    private static float[] travel(float[] x) {
+        int size = x.length;
+        float[] travel = new float[size * size];
+        for (int a = 0; a < size; a++) {
+            for (int b = 0; b < size; b++) {
+                travel[a * size + b] = Math.abs(x[a] - x[b]);
+            }
+        }
+        return travel;
+    }
+
+    /**
+     * Euclidean travel times between random points, in seconds
+     */
+    private static float[] randomTravel(Random random, int size) {
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = random.nextDouble() * 600;
+            ys[i] = random.nextDouble() * 600;
+        }
+        float[] travel = new float[size * size];
+        for (int a = 0; a < size; a++) {
+            for (int b = 0; b < size; b++) {
+                travel[a * size + b] = (float) Math.hypot(xs[a] - xs[b], ys[a] - ys[b]);
+            }
+        }
+        return travel;
+    }
+
+    private static float[] infinite(int size) {
+        float[] values = new float[size];
+        Arrays.fill(values, Float.POSITIVE_INFINITY);
+        return values;
+    }
+
+    /**
+     * Shortest round trip from the depot through every stop, over all permutations
+     */
+    private static double bestTour(float[] travel, int size, int stops) {
+        int[] order = new int[stops];
+        for (int i = 0; i < stops; i++) {
+            order[i] = i;
+        }
+        double best = Double.POSITIVE_INFINITY;
+        do {
+            double length = travel[stops * size + order[0]] + travel[order[stops - 1] * size + stops];
+            for (int i = 1; i < stops; i++) {
+                length += travel[order[i - 1] * size + order[i]];
+            }
+            best = Math.min(best, length);
+        } while (nextPermutation(order));
+        return best;
+    }
+
+    private static boolean nextPermutation(int[] values) {
+        int i = values.length - 2;
+        while (i >= 0 && values[i] >= values[i + 1]) {
+            i--;
+        }
+        if (i < 0) {
+            return false;
+        }
+        int j = values.length - 1;
+        while (values[j] <= values[i]) {
+            j--;
+        }
+        int tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+        for (int a = i + 1, b = values.length - 1; a < b; a++, b--) {
+            tmp = values[a];
+            values[a] = values[b];
+            values[b] = tmp;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.gis.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Zonal statistics against a brute-force point-in-polygon test of every cell centre
+ */
+class ZonalStatisticsTest {
+    private static final int SIZE = TiledRaster.TILE_SIZE;
+    // 2 x 2 tiles of 1 x 1 cells from (0, 0) to (300, 300); the south-east tile has no data
+    private static final int EXTENT = 300;
+
+    private final GeometryFactory factory = new GeometryFactory();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void polygonsMatchBruteForce() throws IOException {
+        ZonalStatistics zonal = new ZonalStatistics(open(null), 0, null, 0, 0, 1);
+        Random random = new Random(47);
+
+        for (int trial = 0; trial < 60; trial++) {
+            double cx = random.nextDouble() * EXTENT;
+            double cy = random.nextDouble() * EXTENT;
+            double radius = 3 + random.nextDouble() * 150;
+            List<Coordinate[]> rings = new ArrayList<>();
+            rings.add(star(random, cx, cy, radius));
+            if (trial % 3 == 0) {
+                rings.add(star(random, cx, cy, radius * 0.3));
+            }
+            LinearRing[] holes = new LinearRing[rings.size() - 1];
+            for (int h = 0; h < holes.length; h++) {
+                holes[h] = factory.createLinearRing(rings.get(h + 1));
+            }
+            Polygon polygon = factory.createPolygon(factory.createLinearRing(rings.get(0)), holes);
+
+            ZonalStatistics.Zone zone = zonal.compute(polygon);
+
+            long count = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            boolean anyCentre = false;
+            for (int row = 0; row < EXTENT; row++) {
+                for (int col = 0; col < EXTENT; col++) {
+                    if (!inside(rings, col + 0.5, EXTENT - row - 0.5)) {
+                        continue;
+                    }
+                    anyCentre = true;
+                    float value = value(col, row);
+                    if (!Float.isNaN(value)) {
+                        count++;
+                        sum += value;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                }
+            }
+            if (!anyCentre) {
+                // Falls back to the cell under the interior point
+                assertTrue(zone.getCount() <= 1);
+                continue;
+            }
+            assertEquals(count, zone.getCount());
+            assertEquals(sum, zone.getSum(), 0.0);
+            if (count > 0) {
+                assertEquals(min, zone.getMin(), 0.0);
+                assertEquals(max, zone.getMax(), 0.0);
+            }
+        }
+    }
+
+    @Test
+    void holesAreLeftOut() throws IOException {
+        ZonalStatistics zonal = new ZonalStatistics(open(null), 0, null, 0, 0, 1);
+        Polygon frame = factory.createPolygon(
+                factory.createLinearRing(rectangle(10, 200, 20, 210)),
+                new LinearRing[]{factory.createLinearRing(rectangle(12, 202, 18, 208))});
+
+        ZonalStatistics.Zone zone = zonal.compute(frame);
+
+        assertEquals(10 * 10 - 6 * 6, zone.getCount());
+    }
+
+    @Test
+    void smallPolygonTakesTheCellUnderIt() throws IOException {
+        ZonalStatistics zonal = new ZonalStatistics(open(null), 0, null, 0, 0, 1);
+
+        ZonalStatistics.Zone zone = zonal.compute(factory.createPolygon(rectangle(10.1, 290.1, 10.3, 290.3)));
+
+        assertEquals(1, zone.getCount());
+        assertEquals(value(10, 9), zone.getMean(), 0.0);
+    }
+
+    @Test
+    void linesAndPointsTakeTheCellsTheyTouch() throws IOException {
+        ZonalStatistics zonal = new ZonalStatistics(open(null), 0, null, 0, 0, 1);
+
+        // Row 4 from column 2 to 7, then column 7 down to row 7; the corner cell counts once
+        ZonalStatistics.Zone line = zonal.compute(factory.createLineString(new Coordinate[]{
+                new Coordinate(2.5, 295.5), new Coordinate(7.5, 295.5), new Coordinate(7.5, 292.5)}));
+        double sum = 0;
+        for (int col = 2; col <= 7; col++) {
+            sum += value(col, 4);
+        }
+        for (int row = 5; row <= 7; row++) {
+            sum += value(7, row);
+        }
+        assertEquals(9, line.getCount());
+        assertEquals(sum, line.getSum(), 0.0);
+
+        ZonalStatistics.Zone point = zonal.compute(factory.createPoint(new Coordinate(100.7, 50.2)));
+        assertEquals(1, point.getCount());
+        assertEquals(value(100, 249), point.getMean(), 0.0);
+
+        ZonalStatistics.Zone outside = zonal.compute(factory.createPoint(new Coordinate(-5, 50)));
+        assertEquals(0, outside.getCount());
+        assertTrue(Double.isNaN(outside.getMean()));
+    }
+
+    @Test
+    void histogramClampsToTheEndBins() throws IOException {
+        // Cells 0..9 of the top row hold the values 0..9
+        ZonalStatistics zonal = new ZonalStatistics(open(null), 0, null, 3, 2, 8);
+
+        ZonalStatistics.Zone zone = zonal.compute(factory.createPolygon(rectangle(0, 299.2, 10, 300)));
+
+        assertEquals(10, zone.getCount());
+        assertArrayEquals(new long[]{4, 2, 4}, zone.getHistogram());
+    }
+
+    @Test
+    void readsOnlyTheTilesUnderThePolygon() throws IOException {
+        AtomicInteger reads = new AtomicInteger();
+        ZonalStatistics zonal = new ZonalStatistics(open(reads), 0, null, 0, 0, 1);
+        int opened = reads.get();
+
+        ZonalStatistics.Zone inTile = zonal.compute(factory.createPolygon(rectangle(20, 200, 120, 280)));
+        ZonalStatistics.Zone noData = zonal.compute(factory.createPolygon(rectangle(260, 5, 290, 40)));
+
+        assertEquals(100 * 80, inTile.getCount());
+        assertEquals(1, reads.get() - opened);
+        assertEquals(0, noData.getCount());
+        assertTrue(Double.isNaN(noData.getMax()));
+    }
+
+    private static float value(int col, int row) {
+        return col >= SIZE && row >= SIZE ? Float.NaN : col + 1000f * row;
+    }
+
+    /**
+     * Even-odd rule with the sweep's conventions: an edge crosses y when bottom <= y < top, and a
+     * centre on a crossing is inside
+     */
+    private static boolean inside(List<Coordinate[]> rings, double x, double y) {
+        boolean inside = false;
+        for (Coordinate[] ring : rings) {
+            for (int i = 0; i + 1 < ring.length; i++) {
+                Coordinate a = ring[i];
+                Coordinate b = ring[i + 1];
+                if ((a.y <= y && y < b.y) || (b.y <= y && y < a.y)) {
+                    double crossing = a.x + (y - a.y) * (b.x - a.x) / (b.y - a.y);
+                    if (crossing <= x) {
+                        inside = !inside;
+                    }
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Closed ring of random radii at increasing angles, so concave but simple
+     */
+    private static Coordinate[] star(Random random, double cx, double cy, double radius) {
+        int n = 5 + random.nextInt(8);
+        Coordinate[] ring = new Coordinate[n + 1];
+        for (int i = 0; i < n; i++) {
+            double angle = 2 * Math.PI * (i + random.nextDouble() * 0.8) / n;
+            double r = radius * (0.4 + 0.6 * random.nextDouble());
+            ring[i] = new Coordinate(cx + r * Math.cos(angle), cy + r * Math.sin(angle));
+        }
+        ring[n] = ring[0];
+        return ring;
+    }
+
+    private static Coordinate[] rectangle(double minX, double minY, double maxX, double maxY) {
+        return new Coordinate[]{new Coordinate(minX, minY), new Coordinate(maxX, minY),
+                new Coordinate(maxX, maxY), new Coordinate(minX, maxY), new Coordinate(minX, minY)};
+    }
+
+    /**
+     * Store the test raster and open it, counting the reads when a counter is given
+     */
+    private TiledRaster open(AtomicInteger reads) throws IOException {
+        Path file = directory.resolve("zonal.tiled");
+        try (TiledRaster.Writer writer = new TiledRaster.Writer(file, new GridSpec(EXTENT, EXTENT, 0, EXTENT, 1, 1))) {
+            for (int ty = 0; ty < 2; ty++) {
+                for (int tx = 0; tx < 2; tx++) {
+                    float[] tile = new float[SIZE * SIZE];
+                    for (int r = 0; r < SIZE; r++) {
+                        for (int c = 0; c < SIZE; c++) {
+                            int col = tx * SIZE + c;
+                            int row = ty * SIZE + r;
+                            tile[r * SIZE + c] = col < EXTENT && row < EXTENT ? value(col, row) : Float.NaN;
+                        }
+                    }
+                    writer.writeTile(tx, ty, tile);
+                }
+            }
+            writer.finish();
+        }
+        TiledRaster.ByteSource source = TiledRaster.mapped(file);
+        TiledRaster.ByteSource counted = reads == null ? source : (offset, length) -> {
+            reads.incrementAndGet();
+            return source.read(offset, length);
+        };
+        return TiledRaster.open("zonal", counted, new TileCache(1L << 30));
+    }
+}